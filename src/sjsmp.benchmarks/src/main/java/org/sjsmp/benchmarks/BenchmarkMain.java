@@ -0,0 +1,28 @@
+package org.sjsmp.benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks selected on the command line (all by default) with the GC profiler,
+ * so every result comes with its allocation rate. Accepts the usual JMH options.
+ */
+public final class BenchmarkMain
+{
+    private BenchmarkMain()
+    {
+    }
+
+    public static void main(final String[] args) throws RunnerException, CommandLineOptionException
+    {
+        final CommandLineOptions commandLine = new CommandLineOptions(args);
+        new Runner(new OptionsBuilder()
+            .parent(commandLine)
+            .addProfiler(GCProfiler.class)
+            .build()).run();
+    }
+}
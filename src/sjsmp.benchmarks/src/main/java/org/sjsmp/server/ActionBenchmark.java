@@ -0,0 +1,52 @@
+package org.sjsmp.server;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Parameter;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * ActionDescription.Call: argument decoding and the invocation itself
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ActionBenchmark
+{
+    private final BenchmarkObject m_object = new BenchmarkObject();
+    private final Map<String, Object> m_parameters = new HashMap<>();
+    private ActionDescription m_action;
+
+    @Setup
+    public void Setup() throws SjsmpServerException, NoSuchMethodException
+    {
+        m_action = new ObjectDescription(m_object, "o", "benchmark", "", new ClassDescription(BenchmarkObject.class)).actions.get("add");
+
+        //names are "arg0"... unless the module is compiled with -parameters
+        final Method method = BenchmarkObject.class.getMethod("add", int.class, long.class);
+        final Parameter[] parameters = method.getParameters();
+        m_parameters.put(parameters[0].getName(), Long.valueOf(20));
+        m_parameters.put(parameters[1].getName(), Long.valueOf(22));
+    }
+
+    @Benchmark
+    public Object Call() throws SjsmpServerException
+    {
+        return m_action.Call(m_object, m_parameters);
+    }
+}
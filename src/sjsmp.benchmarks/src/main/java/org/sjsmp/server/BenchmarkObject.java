@@ -0,0 +1,44 @@
+package org.sjsmp.server;
+
+/**
+ * Managed object used by the benchmarks; covers primitive, boxed and string properties and an action with parameters
+ */
+public final class BenchmarkObject
+{
+    private int m_intValue = 42;
+    private long m_longValue = 1L << 40;
+    private double m_doubleValue = 3.25;
+    private String m_stringValue = "benchmark";
+    private Integer m_boxedValue = 7;
+    private boolean m_flag = true;
+
+    @SjsmpProperty("int value")
+    public int getIntValue() { return m_intValue; }
+    public void setIntValue(int value) { m_intValue = value; }
+
+    //no history, 100k registered objects would keep 100k sample buffers
+    @SjsmpProperty(value = "long value", showGraph = true)
+    public long getLongValue() { return m_longValue; }
+    public void setLongValue(long value) { m_longValue = value; }
+
+    @SjsmpProperty("double value")
+    public double getDoubleValue() { return m_doubleValue; }
+    public void setDoubleValue(double value) { m_doubleValue = value; }
+
+    @SjsmpProperty("string value")
+    public String getStringValue() { return m_stringValue; }
+    public void setStringValue(String value) { m_stringValue = value; }
+
+    @SjsmpProperty("boxed value")
+    public Integer getBoxedValue() { return m_boxedValue; }
+
+    @SjsmpProperty("flag")
+    public boolean getFlag() { return m_flag; }
+    public void setFlag(boolean value) { m_flag = value; }
+
+    @SjsmpAction("adds two numbers")
+    public long add(final int a, final long b)
+    {
+        return a + b;
+    }
+}
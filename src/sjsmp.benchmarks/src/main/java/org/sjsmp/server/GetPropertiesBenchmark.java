@@ -0,0 +1,90 @@
+package org.sjsmp.server;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Full 'get_properties' response of one object and of the whole registry, from parsed request to response bytes
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GetPropertiesBenchmark
+{
+    @Param({"100", "10000"})
+    public int objects;
+
+    @Param({"false", "true"})
+    public boolean instrumentation;
+
+    private SjsmpServer m_server;
+    private RequestCommandWrapper m_oneObject;
+    private RequestCommandWrapper m_allObjects;
+
+    @Setup
+    public void Setup() throws IOException, SjsmpServerException, SjsmpArgumentException
+    {
+        m_server = new SjsmpServer("benchmark", "benchmark", "", 0, 0, null, null, new SjsmpServerOptions().SetInstrumentation(instrumentation));
+        for (int i = 0; i < objects; ++i)
+        {
+            m_server.RegisterObject(new BenchmarkObject(), "o" + i, "benchmark", "group", false);
+        }
+        m_oneObject = Parse("{\"request_id\":\"1\",\"action\":\"get_properties\",\"object_name\":\"o0\"}");
+        m_allObjects = Parse("{\"request_id\":\"2\",\"action\":\"get_properties\"}");
+    }
+
+    @TearDown
+    public void TearDown()
+    {
+        m_server.close();
+    }
+
+    @Benchmark
+    public int OneObject() throws SjsmpArgumentException, SjsmpServerException
+    {
+        return Run(m_oneObject);
+    }
+
+    @Benchmark
+    public int AllObjects() throws SjsmpArgumentException, SjsmpServerException
+    {
+        return Run(m_allObjects);
+    }
+
+    private int Run(final RequestCommandWrapper command) throws SjsmpArgumentException, SjsmpServerException
+    {
+        final JsonWriter writer = JsonWriter.Acquire();
+        try
+        {
+            m_server.ProcessCommand(command, writer);
+            return writer.Length();
+        }
+        finally
+        {
+            JsonWriter.Release(writer);
+        }
+    }
+
+    private static RequestCommandWrapper Parse(final String text) throws SjsmpArgumentException
+    {
+        final byte[] body = text.getBytes(StandardCharsets.UTF_8);
+        return new RequestCommandWrapper(new JsonReader(body, 0, body.length));
+    }
+}
@@ -0,0 +1,73 @@
+package org.sjsmp.server;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * PropertyDescription.GetValue/SetValue on primitive, boxed and string properties
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PropertyBenchmark
+{
+    private final BenchmarkObject m_object = new BenchmarkObject();
+    //JSON numbers are decoded as Long, so setters get them the same way
+    private final Object m_newIntValue = Long.valueOf(43);
+    private final Object m_newStringValue = "changed";
+    private PropertyDescription m_intProperty;
+    private PropertyDescription m_boxedProperty;
+    private PropertyDescription m_stringProperty;
+
+    @Setup
+    public void Setup() throws SjsmpServerException
+    {
+        final ObjectDescription descr = new ObjectDescription(m_object, "o", "benchmark", "", new ClassDescription(BenchmarkObject.class));
+        m_intProperty = descr.properties.get("IntValue");
+        m_boxedProperty = descr.properties.get("BoxedValue");
+        m_stringProperty = descr.properties.get("StringValue");
+    }
+
+    @Benchmark
+    public Object GetInt() throws SjsmpServerException
+    {
+        return m_intProperty.GetValue(m_object);
+    }
+
+    @Benchmark
+    public Object GetBoxed() throws SjsmpServerException
+    {
+        return m_boxedProperty.GetValue(m_object);
+    }
+
+    @Benchmark
+    public Object GetString() throws SjsmpServerException
+    {
+        return m_stringProperty.GetValue(m_object);
+    }
+
+    @Benchmark
+    public void SetInt() throws SjsmpServerException
+    {
+        m_intProperty.SetValue(m_object, m_newIntValue);
+    }
+
+    @Benchmark
+    public void SetString() throws SjsmpServerException
+    {
+        m_stringProperty.SetValue(m_object, m_newStringValue);
+    }
+}
@@ -0,0 +1,41 @@
+package org.sjsmp.server;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * ObjectDescription construction, the per-object part of RegisterObject
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RegistrationBenchmark
+{
+    private final BenchmarkObject m_object = new BenchmarkObject();
+    private final ClassDescriptionCache m_classes = new ClassDescriptionCache(null);
+    private final ClassDescriptionCache m_instrumentedClasses = new ClassDescriptionCache(new Instrumentation());
+
+    @Benchmark
+    public ObjectDescription Describe() throws SjsmpServerException
+    {
+        return new ObjectDescription(m_object, "o", "benchmark", "group", m_classes.ForClass(m_object.getClass()));
+    }
+
+    @Benchmark
+    public ObjectDescription DescribeInstrumented() throws SjsmpServerException
+    {
+        return new ObjectDescription(m_object, "o", "benchmark", "group", m_instrumentedClasses.ForClass(m_object.getClass()));
+    }
+}
@@ -0,0 +1,72 @@
+package org.sjsmp.server;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * RequestCommandWrapper parsing of typical request bodies
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RequestParsingBenchmark
+{
+    private final byte[] m_getProperties = Bytes("{\"request_id\":\"17\",\"action\":\"get_properties\",\"object_name\":\"o1\"}");
+    private final byte[] m_execute = Bytes("{\"request_id\":\"18\",\"action\":\"execute\",\"object_name\":\"o1\",\"action_name\":\"add\",\"parameters\":{\"a\":20,\"b\":22}}");
+    private final byte[] m_batch = Batch(10);
+
+    @Benchmark
+    public RequestCommandWrapper GetProperties() throws SjsmpArgumentException
+    {
+        return Parse(m_getProperties);
+    }
+
+    @Benchmark
+    public RequestCommandWrapper Execute() throws SjsmpArgumentException
+    {
+        return Parse(m_execute);
+    }
+
+    @Benchmark
+    public RequestCommandWrapper Batch10() throws SjsmpArgumentException
+    {
+        return Parse(m_batch);
+    }
+
+    private static RequestCommandWrapper Parse(final byte[] body) throws SjsmpArgumentException
+    {
+        return new RequestCommandWrapper(new JsonReader(body, 0, body.length));
+    }
+
+    private static byte[] Batch(final int entries)
+    {
+        final StringBuilder builder = new StringBuilder("{\"request_id\":\"19\",\"action\":\"batch\",\"commands\":[");
+        for (int i = 0; i < entries; ++i)
+        {
+            if (i > 0)
+            {
+                builder.append(',');
+            }
+            builder.append("{\"action\":\"set_property\",\"object_name\":\"o").append(i).append("\",\"property_name\":\"IntValue\",\"value\":").append(i).append('}');
+        }
+        return Bytes(builder.append("]}").toString());
+    }
+
+    private static byte[] Bytes(final String text)
+    {
+        return text.getBytes(StandardCharsets.UTF_8);
+    }
+}
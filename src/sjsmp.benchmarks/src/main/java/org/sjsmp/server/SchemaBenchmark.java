@@ -0,0 +1,80 @@
+package org.sjsmp.server;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Schema rebuild after a registry change, at different registry sizes
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SchemaBenchmark
+{
+    @Param({"10", "1000", "100000"})
+    public int objects;
+
+    private final BenchmarkObject m_extra = new BenchmarkObject();
+    private SjsmpServer m_server;
+    private boolean m_extraRegistered;
+
+    @Setup
+    public void Setup() throws IOException, SjsmpServerException
+    {
+        m_server = new SjsmpServer("benchmark", "benchmark", "", 0, 0, null, null, new SjsmpServerOptions().SetInstrumentation(false));
+        for (int i = 0; i < objects; ++i)
+        {
+            m_server.RegisterObject(new BenchmarkObject(), "o" + i, "benchmark", "group", false);
+        }
+    }
+
+    @TearDown
+    public void TearDown()
+    {
+        m_server.close();
+    }
+
+    /**
+     * Registers or unregisters one object, so every call rebuilds the schema
+     */
+    @Benchmark
+    public SchemaSnapshot Rebuild() throws SjsmpServerException
+    {
+        if (m_extraRegistered)
+        {
+            m_server.UnRegisterObject(m_extra, false);
+        }
+        else
+        {
+            m_server.RegisterObject(m_extra, "extra", "benchmark", "group", false);
+        }
+        m_extraRegistered = !m_extraRegistered;
+        return m_server.GetSchema();
+    }
+
+    /**
+     * Schema request without registry changes
+     */
+    @Benchmark
+    public SchemaSnapshot Cached()
+    {
+        return m_server.GetSchema();
+    }
+}
@@ -0,0 +1,504 @@
+package org.sjsmp.client;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * One keep-alive HTTP/1.1 connection. Requests are written in order, possibly before earlier responses arrive,
+ * and responses are matched to them in the same order. Used only by the event loop thread.
+ */
+final class ClientConnection
+{
+    private static final int INITIAL_BUFFER_SIZE = 16 * 1024;
+    private static final int MAX_HEAD_SIZE = 64 * 1024;
+
+    private static final int BODY_LENGTH = 0;
+    private static final int BODY_CHUNKED = 1;
+    private static final int BODY_UNTIL_CLOSE = 2;
+
+    private final ConnectionPool m_pool;
+    private final SjsmpClientOptions m_options;
+    private final SocketChannel m_channel;
+    private final SelectionKey m_key;
+    private final long m_connectDeadline;
+    private final ArrayDeque<PendingRequest> m_inFlight = new ArrayDeque<>();
+    private final ArrayDeque<ByteBuffer> m_output = new ArrayDeque<>();
+    private boolean m_connected;
+    private boolean m_closed;
+    /** server announced 'Connection: close', no more requests go to this connection */
+    private boolean m_closing;
+    private int m_responses;
+    private long m_lastActivity;
+
+    //response being read; m_in always starts at its first byte
+    private byte[] m_in = new byte[INITIAL_BUFFER_SIZE];
+    private int m_inLength;
+    private int m_bodyStart = -1;
+    private int m_status;
+    private Map<String, String> m_headers;
+    private int m_bodyMode;
+    private int m_contentLength;
+
+    public ClientConnection(final ConnectionPool pool, final Selector selector, final InetSocketAddress address, final SjsmpClientOptions options) throws IOException
+    {
+        this.m_pool = pool;
+        this.m_options = options;
+        this.m_lastActivity = System.currentTimeMillis();
+        this.m_connectDeadline = m_lastActivity + options.GetConnectTimeoutMillis();
+
+        m_channel = SocketChannel.open();
+        try
+        {
+            m_channel.configureBlocking(false);
+            m_channel.socket().setTcpNoDelay(true);
+            m_connected = m_channel.connect(address);
+            m_key = m_channel.register(selector, m_connected ? SelectionKey.OP_READ : SelectionKey.OP_CONNECT, this);
+        }
+        catch (IOException | RuntimeException ex)
+        {
+            m_channel.close();
+            throw ex;
+        }
+    }
+
+    public boolean CanSend()
+    {
+        return !m_closed && !m_closing;
+    }
+
+    public int InFlight()
+    {
+        return m_inFlight.size();
+    }
+
+    public void Send(final PendingRequest request)
+    {
+        m_inFlight.add(request);
+        m_output.add(ByteBuffer.wrap(request.data));
+        if (m_connected)
+        {
+            try
+            {
+                Flush();
+            }
+            catch (SjsmpClientException | CancelledKeyException ex)
+            {
+                Fail(ex);
+            }
+            catch (IOException ex)
+            {
+                Retry(ex);
+            }
+        }
+    }
+
+    public void OnSelected()
+    {
+        try
+        {
+            if (m_key.isConnectable())
+            {
+                m_channel.finishConnect();
+                m_connected = true;
+                m_lastActivity = System.currentTimeMillis();
+                m_key.interestOps(SelectionKey.OP_READ);
+                Flush();
+            }
+            if (m_key.isValid() && m_key.isWritable())
+            {
+                Flush();
+            }
+            if (m_key.isValid() && m_key.isReadable())
+            {
+                Read();
+            }
+        }
+        catch (SjsmpClientException | CancelledKeyException ex)
+        {
+            Fail(ex);
+        }
+        catch (IOException ex)
+        {
+            Retry(ex);
+        }
+    }
+
+    /**
+     * Fails timed out requests and closes idle connections
+     */
+    public void Tick(final long now)
+    {
+        if (m_closed)
+        {
+            return;
+        }
+        if (!m_connected && now > m_connectDeadline)
+        {
+            Fail(new SocketTimeoutException("Connect timed out"));
+        }
+        else if (!m_inFlight.isEmpty() && now > m_inFlight.peek().deadline)
+        {
+            //the connection is in an unknown state after a lost response, so it is not reused
+            Fail(new SocketTimeoutException("Request timed out"));
+        }
+        else if (m_inFlight.isEmpty() && now - m_lastActivity > m_options.GetIdleConnectionTimeoutSeconds() * 1000L)
+        {
+            Close();
+            m_pool.Closed(this, null);
+        }
+    }
+
+    /**
+     * Fails all requests and closes the connection
+     */
+    public void Fail(final Throwable ex)
+    {
+        if (m_closed)
+        {
+            return;
+        }
+        Close();
+        for (final PendingRequest request : m_inFlight)
+        {
+            request.Fail(ex);
+        }
+        m_inFlight.clear();
+        m_pool.Closed(this, null);
+    }
+
+    private void Close()
+    {
+        m_closed = true;
+        m_key.cancel();
+        try
+        {
+            m_channel.close();
+        }
+        catch (IOException ex)
+        {
+            //nothing to do
+        }
+    }
+
+    private void Flush() throws IOException
+    {
+        while (!m_output.isEmpty())
+        {
+            final ByteBuffer buffer = m_output.peek();
+            m_channel.write(buffer);
+            if (buffer.hasRemaining())
+            {
+                break;
+            }
+            m_output.poll();
+        }
+        m_key.interestOps(m_output.isEmpty() ? SelectionKey.OP_READ : SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+    }
+
+    private void Read() throws IOException
+    {
+        while (!m_closed)
+        {
+            if (m_inLength == m_in.length)
+            {
+                if (m_in.length >= m_options.GetMaxResponseBytes() + MAX_HEAD_SIZE)
+                {
+                    throw new SjsmpClientException("Response is larger than " + m_options.GetMaxResponseBytes() + " bytes");
+                }
+                m_in = Arrays.copyOf(m_in, m_in.length * 2);
+            }
+            final int count = m_channel.read(ByteBuffer.wrap(m_in, m_inLength, m_in.length - m_inLength));
+            if (count < 0)
+            {
+                OnEndOfStream();
+                return;
+            }
+            if (count == 0)
+            {
+                return;
+            }
+            m_inLength += count;
+            m_lastActivity = System.currentTimeMillis();
+            final int responses = m_responses;
+            while (!m_closed && TryCompleteResponse(false))
+            {
+            }
+            if (m_closing && m_inFlight.isEmpty())
+            {
+                Close();
+                m_pool.Closed(this, null);
+            }
+            else if (m_responses != responses && !m_closed)
+            {
+                m_pool.Dispatch();
+            }
+        }
+    }
+
+    private void OnEndOfStream() throws IOException
+    {
+        if (m_inLength > 0)
+        {
+            TryCompleteResponse(true);
+        }
+        Retry(new SjsmpClientException("Connection closed by the server"));
+    }
+
+    /**
+     * Closes the connection broken by the server. A request on a reused connection may meet the server closing it
+     * for idleness; such requests got no response and are sent again once, the others fail with {@code ex}.
+     */
+    private void Retry(final IOException ex)
+    {
+        if (m_closed)
+        {
+            return;
+        }
+        final List<PendingRequest> retry = new ArrayList<>();
+        boolean first = true;
+        for (final PendingRequest request : m_inFlight)
+        {
+            final boolean partialResponse = first && m_inLength > 0;
+            if (!partialResponse && !request.retried && (m_responses > 0 || m_closing))
+            {
+                request.retried = true;
+                retry.add(request);
+            }
+            else
+            {
+                request.Fail(ex);
+            }
+            first = false;
+        }
+        m_inFlight.clear();
+        Close();
+        m_pool.Closed(this, retry);
+    }
+
+    /**
+     * @return true if a whole response was read and removed from the buffer
+     */
+    private boolean TryCompleteResponse(final boolean endOfStream) throws IOException
+    {
+        if (m_bodyStart < 0 && !ParseHead())
+        {
+            return false;
+        }
+
+        final byte[] body;
+        final int end;
+        switch (m_bodyMode)
+        {
+        case BODY_LENGTH:
+            if (m_inLength - m_bodyStart < m_contentLength)
+            {
+                return false;
+            }
+            end = m_bodyStart + m_contentLength;
+            body = Arrays.copyOfRange(m_in, m_bodyStart, end);
+            break;
+        case BODY_CHUNKED:
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            end = DecodeChunked(out);
+            if (end < 0)
+            {
+                return false;
+            }
+            body = out.toByteArray();
+            break;
+        default:
+            if (!endOfStream)
+            {
+                return false;
+            }
+            end = m_inLength;
+            body = Arrays.copyOfRange(m_in, m_bodyStart, end);
+            break;
+        }
+
+        final int status = m_status;
+        final Map<String, String> headers = m_headers;
+        System.arraycopy(m_in, end, m_in, 0, m_inLength - end);
+        m_inLength -= end;
+        m_bodyStart = -1;
+        m_headers = null;
+
+        if (status >= 100 && status < 200)
+        {
+            //interim response, the final one follows
+            return true;
+        }
+
+        final PendingRequest request = m_inFlight.poll();
+        if (request == null)
+        {
+            throw new SjsmpClientException("Response without a request");
+        }
+        ++m_responses;
+        if ("close".equalsIgnoreCase(headers.get("connection")) || m_bodyMode == BODY_UNTIL_CLOSE)
+        {
+            m_closing = true;
+        }
+        request.future.complete(new HttpResponse(status, headers, body));
+        return true;
+    }
+
+    /**
+     * @return false if the head is not complete yet
+     */
+    private boolean ParseHead() throws IOException
+    {
+        final int headEnd = IndexOf(m_in, 0, m_inLength, "\r\n\r\n");
+        if (headEnd < 0)
+        {
+            if (m_inLength > MAX_HEAD_SIZE)
+            {
+                throw new SjsmpClientException("Response head is too large");
+            }
+            return false;
+        }
+
+        final String[] lines = new String(m_in, 0, headEnd, StandardCharsets.ISO_8859_1).split("\r\n");
+        final String[] statusLine = lines[0].split(" ", 3);
+        if (statusLine.length < 2 || !statusLine[0].startsWith("HTTP/"))
+        {
+            throw new SjsmpClientException("Bad status line '" + lines[0] + "'");
+        }
+        try
+        {
+            m_status = Integer.parseInt(statusLine[1]);
+        }
+        catch (NumberFormatException ex)
+        {
+            throw new SjsmpClientException("Bad status line '" + lines[0] + "'", ex);
+        }
+
+        m_headers = new HashMap<>();
+        for (int i = 1; i < lines.length; ++i)
+        {
+            final int colon = lines[i].indexOf(':');
+            if (colon > 0)
+            {
+                m_headers.put(lines[i].substring(0, colon).trim().toLowerCase(), lines[i].substring(colon + 1).trim());
+            }
+        }
+        m_bodyStart = headEnd + 4;
+
+        final String transferEncoding = m_headers.get("transfer-encoding");
+        final String contentLength = m_headers.get("content-length");
+        if (m_status == 204 || m_status == 304 || (m_status >= 100 && m_status < 200))
+        {
+            m_bodyMode = BODY_LENGTH;
+            m_contentLength = 0;
+        }
+        else if (transferEncoding != null && transferEncoding.toLowerCase().contains("chunked"))
+        {
+            m_bodyMode = BODY_CHUNKED;
+        }
+        else if (contentLength != null)
+        {
+            m_bodyMode = BODY_LENGTH;
+            try
+            {
+                m_contentLength = Integer.parseInt(contentLength);
+            }
+            catch (NumberFormatException ex)
+            {
+                throw new SjsmpClientException("Bad Content-Length '" + contentLength + "'", ex);
+            }
+            if (m_contentLength < 0 || m_contentLength > m_options.GetMaxResponseBytes())
+            {
+                throw new SjsmpClientException("Response is larger than " + m_options.GetMaxResponseBytes() + " bytes");
+            }
+        }
+        else
+        {
+            m_bodyMode = BODY_UNTIL_CLOSE;
+        }
+        return true;
+    }
+
+    /**
+     * @return end of the chunked body in m_in or -1 if it is not complete yet
+     */
+    private int DecodeChunked(final ByteArrayOutputStream out) throws IOException
+    {
+        int position = m_bodyStart;
+        while (true)
+        {
+            final int lineEnd = IndexOf(m_in, position, m_inLength, "\r\n");
+            if (lineEnd < 0)
+            {
+                return -1;
+            }
+            String sizeText = new String(m_in, position, lineEnd - position, StandardCharsets.ISO_8859_1);
+            final int extension = sizeText.indexOf(';');
+            if (extension >= 0)
+            {
+                sizeText = sizeText.substring(0, extension);
+            }
+            final int size;
+            try
+            {
+                size = Integer.parseInt(sizeText.trim(), 16);
+            }
+            catch (NumberFormatException ex)
+            {
+                throw new SjsmpClientException("Bad chunk size '" + sizeText + "'", ex);
+            }
+            position = lineEnd + 2;
+
+            if (size == 0)
+            {
+                //trailer section ends with an empty line
+                if (m_inLength - position >= 2 && m_in[position] == '\r' && m_in[position + 1] == '\n')
+                {
+                    return position + 2;
+                }
+                final int trailerEnd = IndexOf(m_in, position, m_inLength, "\r\n\r\n");
+                return trailerEnd < 0 ? -1 : trailerEnd + 4;
+            }
+            if (size < 0 || out.size() + size > m_options.GetMaxResponseBytes())
+            {
+                throw new SjsmpClientException("Response is larger than " + m_options.GetMaxResponseBytes() + " bytes");
+            }
+            if (m_inLength - position < size + 2)
+            {
+                return -1;
+            }
+            out.write(m_in, position, size);
+            position += size + 2;
+        }
+    }
+
+    private static int IndexOf(final byte[] data, final int from, final int to, final String pattern)
+    {
+        outer:
+        for (int i = from; i <= to - pattern.length(); ++i)
+        {
+            for (int j = 0; j < pattern.length(); ++j)
+            {
+                if (data[i + j] != pattern.charAt(j))
+                {
+                    continue outer;
+                }
+            }
+            return i;
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,214 @@
+package org.sjsmp.client;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Single selector thread serving the connections of all endpoints of a client
+ */
+final class ClientEventLoop implements Runnable
+{
+    private static final Logger s_logger = LoggerFactory.getLogger(ClientEventLoop.class);
+    private static final long TICK_MILLIS = 100;
+
+    private final Selector m_selector;
+    private final Thread m_thread;
+    private final ConcurrentLinkedQueue<Runnable> m_tasks = new ConcurrentLinkedQueue<>();
+    private final List<ConnectionPool> m_pools = new ArrayList<>();
+    private final PriorityQueue<Timer> m_timers = new PriorityQueue<>();
+    private volatile boolean m_closed;
+    /** guarded by this; no more tasks are accepted */
+    private boolean m_stopped;
+
+    public ClientEventLoop() throws IOException
+    {
+        m_selector = Selector.open();
+        m_thread = new Thread(this, "SjsmpClient");
+        m_thread.setDaemon(true);
+        m_thread.start();
+    }
+
+    Selector Selector()
+    {
+        return m_selector;
+    }
+
+    /**
+     * Runs the task on the loop thread
+     * @return false if the loop has stopped and the task will not run
+     */
+    public synchronized boolean Execute(final Runnable task)
+    {
+        if (m_stopped)
+        {
+            return false;
+        }
+        m_tasks.add(task);
+        m_selector.wakeup();
+        return true;
+    }
+
+    /**
+     * Must be called on the loop thread; timers still pending when the client closes run at once
+     */
+    public void Schedule(final Runnable task, final long delayMillis)
+    {
+        m_timers.add(new Timer(System.currentTimeMillis() + delayMillis, task));
+    }
+
+    public boolean InLoop()
+    {
+        return Thread.currentThread() == m_thread;
+    }
+
+    /**
+     * Must be called on the loop thread
+     */
+    public ConnectionPool NewPool(final InetSocketAddress address, final SjsmpClientOptions options)
+    {
+        final ConnectionPool pool = new ConnectionPool(this, address, options);
+        m_pools.add(pool);
+        if (m_closed)
+        {
+            pool.Close(new SjsmpClientException("Client is closed"));
+        }
+        return pool;
+    }
+
+    public void Close()
+    {
+        m_closed = true;
+        m_selector.wakeup();
+        if (!InLoop())
+        {
+            try
+            {
+                m_thread.join();
+            }
+            catch (InterruptedException ex)
+            {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    @Override
+    public void run()
+    {
+        long nextTick = System.currentTimeMillis() + TICK_MILLIS;
+        try
+        {
+            while (!m_closed)
+            {
+                RunTasks();
+                final long wakeAt = m_timers.isEmpty() ? nextTick : Math.min(nextTick, m_timers.peek().time);
+                m_selector.select(Math.max(1, wakeAt - System.currentTimeMillis()));
+
+                final Iterator<SelectionKey> keys = m_selector.selectedKeys().iterator();
+                while (keys.hasNext())
+                {
+                    final SelectionKey key = keys.next();
+                    keys.remove();
+                    if (key.isValid())
+                    {
+                        ((ClientConnection)key.attachment()).OnSelected();
+                    }
+                }
+
+                final long now = System.currentTimeMillis();
+                while (!m_timers.isEmpty() && m_timers.peek().time <= now)
+                {
+                    RunTask(m_timers.poll().task);
+                }
+                if (now >= nextTick)
+                {
+                    nextTick = now + TICK_MILLIS;
+                    for (final ConnectionPool pool : m_pools)
+                    {
+                        pool.Tick(now);
+                    }
+                }
+            }
+        }
+        catch (IOException | RuntimeException ex)
+        {
+            s_logger.error("Client event loop failed", ex);
+            m_closed = true;
+        }
+        finally
+        {
+            final SjsmpClientException ex = new SjsmpClientException("Client is closed");
+            for (final ConnectionPool pool : m_pools)
+            {
+                pool.Close(ex);
+            }
+            synchronized (this)
+            {
+                m_stopped = true;
+            }
+            //tasks queued before stopping and pending timers run against closed pools and fail their requests
+            RunTasks();
+            while (!m_timers.isEmpty())
+            {
+                RunTask(m_timers.poll().task);
+            }
+            try
+            {
+                m_selector.close();
+            }
+            catch (IOException e)
+            {
+                //nothing to do
+            }
+        }
+    }
+
+    private void RunTasks()
+    {
+        Runnable task;
+        while ((task = m_tasks.poll()) != null)
+        {
+            RunTask(task);
+        }
+    }
+
+    private static void RunTask(final Runnable task)
+    {
+        try
+        {
+            task.run();
+        }
+        catch (RuntimeException ex)
+        {
+            s_logger.error("Client task failed", ex);
+        }
+    }
+
+    private static final class Timer implements Comparable<Timer>
+    {
+        final long time;
+        final Runnable task;
+
+        Timer(final long time, final Runnable task)
+        {
+            this.time = time;
+            this.task = task;
+        }
+
+        @Override
+        public int compareTo(final Timer other)
+        {
+            return Long.compare(time, other.time);
+        }
+    }
+}
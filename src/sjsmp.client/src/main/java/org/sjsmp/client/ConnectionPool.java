@@ -0,0 +1,154 @@
+package org.sjsmp.client;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Keep-alive connections to one server and the requests waiting for them. Used only by the event loop thread.
+ */
+final class ConnectionPool
+{
+    private final ClientEventLoop m_loop;
+    private final InetSocketAddress m_address;
+    private final SjsmpClientOptions m_options;
+    private final List<ClientConnection> m_connections = new ArrayList<>();
+    private final ArrayDeque<PendingRequest> m_waiting = new ArrayDeque<>();
+    private boolean m_closed;
+
+    public ConnectionPool(final ClientEventLoop loop, final InetSocketAddress address, final SjsmpClientOptions options)
+    {
+        this.m_loop = loop;
+        this.m_address = address;
+        this.m_options = options;
+    }
+
+    public void Submit(final PendingRequest request)
+    {
+        if (m_closed)
+        {
+            request.Fail(new SjsmpClientException("Client is closed"));
+            return;
+        }
+        m_waiting.add(request);
+        Dispatch();
+    }
+
+    /**
+     * Called by a connection after it has closed; {@code retry} holds requests to send again
+     */
+    public void Closed(final ClientConnection connection, final List<PendingRequest> retry)
+    {
+        m_connections.remove(connection);
+        if (retry != null && !retry.isEmpty())
+        {
+            //sent before the waiting ones, so they keep their place in line
+            for (int i = retry.size() - 1; i >= 0; --i)
+            {
+                m_waiting.addFirst(retry.get(i));
+            }
+        }
+        Dispatch();
+    }
+
+    public void Tick(final long now)
+    {
+        final Iterator<PendingRequest> iterator = m_waiting.iterator();
+        while (iterator.hasNext())
+        {
+            final PendingRequest request = iterator.next();
+            if (now > request.deadline)
+            {
+                iterator.remove();
+                request.Fail(new SocketTimeoutException("Request timed out waiting for a connection"));
+            }
+        }
+        //the connections may close themselves and remove from the list
+        for (final ClientConnection connection : new ArrayList<>(m_connections))
+        {
+            connection.Tick(now);
+        }
+    }
+
+    public void Close(final Throwable ex)
+    {
+        m_closed = true;
+        for (final PendingRequest request : m_waiting)
+        {
+            request.Fail(ex);
+        }
+        m_waiting.clear();
+        for (final ClientConnection connection : new ArrayList<>(m_connections))
+        {
+            connection.Fail(ex);
+        }
+    }
+
+    /**
+     * Sends waiting requests to the connections that can take them
+     */
+    public void Dispatch()
+    {
+        while (!m_closed && !m_waiting.isEmpty())
+        {
+            final ClientConnection connection;
+            try
+            {
+                connection = Pick();
+            }
+            catch (IOException ex)
+            {
+                //the server is unreachable, so do not let the requests wait for their timeout
+                for (final PendingRequest request : m_waiting)
+                {
+                    request.Fail(new SjsmpClientException("Failed to connect to " + m_address, ex));
+                }
+                m_waiting.clear();
+                return;
+            }
+            if (connection == null)
+            {
+                return;
+            }
+            connection.Send(m_waiting.poll());
+        }
+    }
+
+    /**
+     * @return null if all connections are busy
+     */
+    private ClientConnection Pick() throws IOException
+    {
+        ClientConnection leastLoaded = null;
+        for (final ClientConnection connection : m_connections)
+        {
+            if (!connection.CanSend())
+            {
+                continue;
+            }
+            if (connection.InFlight() == 0)
+            {
+                return connection;
+            }
+            if (leastLoaded == null || connection.InFlight() < leastLoaded.InFlight())
+            {
+                leastLoaded = connection;
+            }
+        }
+        if (m_connections.size() < m_options.GetMaxConnectionsPerEndpoint())
+        {
+            final ClientConnection connection = new ClientConnection(this, m_loop.Selector(), m_address, m_options);
+            m_connections.add(connection);
+            return connection;
+        }
+        if (leastLoaded != null && leastLoaded.InFlight() < m_options.GetMaxPipelinedRequests())
+        {
+            return leastLoaded;
+        }
+        return null;
+    }
+}
@@ -0,0 +1,26 @@
+package org.sjsmp.client;
+
+import java.util.Map;
+
+final class HttpResponse
+{
+    public final int status;
+    /** header values by lower-case name */
+    private final Map<String, String> m_headers;
+    public final byte[] body;
+
+    public HttpResponse(final int status, final Map<String, String> headers, final byte[] body)
+    {
+        this.status = status;
+        this.m_headers = headers;
+        this.body = body;
+    }
+
+    /**
+     * @return null if there is no such header
+     */
+    public String Header(final String name)
+    {
+        return m_headers.get(name.toLowerCase());
+    }
+}
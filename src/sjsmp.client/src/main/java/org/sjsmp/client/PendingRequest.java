@@ -0,0 +1,26 @@
+package org.sjsmp.client;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Encoded HTTP request waiting for its response; owned by the event loop once submitted
+ */
+final class PendingRequest
+{
+    public final byte[] data;
+    public final long deadline;
+    public final CompletableFuture<HttpResponse> future = new CompletableFuture<>();
+    /** was sent once on a connection the server closed before answering */
+    public boolean retried;
+
+    public PendingRequest(final byte[] data, final long deadline)
+    {
+        this.data = data;
+        this.deadline = deadline;
+    }
+
+    public void Fail(final Throwable ex)
+    {
+        future.completeExceptionally(ex);
+    }
+}
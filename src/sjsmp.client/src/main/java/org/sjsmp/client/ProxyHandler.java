@@ -0,0 +1,273 @@
+package org.sjsmp.client;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Parameter;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.function.Function;
+
+import org.sjsmp.server.SjsmpAction;
+import org.sjsmp.server.SjsmpProperty;
+
+/**
+ * Maps the methods of a proxy interface to requests, see {@link SjsmpEndpoint#Proxy(Class, String)}
+ */
+final class ProxyHandler implements InvocationHandler
+{
+    private final SjsmpEndpoint m_endpoint;
+    private final String m_objectName;
+    private final String m_description;
+    /** resolved once, the proxy methods are called many times */
+    private final Map<Method, Call> m_calls = new HashMap<>();
+
+    public ProxyHandler(final SjsmpEndpoint endpoint, final Class<?> type, final String objectName)
+    {
+        this.m_endpoint = endpoint;
+        this.m_objectName = objectName;
+        this.m_description = type.getSimpleName() + "[" + objectName + "@" + endpoint + "]";
+
+        for (final Method method : type.getMethods())
+        {
+            if (method.getDeclaringClass() == Object.class || method.isDefault())
+            {
+                continue;
+            }
+            m_calls.put(method, Resolve(method));
+        }
+    }
+
+    @Override
+    public Object invoke(final Object proxy, final Method method, final Object[] args) throws Throwable
+    {
+        final Call call = m_calls.get(method);
+        if (call == null)
+        {
+            switch (method.getName())
+            {
+            case "toString":
+                return m_description;
+            case "hashCode":
+                return System.identityHashCode(proxy);
+            case "equals":
+                return proxy == args[0];
+            default:
+                throw new UnsupportedOperationException("Method '" + method.getName() + "' is not supported by the proxy");
+            }
+        }
+
+        final CompletableFuture<Object> response;
+        switch (call.kind)
+        {
+        case GET:
+            response = m_endpoint.GetProperty(m_objectName, call.name);
+            break;
+        case SET:
+            response = m_endpoint.SetProperty(m_objectName, call.name, args[0]).thenApply(new Function<Void, Object>()
+            {
+                @Override
+                public Object apply(final Void value)
+                {
+                    return null;
+                }
+            });
+            break;
+        default:
+            final Map<String, Object> parameters = new LinkedHashMap<>();
+            for (int i = 0; i < call.parameterNames.length; ++i)
+            {
+                parameters.put(call.parameterNames[i], args[i]);
+            }
+            response = m_endpoint.Execute(m_objectName, call.name, parameters);
+            break;
+        }
+
+        final CompletableFuture<Object> result = response.thenApply(call.converter);
+        if (call.async)
+        {
+            return result;
+        }
+        try
+        {
+            return result.get();
+        }
+        catch (ExecutionException ex)
+        {
+            final Throwable cause = SjsmpEndpoint.Unwrap(ex.getCause());
+            if (cause instanceof IOException)
+            {
+                for (final Class<?> declared : method.getExceptionTypes())
+                {
+                    if (declared.isInstance(cause))
+                    {
+                        throw cause;
+                    }
+                }
+                throw new UncheckedIOException((IOException)cause);
+            }
+            throw cause;
+        }
+    }
+
+    private static Call Resolve(final Method method)
+    {
+        final String methodName = method.getName();
+        final Type returnType = method.getGenericReturnType();
+        final boolean async = Future.class.isAssignableFrom(method.getReturnType()) || CompletionStage.class.isAssignableFrom(method.getReturnType());
+        final Class<?> valueType = async ? FutureValueType(returnType) : method.getReturnType();
+
+        final SjsmpProperty property = method.getAnnotation(SjsmpProperty.class);
+        if (property != null)
+        {
+            if (!methodName.startsWith("get") || method.getParameterCount() != 0)
+            {
+                throw new IllegalArgumentException("Property method '" + methodName + "' must be a getter without parameters");
+            }
+            return new Call(Kind.GET, methodName.substring("get".length()), null, async, valueType);
+        }
+
+        final SjsmpAction action = method.getAnnotation(SjsmpAction.class);
+        if (action != null)
+        {
+            final Parameter[] parameters = method.getParameters();
+            final String[] names = new String[parameters.length];
+            for (int i = 0; i < parameters.length; ++i)
+            {
+                names[i] = parameters[i].getName();
+            }
+            return new Call(Kind.EXECUTE, methodName, names, async, valueType);
+        }
+
+        if (methodName.startsWith("set") && method.getParameterCount() == 1)
+        {
+            return new Call(Kind.SET, methodName.substring("set".length()), null, async, valueType);
+        }
+        throw new IllegalArgumentException("Method '" + methodName + "' is neither a property nor an action");
+    }
+
+    private static Class<?> FutureValueType(final Type type)
+    {
+        if (type instanceof ParameterizedType)
+        {
+            final Type argument = ((ParameterizedType)type).getActualTypeArguments()[0];
+            if (argument instanceof Class)
+            {
+                return (Class<?>)argument;
+            }
+            if (argument instanceof ParameterizedType)
+            {
+                return (Class<?>)((ParameterizedType)argument).getRawType();
+            }
+        }
+        return Object.class;
+    }
+
+    /**
+     * Converts a JSON value to the declared type
+     */
+    static Object Convert(final Object value, final Class<?> type) throws SjsmpClientException
+    {
+        if (type == void.class || type == Void.class)
+        {
+            return null;
+        }
+        if (value == null)
+        {
+            if (type.isPrimitive())
+            {
+                throw new SjsmpClientException("Server returned null for " + type.getName() + " value");
+            }
+            return null;
+        }
+        if (type.isInstance(value))
+        {
+            return value;
+        }
+        if (value instanceof Number)
+        {
+            final Number number = (Number)value;
+            if (type == int.class || type == Integer.class)
+            {
+                return number.intValue();
+            }
+            if (type == long.class || type == Long.class)
+            {
+                return number.longValue();
+            }
+            if (type == double.class || type == Double.class)
+            {
+                return number.doubleValue();
+            }
+            if (type == float.class || type == Float.class)
+            {
+                return number.floatValue();
+            }
+            if (type == short.class || type == Short.class)
+            {
+                return number.shortValue();
+            }
+            if (type == byte.class || type == Byte.class)
+            {
+                return number.byteValue();
+            }
+        }
+        if (type == boolean.class && value instanceof Boolean)
+        {
+            return value;
+        }
+        if (type == String.class)
+        {
+            return value.toString();
+        }
+        throw new SjsmpClientException("Cannot convert " + value.getClass().getSimpleName() + " value to " + type.getName());
+    }
+
+    private enum Kind
+    {
+        GET,
+        SET,
+        EXECUTE
+    }
+
+    private static final class Call
+    {
+        final Kind kind;
+        final String name;
+        final String[] parameterNames;
+        final boolean async;
+        final Function<Object, Object> converter;
+
+        Call(final Kind kind, final String name, final String[] parameterNames, final boolean async, final Class<?> valueType)
+        {
+            this.kind = kind;
+            this.name = name;
+            this.parameterNames = parameterNames;
+            this.async = async;
+            this.converter = new Function<Object, Object>()
+            {
+                @Override
+                public Object apply(final Object value)
+                {
+                    try
+                    {
+                        return Convert(value, valueType);
+                    }
+                    catch (SjsmpClientException ex)
+                    {
+                        throw new CompletionException(ex);
+                    }
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package org.sjsmp.client;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.BiConsumer;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * Commands sent to the server in one 'batch' request. Every command gets its own future,
+ * completed when the batch response arrives; a failed command does not fail the others.
+ * Not thread-safe.
+ */
+public final class SjsmpBatch
+{
+    private final SjsmpEndpoint m_endpoint;
+    private final JSONArray m_commands = new JSONArray();
+    private final List<CompletableFuture<JSONObject>> m_results = new ArrayList<>();
+    private boolean m_parallel;
+    private boolean m_sent;
+
+    SjsmpBatch(final SjsmpEndpoint endpoint)
+    {
+        this.m_endpoint = endpoint;
+    }
+
+    /**
+     * @param parallel let the server run the commands concurrently instead of in order
+     */
+    public SjsmpBatch Parallel(final boolean parallel)
+    {
+        m_parallel = parallel;
+        return this;
+    }
+
+    public int Size()
+    {
+        return m_results.size();
+    }
+
+    /**
+     * Adds a raw command
+     * @return response to the command, whose result is 'ok'
+     */
+    public CompletableFuture<JSONObject> Add(final JSONObject command)
+    {
+        if (m_sent)
+        {
+            throw new IllegalStateException("Batch is already sent");
+        }
+        final CompletableFuture<JSONObject> result = new CompletableFuture<>();
+        m_commands.put(command);
+        m_results.add(result);
+        return result;
+    }
+
+    public CompletableFuture<JSONObject> GetProperties(final String objectName)
+    {
+        return Add(SjsmpEndpoint.GetPropertiesCommand(objectName, null)).thenApply(SjsmpEndpoint.ObjectValues(objectName));
+    }
+
+    public CompletableFuture<Object> GetProperty(final String objectName, final String propertyName)
+    {
+        return Add(SjsmpEndpoint.GetPropertiesCommand(objectName, propertyName)).thenApply(SjsmpEndpoint.PropertyValue(objectName, propertyName));
+    }
+
+    public CompletableFuture<Void> SetProperty(final String objectName, final String propertyName, final Object value)
+    {
+        return Add(SjsmpEndpoint.SetPropertyCommand(objectName, propertyName, value)).thenApply(SjsmpEndpoint.IGNORE_RESULT);
+    }
+
+    /**
+     * @see SjsmpEndpoint#Execute(String, String, Map)
+     */
+    public CompletableFuture<Object> Execute(final String objectName, final String actionName, final Map<String, ?> parameters)
+    {
+        return m_endpoint.ActionResult(Add(SjsmpEndpoint.ExecuteCommand(objectName, actionName, parameters)));
+    }
+
+    /**
+     * Sends the batch; it can be sent only once
+     * @return completes after the futures of all commands are completed
+     */
+    public CompletableFuture<Void> Send()
+    {
+        if (m_sent)
+        {
+            throw new IllegalStateException("Batch is already sent");
+        }
+        m_sent = true;
+
+        final JSONObject request = new JSONObject();
+        request.put("action", "batch");
+        request.put("commands", m_commands);
+        if (m_parallel)
+        {
+            request.put("parallel", true);
+        }
+
+        final CompletableFuture<Void> done = new CompletableFuture<>();
+        m_endpoint.Send(request).whenComplete(new BiConsumer<JSONObject, Throwable>()
+        {
+            @Override
+            public void accept(final JSONObject response, final Throwable ex)
+            {
+                if (ex != null)
+                {
+                    final Throwable cause = SjsmpEndpoint.Unwrap(ex);
+                    for (final CompletableFuture<JSONObject> result : m_results)
+                    {
+                        result.completeExceptionally(cause);
+                    }
+                    done.completeExceptionally(cause);
+                    return;
+                }
+
+                final JSONArray results = response.optJSONArray("results");
+                for (int i = 0; i < m_results.size(); ++i)
+                {
+                    final JSONObject entry = results != null ? results.optJSONObject(i) : null;
+                    try
+                    {
+                        if (entry == null)
+                        {
+                            throw new SjsmpClientException("Batch response has no result #" + i);
+                        }
+                        m_results.get(i).complete(SjsmpEndpoint.CheckResult(entry));
+                    }
+                    catch (SjsmpClientException e)
+                    {
+                        m_results.get(i).completeExceptionally(e);
+                    }
+                }
+                done.complete(null);
+            }
+        });
+        return done;
+    }
+}
@@ -0,0 +1,60 @@
+package org.sjsmp.client;
+
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * Client of SJSMP servers. One selector thread serves the keep-alive connections to all endpoints,
+ * so a client can poll thousands of servers; create one and share it.
+ */
+public final class SjsmpClient implements AutoCloseable
+{
+    private final SjsmpClientOptions m_options;
+    private final ClientEventLoop m_loop;
+    private final ConcurrentHashMap<String, SjsmpEndpoint> m_endpoints = new ConcurrentHashMap<>();
+
+    public SjsmpClient() throws IOException
+    {
+        this(new SjsmpClientOptions());
+    }
+
+    /**
+     * @param options must not be changed afterwards
+     */
+    public SjsmpClient(final SjsmpClientOptions options) throws IOException
+    {
+        this.m_options = options;
+        this.m_loop = new ClientEventLoop();
+    }
+
+    public SjsmpEndpoint Endpoint(final String host, final int port)
+    {
+        return Endpoint(host, port, null, null);
+    }
+
+    /**
+     * @return endpoint authenticated with Basic authorization; the same endpoint is returned for the same arguments
+     */
+    public SjsmpEndpoint Endpoint(final String host, final int port, final String user, final String password)
+    {
+        final String key = host + ":" + port + "\n" + user + "\n" + password;
+        return m_endpoints.computeIfAbsent(key, new Function<String, SjsmpEndpoint>()
+        {
+            @Override
+            public SjsmpEndpoint apply(final String k)
+            {
+                return new SjsmpEndpoint(m_loop, m_options, host, port, user, password);
+            }
+        });
+    }
+
+    /**
+     * Closes all connections; pending requests fail with {@link SjsmpClientException}
+     */
+    @Override
+    public void close()
+    {
+        m_loop.Close();
+    }
+}
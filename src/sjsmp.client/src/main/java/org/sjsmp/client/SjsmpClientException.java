@@ -0,0 +1,21 @@
+package org.sjsmp.client;
+
+import java.io.IOException;
+
+/**
+ * Error reported by the server or a broken response
+ */
+public final class SjsmpClientException extends IOException
+{
+    private static final long serialVersionUID = 1L;
+
+    public SjsmpClientException(final String message)
+    {
+        super(message);
+    }
+
+    public SjsmpClientException(final String message, final Throwable cause)
+    {
+        super(message, cause);
+    }
+}
@@ -0,0 +1,118 @@
+package org.sjsmp.client;
+
+/**
+ * Optional settings of {@link SjsmpClient}
+ */
+public final class SjsmpClientOptions
+{
+    private int m_maxConnectionsPerEndpoint = 2;
+    private int m_maxPipelinedRequests = 1;
+    private int m_connectTimeoutMillis = 5000;
+    private int m_requestTimeoutMillis = 30000;
+    private int m_idleConnectionTimeoutSeconds = 30;
+    private int m_maxResponseBytes = 64 * 1024 * 1024;
+
+    public int GetMaxConnectionsPerEndpoint()
+    {
+        return m_maxConnectionsPerEndpoint;
+    }
+
+    /**
+     * @param maxConnectionsPerEndpoint keep-alive connections opened to one server; further requests wait or are pipelined
+     */
+    public SjsmpClientOptions SetMaxConnectionsPerEndpoint(final int maxConnectionsPerEndpoint)
+    {
+        if (maxConnectionsPerEndpoint < 1)
+        {
+            throw new IllegalArgumentException("maxConnectionsPerEndpoint must be positive");
+        }
+        m_maxConnectionsPerEndpoint = maxConnectionsPerEndpoint;
+        return this;
+    }
+
+    public int GetMaxPipelinedRequests()
+    {
+        return m_maxPipelinedRequests;
+    }
+
+    /**
+     * @param maxPipelinedRequests requests sent on one connection before their responses arrive.
+     * Values above 1 need a server that answers pipelined requests, such as the Nio transport of SjsmpServer.
+     */
+    public SjsmpClientOptions SetMaxPipelinedRequests(final int maxPipelinedRequests)
+    {
+        if (maxPipelinedRequests < 1)
+        {
+            throw new IllegalArgumentException("maxPipelinedRequests must be positive");
+        }
+        m_maxPipelinedRequests = maxPipelinedRequests;
+        return this;
+    }
+
+    public int GetConnectTimeoutMillis()
+    {
+        return m_connectTimeoutMillis;
+    }
+
+    public SjsmpClientOptions SetConnectTimeoutMillis(final int connectTimeoutMillis)
+    {
+        if (connectTimeoutMillis < 1)
+        {
+            throw new IllegalArgumentException("connectTimeoutMillis must be positive");
+        }
+        m_connectTimeoutMillis = connectTimeoutMillis;
+        return this;
+    }
+
+    public int GetRequestTimeoutMillis()
+    {
+        return m_requestTimeoutMillis;
+    }
+
+    /**
+     * @param requestTimeoutMillis time from sending a request until its response, including the wait for a free connection
+     */
+    public SjsmpClientOptions SetRequestTimeoutMillis(final int requestTimeoutMillis)
+    {
+        if (requestTimeoutMillis < 1)
+        {
+            throw new IllegalArgumentException("requestTimeoutMillis must be positive");
+        }
+        m_requestTimeoutMillis = requestTimeoutMillis;
+        return this;
+    }
+
+    public int GetIdleConnectionTimeoutSeconds()
+    {
+        return m_idleConnectionTimeoutSeconds;
+    }
+
+    /**
+     * @param idleConnectionTimeoutSeconds keep-alive connections are closed after this idle time;
+     * keep it below the server's timeout, so the client closes first
+     */
+    public SjsmpClientOptions SetIdleConnectionTimeoutSeconds(final int idleConnectionTimeoutSeconds)
+    {
+        if (idleConnectionTimeoutSeconds < 1)
+        {
+            throw new IllegalArgumentException("idleConnectionTimeoutSeconds must be positive");
+        }
+        m_idleConnectionTimeoutSeconds = idleConnectionTimeoutSeconds;
+        return this;
+    }
+
+    public int GetMaxResponseBytes()
+    {
+        return m_maxResponseBytes;
+    }
+
+    public SjsmpClientOptions SetMaxResponseBytes(final int maxResponseBytes)
+    {
+        if (maxResponseBytes < 1)
+        {
+            throw new IllegalArgumentException("maxResponseBytes must be positive");
+        }
+        m_maxResponseBytes = maxResponseBytes;
+        return this;
+    }
+}
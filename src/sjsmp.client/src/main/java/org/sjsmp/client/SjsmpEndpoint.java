@@ -0,0 +1,560 @@
+package org.sjsmp.client;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Proxy;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.zip.GZIPInputStream;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.sjsmp.HttpStatusCode;
+
+/**
+ * One SJSMP server reached through the connections of its {@link SjsmpClient}.
+ * <p>
+ * All calls are asynchronous. The returned futures complete on the client thread, so dependent stages
+ * added without an executor must not block; use the *Async methods of {@link CompletableFuture} for slow work.
+ * Failures complete the futures with a {@link CompletionException} wrapping {@link SjsmpClientException}
+ * for errors reported by the server, or another {@link IOException} for connection problems.
+ */
+public final class SjsmpEndpoint
+{
+    private static final long JOB_POLL_MIN_MILLIS = 10;
+    private static final long JOB_POLL_MAX_MILLIS = 1000;
+    private static final String SESSION_HEADER = "X-Sjsmp-Session";
+
+    private final ClientEventLoop m_loop;
+    private final SjsmpClientOptions m_options;
+    private final String m_name;
+    private final byte[] m_requestHead;
+    /** 'Authorization' header value or null */
+    private final String m_basicAuthorization;
+    /** session token issued by the server, sent instead of the credentials */
+    private volatile String m_sessionToken;
+    private final AtomicLong m_requestIds = new AtomicLong();
+    /** used only on the loop thread */
+    private ConnectionPool m_pool;
+    private volatile CachedSchema m_schema;
+
+    /**
+     * Remembers the session token issued by the server
+     */
+    private final Function<HttpResponse, HttpResponse> m_sessionTracker = new Function<HttpResponse, HttpResponse>()
+    {
+        @Override
+        public HttpResponse apply(final HttpResponse response)
+        {
+            final String token = response.Header(SESSION_HEADER);
+            if (token != null)
+            {
+                m_sessionToken = token;
+            }
+            return response;
+        }
+    };
+
+    SjsmpEndpoint(final ClientEventLoop loop, final SjsmpClientOptions options, final String host, final int port, final String user, final String password)
+    {
+        this.m_loop = loop;
+        this.m_options = options;
+        this.m_name = host + ":" + port;
+
+        final StringBuilder head = new StringBuilder();
+        head.append("POST / HTTP/1.1\r\n");
+        head.append("Host: ").append(m_name).append("\r\n");
+        head.append("Content-Type: application/json; charset=utf-8\r\n");
+        if (user != null)
+        {
+            final String credentials = user + ":" + (password != null ? password : "");
+            m_basicAuthorization = "Basic " + Base64.getEncoder().encodeToString(credentials.getBytes(StandardCharsets.UTF_8));
+        }
+        else
+        {
+            m_basicAuthorization = null;
+        }
+        m_requestHead = head.toString().getBytes(StandardCharsets.ISO_8859_1);
+
+        final InetSocketAddress address = new InetSocketAddress(host, port);
+        m_loop.Execute(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                m_pool = m_loop.NewPool(address, m_options);
+            }
+        });
+    }
+
+    /**
+     * Sends a raw request, filling in request_id if it is not set
+     * @return response of the server, whose result is 'ok'
+     */
+    public CompletableFuture<JSONObject> Send(final JSONObject request)
+    {
+        if (!request.has("request_id"))
+        {
+            request.put("request_id", Long.toString(m_requestIds.incrementAndGet()));
+        }
+        return Submit(request.toString().getBytes(StandardCharsets.UTF_8), null).thenApply(new Function<HttpResponse, JSONObject>()
+        {
+            @Override
+            public JSONObject apply(final HttpResponse response)
+            {
+                try
+                {
+                    return CheckResult(ParseBody(response.status, response.body));
+                }
+                catch (SjsmpClientException ex)
+                {
+                    throw new CompletionException(ex);
+                }
+            }
+        });
+    }
+
+    /**
+     * Requests the schema, revalidating the cached one by its ETag: an unchanged schema is not sent again
+     */
+    public CompletableFuture<JSONObject> GetSchema()
+    {
+        final CachedSchema cached = m_schema;
+        final String headers = "Accept-Encoding: gzip\r\n" + (cached != null ? "If-None-Match: " + cached.etag + "\r\n" : "");
+        return Submit(new byte[0], headers).thenApply(new Function<HttpResponse, JSONObject>()
+        {
+            @Override
+            public JSONObject apply(final HttpResponse response)
+            {
+                try
+                {
+                    if (response.status == HttpStatusCode.NotModified.code && cached != null)
+                    {
+                        return cached.schema;
+                    }
+                    byte[] body = response.body;
+                    if (response.status == HttpStatusCode.OK.code && "gzip".equalsIgnoreCase(response.Header("Content-Encoding")))
+                    {
+                        body = Gunzip(body);
+                    }
+                    final JSONObject schema = ParseBody(response.status, body);
+                    final String etag = response.Header("ETag");
+                    m_schema = etag != null ? new CachedSchema(etag, schema) : null;
+                    return schema;
+                }
+                catch (SjsmpClientException ex)
+                {
+                    throw new CompletionException(ex);
+                }
+            }
+        });
+    }
+
+    /**
+     * @return schema_version of the last received schema or null if there is none
+     */
+    public String SchemaVersion()
+    {
+        final CachedSchema cached = m_schema;
+        return cached != null ? cached.schema.optString("schema_version", null) : null;
+    }
+
+    /**
+     * @return property values by object name
+     */
+    public CompletableFuture<JSONObject> GetProperties()
+    {
+        return Send(GetPropertiesCommand(null, null)).thenApply(new Function<JSONObject, JSONObject>()
+        {
+            @Override
+            public JSONObject apply(final JSONObject response)
+            {
+                return response.getJSONObject("objects");
+            }
+        });
+    }
+
+    /**
+     * @return property values of the object by property name
+     */
+    public CompletableFuture<JSONObject> GetProperties(final String objectName)
+    {
+        return Send(GetPropertiesCommand(objectName, null)).thenApply(ObjectValues(objectName));
+    }
+
+    public CompletableFuture<Object> GetProperty(final String objectName, final String propertyName)
+    {
+        return Send(GetPropertiesCommand(objectName, propertyName)).thenApply(PropertyValue(objectName, propertyName));
+    }
+
+    public CompletableFuture<Void> SetProperty(final String objectName, final String propertyName, final Object value)
+    {
+        return Send(SetPropertyCommand(objectName, propertyName, value)).thenApply(IGNORE_RESULT);
+    }
+
+    /**
+     * Executes the action; the result of an async action is awaited by polling its job.
+     * Cancelling the returned future of an async action cancels the job.
+     * @param parameters may be null if the action has none
+     */
+    public CompletableFuture<Object> Execute(final String objectName, final String actionName, final Map<String, ?> parameters)
+    {
+        return ActionResult(Send(ExecuteCommand(objectName, actionName, parameters)));
+    }
+
+    /**
+     * @return new batch of requests sent to this endpoint in one HTTP request
+     */
+    public SjsmpBatch Batch()
+    {
+        return new SjsmpBatch(this);
+    }
+
+    /**
+     * Creates a typed proxy of a registered object.
+     * <p>
+     * {@code get{Property}()} methods annotated with {@code @SjsmpProperty} read the property and
+     * {@code set{Property}(value)} methods write it; methods annotated with {@code @SjsmpAction} execute the action
+     * with parameters named as the method parameters, so the interface, like the server class, should be compiled with
+     * {@code -parameters}. Methods returning a {@link java.util.concurrent.Future} or {@link java.util.concurrent.CompletionStage}
+     * do not block; others block until the response and throw {@link SjsmpClientException} if they declare it, or
+     * {@link java.io.UncheckedIOException} otherwise.
+     */
+    public <T> T Proxy(final Class<T> type, final String objectName)
+    {
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] { type }, new ProxyHandler(this, type, objectName)));
+    }
+
+    @Override
+    public String toString()
+    {
+        return m_name;
+    }
+
+    static JSONObject GetPropertiesCommand(final String objectName, final String propertyName)
+    {
+        final JSONObject command = new JSONObject();
+        command.put("action", "get_properties");
+        if (objectName != null)
+        {
+            command.put("object_name", objectName);
+        }
+        if (propertyName != null)
+        {
+            command.put("property_name", propertyName);
+        }
+        return command;
+    }
+
+    static JSONObject SetPropertyCommand(final String objectName, final String propertyName, final Object value)
+    {
+        final JSONObject command = new JSONObject();
+        command.put("action", "set_property");
+        command.put("object_name", objectName);
+        command.put("property_name", propertyName);
+        command.put("value", value != null ? value : JSONObject.NULL);
+        return command;
+    }
+
+    static JSONObject ExecuteCommand(final String objectName, final String actionName, final Map<String, ?> parameters)
+    {
+        final JSONObject command = new JSONObject();
+        command.put("action", "execute");
+        command.put("object_name", objectName);
+        command.put("action_name", actionName);
+        final JSONObject jsonParameters = new JSONObject();
+        if (parameters != null)
+        {
+            for (final Map.Entry<String, ?> entry : parameters.entrySet())
+            {
+                jsonParameters.put(entry.getKey(), entry.getValue() != null ? entry.getValue() : JSONObject.NULL);
+            }
+        }
+        command.put("parameters", jsonParameters);
+        return command;
+    }
+
+    static Function<JSONObject, JSONObject> ObjectValues(final String objectName)
+    {
+        return new Function<JSONObject, JSONObject>()
+        {
+            @Override
+            public JSONObject apply(final JSONObject response)
+            {
+                final JSONObject values = response.getJSONObject("objects").optJSONObject(objectName);
+                return values != null ? values : new JSONObject();
+            }
+        };
+    }
+
+    static Function<JSONObject, Object> PropertyValue(final String objectName, final String propertyName)
+    {
+        return new Function<JSONObject, Object>()
+        {
+            @Override
+            public Object apply(final JSONObject response)
+            {
+                final JSONObject values = response.getJSONObject("objects").optJSONObject(objectName);
+                //null values are omitted by the server
+                return values != null ? JsonValue(values.opt(propertyName)) : null;
+            }
+        };
+    }
+
+    static final Function<JSONObject, Void> IGNORE_RESULT = new Function<JSONObject, Void>()
+    {
+        @Override
+        public Void apply(final JSONObject response)
+        {
+            return null;
+        }
+    };
+
+    /**
+     * @return value of an 'execute' response, awaiting the job of an async action
+     */
+    CompletableFuture<Object> ActionResult(final CompletableFuture<JSONObject> response)
+    {
+        final CompletableFuture<Object> result = new CompletableFuture<>();
+        response.whenComplete(new BiConsumer<JSONObject, Throwable>()
+        {
+            @Override
+            public void accept(final JSONObject value, final Throwable ex)
+            {
+                if (ex != null)
+                {
+                    result.completeExceptionally(Unwrap(ex));
+                }
+                else if (value.has("job_id"))
+                {
+                    OnJobState(value, JOB_POLL_MIN_MILLIS, result);
+                }
+                else
+                {
+                    result.complete(JsonValue(value.opt("value")));
+                }
+            }
+        });
+        return result;
+    }
+
+    private void OnJobState(final JSONObject job, final long delay, final CompletableFuture<Object> result)
+    {
+        final String jobId = job.getString("job_id");
+        switch (job.optString("state"))
+        {
+        case "running":
+            final boolean scheduled = m_loop.Execute(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    m_loop.Schedule(new Runnable()
+                    {
+                        @Override
+                        public void run()
+                        {
+                            PollJob(jobId, delay, result);
+                        }
+                    }, delay);
+                }
+            });
+            if (!scheduled)
+            {
+                result.completeExceptionally(new SjsmpClientException("Client is closed"));
+            }
+            break;
+        case "done":
+            result.complete(JsonValue(job.opt("value")));
+            break;
+        case "failed":
+            result.completeExceptionally(new SjsmpClientException(job.optString("message", "Job '" + jobId + "' failed")));
+            break;
+        default:
+            result.completeExceptionally(new SjsmpClientException("Job '" + jobId + "' was cancelled"));
+            break;
+        }
+    }
+
+    private void PollJob(final String jobId, final long delay, final CompletableFuture<Object> result)
+    {
+        final JSONObject command = new JSONObject();
+        command.put("job_id", jobId);
+        if (result.isDone())
+        {
+            //cancelled by the caller
+            command.put("action", "cancel_job");
+            Send(command);
+            return;
+        }
+        command.put("action", "get_job");
+        Send(command).whenComplete(new BiConsumer<JSONObject, Throwable>()
+        {
+            @Override
+            public void accept(final JSONObject job, final Throwable ex)
+            {
+                if (ex != null)
+                {
+                    result.completeExceptionally(Unwrap(ex));
+                }
+                else
+                {
+                    OnJobState(job, Math.min(delay * 2, JOB_POLL_MAX_MILLIS), result);
+                }
+            }
+        });
+    }
+
+    /**
+     * Sends the request with the session token if there is one; a request rejected because of an expired token
+     * is sent again with the credentials. A renewed token sent by the server replaces the current one
+     */
+    private CompletableFuture<HttpResponse> Submit(final byte[] body, final String headers)
+    {
+        final String token = m_sessionToken;
+        final CompletableFuture<HttpResponse> response = Submit(body, headers, token != null ? "Bearer " + token : m_basicAuthorization);
+        if (token == null)
+        {
+            return response.thenApply(m_sessionTracker);
+        }
+        return response.thenCompose(new Function<HttpResponse, CompletableFuture<HttpResponse>>()
+        {
+            @Override
+            public CompletableFuture<HttpResponse> apply(final HttpResponse value)
+            {
+                if (value.status != HttpStatusCode.Unauthorized.code)
+                {
+                    //a token past half its lifetime comes back renewed
+                    return CompletableFuture.completedFuture(m_sessionTracker.apply(value));
+                }
+                if (token.equals(m_sessionToken))
+                {
+                    m_sessionToken = null;
+                }
+                return Submit(body, headers, m_basicAuthorization).thenApply(m_sessionTracker);
+            }
+        });
+    }
+
+    private CompletableFuture<HttpResponse> Submit(final byte[] body, final String headers, final String authorization)
+    {
+        final byte[] head = ("Content-Length: " + body.length + "\r\n"
+            + (authorization != null ? "Authorization: " + authorization + "\r\n" : "")
+            + (headers != null ? headers : "") + "\r\n").getBytes(StandardCharsets.ISO_8859_1);
+        final byte[] data = new byte[m_requestHead.length + head.length + body.length];
+        System.arraycopy(m_requestHead, 0, data, 0, m_requestHead.length);
+        System.arraycopy(head, 0, data, m_requestHead.length, head.length);
+        System.arraycopy(body, 0, data, m_requestHead.length + head.length, body.length);
+
+        final PendingRequest request = new PendingRequest(data, System.currentTimeMillis() + m_options.GetRequestTimeoutMillis());
+        final boolean submitted = m_loop.Execute(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                m_pool.Submit(request);
+            }
+        });
+        if (!submitted)
+        {
+            request.Fail(new SjsmpClientException("Client is closed"));
+        }
+        return request.future;
+    }
+
+    private static JSONObject ParseBody(final int status, final byte[] body) throws SjsmpClientException
+    {
+        JSONObject json = null;
+        try
+        {
+            if (body.length > 0)
+            {
+                json = new JSONObject(new String(body, StandardCharsets.UTF_8));
+            }
+        }
+        catch (JSONException ex)
+        {
+            if (status == HttpStatusCode.OK.code)
+            {
+                throw new SjsmpClientException("Malformed response", ex);
+            }
+        }
+        if (status != HttpStatusCode.OK.code)
+        {
+            final String message = json != null ? json.optString("message", null) : null;
+            throw new SjsmpClientException(message != null ? message : "Server returned HTTP status " + status);
+        }
+        if (json == null)
+        {
+            throw new SjsmpClientException("Empty response");
+        }
+        return json;
+    }
+
+    static JSONObject CheckResult(final JSONObject response) throws SjsmpClientException
+    {
+        if (!"ok".equals(response.optString("result")))
+        {
+            throw new SjsmpClientException(response.optString("message", "Request failed"));
+        }
+        return response;
+    }
+
+    static Object JsonValue(final Object value)
+    {
+        return value == JSONObject.NULL ? null : value;
+    }
+
+    static Throwable Unwrap(final Throwable ex)
+    {
+        return ex instanceof CompletionException && ex.getCause() != null ? ex.getCause() : ex;
+    }
+
+    private byte[] Gunzip(final byte[] body) throws SjsmpClientException
+    {
+        try (final InputStream in = new GZIPInputStream(new ByteArrayInputStream(body)))
+        {
+            final ByteArrayOutputStream out = new ByteArrayOutputStream(body.length * 4);
+            final byte[] buffer = new byte[8192];
+            int count;
+            while ((count = in.read(buffer)) > 0)
+            {
+                if (out.size() + count > m_options.GetMaxResponseBytes())
+                {
+                    throw new SjsmpClientException("Response is larger than " + m_options.GetMaxResponseBytes() + " bytes");
+                }
+                out.write(buffer, 0, count);
+            }
+            return out.toByteArray();
+        }
+        catch (SjsmpClientException ex)
+        {
+            throw ex;
+        }
+        catch (IOException ex)
+        {
+            throw new SjsmpClientException("Malformed compressed response", ex);
+        }
+    }
+
+    private static final class CachedSchema
+    {
+        final String etag;
+        final JSONObject schema;
+
+        CachedSchema(final String etag, final JSONObject schema)
+        {
+            this.etag = etag;
+            this.schema = schema;
+        }
+    }
+}
@@ -24,7 +24,7 @@ final class SampleObject implements ISampleObject
     void setIntervalSeconds(int value) { m_intervalSeconds = value; }
 
 
-    @SjsmpProperty(value="value being changed by timer", showGraph = true)
+    @SjsmpProperty(value="value being changed by timer", showGraph = true, historySize = 600)
     int getTimedValue() { return m_timedValue; }
 
     private void threadFunc()
@@ -3,10 +3,12 @@ package org.sjsmp.server;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.lang.reflect.Parameter;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.Future;
 
-import org.json.JSONObject;
 import org.sjsmp.DataTypes;
 
 /**
@@ -18,54 +20,123 @@ final class ActionDescription
     public final String name;
     public final String desctiption;
     public final boolean requireConfirm;
+    /** action runs as a job, 'execute' returns its id; set by {@link SjsmpAction#async()} or a {@link Future} return type */
+    public final boolean async;
 
     private final Method m_method;
-    private final Map<String, MethodParameter> m_parameters = new HashMap<>();
+    private final Class<?> m_resultType;
+    private final LatencyHistogram m_latency;
+    private final ActionInvoker m_invoker;
+    private final Map<String, MethodParameter> m_parameters;
 
-    public ActionDescription(final String name, final String description, final boolean requireConfirm, final Method method)
+    public ActionDescription(final String name, final String description, final boolean requireConfirm, final boolean async, final Method method, final LatencyHistogram latency)
     {
         this.name = name;
         this.desctiption = description;
         this.requireConfirm = requireConfirm;
         this.m_method = method;
+        this.m_latency = latency;
 
+        final boolean returnsFuture = Future.class.isAssignableFrom(method.getReturnType());
+        this.async = async || returnsFuture;
+        this.m_resultType = returnsFuture ? FutureResultType(method.getGenericReturnType()) : method.getReturnType();
+        this.m_invoker = ActionInvoker.Create(method);
+
+        this.m_parameters = new HashMap<>();
         final Parameter[] parameters = this.m_method.getParameters();
         for (int i = 0; i < parameters.length; ++i)
         {
             final Parameter parameter = parameters[i];
-            m_parameters.put(parameter.getName(), new MethodParameter(i, parameter.getType()));
+            m_parameters.put(parameter.getName(), new MethodParameter(i, parameter.getType(), ValueDecoder.ForType(parameter.getType())));
         }
     }
+
+    /**
+     * Copy of {@code other} recording call latencies to {@code latency}; the invoker and parameter table are shared
+     */
+    public ActionDescription(final ActionDescription other, final LatencyHistogram latency)
+    {
+        this.name = other.name;
+        this.desctiption = other.desctiption;
+        this.requireConfirm = other.requireConfirm;
+        this.async = other.async;
+        this.m_method = other.m_method;
+        this.m_resultType = other.m_resultType;
+        this.m_invoker = other.m_invoker;
+        this.m_parameters = other.m_parameters;
+        this.m_latency = latency;
+    }
     
-    public Object Call(final Object obj, final JSONObject parameters) throws SjsmpServerException
+    public Object Call(final Object obj, final Map<String, Object> parameters) throws SjsmpServerException
+    {
+        return Invoke(obj, Arguments(parameters));
+    }
+
+    /**
+     * Decodes and checks the arguments, so a job of an async action is not started with bad ones
+     */
+    public Object[] Arguments(final Map<String, Object> parameters) throws SjsmpServerException
     {
         final Object[] arguments = new Object[m_parameters.size()];
-        for (final String name : parameters.keySet())
+        for (final Map.Entry<String, Object> argument : parameters.entrySet())
         {
-            final Object value = parameters.get(name);
+            final String name = argument.getKey();
+            final Object value = argument.getValue();
             final MethodParameter parameter = m_parameters.get(name);
             if (parameter == null)
             {
                 throw new SjsmpServerException("Argument '" + name + "' not found in method '" + this.name + "'");
             }
 
-            if (!parameter.type.equals(value.getClass()))
+            if (parameter.decoder == null)
             {
-                throw new SjsmpServerException("Argument '" + name + "' has wrong type");
+                throw new SjsmpServerException("Argument '" + name + "' has unsupported type " + parameter.type);
             }
 
-            arguments[parameter.index] = value;
+            try
+            {
+                arguments[parameter.index] = parameter.decoder.Decode(value);
+            }
+            catch (SjsmpArgumentException e)
+            {
+                throw new SjsmpServerException("Argument '" + name + "' has wrong type: " + e.getMessage(), e);
+            }
+        }
+
+        for (final Map.Entry<String, MethodParameter> pair : m_parameters.entrySet())
+        {
+            final MethodParameter parameter = pair.getValue();
+            if (arguments[parameter.index] == null && parameter.type.isPrimitive())
+            {
+                throw new SjsmpServerException("Argument '" + pair.getKey() + "' is missing");
+            }
         }
+        return arguments;
+    }
 
+    /**
+     * @return value returned by the method, "void" for void methods; a {@link Future} is returned as is
+     */
+    public Object Invoke(final Object obj, final Object[] arguments) throws SjsmpServerException
+    {
         final Object returnValue;
+        final long start = m_latency != null ? System.nanoTime() : 0;
         try
         {
-            returnValue = m_method.invoke(obj, arguments);
+            returnValue = m_invoker.Invoke(obj, arguments);
         }
         catch (IllegalAccessException | InvocationTargetException e)
         {
             throw new SjsmpServerException("Error calling '" + this.name + "'", e);
         }
+        finally
+        {
+            //for a returned Future only the call itself is measured
+            if (m_latency != null)
+            {
+                m_latency.Record(System.nanoTime() - start);
+            }
+        }
 
         if (this.m_method.getReturnType() == void.class)
         {
@@ -75,42 +146,75 @@ final class ActionDescription
         return returnValue;
     }
 
-    public JSONObject ToJObject()
+    public void WriteSchema(final JsonWriter writer)
     {
-        final JSONObject result = new JSONObject();
-        result.put("result", DataTypes.TypeToName(m_method.getReturnType()));
-        result.put("description", this.desctiption);
+        writer.BeginObject();
+        writer.Name("result");
+        writer.Value(DataTypes.TypeToName(m_resultType));
+        if (this.desctiption != null)
+        {
+            writer.Name("description");
+            writer.Value(this.desctiption);
+        }
         if (requireConfirm)
         {
-        	result.put("require_confirm", this.requireConfirm);
+            writer.Name("require_confirm");
+            writer.Value(this.requireConfirm);
+        }
+        if (async)
+        {
+            writer.Name("async");
+            writer.Value(true);
         }
 
-        final JSONObject parameters = new JSONObject();
+        writer.Name("parameters");
+        writer.BeginObject();
         for (final Parameter pi : m_method.getParameters())
         {
-            final JSONObject parameter = new JSONObject();
-            parameter.put("type", DataTypes.TypeToName(pi.getType()));
+            writer.Name(pi.getName());
+            writer.BeginObject();
+            writer.Name("type");
+            writer.Value(DataTypes.TypeToName(pi.getType()));
 
             final SjsmpActionParameter attr = pi.getAnnotation(SjsmpActionParameter.class);
-            if (attr != null)
+            if (attr != null && attr.value() != null)
+            {
+                writer.Name("description");
+                writer.Value(attr.value());
+            }
+            writer.EndObject();
+        }
+        writer.EndObject();
+        writer.EndObject();
+    }
+
+    /**
+     * @return type of the value a future completes with; values of unknown types are sent as strings
+     */
+    private static Class<?> FutureResultType(final Type returnType)
+    {
+        if (returnType instanceof ParameterizedType)
+        {
+            final Type argument = ((ParameterizedType)returnType).getActualTypeArguments()[0];
+            if (argument instanceof Class && DataTypes.TypeToNameOrNull((Class<?>)argument) != null)
             {
-                parameter.put("description", attr.value());
+                return (Class<?>)argument;
             }
-            parameters.put(pi.getName(), parameter);
         }
-        result.put("parameters", parameters);
-        return result;
+        return String.class;
     }
 
     private static final class MethodParameter
     {
         public final int index;
         public final Class<?> type;
+        public final ValueDecoder decoder;
 
-        public MethodParameter(final int index, final Class<?> type)
+        public MethodParameter(final int index, final Class<?> type, final ValueDecoder decoder)
         {
             this.index = index;
             this.type = type;
+            this.decoder = decoder;
         }
     }
 }
@@ -0,0 +1,75 @@
+package org.sjsmp.server;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+/**
+ * Pre-bound action method. Uses a spreading method handle when possible and falls back to reflection.
+ * Exceptions thrown by the user code are reported as {@link InvocationTargetException}, the same way reflection does.
+ */
+abstract class ActionInvoker
+{
+    private static final MethodType INVOKER_TYPE = MethodType.methodType(Object.class, Object.class, Object[].class);
+
+    public abstract Object Invoke(final Object obj, final Object[] arguments) throws IllegalAccessException, InvocationTargetException;
+
+    /**
+     * @param method accessible action method
+     */
+    public static ActionInvoker Create(final Method method)
+    {
+        try
+        {
+            final MethodHandle handle = MethodHandles.lookup().unreflect(method)
+                .asSpreader(Object[].class, method.getParameterTypes().length)
+                .asType(INVOKER_TYPE);
+            return new HandleInvoker(handle);
+        }
+        catch (IllegalAccessException | RuntimeException ex)
+        {
+            return new ReflectionInvoker(method);
+        }
+    }
+
+    private static final class HandleInvoker extends ActionInvoker
+    {
+        private final MethodHandle m_handle;
+
+        public HandleInvoker(final MethodHandle handle)
+        {
+            this.m_handle = handle;
+        }
+
+        @Override
+        public Object Invoke(final Object obj, final Object[] arguments) throws InvocationTargetException
+        {
+            try
+            {
+                return (Object)m_handle.invokeExact(obj, arguments);
+            }
+            catch (Throwable e)
+            {
+                throw new InvocationTargetException(e);
+            }
+        }
+    }
+
+    private static final class ReflectionInvoker extends ActionInvoker
+    {
+        private final Method m_method;
+
+        public ReflectionInvoker(final Method method)
+        {
+            this.m_method = method;
+        }
+
+        @Override
+        public Object Invoke(final Object obj, final Object[] arguments) throws IllegalAccessException, InvocationTargetException
+        {
+            return m_method.invoke(obj, arguments);
+        }
+    }
+}
@@ -0,0 +1,297 @@
+package org.sjsmp.server;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Checks the Authorization header of requests with {@link IServerAuthorization}.
+ * Verified Basic credentials are remembered for a while by a hash of the header, so a slow
+ * {@code CheckAccess} runs once per client and period rather than per request. With session tokens enabled,
+ * a Basic authenticated response carries a signed token in {@value #SESSION_HEADER} that the client sends back
+ * as 'Authorization: Bearer'; tokens are checked by their signature only, until they expire.
+ * A new token is issued only to a client without one or whose token is past half its lifetime;
+ * remembered credentials get the token issued to them before.
+ */
+final class Authenticator
+{
+    static final String SESSION_HEADER = "X-Sjsmp-Session";
+    private static final String HMAC_ALGORITHM = "HmacSHA256";
+
+    private final IServerAuthorization m_authorization;
+    private final int m_cacheSize;
+    private final long m_cacheTtlNanos;
+    private final long m_sessionMillis;
+    /** verified headers by their hash, oldest first; guarded by itself */
+    private final LinkedHashMap<String, Verified> m_verified = new LinkedHashMap<>();
+    /** initialized with the key of this server instance, cloned for use; null if session tokens are disabled */
+    private final Mac m_mac;
+
+    public Authenticator(final IServerAuthorization authorization, final int cacheSize, final int cacheSeconds, final int sessionSeconds)
+    {
+        this.m_authorization = authorization;
+        this.m_cacheSize = cacheSeconds > 0 ? cacheSize : 0;
+        this.m_cacheTtlNanos = cacheSeconds * 1000000000L;
+        this.m_sessionMillis = sessionSeconds * 1000L;
+
+        if (sessionSeconds > 0)
+        {
+            //tokens of a previous run of the server are not accepted, its clients authenticate again
+            final byte[] key = new byte[32];
+            new SecureRandom().nextBytes(key);
+            try
+            {
+                m_mac = Mac.getInstance(HMAC_ALGORITHM);
+                m_mac.init(new SecretKeySpec(key, HMAC_ALGORITHM));
+            }
+            catch (GeneralSecurityException ex)
+            {
+                throw new RuntimeException(HMAC_ALGORITHM + " is not supported - should not happen", ex);
+            }
+        }
+        else
+        {
+            m_mac = null;
+        }
+    }
+
+    /**
+     * @return false if the request is not authorized
+     */
+    public boolean Authenticate(final HttpTransportExchange t)
+    {
+        final List<String> headersAuth = t.GetRequestHeaders("Authorization");
+        final String headerAuth;
+        if (headersAuth == null || headersAuth.size() != 1 || (headerAuth = headersAuth.get(0)) == null)
+        {
+            return false;
+        }
+
+        if (headerAuth.startsWith("Bearer "))
+        {
+            if (m_mac == null)
+            {
+                return false;
+            }
+            final String token = headerAuth.substring("Bearer ".length()).trim();
+            final long expiry = CheckToken(token);
+            if (expiry < 0)
+            {
+                return false;
+            }
+            final long now = System.currentTimeMillis();
+            if (expiry - now < m_sessionMillis / 2)
+            {
+                t.AddResponseHeader(SESSION_HEADER, IssueToken(TokenUsername(token), now + m_sessionMillis));
+            }
+            return true;
+        }
+
+        final Verified verified = CheckBasic(headerAuth);
+        if (verified == null)
+        {
+            return false;
+        }
+        if (m_mac != null)
+        {
+            t.AddResponseHeader(SESSION_HEADER, verified.SessionToken());
+        }
+        return true;
+    }
+
+    /**
+     * @return the verified credentials, remembered or not, or null if they are wrong
+     */
+    private Verified CheckBasic(final String headerAuth)
+    {
+        final String key = m_cacheSize > 0 ? Hash(headerAuth) : null;
+        if (key != null)
+        {
+            synchronized (m_verified)
+            {
+                final Verified verified = m_verified.get(key);
+                if (verified != null)
+                {
+                    if (System.nanoTime() - verified.time < m_cacheTtlNanos)
+                    {
+                        return verified;
+                    }
+                    m_verified.remove(key);
+                }
+            }
+        }
+
+        final byte[] tempConverted;
+        try
+        {
+            tempConverted = Base64.getDecoder().decode(headerAuth.replace("Basic ", "").trim());
+        }
+        catch (IllegalArgumentException ex)
+        {
+            return null;
+        }
+        final String userInfo = new String(tempConverted, StandardCharsets.UTF_8);
+
+        final String[] usernamePassword = userInfo.split(":");
+        if (usernamePassword.length != 2)
+        {
+            return null;
+        }
+
+        final String username = usernamePassword[0].trim();
+        final String password = usernamePassword[1].trim();
+
+        if (username.equals("") || password.equals(""))
+        {
+            return null;
+        }
+
+        if (!m_authorization.CheckAccess(username, password))
+        {
+            //failures are not cached, so a fixed password is accepted at once
+            return null;
+        }
+
+        final Verified verified = new Verified(username, System.nanoTime());
+        if (key != null)
+        {
+            final long now = verified.time;
+            synchronized (m_verified)
+            {
+                m_verified.remove(key);
+                m_verified.put(key, verified);
+                final Iterator<Map.Entry<String, Verified>> iterator = m_verified.entrySet().iterator();
+                while (iterator.hasNext())
+                {
+                    final Verified oldest = iterator.next().getValue();
+                    if (m_verified.size() <= m_cacheSize && now - oldest.time < m_cacheTtlNanos)
+                    {
+                        break;
+                    }
+                    iterator.remove();
+                }
+            }
+        }
+        return verified;
+    }
+
+    /**
+     * Token is {@code base64(username).expiry.base64(hmac)}
+     */
+    private String IssueToken(final String username, final long expiry)
+    {
+        final String payload = Base64.getUrlEncoder().withoutPadding().encodeToString(username.getBytes(StandardCharsets.UTF_8))
+            + "." + expiry;
+        return payload + "." + Base64.getUrlEncoder().withoutPadding().encodeToString(Sign(payload));
+    }
+
+    /**
+     * @return username of a token that passed {@link #CheckToken(String)}
+     */
+    private static String TokenUsername(final String token)
+    {
+        return new String(Base64.getUrlDecoder().decode(token.substring(0, token.indexOf('.'))), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return expiry of the token in milliseconds since the epoch, or -1 if it is forged, malformed or expired
+     */
+    private long CheckToken(final String token)
+    {
+        final int signatureStart = token.lastIndexOf('.');
+        final int expiryStart = signatureStart > 0 ? token.lastIndexOf('.', signatureStart - 1) : -1;
+        if (expiryStart < 0)
+        {
+            return -1;
+        }
+
+        final String payload = token.substring(0, signatureStart);
+        final byte[] signature;
+        final long expiry;
+        try
+        {
+            signature = Base64.getUrlDecoder().decode(token.substring(signatureStart + 1));
+            expiry = Long.parseLong(payload.substring(expiryStart + 1));
+        }
+        catch (IllegalArgumentException ex)
+        {
+            //NumberFormatException included
+            return -1;
+        }
+        //constant time comparison, so the signature can not be guessed byte by byte
+        return MessageDigest.isEqual(signature, Sign(payload)) && System.currentTimeMillis() < expiry ? expiry : -1;
+    }
+
+    private byte[] Sign(final String payload)
+    {
+        Mac mac;
+        try
+        {
+            mac = (Mac)m_mac.clone();
+        }
+        catch (CloneNotSupportedException ex)
+        {
+            synchronized (m_mac)
+            {
+                return m_mac.doFinal(payload.getBytes(StandardCharsets.UTF_8));
+            }
+        }
+        return mac.doFinal(payload.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * The cache keeps no credentials, only their hash
+     */
+    private static String Hash(final String headerAuth)
+    {
+        try
+        {
+            final MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return Base64.getEncoder().encodeToString(digest.digest(headerAuth.getBytes(StandardCharsets.UTF_8)));
+        }
+        catch (NoSuchAlgorithmException ex)
+        {
+            throw new RuntimeException("SHA-256 is not supported - should not happen", ex);
+        }
+    }
+
+    private final class Verified
+    {
+        final String username;
+        /** System.nanoTime() of the verification */
+        final long time;
+        /** last session token issued for these credentials; guarded by this */
+        private String m_token;
+        private long m_tokenExpiry;
+
+        Verified(final String username, final long time)
+        {
+            this.username = username;
+            this.time = time;
+        }
+
+        /**
+         * @return the token issued before, or a new one if it is past half its lifetime
+         */
+        synchronized String SessionToken()
+        {
+            final long now = System.currentTimeMillis();
+            if (m_token == null || m_tokenExpiry - now < m_sessionMillis / 2)
+            {
+                m_tokenExpiry = now + m_sessionMillis;
+                m_token = IssueToken(username, m_tokenExpiry);
+            }
+            return m_token;
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package org.sjsmp.server;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Change sequence of every property of one registered object. Lock free: each property has its own slot,
+ * and the highest sequence of the object lets readers skip unchanged objects without looking at the slots.
+ * Sequences only grow, a mark with an older sequence than the one in the slot is ignored.
+ */
+final class ChangeTracker
+{
+    private final AtomicLongArray m_sequences;
+    private final AtomicLong m_lastSequence = new AtomicLong();
+
+    public ChangeTracker(final int propertyCount)
+    {
+        m_sequences = new AtomicLongArray(propertyCount);
+    }
+
+    public void Mark(final int index, final long sequence)
+    {
+        UpdateSlot(index, sequence);
+        UpdateLast(sequence);
+    }
+
+    public void MarkAll(final long sequence)
+    {
+        for (int i = 0; i < m_sequences.length(); ++i)
+        {
+            UpdateSlot(i, sequence);
+        }
+        UpdateLast(sequence);
+    }
+
+    public boolean ChangedSince(final long sequence)
+    {
+        return m_lastSequence.get() > sequence;
+    }
+
+    public boolean ChangedSince(final int index, final long sequence)
+    {
+        return m_sequences.get(index) > sequence;
+    }
+
+    private void UpdateSlot(final int index, final long sequence)
+    {
+        for (;;)
+        {
+            final long current = m_sequences.get(index);
+            if (current >= sequence || m_sequences.compareAndSet(index, current, sequence))
+            {
+                return;
+            }
+        }
+    }
+
+    private void UpdateLast(final long sequence)
+    {
+        for (;;)
+        {
+            final long last = m_lastSequence.get();
+            if (last >= sequence || m_lastSequence.compareAndSet(last, sequence))
+            {
+                return;
+            }
+        }
+    }
+}
@@ -0,0 +1,194 @@
+package org.sjsmp.server;
+
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Properties and actions of a registered class, found by reflection once per class and server and shared by all its instances,
+ * see {@link ClassDescriptionCache}. Never modified after construction. Instrumented servers use a copy bound to their latency histograms.
+ */
+final class ClassDescription
+{
+    public final Class<?> type;
+    public final Map<String, PropertyDescription> properties;
+    public final Map<String, ActionDescription> actions;
+    /** properties in the order of the {@link ChangeTracker} slots of the instances */
+    public final PropertyDescription[] propertyList;
+    private final Map<String, Integer> m_propertyIndex;
+    public final SnapshotWriter snapshotWriter;
+    /** getter latencies in the slot order of {@link #snapshotWriter}; null if not instrumented */
+    public final LatencyHistogram[] snapshotLatencies;
+    /** serialized "properties" and "actions" members of the object schema */
+    public final byte[] propertiesSchema;
+    public final byte[] actionsSchema;
+
+    public ClassDescription(final Class<?> type) throws SjsmpServerException
+    {
+        this.type = type;
+        this.properties = new HashMap<>();
+        this.actions = new HashMap<>();
+
+        Map<String, Method> methods = new HashMap<>();
+        for (Method method : type.getDeclaredMethods())
+        {
+            methods.put(method.getName(), method);
+        }
+
+        for (Map.Entry<String, Method> pair : methods.entrySet())
+        {
+            final String methodName = pair.getKey();
+            final Method method = pair.getValue();
+
+            final SjsmpProperty property = method.getAnnotation(SjsmpProperty.class);
+            if (property != null && methodName.startsWith("get"))
+            {
+                if (method.getParameterCount() != 0)
+                {
+                    continue;
+                }
+
+                final Class<?> propertyType = method.getReturnType();
+                final String methodBaseName = methodName.substring("get".length());
+
+                Method methodSetter = null;
+                if (!property.readonly())
+                {
+                    final String setterMethodName = "set" + methodBaseName;
+                    if ((methodSetter = methods.get(setterMethodName)) != null)
+                    {
+                        final Class<?>[] setterParameters = methodSetter.getParameterTypes();
+                        if (setterParameters.length != 1)
+                        {
+                            methodSetter = null;
+                        }
+                        else if (!setterParameters[0].equals(propertyType))
+                        {
+                            methodSetter = null;
+                        }
+                        else if (!methodSetter.getReturnType().equals(void.class))
+                        {
+                            methodSetter = null;
+                        }
+                    }
+                }
+
+                method.setAccessible(true);
+                if (methodSetter != null)
+                {
+                    methodSetter.setAccessible(true);
+                }
+
+                boolean showGraph = property.showGraph();
+
+                final PropertyDescription foundProperty = new PropertyDescription(methodBaseName, property.value(), propertyType, method, methodSetter, showGraph, null);
+                properties.put(methodBaseName, foundProperty);
+                continue;
+            }
+
+            final SjsmpAction action = method.getAnnotation(SjsmpAction.class);
+            if (action != null)
+            {
+                method.setAccessible(true);
+                final ActionDescription actionDescription = new ActionDescription(methodName, action.value(), action.requireConfirm(), action.async(), method, null);
+                actions.put(methodName, actionDescription);
+                continue;
+            }
+        }
+
+        this.propertyList = properties.values().toArray(new PropertyDescription[properties.size()]);
+        this.m_propertyIndex = new HashMap<>();
+        for (int i = 0; i < propertyList.length; ++i)
+        {
+            m_propertyIndex.put(propertyList[i].name, i);
+        }
+        //slot i of the writer is property i, so a slot can be used as a ChangeTracker index
+        this.snapshotWriter = new SnapshotWriter(Arrays.asList(propertyList));
+        this.snapshotLatencies = null;
+
+        final JsonWriter writer = JsonWriter.Acquire();
+        try
+        {
+            writer.BeginObject();
+            for (final PropertyDescription pd : this.propertyList)
+            {
+                writer.Name(pd.name);
+                pd.WriteSchema(writer);
+            }
+            writer.EndObject();
+            this.propertiesSchema = writer.ToByteArray();
+
+            writer.Reset();
+            writer.BeginObject();
+            for (final ActionDescription ad : this.actions.values())
+            {
+                writer.Name(ad.name);
+                ad.WriteSchema(writer);
+            }
+            writer.EndObject();
+            this.actionsSchema = writer.ToByteArray();
+        }
+        finally
+        {
+            JsonWriter.Release(writer);
+        }
+    }
+
+    /**
+     * Copy of {@code other} recording latencies to the histograms of {@code instrumentation}
+     */
+    public ClassDescription(final ClassDescription other, final Instrumentation instrumentation)
+    {
+        this.type = other.type;
+        this.properties = new HashMap<>();
+        this.actions = new HashMap<>();
+        this.propertyList = new PropertyDescription[other.propertyList.length];
+        for (int i = 0; i < propertyList.length; ++i)
+        {
+            final PropertyDescription pd = other.propertyList[i];
+            propertyList[i] = new PropertyDescription(pd, instrumentation.Member("property", type, pd.name));
+            properties.put(pd.name, propertyList[i]);
+        }
+        for (final ActionDescription ad : other.actions.values())
+        {
+            actions.put(ad.name, new ActionDescription(ad, instrumentation.Member("action", type, ad.name)));
+        }
+        this.m_propertyIndex = other.m_propertyIndex;
+        //the writer holds no histograms, the instrumented copy passes its own to Write()
+        this.snapshotWriter = other.snapshotWriter;
+        this.snapshotLatencies = snapshotWriter.Latencies(properties);
+        this.propertiesSchema = other.propertiesSchema;
+        this.actionsSchema = other.actionsSchema;
+    }
+
+    /**
+     * @return slot of the property or -1 if there is no such property
+     */
+    public int PropertyIndex(final String propertyName)
+    {
+        final Integer index = m_propertyIndex.get(propertyName);
+        return index != null ? index : -1;
+    }
+
+    /**
+     * @return slots of the named properties; unknown and repeated names are left out
+     */
+    public int[] PropertyIndexes(final List<String> propertyNames)
+    {
+        final int[] indexes = new int[propertyNames.size()];
+        final boolean[] seen = new boolean[propertyList.length];
+        int count = 0;
+        for (final String propertyName : propertyNames)
+        {
+            final Integer index = m_propertyIndex.get(propertyName);
+            if (index != null && !seen[index])
+            {
+                seen[index] = true;
+                indexes[count++] = index;
+            }
+        }
+        return count == indexes.length ? indexes : Arrays.copyOf(indexes, count);
+    }
+}
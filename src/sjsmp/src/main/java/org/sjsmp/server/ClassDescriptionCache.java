@@ -0,0 +1,39 @@
+package org.sjsmp.server;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Class descriptions of the objects registered on one server, made once per class and bound to its instrumentation.
+ * Owned by the server and cleared when it is closed, so the reflective members of a class loaded by a webapp or plugin
+ * class loader do not keep the class, and its loader, alive beyond the server.
+ */
+final class ClassDescriptionCache
+{
+    private final ConcurrentHashMap<Class<?>, ClassDescription> m_classes = new ConcurrentHashMap<>();
+    /** null if the server is not instrumented */
+    private final Instrumentation m_instrumentation;
+
+    public ClassDescriptionCache(final Instrumentation instrumentation)
+    {
+        this.m_instrumentation = instrumentation;
+    }
+
+    public ClassDescription ForClass(final Class<?> type) throws SjsmpServerException
+    {
+        final ClassDescription description = m_classes.get(type);
+        if (description != null)
+        {
+            return description;
+        }
+        //a class that can not be described is described again on the next attempt; registration fails either way
+        final ClassDescription plain = new ClassDescription(type);
+        final ClassDescription created = m_instrumentation != null ? new ClassDescription(plain, m_instrumentation) : plain;
+        final ClassDescription existing = m_classes.putIfAbsent(type, created);
+        return existing != null ? existing : created;
+    }
+
+    public void Clear()
+    {
+        m_classes.clear();
+    }
+}
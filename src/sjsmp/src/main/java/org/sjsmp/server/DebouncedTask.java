@@ -0,0 +1,85 @@
+package org.sjsmp.server;
+
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs a task once after a burst of requests: when no request came for the quiet period,
+ * or when the oldest pending request has waited for the max delay, whichever comes first.
+ */
+final class DebouncedTask
+{
+    private final ScheduledExecutorService m_executor;
+    private final Runnable m_task;
+    private final long m_quietNanos;
+    private final long m_maxDelayNanos;
+
+    //guarded by this
+    private boolean m_pending;
+    private boolean m_scheduled;
+    private long m_firstRequest;
+    private long m_lastRequest;
+
+    public DebouncedTask(final ScheduledExecutorService executor, final Runnable task, final long quietMillis, final long maxDelayMillis)
+    {
+        this.m_executor = executor;
+        this.m_task = task;
+        this.m_quietNanos = TimeUnit.MILLISECONDS.toNanos(quietMillis);
+        this.m_maxDelayNanos = TimeUnit.MILLISECONDS.toNanos(maxDelayMillis);
+    }
+
+    public synchronized void Request()
+    {
+        final long now = System.nanoTime();
+        if (!m_pending)
+        {
+            m_pending = true;
+            m_firstRequest = now;
+        }
+        m_lastRequest = now;
+        if (!m_scheduled)
+        {
+            m_scheduled = true;
+            Schedule(m_quietNanos);
+        }
+    }
+
+    private void Schedule(final long delayNanos)
+    {
+        try
+        {
+            m_executor.schedule(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    Check();
+                }
+            }, delayNanos, TimeUnit.NANOSECONDS);
+        }
+        catch (RejectedExecutionException ex)
+        {
+            //executor is shut down
+            m_scheduled = false;
+        }
+    }
+
+    private void Check()
+    {
+        synchronized (this)
+        {
+            final long now = System.nanoTime();
+            final long due = Math.min(m_lastRequest + m_quietNanos, m_firstRequest + m_maxDelayNanos);
+            if (now - due < 0)
+            {
+                Schedule(due - now);
+                return;
+            }
+            //requests arriving while the task runs schedule the next run
+            m_pending = false;
+            m_scheduled = false;
+        }
+        m_task.run();
+    }
+}
@@ -0,0 +1,132 @@
+package org.sjsmp.server;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Periodically samples all registered {@link PropertyHistory} instances; histories with the same interval share one scheduled task
+ */
+final class HistorySampler implements AutoCloseable
+{
+    private final Logger m_logger = LoggerFactory.getLogger(HistorySampler.class);
+    private final ScheduledThreadPoolExecutor m_scheduler;
+    private final Map<Integer, Group> m_groups = new HashMap<>();
+
+    public HistorySampler()
+    {
+        m_scheduler = new ScheduledThreadPoolExecutor(1, new NamedThreadFactory("SjsmpHistory"));
+        m_scheduler.setRemoveOnCancelPolicy(true);
+    }
+
+    public void Add(final PropertyHistory history)
+    {
+        synchronized (m_groups)
+        {
+            AddToGroup(history);
+        }
+    }
+
+    /**
+     * Same as {@link #Add(PropertyHistory)} for all histories, taking the lock once
+     */
+    public void AddAll(final Collection<PropertyHistory> histories)
+    {
+        synchronized (m_groups)
+        {
+            for (final PropertyHistory history : histories)
+            {
+                AddToGroup(history);
+            }
+        }
+    }
+
+    public void Remove(final PropertyHistory history)
+    {
+        synchronized (m_groups)
+        {
+            RemoveFromGroup(history);
+        }
+    }
+
+    /**
+     * Same as {@link #Remove(PropertyHistory)} for all histories, taking the lock once
+     */
+    public void RemoveAll(final Collection<PropertyHistory> histories)
+    {
+        synchronized (m_groups)
+        {
+            for (final PropertyHistory history : histories)
+            {
+                RemoveFromGroup(history);
+            }
+        }
+    }
+
+    private void AddToGroup(final PropertyHistory history)
+    {
+        Group group = m_groups.get(history.IntervalMillis());
+        if (group == null)
+        {
+            group = new Group();
+            m_groups.put(history.IntervalMillis(), group);
+            group.m_future = m_scheduler.scheduleAtFixedRate(group, 0, history.IntervalMillis(), TimeUnit.MILLISECONDS);
+        }
+        group.m_histories.add(history);
+    }
+
+    private void RemoveFromGroup(final PropertyHistory history)
+    {
+        final Group group = m_groups.get(history.IntervalMillis());
+        if (group == null)
+        {
+            return;
+        }
+        group.m_histories.remove(history);
+        if (group.m_histories.isEmpty())
+        {
+            group.m_future.cancel(false);
+            m_groups.remove(history.IntervalMillis());
+        }
+    }
+
+    @Override
+    public void close()
+    {
+        m_scheduler.shutdownNow();
+    }
+
+    private final class Group implements Runnable
+    {
+        //a concurrent set: adding or removing one history costs the same however many there are, and sampling never blocks registration
+        private final Set<PropertyHistory> m_histories = Collections.newSetFromMap(new ConcurrentHashMap<PropertyHistory, Boolean>());
+        private ScheduledFuture<?> m_future;
+
+        @Override
+        public void run()
+        {
+            final long now = System.currentTimeMillis();
+            for (final PropertyHistory history : m_histories)
+            {
+                try
+                {
+                    history.Sample(now);
+                }
+                catch (Throwable e)
+                {
+                    //an exception would cancel the scheduled task
+                    m_logger.debug("Failed to sample property '" + history.Name() + "': " + e.getMessage());
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,17 @@
+package org.sjsmp.server;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+
+/**
+ * HTTP server implementation used by {@link SjsmpServer}
+ */
+interface HttpTransport
+{
+    /**
+     * @throws java.net.BindException if the address is already in use
+     */
+    void Start(final InetSocketAddress address, final HttpTransportHandler handler) throws IOException;
+
+    void Stop();
+}
@@ -0,0 +1,65 @@
+package org.sjsmp.server;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.util.List;
+
+import org.sjsmp.HttpStatusCode;
+
+/**
+ * Single HTTP request and its response, independent of the transport
+ */
+abstract class HttpTransportExchange
+{
+    public abstract InetSocketAddress GetRemoteAddress();
+
+    public abstract String GetRequestMethod();
+
+    /**
+     * @return first value of the header or null; header names are case insensitive
+     */
+    public abstract String GetRequestHeader(final String name);
+
+    /**
+     * @return all values of the header or null if there is no such header
+     */
+    public abstract List<String> GetRequestHeaders(final String name);
+
+    public abstract InputStream GetRequestBody();
+
+    public abstract void AddResponseHeader(final String name, final String value);
+
+    /**
+     * Sends the whole response with exact Content-Length. The body is copied or written before the method returns.
+     * @param body response body or null if the response has no body
+     */
+    public abstract void SendResponse(final HttpStatusCode code, final byte[] body, final int offset, final int length) throws IOException;
+
+    /**
+     * Sends the response header and keeps the connection open for a body of unknown length.
+     * The connection is not reused after the stream is closed.
+     */
+    public abstract HttpTransportStream StartStream(final HttpStatusCode code) throws IOException;
+
+    /**
+     * Aborts the exchange without sending a response
+     */
+    public abstract void Close();
+
+    public long GetContentLength()
+    {
+        final String contentLength = GetRequestHeader("Content-Length");
+        if (contentLength != null)
+        {
+            try
+            {
+                return Long.parseLong(contentLength.trim());
+            }
+            catch (NumberFormatException ex)
+            {
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,11 @@
+package org.sjsmp.server;
+
+import java.io.IOException;
+
+interface HttpTransportHandler
+{
+    /**
+     * Called for every received request. The exchange may be completed later from any thread.
+     */
+    void Handle(final HttpTransportExchange exchange) throws IOException;
+}
@@ -0,0 +1,18 @@
+package org.sjsmp.server;
+
+import java.io.IOException;
+
+/**
+ * Response body of unknown length, see {@link HttpTransportExchange#StartStream(org.sjsmp.HttpStatusCode)}.
+ * Not thread safe: only one thread may write at a time.
+ */
+interface HttpTransportStream
+{
+    /**
+     * Sends the data; may block until it is written to the socket
+     * @throws IOException if the peer is gone or does not read the stream fast enough
+     */
+    void Write(final byte[] data, final int offset, final int length) throws IOException;
+
+    void Close();
+}
@@ -0,0 +1,158 @@
+package org.sjsmp.server;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters and latency histograms of one {@link SjsmpServer}, registered on it as a regular object.
+ * Getter and action histograms are shared by all registered instances of a class and bound at registration,
+ * so recording on the request path is a couple of counter increments.
+ */
+final class Instrumentation
+{
+    public static final String OBJECT_NAME = "sjsmp";
+
+    private static final String OTHER_REQUEST = "other";
+    private static final String[] REQUEST_TYPES = {
+        "schema", "get_properties", "set_property", "execute", "get_history", "get_job", "cancel_job", "batch", "subscribe", OTHER_REQUEST
+    };
+
+    private final LongAdder m_requests = new LongAdder();
+    private final LongAdder m_errors = new LongAdder();
+    private final LongAdder m_bytesIn = new LongAdder();
+    private final LongAdder m_bytesOut = new LongAdder();
+    private final LongAdder m_inFlightRequests = new LongAdder();
+    //filled in the constructor and only read afterwards
+    private final Map<String, LatencyHistogram> m_requestLatencies = new HashMap<>();
+    private final ConcurrentHashMap<String, LatencyHistogram> m_memberLatencies = new ConcurrentHashMap<>();
+
+    public Instrumentation()
+    {
+        for (final String type : REQUEST_TYPES)
+        {
+            m_requestLatencies.put(type, new LatencyHistogram());
+        }
+    }
+
+    public void RequestStarted()
+    {
+        m_requests.increment();
+        m_inFlightRequests.increment();
+    }
+
+    /**
+     * @param type 'action' of the request, "schema" or null if the request was rejected before it was parsed
+     */
+    public void RequestFinished(final String type, final long nanos)
+    {
+        m_inFlightRequests.decrement();
+        if (type != null)
+        {
+            LatencyHistogram histogram = m_requestLatencies.get(type);
+            if (histogram == null)
+            {
+                histogram = m_requestLatencies.get(OTHER_REQUEST);
+            }
+            histogram.Record(nanos);
+        }
+    }
+
+    public void Error()
+    {
+        m_errors.increment();
+    }
+
+    public void BytesIn(final long bytes)
+    {
+        m_bytesIn.add(bytes);
+    }
+
+    public void BytesOut(final long bytes)
+    {
+        m_bytesOut.add(bytes);
+    }
+
+    /**
+     * @return histogram of a property getter or an action, shared by all instances of the declaring class;
+     * classes are told apart by their fully qualified names
+     */
+    public LatencyHistogram Member(final String kind, final Class<?> type, final String name)
+    {
+        final String key = kind + ":" + type.getName() + "." + name;
+        final LatencyHistogram histogram = m_memberLatencies.get(key);
+        if (histogram != null)
+        {
+            return histogram;
+        }
+        final LatencyHistogram created = new LatencyHistogram();
+        final LatencyHistogram existing = m_memberLatencies.putIfAbsent(key, created);
+        return existing != null ? existing : created;
+    }
+
+
+    @SjsmpProperty("Number of received requests")
+    public long getRequests()
+    {
+        return m_requests.sum();
+    }
+
+    @SjsmpProperty("Number of requests answered with an error")
+    public long getErrors()
+    {
+        return m_errors.sum();
+    }
+
+    @SjsmpProperty("Request body bytes received")
+    public long getBytesIn()
+    {
+        return m_bytesIn.sum();
+    }
+
+    @SjsmpProperty("Response body bytes sent, not counting subscription events")
+    public long getBytesOut()
+    {
+        return m_bytesOut.sum();
+    }
+
+    @SjsmpProperty(value = "Requests being handled", showGraph = true)
+    public long getInFlightRequests()
+    {
+        return m_inFlightRequests.sum();
+    }
+
+    //no parameters: their names are only known to the server if the library is compiled with -parameters
+    @SjsmpAction("Latency percentiles of requests ('request:<action>'), property getters ('property:<class>.<name>') and actions ('action:<class>.<name>'), one line each")
+    public String latencies()
+    {
+        final Map<String, LatencyHistogram> histograms = new TreeMap<>(m_memberLatencies);
+        for (final Map.Entry<String, LatencyHistogram> entry : m_requestLatencies.entrySet())
+        {
+            histograms.put("request:" + entry.getKey(), entry.getValue());
+        }
+
+        final StringBuilder out = new StringBuilder();
+        for (final Map.Entry<String, LatencyHistogram> entry : histograms.entrySet())
+        {
+            out.append(entry.getKey()).append(' ');
+            entry.getValue().Report(out);
+            out.append('\n');
+        }
+        return out.toString();
+    }
+
+    @SjsmpAction("Clears all latency histograms")
+    public void resetLatencies()
+    {
+        for (final LatencyHistogram histogram : m_requestLatencies.values())
+        {
+            histogram.Reset();
+        }
+        for (final LatencyHistogram histogram : m_memberLatencies.values())
+        {
+            histogram.Reset();
+        }
+    }
+}
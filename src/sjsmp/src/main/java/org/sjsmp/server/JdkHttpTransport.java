@@ -0,0 +1,143 @@
+package org.sjsmp.server;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.List;
+
+import org.sjsmp.HttpStatusCode;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Transport based on the JDK's com.sun.net.httpserver.HttpServer.
+ * HttpServer writes the response head and body separately, so with Nagle's algorithm every request on a kept-alive connection
+ * waits for a delayed ACK; run the JVM with -Dsun.net.httpserver.nodelay=true to avoid it.
+ */
+final class JdkHttpTransport implements HttpTransport
+{
+    private HttpServer m_server;
+
+    @Override
+    public void Start(final InetSocketAddress address, final HttpTransportHandler handler) throws IOException
+    {
+        m_server = HttpServer.create(address, 0);
+        m_server.createContext("/", new HttpHandler()
+        {
+            @Override
+            public void handle(final HttpExchange t) throws IOException
+            {
+                handler.Handle(new JdkExchange(t));
+            }
+        });
+        m_server.setExecutor(null); // creates a default executor
+        m_server.start();
+    }
+
+    @Override
+    public void Stop()
+    {
+        if (m_server != null)
+        {
+            m_server.stop(0);
+            m_server = null;
+        }
+    }
+
+    private static final class JdkExchange extends HttpTransportExchange
+    {
+        private final HttpExchange m_exchange;
+
+        public JdkExchange(final HttpExchange exchange)
+        {
+            this.m_exchange = exchange;
+        }
+
+        @Override
+        public InetSocketAddress GetRemoteAddress()
+        {
+            return m_exchange.getRemoteAddress();
+        }
+
+        @Override
+        public String GetRequestMethod()
+        {
+            return m_exchange.getRequestMethod();
+        }
+
+        @Override
+        public String GetRequestHeader(final String name)
+        {
+            return m_exchange.getRequestHeaders().getFirst(name);
+        }
+
+        @Override
+        public List<String> GetRequestHeaders(final String name)
+        {
+            return m_exchange.getRequestHeaders().get(name);
+        }
+
+        @Override
+        public InputStream GetRequestBody()
+        {
+            return m_exchange.getRequestBody();
+        }
+
+        @Override
+        public void AddResponseHeader(final String name, final String value)
+        {
+            m_exchange.getResponseHeaders().add(name, value);
+        }
+
+        @Override
+        public void SendResponse(final HttpStatusCode code, final byte[] body, final int offset, final int length) throws IOException
+        {
+            //for HttpServer 0 means chunked and -1 means no body
+            if (body == null || length == 0)
+            {
+                //sendResponseHeaders() finishes such an exchange at once, so the rest of the request must be consumed first
+                //or HttpServer drops the kept-alive connection; closing the response body would finish the exchange twice
+                m_exchange.getRequestBody().close();
+                m_exchange.sendResponseHeaders(code.code, -1);
+                m_exchange.close();
+                return;
+            }
+            m_exchange.sendResponseHeaders(code.code, length);
+            try (final OutputStream os = m_exchange.getResponseBody())
+            {
+                os.write(body, offset, length);
+            }
+        }
+
+        @Override
+        public HttpTransportStream StartStream(final HttpStatusCode code) throws IOException
+        {
+            m_exchange.sendResponseHeaders(code.code, 0);
+            final OutputStream os = m_exchange.getResponseBody();
+            return new HttpTransportStream()
+            {
+                @Override
+                public void Write(final byte[] data, final int offset, final int length) throws IOException
+                {
+                    os.write(data, offset, length);
+                    os.flush();
+                }
+
+                @Override
+                public void Close()
+                {
+                    m_exchange.close();
+                }
+            };
+        }
+
+        @Override
+        public void Close()
+        {
+            m_exchange.close();
+        }
+    }
+}
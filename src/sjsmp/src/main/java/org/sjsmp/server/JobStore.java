@@ -0,0 +1,270 @@
+package org.sjsmp.server;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Jobs of asynchronous actions. Running jobs are kept until they finish; finished jobs are kept
+ * for a limited time and up to a limited count, the oldest ones are evicted first.
+ */
+final class JobStore implements AutoCloseable
+{
+    public static final String STATE_RUNNING = "running";
+    public static final String STATE_DONE = "done";
+    public static final String STATE_FAILED = "failed";
+    public static final String STATE_CANCELLED = "cancelled";
+
+    private final ExecutorService m_executor;
+    private final int m_maxFinishedJobs;
+    private final long m_finishedJobTtlMillis;
+    //job ids of another server instance are not found, even after a restart
+    private final String m_epoch = Long.toHexString(ThreadLocalRandom.current().nextLong() & Long.MAX_VALUE);
+    private final AtomicLong m_sequence = new AtomicLong();
+    private final ConcurrentHashMap<String, Job> m_running = new ConcurrentHashMap<>();
+    //in finishing order; guarded by itself
+    private final LinkedHashMap<String, Job> m_finished = new LinkedHashMap<>();
+
+    public JobStore(final ExecutorService executor, final int maxFinishedJobs, final long finishedJobTtlMillis)
+    {
+        this.m_executor = executor;
+        this.m_maxFinishedJobs = maxFinishedJobs;
+        this.m_finishedJobTtlMillis = finishedJobTtlMillis;
+    }
+
+    /**
+     * @param task returns the result; a returned {@link Future} is waited for
+     * @throws java.util.concurrent.RejectedExecutionException if the store is closed
+     */
+    public Job Submit(final String objectName, final String actionName, final Callable<Object> task)
+    {
+        final Job job = new Job(m_epoch + "-" + Long.toHexString(m_sequence.incrementAndGet()), objectName, actionName, task);
+        m_running.put(job.id, job);
+        try
+        {
+            job.Start(m_executor.submit(job));
+        }
+        catch (RuntimeException ex)
+        {
+            m_running.remove(job.id);
+            throw ex;
+        }
+        return job;
+    }
+
+    /**
+     * @return null if the job is unknown or already evicted
+     */
+    public Job Get(final String id)
+    {
+        final Job job = m_running.get(id);
+        if (job != null)
+        {
+            return job;
+        }
+        synchronized (m_finished)
+        {
+            Evict(System.currentTimeMillis());
+            return m_finished.get(id);
+        }
+    }
+
+    private void Finished(final Job job)
+    {
+        synchronized (m_finished)
+        {
+            m_finished.put(job.id, job);
+            Evict(job.EndTime());
+        }
+        m_running.remove(job.id);
+    }
+
+    //guarded by m_finished
+    private void Evict(final long now)
+    {
+        final Iterator<Job> it = m_finished.values().iterator();
+        while (it.hasNext())
+        {
+            final Job job = it.next();
+            if (m_finished.size() <= m_maxFinishedJobs && now - job.EndTime() < m_finishedJobTtlMillis)
+            {
+                break;
+            }
+            it.remove();
+        }
+    }
+
+    @Override
+    public void close()
+    {
+        m_executor.shutdownNow();
+        for (final Job job : m_running.values())
+        {
+            job.Cancel();
+        }
+    }
+
+    final class Job implements Runnable
+    {
+        public final String id;
+        public final String objectName;
+        public final String actionName;
+        public final long startTime = System.currentTimeMillis();
+        private final Callable<Object> m_task;
+
+        //guarded by this
+        private String m_state = STATE_RUNNING;
+        private Object m_value;
+        private String m_message;
+        private long m_endTime;
+        private Future<?> m_future;
+        private Future<?> m_result;
+
+        private Job(final String id, final String objectName, final String actionName, final Callable<Object> task)
+        {
+            this.id = id;
+            this.objectName = objectName;
+            this.actionName = actionName;
+            this.m_task = task;
+        }
+
+        private synchronized void Start(final Future<?> future)
+        {
+            m_future = future;
+            if (!m_state.equals(STATE_RUNNING))
+            {
+                future.cancel(true);
+            }
+        }
+
+        @Override
+        public void run()
+        {
+            try
+            {
+                Object value = m_task.call();
+                if (value instanceof Future)
+                {
+                    final Future<?> result = (Future<?>)value;
+                    synchronized (this)
+                    {
+                        m_result = result;
+                        if (!m_state.equals(STATE_RUNNING))
+                        {
+                            result.cancel(true);
+                            return;
+                        }
+                    }
+                    value = result.get();
+                }
+                Complete(STATE_DONE, value, null);
+            }
+            catch (CancellationException | InterruptedException ex)
+            {
+                Complete(STATE_CANCELLED, null, null);
+            }
+            catch (Throwable ex)
+            {
+                //an Error would otherwise be swallowed by the executor's future and leave the job running forever
+                Complete(STATE_FAILED, null, Message(ex));
+            }
+        }
+
+        public void Cancel()
+        {
+            final Future<?> future;
+            final Future<?> result;
+            synchronized (this)
+            {
+                future = m_future;
+                result = m_result;
+            }
+            if (Complete(STATE_CANCELLED, null, null))
+            {
+                if (future != null)
+                {
+                    future.cancel(true);
+                }
+                if (result != null)
+                {
+                    result.cancel(true);
+                }
+            }
+        }
+
+        private boolean Complete(final String state, final Object value, final String message)
+        {
+            synchronized (this)
+            {
+                if (!m_state.equals(STATE_RUNNING))
+                {
+                    return false;
+                }
+                m_state = state;
+                m_value = value;
+                m_message = message;
+                m_endTime = System.currentTimeMillis();
+            }
+            Finished(this);
+            return true;
+        }
+
+        private synchronized long EndTime()
+        {
+            return m_endTime;
+        }
+
+        public synchronized void Write(final JsonWriter writer)
+        {
+            writer.Name("job_id");
+            writer.Value(id);
+            writer.Name("object_name");
+            writer.Value(objectName);
+            writer.Name("action_name");
+            writer.Value(actionName);
+            writer.Name("state");
+            writer.Value(m_state);
+            writer.Name("started");
+            writer.Value(startTime);
+            if (!m_state.equals(STATE_RUNNING))
+            {
+                writer.Name("finished");
+                writer.Value(m_endTime);
+            }
+            //null value is omitted, same as for 'execute'
+            if (m_value != null)
+            {
+                writer.Name("value");
+                writer.Value(m_value);
+            }
+            if (m_message != null)
+            {
+                writer.Name("message");
+                writer.Value(m_message);
+            }
+        }
+    }
+
+    /**
+     * @return message of the exception thrown by the action itself, without the reflection and executor wrappers
+     */
+    private static String Message(final Throwable ex)
+    {
+        Throwable cause = ex;
+        while ((cause instanceof SjsmpServerException || cause instanceof InvocationTargetException || cause instanceof ExecutionException)
+            && cause.getCause() != null)
+        {
+            cause = cause.getCause();
+        }
+        return cause.getMessage() != null ? cause.getMessage() : cause.getClass().getName();
+    }
+}
@@ -0,0 +1,519 @@
+package org.sjsmp.server;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Pull-style JSON reader over a UTF-8 byte buffer. Callers walk the members they need and skip the rest,
+ * so no tree is built for parts of the document nobody reads.
+ * Numbers are returned as Integer, Long or Double, the same types org.json produces.
+ */
+final class JsonReader
+{
+    private static final int MAX_DEPTH = 64;
+
+    private final byte[] m_buffer;
+    private final int m_end;
+    private int m_pos;
+    private boolean m_afterValue;
+    private char[] m_chars = new char[64];
+
+    public JsonReader(final byte[] buffer, final int offset, final int length)
+    {
+        this.m_buffer = buffer;
+        this.m_pos = offset;
+        this.m_end = offset + length;
+    }
+
+    /**
+     * @return true if there is nothing but whitespace left
+     */
+    public boolean IsEnd()
+    {
+        SkipWhitespace();
+        return m_pos >= m_end;
+    }
+
+    public void BeginObject() throws SjsmpArgumentException
+    {
+        Expect('{');
+        m_afterValue = false;
+    }
+
+    public void EndObject() throws SjsmpArgumentException
+    {
+        Expect('}');
+        m_afterValue = true;
+    }
+
+    public void BeginArray() throws SjsmpArgumentException
+    {
+        Expect('[');
+        m_afterValue = false;
+    }
+
+    public void EndArray() throws SjsmpArgumentException
+    {
+        Expect(']');
+        m_afterValue = true;
+    }
+
+    /**
+     * @return true if the current object or array has more members
+     */
+    public boolean HasNext() throws SjsmpArgumentException
+    {
+        final byte c = PeekByte();
+        if (c == '}' || c == ']')
+        {
+            return false;
+        }
+        if (m_afterValue)
+        {
+            Expect(',');
+            m_afterValue = false;
+        }
+        return true;
+    }
+
+    public String NextName() throws SjsmpArgumentException
+    {
+        final String name = ReadString();
+        Expect(':');
+        m_afterValue = false;
+        return name;
+    }
+
+    /**
+     * @return 'n' for null, 't' for boolean, '"' for string, '0' for number, '{' for object, '[' for array
+     */
+    public char Peek() throws SjsmpArgumentException
+    {
+        final byte c = PeekByte();
+        switch (c)
+        {
+        case 'n':
+        case '"':
+        case '{':
+        case '[':
+            return (char)c;
+        case 't':
+        case 'f':
+            return 't';
+        default:
+            if (c == '-' || (c >= '0' && c <= '9'))
+            {
+                return '0';
+            }
+            throw Error("Unexpected character '" + (char)c + "'");
+        }
+    }
+
+    public String NextString() throws SjsmpArgumentException
+    {
+        if (PeekByte() != '"')
+        {
+            throw Error("String expected");
+        }
+        final String value = ReadString();
+        m_afterValue = true;
+        return value;
+    }
+
+    /**
+     * Reads any value; objects are returned as Map and arrays as List
+     */
+    public Object NextValue() throws SjsmpArgumentException
+    {
+        final Object value = ReadValue(0);
+        m_afterValue = true;
+        return value;
+    }
+
+    public void SkipValue() throws SjsmpArgumentException
+    {
+        SkipValue(0);
+        m_afterValue = true;
+    }
+
+    private Object ReadValue(final int depth) throws SjsmpArgumentException
+    {
+        switch (Peek())
+        {
+        case '"':
+            return ReadString();
+        case '0':
+            return ReadNumber();
+        case 't':
+            if (TryLiteral("true"))
+            {
+                return Boolean.TRUE;
+            }
+            if (TryLiteral("false"))
+            {
+                return Boolean.FALSE;
+            }
+            throw Error("Bad literal");
+        case 'n':
+            if (TryLiteral("null"))
+            {
+                return null;
+            }
+            throw Error("Bad literal");
+        case '{':
+        {
+            CheckDepth(depth);
+            final Map<String, Object> map = new LinkedHashMap<>();
+            BeginObject();
+            while (HasNext())
+            {
+                final String name = NextName();
+                map.put(name, ReadValue(depth + 1));
+                m_afterValue = true;
+            }
+            EndObject();
+            return map;
+        }
+        case '[':
+        {
+            CheckDepth(depth);
+            final List<Object> list = new ArrayList<>();
+            BeginArray();
+            while (HasNext())
+            {
+                list.add(ReadValue(depth + 1));
+                m_afterValue = true;
+            }
+            EndArray();
+            return list;
+        }
+        default:
+            throw new AssertionError();
+        }
+    }
+
+    private void SkipValue(final int depth) throws SjsmpArgumentException
+    {
+        switch (Peek())
+        {
+        case '{':
+            CheckDepth(depth);
+            BeginObject();
+            while (HasNext())
+            {
+                SkipString();
+                Expect(':');
+                SkipValue(depth + 1);
+                m_afterValue = true;
+            }
+            EndObject();
+            break;
+        case '[':
+            CheckDepth(depth);
+            BeginArray();
+            while (HasNext())
+            {
+                SkipValue(depth + 1);
+                m_afterValue = true;
+            }
+            EndArray();
+            break;
+        case '"':
+            SkipString();
+            break;
+        default:
+            ReadValue(depth);
+        }
+    }
+
+    private void CheckDepth(final int depth) throws SjsmpArgumentException
+    {
+        if (depth >= MAX_DEPTH)
+        {
+            throw Error("Nesting is too deep");
+        }
+    }
+
+    private boolean TryLiteral(final String literal)
+    {
+        final int length = literal.length();
+        if (m_pos + length > m_end)
+        {
+            return false;
+        }
+        for (int i = 0; i < length; ++i)
+        {
+            if (m_buffer[m_pos + i] != literal.charAt(i))
+            {
+                return false;
+            }
+        }
+        m_pos += length;
+        return true;
+    }
+
+    private Object ReadNumber() throws SjsmpArgumentException
+    {
+        final int start = m_pos;
+        boolean negative = false;
+        if (m_buffer[m_pos] == '-')
+        {
+            negative = true;
+            ++m_pos;
+        }
+
+        long value = 0;
+        boolean overflow = false;
+        final int digitsStart = m_pos;
+        while (m_pos < m_end && m_buffer[m_pos] >= '0' && m_buffer[m_pos] <= '9')
+        {
+            final int digit = m_buffer[m_pos++] - '0';
+            //accumulating negative value to be able to represent Long.MIN_VALUE
+            if (value < (Long.MIN_VALUE + digit) / 10)
+            {
+                overflow = true;
+            }
+            value = value * 10 - digit;
+        }
+        if (m_pos == digitsStart)
+        {
+            throw Error("Bad number");
+        }
+
+        boolean fractional = false;
+        if (m_pos < m_end && m_buffer[m_pos] == '.')
+        {
+            fractional = true;
+            ++m_pos;
+            SkipDigits();
+        }
+        if (m_pos < m_end && (m_buffer[m_pos] == 'e' || m_buffer[m_pos] == 'E'))
+        {
+            fractional = true;
+            ++m_pos;
+            if (m_pos < m_end && (m_buffer[m_pos] == '+' || m_buffer[m_pos] == '-'))
+            {
+                ++m_pos;
+            }
+            SkipDigits();
+        }
+
+        if (fractional || overflow || (!negative && value == Long.MIN_VALUE))
+        {
+            final String text = new String(m_buffer, start, m_pos - start, StandardCharsets.ISO_8859_1);
+            try
+            {
+                return Double.valueOf(text);
+            }
+            catch (NumberFormatException ex)
+            {
+                throw Error("Bad number '" + text + "'");
+            }
+        }
+
+        if (!negative)
+        {
+            value = -value;
+        }
+        if (value >= Integer.MIN_VALUE && value <= Integer.MAX_VALUE)
+        {
+            return (int)value;
+        }
+        return value;
+    }
+
+    private void SkipDigits() throws SjsmpArgumentException
+    {
+        final int start = m_pos;
+        while (m_pos < m_end && m_buffer[m_pos] >= '0' && m_buffer[m_pos] <= '9')
+        {
+            ++m_pos;
+        }
+        if (m_pos == start)
+        {
+            throw Error("Bad number");
+        }
+    }
+
+    private void SkipString() throws SjsmpArgumentException
+    {
+        Expect('"');
+        while (m_pos < m_end)
+        {
+            final byte c = m_buffer[m_pos++];
+            if (c == '"')
+            {
+                return;
+            }
+            if (c == '\\')
+            {
+                ++m_pos;
+            }
+        }
+        throw Error("Unterminated string");
+    }
+
+    private String ReadString() throws SjsmpArgumentException
+    {
+        Expect('"');
+        final int start = m_pos;
+
+        //fast path: plain ASCII without escapes
+        int pos = start;
+        while (pos < m_end)
+        {
+            final byte c = m_buffer[pos];
+            if (c == '"')
+            {
+                m_pos = pos + 1;
+                return new String(m_buffer, start, pos - start, StandardCharsets.ISO_8859_1);
+            }
+            if (c == '\\' || c < 0)
+            {
+                break;
+            }
+            ++pos;
+        }
+
+        int length = 0;
+        while (true)
+        {
+            if (m_pos >= m_end)
+            {
+                throw Error("Unterminated string");
+            }
+            if (length + 2 > m_chars.length)
+            {
+                final char[] chars = new char[m_chars.length * 2];
+                System.arraycopy(m_chars, 0, chars, 0, length);
+                m_chars = chars;
+            }
+
+            final int c = m_buffer[m_pos++] & 0xFF;
+            if (c == '"')
+            {
+                break;
+            }
+            if (c == '\\')
+            {
+                m_chars[length++] = ReadEscape();
+            }
+            else if (c < 0x80)
+            {
+                m_chars[length++] = (char)c;
+            }
+            else if ((c & 0xE0) == 0xC0)
+            {
+                m_chars[length++] = (char)(((c & 0x1F) << 6) | ReadContinuation());
+            }
+            else if ((c & 0xF0) == 0xE0)
+            {
+                m_chars[length++] = (char)(((c & 0x0F) << 12) | (ReadContinuation() << 6) | ReadContinuation());
+            }
+            else if ((c & 0xF8) == 0xF0)
+            {
+                final int codePoint = ((c & 0x07) << 18) | (ReadContinuation() << 12) | (ReadContinuation() << 6) | ReadContinuation();
+                m_chars[length++] = Character.highSurrogate(codePoint);
+                m_chars[length++] = Character.lowSurrogate(codePoint);
+            }
+            else
+            {
+                throw Error("Bad UTF-8 sequence");
+            }
+        }
+        return new String(m_chars, 0, length);
+    }
+
+    private int ReadContinuation() throws SjsmpArgumentException
+    {
+        if (m_pos >= m_end || (m_buffer[m_pos] & 0xC0) != 0x80)
+        {
+            throw Error("Bad UTF-8 sequence");
+        }
+        return m_buffer[m_pos++] & 0x3F;
+    }
+
+    private char ReadEscape() throws SjsmpArgumentException
+    {
+        if (m_pos >= m_end)
+        {
+            throw Error("Unterminated string");
+        }
+        final byte c = m_buffer[m_pos++];
+        switch (c)
+        {
+        case '"':
+        case '\\':
+        case '/':
+            return (char)c;
+        case 'b':
+            return '\b';
+        case 't':
+            return '\t';
+        case 'n':
+            return '\n';
+        case 'f':
+            return '\f';
+        case 'r':
+            return '\r';
+        case 'u':
+            if (m_pos + 4 > m_end)
+            {
+                throw Error("Bad escape sequence");
+            }
+            int value = 0;
+            for (int i = 0; i < 4; ++i)
+            {
+                final int digit = Character.digit(m_buffer[m_pos++], 16);
+                if (digit < 0)
+                {
+                    throw Error("Bad escape sequence");
+                }
+                value = (value << 4) | digit;
+            }
+            return (char)value;
+        default:
+            throw Error("Bad escape sequence");
+        }
+    }
+
+    private byte PeekByte() throws SjsmpArgumentException
+    {
+        SkipWhitespace();
+        if (m_pos >= m_end)
+        {
+            throw Error("Unexpected end of input");
+        }
+        return m_buffer[m_pos];
+    }
+
+    private void Expect(final char expected) throws SjsmpArgumentException
+    {
+        if (PeekByte() != expected)
+        {
+            throw Error("'" + expected + "' expected");
+        }
+        ++m_pos;
+    }
+
+    private void SkipWhitespace()
+    {
+        while (m_pos < m_end)
+        {
+            final byte c = m_buffer[m_pos];
+            if (c != ' ' && c != '\t' && c != '\n' && c != '\r')
+            {
+                break;
+            }
+            ++m_pos;
+        }
+    }
+
+    private SjsmpArgumentException Error(final String message)
+    {
+        return new SjsmpArgumentException("Malformed JSON at position " + m_pos + ": " + message);
+    }
+}
@@ -0,0 +1,507 @@
+package org.sjsmp.server;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Map;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.json.JSONString;
+
+/**
+ * Writes JSON text directly as UTF-8 bytes into a growable buffer.
+ * Strings are escaped and numbers formatted the same way org.json does, so the output matches {@link JSONObject#toString()}.
+ * Use {@link #Acquire()} and {@link #Release(JsonWriter)} to reuse the buffer between requests on the same thread.
+ */
+final class JsonWriter
+{
+    private static final int POOLED_INITIAL_CAPACITY = 8 * 1024;
+    //do not keep huge buffers of an occasional full dump forever
+    private static final int POOLED_MAX_CAPACITY = 1024 * 1024;
+    private static final ThreadLocal<JsonWriter> s_pool = new ThreadLocal<>();
+
+    private static final byte[] HEX_DIGITS = "0123456789abcdef".getBytes();
+    private static final byte[] NULL = "null".getBytes();
+    private static final byte[] TRUE = "true".getBytes();
+    private static final byte[] FALSE = "false".getBytes();
+    private static final byte[] LONG_MIN_VALUE = Long.toString(Long.MIN_VALUE).getBytes();
+    //Double.toString() and Float.toString() switch to scientific notation starting from 10^7
+    private static final double PLAIN_NOTATION_LIMIT = 1e7;
+
+    private byte[] m_buffer;
+    private int m_length;
+    private boolean m_needComma;
+
+    public JsonWriter(final int initialCapacity)
+    {
+        m_buffer = new byte[initialCapacity];
+    }
+
+    /**
+     * @return empty writer, reused from the current thread's pool when possible
+     */
+    public static JsonWriter Acquire()
+    {
+        final JsonWriter writer = s_pool.get();
+        if (writer != null)
+        {
+            s_pool.set(null);
+            return writer;
+        }
+        return new JsonWriter(POOLED_INITIAL_CAPACITY);
+    }
+
+    /**
+     * Returns the writer to the current thread's pool; the writer must not be used afterwards
+     */
+    public static void Release(final JsonWriter writer)
+    {
+        if (writer.m_buffer.length <= POOLED_MAX_CAPACITY)
+        {
+            writer.Reset();
+            s_pool.set(writer);
+        }
+    }
+
+    public void BeginObject()
+    {
+        BeforeValue();
+        Append('{');
+        m_needComma = false;
+    }
+
+    public void EndObject()
+    {
+        Append('}');
+        m_needComma = true;
+    }
+
+    public void BeginArray()
+    {
+        BeforeValue();
+        Append('[');
+        m_needComma = false;
+    }
+
+    public void EndArray()
+    {
+        Append(']');
+        m_needComma = true;
+    }
+
+    public void Name(final String name)
+    {
+        BeforeValue();
+        AppendQuoted(name);
+        Append(':');
+        m_needComma = false;
+    }
+
+    public void Null()
+    {
+        BeforeValue();
+        Append(NULL);
+        m_needComma = true;
+    }
+
+    public void Value(final String value)
+    {
+        if (value == null)
+        {
+            Null();
+            return;
+        }
+        BeforeValue();
+        AppendQuoted(value);
+        m_needComma = true;
+    }
+
+    public void Value(final boolean value)
+    {
+        BeforeValue();
+        Append(value ? TRUE : FALSE);
+        m_needComma = true;
+    }
+
+    public void Value(final long value)
+    {
+        BeforeValue();
+        AppendLong(value);
+        m_needComma = true;
+    }
+
+    public void Value(final double value)
+    {
+        BeforeValue();
+        if (Double.isNaN(value) || Double.isInfinite(value))
+        {
+            //not representable in JSON
+            Append(NULL);
+        }
+        else if (value == (long)value && Math.abs(value) < PLAIN_NOTATION_LIMIT && !IsNegativeZero(value))
+        {
+            AppendLong((long)value);
+        }
+        else
+        {
+            AppendNumberText(Double.toString(value));
+        }
+        m_needComma = true;
+    }
+
+    public void Value(final float value)
+    {
+        BeforeValue();
+        if (Float.isNaN(value) || Float.isInfinite(value))
+        {
+            Append(NULL);
+        }
+        else if (value == (long)value && Math.abs(value) < PLAIN_NOTATION_LIMIT && !IsNegativeZero(value))
+        {
+            AppendLong((long)value);
+        }
+        else
+        {
+            AppendNumberText(Float.toString(value));
+        }
+        m_needComma = true;
+    }
+
+    /**
+     * Writes any value the same way {@link JSONObject} would serialize it
+     */
+    public void Value(final Object value)
+    {
+        if (value == null || value == JSONObject.NULL)
+        {
+            Null();
+        }
+        else if (value instanceof String)
+        {
+            Value((String)value);
+        }
+        else if (value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte)
+        {
+            Value(((Number)value).longValue());
+        }
+        else if (value instanceof Double)
+        {
+            Value(((Double)value).doubleValue());
+        }
+        else if (value instanceof Float)
+        {
+            Value(((Float)value).floatValue());
+        }
+        else if (value instanceof Number)
+        {
+            BeforeValue();
+            AppendNumberText(value.toString());
+            m_needComma = true;
+        }
+        else if (value instanceof Boolean)
+        {
+            Value(((Boolean)value).booleanValue());
+        }
+        else if (value instanceof JSONObject || value instanceof JSONArray)
+        {
+            Raw(value.toString());
+        }
+        else if (value instanceof JSONString)
+        {
+            Raw(((JSONString)value).toJSONString());
+        }
+        else if (value instanceof Map || value instanceof Collection || value.getClass().isArray())
+        {
+            //wrap() picks the Map and Collection constructors; with a wildcard type javac would pick the bean and array ones
+            Raw(JSONObject.wrap(value).toString());
+        }
+        else
+        {
+            Value(value.toString());
+        }
+    }
+
+    /**
+     * Writes already serialized JSON value
+     */
+    public void Raw(final String json)
+    {
+        BeforeValue();
+        AppendString(json);
+        m_needComma = true;
+    }
+
+    /**
+     * Writes already serialized UTF-8 encoded JSON value
+     */
+    public void Raw(final byte[] json, final int offset, final int length)
+    {
+        BeforeValue();
+        Append(json, offset, length);
+        m_needComma = true;
+    }
+
+    public int Length()
+    {
+        return m_length;
+    }
+
+    public byte[] Buffer()
+    {
+        return m_buffer;
+    }
+
+    public byte[] ToByteArray()
+    {
+        return Arrays.copyOf(m_buffer, m_length);
+    }
+
+    public void WriteTo(final OutputStream os) throws IOException
+    {
+        os.write(m_buffer, 0, m_length);
+    }
+
+    public void Reset()
+    {
+        m_length = 0;
+        m_needComma = false;
+    }
+
+    /**
+     * Lets the next value start on its own instead of following the last one with a comma,
+     * so one buffer can hold several values used separately
+     */
+    public void EndTopLevelValue()
+    {
+        m_needComma = false;
+    }
+
+    private void BeforeValue()
+    {
+        if (m_needComma)
+        {
+            Append(',');
+        }
+    }
+
+    private static boolean IsNegativeZero(final double value)
+    {
+        return value == 0 && Double.doubleToRawLongBits(value) != 0;
+    }
+
+    /**
+     * Same as org.json numberToString(): trailing zeros of the fraction are removed
+     */
+    private void AppendNumberText(final String text)
+    {
+        int end = text.length();
+        if (text.indexOf('.') > 0 && text.indexOf('e') < 0 && text.indexOf('E') < 0)
+        {
+            while (text.charAt(end - 1) == '0')
+            {
+                --end;
+            }
+            if (text.charAt(end - 1) == '.')
+            {
+                --end;
+            }
+        }
+        EnsureCapacity(end);
+        for (int i = 0; i < end; ++i)
+        {
+            m_buffer[m_length++] = (byte)text.charAt(i);
+        }
+    }
+
+    private void AppendLong(long value)
+    {
+        if (value == Long.MIN_VALUE)
+        {
+            Append(LONG_MIN_VALUE);
+            return;
+        }
+
+        EnsureCapacity(20);
+        if (value < 0)
+        {
+            m_buffer[m_length++] = '-';
+            value = -value;
+        }
+
+        int digits = 1;
+        for (long rest = value / 10; rest != 0; rest /= 10)
+        {
+            ++digits;
+        }
+
+        int pos = m_length + digits;
+        m_length = pos;
+        do
+        {
+            m_buffer[--pos] = (byte)('0' + (int)(value % 10));
+            value /= 10;
+        }
+        while (value != 0);
+    }
+
+    /**
+     * Same escaping as org.json JSONObject.quote()
+     */
+    private void AppendQuoted(final String value)
+    {
+        final int length = value.length();
+        //worst case is 6 bytes per char for \\uXXXX, plus quotes
+        EnsureCapacity(length * 6 + 2);
+        final byte[] buffer = m_buffer;
+        int pos = m_length;
+
+        buffer[pos++] = '"';
+        char prev = 0;
+        for (int i = 0; i < length; ++i)
+        {
+            final char c = value.charAt(i);
+            switch (c)
+            {
+            case '\\':
+            case '"':
+                buffer[pos++] = '\\';
+                buffer[pos++] = (byte)c;
+                break;
+            case '/':
+                if (prev == '<')
+                {
+                    buffer[pos++] = '\\';
+                }
+                buffer[pos++] = '/';
+                break;
+            case '\b':
+                buffer[pos++] = '\\';
+                buffer[pos++] = 'b';
+                break;
+            case '\t':
+                buffer[pos++] = '\\';
+                buffer[pos++] = 't';
+                break;
+            case '\n':
+                buffer[pos++] = '\\';
+                buffer[pos++] = 'n';
+                break;
+            case '\f':
+                buffer[pos++] = '\\';
+                buffer[pos++] = 'f';
+                break;
+            case '\r':
+                buffer[pos++] = '\\';
+                buffer[pos++] = 'r';
+                break;
+            default:
+                if (c < ' ' || (c >= '\u0080' && c < '\u00a0') || (c >= '\u2000' && c < '\u2100'))
+                {
+                    buffer[pos++] = '\\';
+                    buffer[pos++] = 'u';
+                    buffer[pos++] = HEX_DIGITS[(c >> 12) & 0xF];
+                    buffer[pos++] = HEX_DIGITS[(c >> 8) & 0xF];
+                    buffer[pos++] = HEX_DIGITS[(c >> 4) & 0xF];
+                    buffer[pos++] = HEX_DIGITS[c & 0xF];
+                }
+                else
+                {
+                    pos = EncodeUtf8(value, i, c, buffer, pos);
+                    if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(value.charAt(i + 1)))
+                    {
+                        ++i;
+                    }
+                }
+            }
+            prev = c;
+        }
+        buffer[pos++] = '"';
+        m_length = pos;
+    }
+
+    private void AppendString(final String value)
+    {
+        final int length = value.length();
+        EnsureCapacity(length * 3);
+        final byte[] buffer = m_buffer;
+        int pos = m_length;
+        for (int i = 0; i < length; ++i)
+        {
+            final char c = value.charAt(i);
+            pos = EncodeUtf8(value, i, c, buffer, pos);
+            if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(value.charAt(i + 1)))
+            {
+                ++i;
+            }
+        }
+        m_length = pos;
+    }
+
+    /**
+     * Encodes char at {@code index}; a valid surrogate pair is encoded as one code point, an unpaired surrogate as '?'
+     * like {@link String#getBytes(String)} does. Buffer must have at least 4 free bytes.
+     */
+    private static int EncodeUtf8(final String value, final int index, final char c, final byte[] buffer, int pos)
+    {
+        if (c < 0x80)
+        {
+            buffer[pos++] = (byte)c;
+        }
+        else if (c < 0x800)
+        {
+            buffer[pos++] = (byte)(0xC0 | (c >> 6));
+            buffer[pos++] = (byte)(0x80 | (c & 0x3F));
+        }
+        else if (Character.isSurrogate(c))
+        {
+            if (Character.isHighSurrogate(c) && index + 1 < value.length() && Character.isLowSurrogate(value.charAt(index + 1)))
+            {
+                final int codePoint = Character.toCodePoint(c, value.charAt(index + 1));
+                buffer[pos++] = (byte)(0xF0 | (codePoint >> 18));
+                buffer[pos++] = (byte)(0x80 | ((codePoint >> 12) & 0x3F));
+                buffer[pos++] = (byte)(0x80 | ((codePoint >> 6) & 0x3F));
+                buffer[pos++] = (byte)(0x80 | (codePoint & 0x3F));
+            }
+            else
+            {
+                buffer[pos++] = '?';
+            }
+        }
+        else
+        {
+            buffer[pos++] = (byte)(0xE0 | (c >> 12));
+            buffer[pos++] = (byte)(0x80 | ((c >> 6) & 0x3F));
+            buffer[pos++] = (byte)(0x80 | (c & 0x3F));
+        }
+        return pos;
+    }
+
+    private void Append(final char c)
+    {
+        EnsureCapacity(1);
+        m_buffer[m_length++] = (byte)c;
+    }
+
+    private void Append(final byte[] bytes)
+    {
+        Append(bytes, 0, bytes.length);
+    }
+
+    private void Append(final byte[] bytes, final int offset, final int length)
+    {
+        EnsureCapacity(length);
+        System.arraycopy(bytes, offset, m_buffer, m_length, length);
+        m_length += length;
+    }
+
+    private void EnsureCapacity(final int extra)
+    {
+        final int required = m_length + extra;
+        if (required > m_buffer.length)
+        {
+            m_buffer = Arrays.copyOf(m_buffer, Math.max(required, m_buffer.length * 2));
+        }
+    }
+}
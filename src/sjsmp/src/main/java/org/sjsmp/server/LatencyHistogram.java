@@ -0,0 +1,130 @@
+package org.sjsmp.server;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Log-linear histogram of durations in nanoseconds, HdrHistogram style: every power of two is split into
+ * {@link #SUB_BUCKETS} equal buckets, so reported percentiles are within 12.5% of the recorded values.
+ * Buckets are striped counters, recording neither locks nor allocates.
+ */
+final class LatencyHistogram
+{
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    //values below 2^MIN_EXPONENT ns (~1 us) share the first bucket and values from 2^MAX_EXPONENT ns (~275 s) share the last one
+    private static final int MIN_EXPONENT = 10;
+    private static final int MAX_EXPONENT = 38;
+    private static final int BUCKETS = (MAX_EXPONENT - MIN_EXPONENT) * SUB_BUCKETS + 2;
+
+    private final LongAdder[] m_buckets = new LongAdder[BUCKETS];
+    private final LongAdder m_sum = new LongAdder();
+    private final AtomicLong m_max = new AtomicLong();
+
+    public LatencyHistogram()
+    {
+        for (int i = 0; i < BUCKETS; ++i)
+        {
+            m_buckets[i] = new LongAdder();
+        }
+    }
+
+    public void Record(final long nanos)
+    {
+        m_buckets[Index(nanos)].increment();
+        m_sum.add(nanos);
+        long max;
+        while (nanos > (max = m_max.get()) && !m_max.compareAndSet(max, nanos))
+        {
+        }
+    }
+
+    /**
+     * Not atomic with concurrent {@link #Record(long)} calls, a value recorded meanwhile may be partially kept
+     */
+    public void Reset()
+    {
+        for (final LongAdder bucket : m_buckets)
+        {
+            bucket.reset();
+        }
+        m_sum.reset();
+        m_max.set(0);
+    }
+
+    /**
+     * Appends "count=... mean=... p50=... p90=... p99=... max=..." with times in microseconds
+     */
+    public void Report(final StringBuilder out)
+    {
+        final long[] counts = new long[BUCKETS];
+        long count = 0;
+        for (int i = 0; i < BUCKETS; ++i)
+        {
+            counts[i] = m_buckets[i].sum();
+            count += counts[i];
+        }
+        final long max = m_max.get();
+
+        out.append("count=").append(count);
+        if (count == 0)
+        {
+            return;
+        }
+        out.append(" mean=").append(Micros(m_sum.sum() / count));
+        out.append(" p50=").append(Micros(Percentile(counts, count, 0.5, max)));
+        out.append(" p90=").append(Micros(Percentile(counts, count, 0.9, max)));
+        out.append(" p99=").append(Micros(Percentile(counts, count, 0.99, max)));
+        out.append(" max=").append(Micros(max));
+    }
+
+    private static long Percentile(final long[] counts, final long count, final double fraction, final long max)
+    {
+        final long rank = (long)Math.ceil(count * fraction);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; ++i)
+        {
+            seen += counts[i];
+            if (seen >= rank)
+            {
+                return Math.min(UpperBound(i), max);
+            }
+        }
+        return max;
+    }
+
+    private static String Micros(final long nanos)
+    {
+        return nanos < 10000 ? String.format("%.1fus", nanos / 1000.0) : (nanos / 1000) + "us";
+    }
+
+    private static int Index(final long nanos)
+    {
+        if (nanos < 1L << MIN_EXPONENT)
+        {
+            return 0;
+        }
+        final int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+        if (exponent >= MAX_EXPONENT)
+        {
+            return BUCKETS - 1;
+        }
+        final int subBucket = (int)(nanos >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return 1 + (exponent - MIN_EXPONENT) * SUB_BUCKETS + subBucket;
+    }
+
+    private static long UpperBound(final int index)
+    {
+        if (index == 0)
+        {
+            return 1L << MIN_EXPONENT;
+        }
+        if (index == BUCKETS - 1)
+        {
+            return Long.MAX_VALUE;
+        }
+        final int exponent = MIN_EXPONENT + (index - 1) / SUB_BUCKETS;
+        final int subBucket = (index - 1) % SUB_BUCKETS;
+        return (1L << exponent) + ((long)(subBucket + 1) << (exponent - SUB_BUCKET_BITS));
+    }
+}
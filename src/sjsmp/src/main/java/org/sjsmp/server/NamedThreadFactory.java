@@ -5,6 +5,7 @@
  */
 package org.sjsmp.server;
 
+import java.lang.reflect.Method;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.atomic.AtomicInteger;
 
@@ -14,19 +15,80 @@ import java.util.concurrent.atomic.AtomicInteger;
  */
 public final class NamedThreadFactory implements ThreadFactory
 {
+    //virtual threads are looked up reflectively, so the library still runs on JVMs without them
+    private static final Method s_ofVirtual;
+    private static final Method s_unstarted;
+
+    static
+    {
+        Method ofVirtual = null;
+        Method unstarted = null;
+        try
+        {
+            ofVirtual = Thread.class.getMethod("ofVirtual");
+            unstarted = Class.forName("java.lang.Thread$Builder").getMethod("unstarted", Runnable.class);
+            //preview builds throw UnsupportedOperationException here
+            unstarted.invoke(ofVirtual.invoke(null), new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                }
+            });
+        }
+        catch (Exception | LinkageError ex)
+        {
+            ofVirtual = null;
+            unstarted = null;
+        }
+        s_ofVirtual = ofVirtual;
+        s_unstarted = unstarted;
+    }
+
     private final String m_namePrefix;
+    private final boolean m_virtual;
     private final AtomicInteger m_sequence = new AtomicInteger(0);
 
     public NamedThreadFactory(String namePrefix)
     {
+        this(namePrefix, false);
+    }
+
+    /**
+     * @param virtual create virtual threads, see {@link #IsVirtualThreadsSupported()}
+     */
+    public NamedThreadFactory(String namePrefix, boolean virtual)
+    {
+        if (virtual && !IsVirtualThreadsSupported())
+        {
+            throw new UnsupportedOperationException("Virtual threads are not supported by this JVM");
+        }
         this.m_namePrefix = namePrefix;
+        this.m_virtual = virtual;
+    }
+
+    public static boolean IsVirtualThreadsSupported()
+    {
+        return s_ofVirtual != null;
     }
 
     @Override
     public Thread newThread(Runnable r)
     {
-        Thread t = new Thread(r);
+        Thread t = m_virtual ? NewVirtualThread(r) : new Thread(r);
         t.setName(m_namePrefix + "-" + m_sequence.getAndIncrement());
         return t;
     }
+
+    private static Thread NewVirtualThread(final Runnable r)
+    {
+        try
+        {
+            return (Thread)s_unstarted.invoke(s_ofVirtual.invoke(null), r);
+        }
+        catch (ReflectiveOperationException ex)
+        {
+            throw new IllegalStateException("Failed to create virtual thread", ex);
+        }
+    }
 }
@@ -0,0 +1,734 @@
+package org.sjsmp.server;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.sjsmp.HttpStatusCode;
+
+/**
+ * Single HTTP/1.1 connection of {@link NioHttpTransport}. All methods except the exchange ones are called on the event loop thread.
+ * Pipelined requests are parsed ahead but handled one at a time, so responses always go out in request order.
+ */
+final class NioHttpConnection
+{
+    private static final int MAX_HEADER_LENGTH = 16 * 1024;
+    private static final int MAX_PIPELINED_REQUESTS = 16;
+    private static final int MAX_STREAM_BACKLOG = 1024 * 1024;
+    private static final byte[] HEADER_END = "\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1);
+    private static final byte[] CONTINUE_RESPONSE = "HTTP/1.1 100 Continue\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1);
+
+    private static volatile long s_dateSecond;
+    private static volatile String s_date;
+
+    private final NioHttpTransport.EventLoop m_loop;
+    private final SocketChannel m_channel;
+    private final SelectionKey m_key;
+    private final InetSocketAddress m_remoteAddress;
+
+    private byte[] m_input = new byte[1024];
+    private int m_inputLength;
+    private boolean m_inputClosed;
+    private boolean m_readPaused;
+    private boolean m_continueSent;
+
+    private final ArrayDeque<Exchange> m_pending = new ArrayDeque<>();
+    private Exchange m_current;
+    private Stream m_stream;
+    private final ArrayDeque<ByteBuffer> m_output = new ArrayDeque<>();
+    private boolean m_writing;
+    private boolean m_closeAfterWrite;
+    private boolean m_closed;
+    private long m_lastActivity = System.currentTimeMillis();
+
+    public NioHttpConnection(final NioHttpTransport.EventLoop loop, final SocketChannel channel, final SelectionKey key)
+    {
+        this.m_loop = loop;
+        this.m_channel = channel;
+        this.m_key = key;
+
+        InetSocketAddress remoteAddress = null;
+        try
+        {
+            remoteAddress = (InetSocketAddress)channel.getRemoteAddress();
+        }
+        catch (IOException ex)
+        {
+        }
+        this.m_remoteAddress = remoteAddress;
+    }
+
+    public void OnReadable() throws IOException
+    {
+        final ByteBuffer buffer = m_loop.ReadBuffer();
+        buffer.clear();
+        final int read = m_channel.read(buffer);
+        if (read < 0 && m_stream != null)
+        {
+            //streams are closed by the peer disconnecting
+            Close();
+            return;
+        }
+        if (read < 0)
+        {
+            //peer will not send more requests, but still waits for the responses
+            m_inputClosed = true;
+            m_readPaused = true;
+            UpdateInterest();
+            CloseIfDone();
+            return;
+        }
+        m_lastActivity = System.currentTimeMillis();
+        if (m_stream != null)
+        {
+            //nothing more is handled on a streaming connection
+            return;
+        }
+
+        buffer.flip();
+        EnsureInputCapacity(m_inputLength + buffer.remaining());
+        final int length = buffer.remaining();
+        buffer.get(m_input, m_inputLength, length);
+        m_inputLength += length;
+
+        ParseRequests();
+        StartNext();
+    }
+
+    public void OnWritable() throws IOException
+    {
+        Flush();
+    }
+
+    public boolean IsIdleSince(final long time)
+    {
+        return m_current == null && m_pending.isEmpty() && m_output.isEmpty() && m_lastActivity < time;
+    }
+
+    public void Close()
+    {
+        if (m_closed)
+        {
+            return;
+        }
+        m_closed = true;
+        if (m_stream != null)
+        {
+            m_stream.m_closed = true;
+        }
+        m_key.cancel();
+        NioHttpTransport.CloseQuietly(m_channel);
+        m_pending.clear();
+        m_output.clear();
+        m_current = null;
+    }
+
+    private void ParseRequests() throws IOException
+    {
+        while (!m_closeAfterWrite && !m_inputClosed)
+        {
+            if (m_pending.size() >= MAX_PIPELINED_REQUESTS)
+            {
+                m_readPaused = true;
+                UpdateInterest();
+                return;
+            }
+
+            int start = 0;
+            while (start + 1 < m_inputLength && m_input[start] == '\r' && m_input[start + 1] == '\n')
+            {
+                start += 2;
+            }
+
+            final int headerEnd = IndexOf(m_input, start, m_inputLength, HEADER_END);
+            if (headerEnd < 0)
+            {
+                if (m_inputLength - start > MAX_HEADER_LENGTH)
+                {
+                    RejectAndStopReading(HttpStatusCode.RequestHeaderFieldsTooLarge);
+                }
+                return;
+            }
+
+            final String[] lines = new String(m_input, start, headerEnd - start, StandardCharsets.ISO_8859_1).split("\r\n");
+            final String[] requestLine = lines[0].split(" ");
+            if (requestLine.length != 3 || !requestLine[2].startsWith("HTTP/1."))
+            {
+                RejectAndStopReading(HttpStatusCode.BadRequest);
+                return;
+            }
+
+            final List<String> headerNames = new ArrayList<>(lines.length);
+            final List<String> headerValues = new ArrayList<>(lines.length);
+            for (int i = 1; i < lines.length; ++i)
+            {
+                final int colon = lines[i].indexOf(':');
+                if (colon <= 0)
+                {
+                    RejectAndStopReading(HttpStatusCode.BadRequest);
+                    return;
+                }
+                headerNames.add(lines[i].substring(0, colon).trim().toLowerCase());
+                headerValues.add(lines[i].substring(colon + 1).trim());
+            }
+
+            final String transferEncoding = FindHeader(headerNames, headerValues, "transfer-encoding");
+            if (transferEncoding != null && !transferEncoding.equalsIgnoreCase("identity"))
+            {
+                RejectAndStopReading(HttpStatusCode.LengthRequired);
+                return;
+            }
+
+            long contentLength = 0;
+            final String contentLengthText = FindHeader(headerNames, headerValues, "content-length");
+            if (contentLengthText != null)
+            {
+                try
+                {
+                    contentLength = Long.parseLong(contentLengthText);
+                }
+                catch (NumberFormatException ex)
+                {
+                    contentLength = -1;
+                }
+                if (contentLength < 0)
+                {
+                    RejectAndStopReading(HttpStatusCode.BadRequest);
+                    return;
+                }
+            }
+            if (contentLength > m_loop.MaxRequestLength())
+            {
+                RejectAndStopReading(HttpStatusCode.RequestEntityTooLarge);
+                return;
+            }
+
+            final int bodyStart = headerEnd + HEADER_END.length;
+            if (m_inputLength - bodyStart < contentLength)
+            {
+                final String expect = FindHeader(headerNames, headerValues, "expect");
+                if (!m_continueSent && expect != null && expect.equalsIgnoreCase("100-continue") && m_current == null && m_pending.isEmpty())
+                {
+                    m_continueSent = true;
+                    m_output.add(ByteBuffer.wrap(CONTINUE_RESPONSE));
+                    Flush();
+                }
+                return;
+            }
+
+            final byte[] body = Arrays.copyOfRange(m_input, bodyStart, bodyStart + (int)contentLength);
+            final int consumed = bodyStart + (int)contentLength;
+            System.arraycopy(m_input, consumed, m_input, 0, m_inputLength - consumed);
+            m_inputLength -= consumed;
+            m_continueSent = false;
+
+            final String version = requestLine[2];
+            final String connection = FindHeader(headerNames, headerValues, "connection");
+            final boolean keepAlive = version.equals("HTTP/1.0")
+                ? connection != null && connection.toLowerCase().contains("keep-alive")
+                : connection == null || !connection.toLowerCase().contains("close");
+
+            m_pending.add(new Exchange(requestLine[0], headerNames, headerValues, body, keepAlive, version.equals("HTTP/1.0"), null));
+        }
+    }
+
+    /**
+     * Queues an error response after the already received requests and stops reading the connection
+     */
+    private void RejectAndStopReading(final HttpStatusCode code)
+    {
+        m_inputClosed = true;
+        m_readPaused = true;
+        UpdateInterest();
+        m_pending.add(new Exchange("", new ArrayList<String>(), new ArrayList<String>(), new byte[0], false, false, code));
+    }
+
+    private void StartNext()
+    {
+        while (!m_closed && m_current == null && !m_pending.isEmpty())
+        {
+            final Exchange exchange = m_pending.poll();
+            m_current = exchange;
+            try
+            {
+                if (exchange.m_error != null)
+                {
+                    exchange.SendResponse(exchange.m_error, null, 0, 0);
+                }
+                else
+                {
+                    m_loop.Handler().Handle(exchange);
+                }
+            }
+            catch (IOException | RuntimeException ex)
+            {
+                m_loop.Logger().error("Failed to handle request: " + ex.getMessage(), ex);
+                Close();
+                return;
+            }
+        }
+
+        if (m_readPaused && !m_inputClosed && !m_closeAfterWrite && m_pending.size() < MAX_PIPELINED_REQUESTS)
+        {
+            m_readPaused = false;
+            UpdateInterest();
+        }
+    }
+
+    private void QueueResponse(final Exchange exchange, final ByteBuffer response, final boolean close)
+    {
+        if (m_closed || exchange != m_current)
+        {
+            return;
+        }
+        m_current = null;
+        m_output.add(response);
+        if (close)
+        {
+            m_closeAfterWrite = true;
+            m_pending.clear();
+            m_readPaused = true;
+        }
+
+        try
+        {
+            Flush();
+        }
+        catch (IOException ex)
+        {
+            m_loop.Logger().trace("Failed to write response: " + ex.getMessage());
+            Close();
+            return;
+        }
+        StartNext();
+    }
+
+    private void StartStream(final Exchange exchange, final Stream stream, final ByteBuffer header)
+    {
+        if (m_closed || exchange != m_current)
+        {
+            stream.m_closed = true;
+            return;
+        }
+        m_stream = stream;
+        m_pending.clear();
+        QueueStreamData(stream, header);
+    }
+
+    private void QueueStreamData(final Stream stream, final ByteBuffer data)
+    {
+        if (m_closed || stream != m_stream)
+        {
+            return;
+        }
+        m_output.add(data);
+        try
+        {
+            Flush();
+        }
+        catch (IOException ex)
+        {
+            m_loop.Logger().trace("Failed to write stream: " + ex.getMessage());
+            Close();
+        }
+    }
+
+    private void EndStream(final Stream stream)
+    {
+        if (m_closed || stream != m_stream)
+        {
+            return;
+        }
+        m_current = null;
+        m_closeAfterWrite = true;
+        CloseIfDone();
+    }
+
+    private void UpdateStreamBacklog()
+    {
+        if (m_stream == null)
+        {
+            return;
+        }
+        int backlog = 0;
+        for (final ByteBuffer buffer : m_output)
+        {
+            backlog += buffer.remaining();
+        }
+        m_stream.m_backlog = backlog;
+    }
+
+    private void Flush() throws IOException
+    {
+        final ByteBuffer direct = m_loop.WriteBuffer();
+        while (!m_output.isEmpty())
+        {
+            if (!m_output.peek().hasRemaining())
+            {
+                m_output.poll();
+                continue;
+            }
+
+            direct.clear();
+            for (final ByteBuffer source : m_output)
+            {
+                if (!direct.hasRemaining())
+                {
+                    break;
+                }
+                final ByteBuffer slice = source.duplicate();
+                if (slice.remaining() > direct.remaining())
+                {
+                    slice.limit(slice.position() + direct.remaining());
+                }
+                direct.put(slice);
+            }
+            direct.flip();
+
+            final int filled = direct.remaining();
+            int written = m_channel.write(direct);
+            while (written > 0)
+            {
+                final ByteBuffer source = m_output.peek();
+                final int count = Math.min(written, source.remaining());
+                source.position(source.position() + count);
+                written -= count;
+                if (!source.hasRemaining())
+                {
+                    m_output.poll();
+                }
+            }
+
+            if (direct.hasRemaining() || filled == 0)
+            {
+                //socket buffer is full
+                m_writing = true;
+                UpdateInterest();
+                UpdateStreamBacklog();
+                return;
+            }
+        }
+
+        m_lastActivity = System.currentTimeMillis();
+        m_writing = false;
+        UpdateInterest();
+        UpdateStreamBacklog();
+        CloseIfDone();
+    }
+
+    private void CloseIfDone()
+    {
+        if (!m_output.isEmpty())
+        {
+            return;
+        }
+        if (m_closeAfterWrite || (m_inputClosed && m_current == null && m_pending.isEmpty()))
+        {
+            Close();
+        }
+    }
+
+    private void UpdateInterest()
+    {
+        if (m_closed || !m_key.isValid())
+        {
+            return;
+        }
+        m_key.interestOps((m_readPaused ? 0 : SelectionKey.OP_READ) | (m_writing ? SelectionKey.OP_WRITE : 0));
+    }
+
+    private void EnsureInputCapacity(final int required)
+    {
+        if (required > m_input.length)
+        {
+            m_input = Arrays.copyOf(m_input, Math.max(required, m_input.length * 2));
+        }
+    }
+
+    private static int IndexOf(final byte[] data, final int from, final int to, final byte[] pattern)
+    {
+        outer:
+        for (int i = from; i <= to - pattern.length; ++i)
+        {
+            for (int j = 0; j < pattern.length; ++j)
+            {
+                if (data[i + j] != pattern[j])
+                {
+                    continue outer;
+                }
+            }
+            return i;
+        }
+        return -1;
+    }
+
+    private static String FindHeader(final List<String> names, final List<String> values, final String lowerCaseName)
+    {
+        for (int i = 0; i < names.size(); ++i)
+        {
+            if (names.get(i).equals(lowerCaseName))
+            {
+                return values.get(i);
+            }
+        }
+        return null;
+    }
+
+    private static String HttpDate()
+    {
+        final long second = System.currentTimeMillis() / 1000;
+        String date = s_date;
+        if (date == null || s_dateSecond != second)
+        {
+            date = DateTimeFormatter.RFC_1123_DATE_TIME.format(ZonedDateTime.now(ZoneOffset.UTC));
+            s_date = date;
+            s_dateSecond = second;
+        }
+        return date;
+    }
+
+    private final class Exchange extends HttpTransportExchange
+    {
+        private final String m_method;
+        private final List<String> m_headerNames;
+        private final List<String> m_headerValues;
+        private final byte[] m_body;
+        private final boolean m_keepAlive;
+        private final boolean m_http10;
+        private final HttpStatusCode m_error;
+        private final List<String> m_responseHeaders = new ArrayList<>();
+        private final AtomicBoolean m_completed = new AtomicBoolean();
+
+        public Exchange(
+                final String method,
+                final List<String> headerNames,
+                final List<String> headerValues,
+                final byte[] body,
+                final boolean keepAlive,
+                final boolean http10,
+                final HttpStatusCode error
+            )
+        {
+            this.m_method = method;
+            this.m_headerNames = headerNames;
+            this.m_headerValues = headerValues;
+            this.m_body = body;
+            this.m_keepAlive = keepAlive;
+            this.m_http10 = http10;
+            this.m_error = error;
+        }
+
+        @Override
+        public InetSocketAddress GetRemoteAddress()
+        {
+            return m_remoteAddress;
+        }
+
+        @Override
+        public String GetRequestMethod()
+        {
+            return m_method;
+        }
+
+        @Override
+        public String GetRequestHeader(final String name)
+        {
+            return FindHeader(m_headerNames, m_headerValues, name.toLowerCase());
+        }
+
+        @Override
+        public List<String> GetRequestHeaders(final String name)
+        {
+            final String lowerCaseName = name.toLowerCase();
+            List<String> values = null;
+            for (int i = 0; i < m_headerNames.size(); ++i)
+            {
+                if (m_headerNames.get(i).equals(lowerCaseName))
+                {
+                    if (values == null)
+                    {
+                        values = new ArrayList<>(1);
+                    }
+                    values.add(m_headerValues.get(i));
+                }
+            }
+            return values;
+        }
+
+        @Override
+        public long GetContentLength()
+        {
+            return m_body.length;
+        }
+
+        @Override
+        public InputStream GetRequestBody()
+        {
+            return new ByteArrayInputStream(m_body);
+        }
+
+        @Override
+        public void AddResponseHeader(final String name, final String value)
+        {
+            m_responseHeaders.add(name);
+            m_responseHeaders.add(value);
+        }
+
+        @Override
+        public void SendResponse(final HttpStatusCode code, final byte[] body, final int offset, final int length) throws IOException
+        {
+            if (!m_completed.compareAndSet(false, true))
+            {
+                throw new IOException("Response is already sent");
+            }
+
+            final int bodyLength = body != null ? length : 0;
+            final boolean hasContentLength = code != HttpStatusCode.NotModified && code != HttpStatusCode.NoContent;
+
+            //copying as the caller reuses its buffer once we return
+            final byte[] headerBytes = BuildHeader(code, hasContentLength ? bodyLength : -1, m_keepAlive);
+            final byte[] response = Arrays.copyOf(headerBytes, headerBytes.length + bodyLength);
+            if (bodyLength > 0)
+            {
+                System.arraycopy(body, offset, response, headerBytes.length, bodyLength);
+            }
+
+            final Exchange exchange = this;
+            m_loop.Execute(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    QueueResponse(exchange, ByteBuffer.wrap(response), !m_keepAlive);
+                }
+            });
+        }
+
+        @Override
+        public HttpTransportStream StartStream(final HttpStatusCode code) throws IOException
+        {
+            if (!m_completed.compareAndSet(false, true))
+            {
+                throw new IOException("Response is already sent");
+            }
+
+            //the body ends when the connection is closed
+            final ByteBuffer header = ByteBuffer.wrap(BuildHeader(code, -1, false));
+            final Exchange exchange = this;
+            final Stream stream = new Stream();
+            m_loop.Execute(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    NioHttpConnection.this.StartStream(exchange, stream, header);
+                }
+            });
+            return stream;
+        }
+
+        /**
+         * @param contentLength -1 to omit the Content-Length header
+         */
+        private byte[] BuildHeader(final HttpStatusCode code, final int contentLength, final boolean keepAlive)
+        {
+            final StringBuilder header = new StringBuilder(256);
+            header.append("HTTP/1.1 ").append(code.code).append(' ').append(code.name).append("\r\n");
+            header.append("Date: ").append(HttpDate()).append("\r\n");
+            for (int i = 0; i < m_responseHeaders.size(); i += 2)
+            {
+                header.append(m_responseHeaders.get(i)).append(": ").append(m_responseHeaders.get(i + 1)).append("\r\n");
+            }
+            if (contentLength >= 0)
+            {
+                header.append("Content-Length: ").append(contentLength).append("\r\n");
+            }
+            if (!keepAlive)
+            {
+                header.append("Connection: close\r\n");
+            }
+            else if (m_http10)
+            {
+                header.append("Connection: keep-alive\r\n");
+            }
+            header.append("\r\n");
+            return header.toString().getBytes(StandardCharsets.ISO_8859_1);
+        }
+
+        @Override
+        public void Close()
+        {
+            if (!m_completed.compareAndSet(false, true))
+            {
+                return;
+            }
+            m_loop.Execute(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    NioHttpConnection.this.Close();
+                }
+            });
+        }
+    }
+
+    private final class Stream implements HttpTransportStream
+    {
+        //written on the event loop, read by the writing thread
+        private volatile boolean m_closed;
+        private volatile int m_backlog;
+
+        @Override
+        public void Write(final byte[] data, final int offset, final int length) throws IOException
+        {
+            if (m_closed)
+            {
+                throw new IOException("Stream is closed");
+            }
+            if (m_backlog > MAX_STREAM_BACKLOG)
+            {
+                throw new IOException("Client does not read the stream");
+            }
+
+            final ByteBuffer buffer = ByteBuffer.wrap(Arrays.copyOfRange(data, offset, offset + length));
+            final Stream stream = this;
+            m_loop.Execute(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    QueueStreamData(stream, buffer);
+                }
+            });
+        }
+
+        @Override
+        public void Close()
+        {
+            m_closed = true;
+            final Stream stream = this;
+            m_loop.Execute(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    EndStream(stream);
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,366 @@
+package org.sjsmp.server;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadFactory;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Selector based HTTP/1.1 transport with persistent connections and request pipelining.
+ * A fixed number of event loops do all socket I/O; requests are passed to the handler on the event loop thread.
+ */
+final class NioHttpTransport implements HttpTransport
+{
+    private static final int IO_BUFFER_SIZE = 64 * 1024;
+    private static final long IDLE_CHECK_INTERVAL_MILLIS = 1000;
+
+    private final Logger m_logger = LoggerFactory.getLogger(NioHttpTransport.class);
+    private final int m_eventLoopCount;
+    private final int m_maxRequestLength;
+    private final long m_idleTimeoutMillis;
+
+    private ServerSocketChannel m_serverChannel;
+    private EventLoop[] m_loops;
+    private int m_nextLoop;
+
+    /**
+     * @param maxRequestLength bodies longer than this are answered with 413 without being buffered
+     */
+    public NioHttpTransport(final int eventLoopCount, final int maxRequestLength, final long idleTimeoutMillis)
+    {
+        this.m_eventLoopCount = eventLoopCount;
+        this.m_maxRequestLength = maxRequestLength;
+        this.m_idleTimeoutMillis = idleTimeoutMillis;
+    }
+
+    @Override
+    public void Start(final InetSocketAddress address, final HttpTransportHandler handler) throws IOException
+    {
+        final ServerSocketChannel serverChannel = ServerSocketChannel.open();
+        try
+        {
+            serverChannel.configureBlocking(false);
+            serverChannel.bind(address);
+        }
+        catch (IOException ex)
+        {
+            serverChannel.close();
+            throw ex;
+        }
+        m_serverChannel = serverChannel;
+
+        final ThreadFactory threadFactory = new NamedThreadFactory("SjsmpNio");
+        m_loops = new EventLoop[m_eventLoopCount];
+        for (int i = 0; i < m_loops.length; ++i)
+        {
+            m_loops[i] = new EventLoop(handler);
+        }
+        for (final EventLoop loop : m_loops)
+        {
+            final Thread thread = threadFactory.newThread(loop);
+            thread.setDaemon(true);
+            thread.start();
+        }
+        m_loops[0].Execute(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                m_loops[0].RegisterAcceptor(serverChannel);
+            }
+        });
+    }
+
+    @Override
+    public void Stop()
+    {
+        if (m_loops != null)
+        {
+            for (final EventLoop loop : m_loops)
+            {
+                loop.Stop();
+            }
+            m_loops = null;
+        }
+        if (m_serverChannel != null)
+        {
+            try
+            {
+                m_serverChannel.close();
+            }
+            catch (IOException ex)
+            {
+                m_logger.warn("Failed to close server socket: " + ex.getMessage(), ex);
+            }
+            m_serverChannel = null;
+        }
+    }
+
+    private EventLoop NextLoop()
+    {
+        //called on the acceptor loop only
+        final EventLoop loop = m_loops[m_nextLoop];
+        m_nextLoop = (m_nextLoop + 1) % m_loops.length;
+        return loop;
+    }
+
+    final class EventLoop implements Runnable
+    {
+        private final HttpTransportHandler m_handler;
+        private final Selector m_selector;
+        private final ConcurrentLinkedQueue<Runnable> m_tasks = new ConcurrentLinkedQueue<>();
+        private final ByteBuffer m_readBuffer = ByteBuffer.allocateDirect(IO_BUFFER_SIZE);
+        private final ByteBuffer m_writeBuffer = ByteBuffer.allocateDirect(IO_BUFFER_SIZE);
+        private volatile boolean m_stopped;
+
+        public EventLoop(final HttpTransportHandler handler) throws IOException
+        {
+            this.m_handler = handler;
+            this.m_selector = Selector.open();
+        }
+
+        public HttpTransportHandler Handler()
+        {
+            return m_handler;
+        }
+
+        public int MaxRequestLength()
+        {
+            return m_maxRequestLength;
+        }
+
+        public ByteBuffer ReadBuffer()
+        {
+            return m_readBuffer;
+        }
+
+        public ByteBuffer WriteBuffer()
+        {
+            return m_writeBuffer;
+        }
+
+        public Logger Logger()
+        {
+            return m_logger;
+        }
+
+        /**
+         * Runs the task on the event loop thread; safe to call from any thread
+         */
+        public void Execute(final Runnable task)
+        {
+            m_tasks.add(task);
+            m_selector.wakeup();
+        }
+
+        public void Stop()
+        {
+            m_stopped = true;
+            m_selector.wakeup();
+        }
+
+        private void RegisterAcceptor(final ServerSocketChannel serverChannel)
+        {
+            try
+            {
+                serverChannel.register(m_selector, SelectionKey.OP_ACCEPT);
+            }
+            catch (ClosedChannelException ex)
+            {
+                m_logger.error("Server socket closed before start", ex);
+            }
+        }
+
+        private void Register(final SocketChannel channel)
+        {
+            try
+            {
+                final SelectionKey key = channel.register(m_selector, SelectionKey.OP_READ);
+                key.attach(new NioHttpConnection(this, channel, key));
+            }
+            catch (ClosedChannelException ex)
+            {
+                CloseQuietly(channel);
+            }
+        }
+
+        @Override
+        public void run()
+        {
+            long lastIdleCheck = System.currentTimeMillis();
+            try
+            {
+                while (!m_stopped)
+                {
+                    m_selector.select(IDLE_CHECK_INTERVAL_MILLIS);
+
+                    Runnable task;
+                    while ((task = m_tasks.poll()) != null)
+                    {
+                        RunSafely(task);
+                    }
+
+                    final Iterator<SelectionKey> keys = m_selector.selectedKeys().iterator();
+                    while (keys.hasNext())
+                    {
+                        final SelectionKey key = keys.next();
+                        keys.remove();
+                        ProcessKey(key);
+                    }
+
+                    final long now = System.currentTimeMillis();
+                    if (now - lastIdleCheck >= IDLE_CHECK_INTERVAL_MILLIS)
+                    {
+                        lastIdleCheck = now;
+                        CloseIdleConnections(now);
+                    }
+                }
+            }
+            catch (IOException ex)
+            {
+                m_logger.error("Event loop failed: " + ex.getMessage(), ex);
+            }
+            finally
+            {
+                for (final SelectionKey key : m_selector.keys())
+                {
+                    if (key.attachment() instanceof NioHttpConnection)
+                    {
+                        ((NioHttpConnection)key.attachment()).Close();
+                    }
+                }
+                try
+                {
+                    m_selector.close();
+                }
+                catch (IOException ex)
+                {
+                }
+            }
+        }
+
+        private void ProcessKey(final SelectionKey key)
+        {
+            if (!key.isValid())
+            {
+                return;
+            }
+            if (key.isAcceptable())
+            {
+                Accept((ServerSocketChannel)key.channel());
+                return;
+            }
+
+            final NioHttpConnection connection = (NioHttpConnection)key.attachment();
+            try
+            {
+                if (key.isReadable())
+                {
+                    connection.OnReadable();
+                }
+                if (key.isValid() && key.isWritable())
+                {
+                    connection.OnWritable();
+                }
+            }
+            catch (IOException | RuntimeException ex)
+            {
+                m_logger.trace("Connection failed: " + ex.getMessage());
+                connection.Close();
+            }
+        }
+
+        private void Accept(final ServerSocketChannel serverChannel)
+        {
+            for (;;)
+            {
+                final SocketChannel channel;
+                try
+                {
+                    channel = serverChannel.accept();
+                    if (channel == null)
+                    {
+                        return;
+                    }
+                    channel.configureBlocking(false);
+                    channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                }
+                catch (IOException ex)
+                {
+                    m_logger.warn("Failed to accept connection: " + ex.getMessage());
+                    return;
+                }
+
+                final EventLoop loop = NextLoop();
+                if (loop == this)
+                {
+                    Register(channel);
+                }
+                else
+                {
+                    loop.Execute(new Runnable()
+                    {
+                        @Override
+                        public void run()
+                        {
+                            loop.Register(channel);
+                        }
+                    });
+                }
+            }
+        }
+
+        private void CloseIdleConnections(final long now)
+        {
+            final List<NioHttpConnection> idle = new ArrayList<>();
+            for (final SelectionKey key : m_selector.keys())
+            {
+                final Object attachment = key.attachment();
+                if (attachment instanceof NioHttpConnection && ((NioHttpConnection)attachment).IsIdleSince(now - m_idleTimeoutMillis))
+                {
+                    idle.add((NioHttpConnection)attachment);
+                }
+            }
+            for (final NioHttpConnection connection : idle)
+            {
+                connection.Close();
+            }
+        }
+
+        private void RunSafely(final Runnable task)
+        {
+            try
+            {
+                task.run();
+            }
+            catch (RuntimeException ex)
+            {
+                m_logger.error("Event loop task failed: " + ex.getMessage(), ex);
+            }
+        }
+    }
+
+    static void CloseQuietly(final SocketChannel channel)
+    {
+        try
+        {
+            channel.close();
+        }
+        catch (IOException ex)
+        {
+        }
+    }
+}
@@ -1,116 +1,215 @@
 package org.sjsmp.server;		
 
-import java.lang.reflect.Method;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
-
-import org.json.JSONObject;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 /**
+ * A registered object: its name and instance, the shared {@link ClassDescription} of its class and the state kept per instance
  *
  * @author kondrashin_aa
  */
 final class ObjectDescription
 {
     public final String name;
+    public final Object instance;
     private final String description;
-    private final String group;
-    public final Map<String, PropertyDescription> properties = new HashMap<>();
-    public final Map<String, ActionDescription> actions = new HashMap<>();
+    public final String group;
+    public final ClassDescription type;
+    public final Map<String, PropertyDescription> properties;
+    public final Map<String, ActionDescription> actions;
+    public final SnapshotWriter snapshotWriter;
+    /** getter latencies in the slot order of {@link #snapshotWriter}; null if the server is not instrumented */
+    public final LatencyHistogram[] snapshotLatencies;
+    /** caches of the {@code cacheMillis} properties in the slot order of {@link #snapshotWriter}; null if there are none */
+    public final PropertyCache[] snapshotCaches;
+    /** caches of the {@code cacheMillis} properties by name */
+    private final Map<String, PropertyCache> m_caches;
+    public final Map<String, PropertyHistory> histories;
+    /** properties in the order of their {@link #changes} slots */
+    public final PropertyDescription[] propertyList;
+    public final ChangeTracker changes;
+    /** System.nanoTime() until which the getter is skipped by parallel requests, by index in {@link #propertyList}; null until a getter is late */
+    private volatile AtomicLongArray m_slowUntil;
 
-    public ObjectDescription(final Object obj, final String name, final String description, final String group) throws SjsmpServerException
+    /**
+     * @param type description of the class of {@code obj}, see {@link ClassDescriptionCache}
+     */
+    public ObjectDescription(final Object obj, final String name, final String description, final String group, final ClassDescription type)
     {
         this.name = name;
+        this.instance = obj;
         this.description = description;
         this.group = group;
-        
-        Map<String, Method> methods = new HashMap<>();        
-        for (Method method : obj.getClass().getDeclaredMethods())
-        {
-            methods.put(method.getName(), method);
-        }
-        
-        for (Map.Entry<String, Method> pair : methods.entrySet())
+
+        this.type = type;
+        this.properties = type.properties;
+        this.actions = type.actions;
+        this.propertyList = type.propertyList;
+        this.snapshotWriter = type.snapshotWriter;
+        this.snapshotLatencies = type.snapshotLatencies;
+        this.changes = new ChangeTracker(propertyList.length);
+
+        Map<String, PropertyCache> caches = null;
+        Map<String, PropertyHistory> histories = null;
+        for (final PropertyDescription pd : propertyList)
         {
-            final String methodName = pair.getKey();
-            final Method method = pair.getValue();
-            
-            final SjsmpProperty property = method.getAnnotation(SjsmpProperty.class);
-            if (property != null && methodName.startsWith("get"))
+            if (pd.CacheMillis() > 0)
             {
-                if (method.getParameterCount() != 0)
+                if (caches == null)
                 {
-                    continue;
+                    caches = new HashMap<>();
                 }
-                
-                final Class<?> propertyType = method.getReturnType();
-                final String methodBaseName = methodName.substring("get".length());
-                
-                Method methodSetter = null;
-                if (!property.readonly())
+                caches.put(pd.name, new PropertyCache(pd, obj, pd.CacheMillis()));
+            }
+            if (pd.HistorySize() > 0)
+            {
+                if (histories == null)
                 {
-                    final String setterMethodName = "set" + methodBaseName;
-                    if ((methodSetter = methods.get(setterMethodName)) != null)
-                    {
-                        final Class<?>[] setterParameters = methodSetter.getParameterTypes();
-                        if (setterParameters.length != 1)
-                        {
-                            methodSetter = null;
-                        }
-                        else if (!setterParameters[0].equals(propertyType))
-                        {
-                            methodSetter = null;                            
-                        }
-                        else if (!methodSetter.getReturnType().equals(void.class))
-                        {
-                            methodSetter = null;
-                        }
-                    }                    
+                    histories = new HashMap<>();
                 }
+                histories.put(pd.name, new PropertyHistory(obj, pd));
+            }
+        }
+        this.m_caches = caches != null ? caches : Collections.<String, PropertyCache>emptyMap();
+        this.snapshotCaches = caches != null ? snapshotWriter.Caches(caches) : null;
+        this.histories = histories != null ? histories : Collections.<String, PropertyHistory>emptyMap();
+    }
 
-                method.setAccessible(true);
-                if (methodSetter != null)
-                {
-                    methodSetter.setAccessible(true);
-                }
-                
-                boolean showGraph = property.showGraph(); 
+    /**
+     * @return slot of the property in {@link #changes} or -1 if there is no such property
+     */
+    public int PropertyIndex(final String propertyName)
+    {
+        return type.PropertyIndex(propertyName);
+    }
 
-                final PropertyDescription foundProperty = new PropertyDescription(methodBaseName, property.value(), propertyType, method, methodSetter, showGraph);
-                properties.put(methodBaseName, foundProperty);
-                continue;
+    /**
+     * @return slots of the named properties in {@link #changes}; unknown and repeated names are left out
+     */
+    public int[] PropertyIndexes(final List<String> propertyNames)
+    {
+        return type.PropertyIndexes(propertyNames);
+    }
+
+    /**
+     * @return value of the property of {@link #instance}, served from the cache if the property has one
+     */
+    public Object GetValue(final PropertyDescription property) throws SjsmpServerException
+    {
+        if (!m_caches.isEmpty())
+        {
+            final PropertyCache cache = m_caches.get(property.name);
+            if (cache != null)
+            {
+                return cache.Get();
+            }
+        }
+        return property.GetValue(instance);
+    }
+
+    /**
+     * Drops the cached value of the property at {@code index} in {@link #propertyList}, if it has a cache
+     */
+    public void InvalidateCache(final int index)
+    {
+        if (!m_caches.isEmpty())
+        {
+            final PropertyCache cache = m_caches.get(propertyList[index].name);
+            if (cache != null)
+            {
+                cache.Invalidate();
             }
-            
-            final SjsmpAction action = method.getAnnotation(SjsmpAction.class);
-            if (action != null)
+        }
+    }
+
+    public void InvalidateCaches()
+    {
+        for (final PropertyCache cache : m_caches.values())
+        {
+            cache.Invalidate();
+        }
+    }
+
+    /**
+     * @return true if the getter of any property missed its deadline recently
+     */
+    public boolean HasSlow(final long now)
+    {
+        if (m_slowUntil == null)
+        {
+            return false;
+        }
+        for (int i = 0; i < propertyList.length; ++i)
+        {
+            if (IsSlow(i, now))
             {
-                method.setAccessible(true);
-                final ActionDescription actionDescription = new ActionDescription(methodName, action.value(), action.requireConfirm(), method);
-                actions.put(methodName, actionDescription);
-                continue;
+                return true;
             }
         }
+        return false;
     }
 
-    public JSONObject ToJSONObject()
+    /**
+     * @return true if the getter of the property at {@code index} missed its deadline recently and should not be called
+     */
+    public boolean IsSlow(final int index, final long now)
     {
-        final JSONObject result = new JSONObject();
-        result.put("description", this.description);
-        result.put("group", this.group);
+        final AtomicLongArray slowUntil = m_slowUntil;
+        if (slowUntil == null)
+        {
+            return false;
+        }
+        final long until = slowUntil.get(index);
+        if (until == 0)
+        {
+            return false;
+        }
+        if (now - until < 0)
+        {
+            return true;
+        }
+        slowUntil.compareAndSet(index, until, 0);
+        return false;
+    }
 
-        final JSONObject properties = new JSONObject();
-        for (final PropertyDescription pd : this.properties.values())
+    public void MarkSlow(final int index, final long until)
+    {
+        AtomicLongArray slowUntil = m_slowUntil;
+        if (slowUntil == null)
         {
-            properties.put(pd.name, pd.ToJObject());
+            synchronized (this)
+            {
+                if ((slowUntil = m_slowUntil) == null)
+                {
+                    m_slowUntil = slowUntil = new AtomicLongArray(propertyList.length);
+                }
+            }
         }
-        result.put("properties", properties);
+        slowUntil.set(index, until);
+    }
 
-        final JSONObject actions = new JSONObject();
-        for (final ActionDescription ad : this.actions.values())
+    public void WriteSchema(final JsonWriter writer)
+    {
+        writer.BeginObject();
+        if (this.description != null)
         {
-            actions.put(ad.name, ad.ToJObject());
+            writer.Name("description");
+            writer.Value(this.description);
         }
-        result.put("actions", actions);
-        return result;
+        if (this.group != null)
+        {
+            writer.Name("group");
+            writer.Value(this.group);
+        }
+
+        //the members are the same for all instances of the class and serialized once
+        writer.Name("properties");
+        writer.Raw(type.propertiesSchema, 0, type.propertiesSchema.length);
+        writer.Name("actions");
+        writer.Raw(type.actionsSchema, 0, type.actionsSchema.length);
+        writer.EndObject();
     }
 }
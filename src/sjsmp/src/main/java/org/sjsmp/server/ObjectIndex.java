@@ -0,0 +1,150 @@
+package org.sjsmp.server;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.regex.Pattern;
+
+/**
+ * Registered objects sorted by name, in total and per group. A name prefix is a range of the sorted map,
+ * so a query reads only the objects it returns; a page ends at a name, which is the cursor of the next page.
+ * Updated under the registration lock, read concurrently by requests.
+ */
+final class ObjectIndex
+{
+    private final ConcurrentSkipListMap<String, ObjectDescription> m_byName = new ConcurrentSkipListMap<>();
+    private final ConcurrentHashMap<String, ConcurrentSkipListMap<String, ObjectDescription>> m_byGroup = new ConcurrentHashMap<>();
+
+    public void Add(final ObjectDescription descr)
+    {
+        m_byName.put(descr.name, descr);
+        if (descr.group != null)
+        {
+            ConcurrentSkipListMap<String, ObjectDescription> group = m_byGroup.get(descr.group);
+            if (group == null)
+            {
+                group = new ConcurrentSkipListMap<>();
+                m_byGroup.put(descr.group, group);
+            }
+            group.put(descr.name, descr);
+        }
+    }
+
+    public void Remove(final ObjectDescription descr)
+    {
+        m_byName.remove(descr.name, descr);
+        if (descr.group != null)
+        {
+            final ConcurrentSkipListMap<String, ObjectDescription> group = m_byGroup.get(descr.group);
+            if (group != null)
+            {
+                group.remove(descr.name, descr);
+                if (group.isEmpty())
+                {
+                    m_byGroup.remove(descr.group, group);
+                }
+            }
+        }
+    }
+
+    /**
+     * @param group null for all objects
+     * @param prefix null or empty for any name
+     * @param glob name pattern with '*' and '?' wildcards or null
+     * @param cursor name of the last object of the previous page or null for the first page
+     * @param limit maximum number of objects or 0 for all
+     */
+    public Page Query(final String group, final String prefix, final String glob, final String cursor, final int limit)
+    {
+        final Page page = new Page();
+        final NavigableMap<String, ObjectDescription> source = group != null ? m_byGroup.get(group) : m_byName;
+        if (source == null)
+        {
+            return page;
+        }
+
+        //the literal head of the glob narrows the range like a prefix does
+        final String globPrefix = glob != null ? GlobPrefix(glob) : "";
+        final Pattern pattern = glob != null && globPrefix.length() < glob.length() ? GlobToPattern(glob) : null;
+        String start = prefix != null ? prefix : "";
+        if (globPrefix.startsWith(start))
+        {
+            start = globPrefix;
+        }
+        else if (!start.startsWith(globPrefix))
+        {
+            //the prefix and the glob can not both match a name
+            return page;
+        }
+
+        final NavigableMap<String, ObjectDescription> range = cursor != null && cursor.compareTo(start) >= 0
+            ? source.tailMap(cursor, false)
+            : source.tailMap(start, true);
+        for (final Map.Entry<String, ObjectDescription> entry : range.entrySet())
+        {
+            final String name = entry.getKey();
+            if (!name.startsWith(start))
+            {
+                break;
+            }
+            if (glob != null && (pattern != null ? !pattern.matcher(name).matches() : !name.equals(glob)))
+            {
+                continue;
+            }
+            if (limit > 0 && page.objects.size() == limit)
+            {
+                page.nextCursor = page.objects.get(limit - 1).name;
+                break;
+            }
+            page.objects.add(entry.getValue());
+        }
+        return page;
+    }
+
+    private static String GlobPrefix(final String glob)
+    {
+        for (int i = 0; i < glob.length(); ++i)
+        {
+            final char c = glob.charAt(i);
+            if (c == '*' || c == '?')
+            {
+                return glob.substring(0, i);
+            }
+        }
+        return glob;
+    }
+
+    private static Pattern GlobToPattern(final String glob)
+    {
+        final StringBuilder regex = new StringBuilder();
+        int literalStart = 0;
+        for (int i = 0; i < glob.length(); ++i)
+        {
+            final char c = glob.charAt(i);
+            if (c == '*' || c == '?')
+            {
+                if (literalStart < i)
+                {
+                    regex.append(Pattern.quote(glob.substring(literalStart, i)));
+                }
+                regex.append(c == '*' ? ".*" : ".");
+                literalStart = i + 1;
+            }
+        }
+        if (literalStart < glob.length())
+        {
+            regex.append(Pattern.quote(glob.substring(literalStart)));
+        }
+        return Pattern.compile(regex.toString(), Pattern.DOTALL);
+    }
+
+    public static final class Page
+    {
+        public final List<ObjectDescription> objects = new ArrayList<>();
+        /** name to pass as the cursor for the next page; null if this is the last one */
+        public String nextCursor;
+    }
+}
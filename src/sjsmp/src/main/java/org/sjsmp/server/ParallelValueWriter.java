@@ -0,0 +1,538 @@
+package org.sjsmp.server;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Writes the values of whole objects for 'get_properties' with the getters called on the getter executor.
+ * One worker per getter thread takes the objects one at a time and writes each with its snapshot writer into a buffer of its own.
+ * Every getter gets the full timeout from the moment it starts, so time spent queued behind other requests does not count:
+ * the worker of a getter running longer is abandoned, its object goes back to the queue without that getter and a new worker takes its place.
+ * The getters of one object run one after another, so writing an object may take up to its property count times the timeout.
+ * Only getters that started and overran are marked slow; workers that never started are cancelled when the request ends.
+ * A thread pool gets one more thread for every abandoned getter until it returns, so hung getters can not take all its threads.
+ */
+final class ParallelValueWriter
+{
+    private final Logger m_logger = LoggerFactory.getLogger(ParallelValueWriter.class);
+    private final ExecutorService m_executor;
+    private final int m_workers;
+    private final long m_timeoutNanos;
+    private final long m_skipNanos;
+    /** null if the executor starts a thread per task */
+    private final ThreadPoolExecutor m_pool;
+    private final int m_poolSize;
+    private final int m_poolMaxSize;
+    private int m_lateGetters;
+
+    /**
+     * @param workers number of objects written at once by a request
+     * @param timeoutMillis time a getter may run
+     * @param slowGetterSkipSeconds a getter that ran longer is not called for this time; 0 calls it every time
+     */
+    public ParallelValueWriter(final ExecutorService executor, final int workers, final int timeoutMillis, final int slowGetterSkipSeconds)
+    {
+        this.m_executor = executor;
+        this.m_workers = workers;
+        this.m_timeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        this.m_skipNanos = TimeUnit.SECONDS.toNanos(slowGetterSkipSeconds);
+        this.m_pool = executor instanceof ThreadPoolExecutor ? (ThreadPoolExecutor)executor : null;
+        this.m_poolSize = m_pool != null ? m_pool.getCorePoolSize() : 0;
+        this.m_poolMaxSize = m_pool != null ? m_pool.getMaximumPoolSize() : 0;
+    }
+
+    /**
+     * Same output as SjsmpServer.WriteObjectValues() for every object, except for values whose getter was late now or recently
+     * @return names of the left out properties by object name, or null if there are none
+     */
+    public Map<String, List<String>> Write(final List<ObjectDescription> objects, final long since, final List<String> propertyNames, final JsonWriter writer) throws SjsmpServerException
+    {
+        if (objects.isEmpty())
+        {
+            return null;
+        }
+        final Dump dump = new Dump(objects, since, propertyNames);
+        final List<Worker> workers = new ArrayList<>();
+        try
+        {
+            final int count = Math.min(m_workers, objects.size());
+            for (int i = 0; i < count; ++i)
+            {
+                workers.add(Start(dump));
+            }
+            Await(dump, workers);
+            return dump.WriteTo(writer);
+        }
+        finally
+        {
+            //queued workers are dropped, running ones stop after their current getter
+            for (final Worker worker : workers)
+            {
+                worker.Cancel();
+            }
+        }
+    }
+
+    private Worker Start(final Dump dump)
+    {
+        final Worker worker = new Worker(dump);
+        worker.m_future = m_executor.submit(worker);
+        return worker;
+    }
+
+    /**
+     * Waits until all objects are written, abandoning the workers of late getters on the way
+     */
+    private void Await(final Dump dump, final List<Worker> workers) throws SjsmpServerException
+    {
+        while (!dump.IsDone())
+        {
+            final long now = System.nanoTime();
+            long wake = now + m_timeoutNanos;
+            //replacements are appended while we go and checked in the next round
+            final int count = workers.size();
+            for (int i = 0; i < count; ++i)
+            {
+                final Worker worker = workers.get(i);
+                final int lateSlot = worker.AbandonIfLate(now);
+                if (lateSlot >= 0)
+                {
+                    final Item item = worker.CurrentItem();
+                    final ObjectDescription descr = dump.objects.get(item.index);
+                    if (m_skipNanos > 0)
+                    {
+                        descr.MarkSlow(lateSlot, now + m_skipNanos);
+                    }
+                    m_logger.warn("Getter '" + descr.propertyList[lateSlot].name + "' of object '" + descr.name + "' missed its deadline"
+                        + (m_skipNanos > 0 ? ", skipping it for " + TimeUnit.NANOSECONDS.toSeconds(m_skipNanos) + " seconds" : ""));
+                    dump.Requeue(item.Excluding(lateSlot, descr.propertyList.length));
+                    workers.add(Start(dump));
+                    continue;
+                }
+                //a worker waiting for a thread is not late, however long it waits
+                if (worker.IsRunning())
+                {
+                    wake = Math.min(wake, worker.Deadline(now));
+                }
+            }
+            dump.AwaitUntil(wake);
+        }
+    }
+
+    /**
+     * Grows or shrinks the pool by the threads held by abandoned getters; the pool keeps its size for everyone else
+     */
+    private void LateGetters(final int delta)
+    {
+        if (m_pool == null)
+        {
+            return;
+        }
+        synchronized (m_pool)
+        {
+            m_lateGetters += delta;
+            final int size = m_poolSize + m_lateGetters;
+            final int maxSize = (int)Math.min(Integer.MAX_VALUE, (long)m_poolMaxSize + m_lateGetters);
+            //the core size may never exceed the maximum
+            if (delta > 0)
+            {
+                m_pool.setMaximumPoolSize(maxSize);
+                m_pool.setCorePoolSize(size);
+            }
+            else
+            {
+                m_pool.setCorePoolSize(size);
+                m_pool.setMaximumPoolSize(maxSize);
+            }
+        }
+    }
+
+    /**
+     * An object to write; {@code excluded} marks getters that were late in this request, null if there are none
+     */
+    private static final class Item
+    {
+        final int index;
+        final boolean[] excluded;
+
+        Item(final int index, final boolean[] excluded)
+        {
+            this.index = index;
+            this.excluded = excluded;
+        }
+
+        Item Excluding(final int slot, final int slotCount)
+        {
+            final boolean[] result = excluded != null ? excluded.clone() : new boolean[slotCount];
+            result[slot] = true;
+            return new Item(index, result);
+        }
+
+        boolean IsExcluded(final int slot)
+        {
+            return excluded != null && excluded[slot];
+        }
+    }
+
+    /**
+     * Objects of one request and their written values. Workers lock themselves before the dump, never the other way round.
+     */
+    private static final class Dump
+    {
+        final List<ObjectDescription> objects;
+        final long since;
+        final List<String> propertyNames;
+        /** slow getters are checked against the start of the request */
+        final long start = System.nanoTime();
+
+        private final ArrayDeque<Item> m_requeued = new ArrayDeque<>();
+        private int m_next;
+        private int m_remaining;
+        private SjsmpServerException m_error;
+        //a written object is m_lengths[i] bytes at m_offsets[i] of m_buffers[i], or no buffer if it is unchanged since the token
+
+        private final byte[][] m_buffers;
+        private final int[] m_offsets;
+        private final int[] m_lengths;
+        private final String[][] m_skipped;
+
+        Dump(final List<ObjectDescription> objects, final long since, final List<String> propertyNames)
+        {
+            this.objects = objects;
+            this.since = since;
+            this.propertyNames = propertyNames;
+            this.m_remaining = objects.size();
+
+            this.m_buffers = new byte[objects.size()][];
+            this.m_offsets = new int[objects.size()];
+            this.m_lengths = new int[objects.size()];
+            this.m_skipped = new String[objects.size()][];
+        }
+
+        /**
+         * @return next object to write or null if there is none
+         */
+        synchronized Item Take()
+        {
+            if (m_error != null)
+            {
+                return null;
+            }
+            if (!m_requeued.isEmpty())
+            {
+                return m_requeued.poll();
+            }
+            return m_next < objects.size() ? new Item(m_next++, null) : null;
+        }
+
+        synchronized void Requeue(final Item item)
+        {
+            m_requeued.addFirst(item);
+        }
+
+        /**
+         * @param buffer null if the object is unchanged since the token
+         * @param skipped names of the properties left out or null
+         */
+        synchronized void Commit(final int index, final byte[] buffer, final int offset, final int length, final String[] skipped)
+        {
+
+            m_buffers[index] = buffer;
+            m_offsets[index] = offset;
+            m_lengths[index] = length;
+            m_skipped[index] = skipped;
+            if (--m_remaining == 0)
+            {
+                notifyAll();
+            }
+        }
+
+        synchronized void Fail(final SjsmpServerException error)
+        {
+            if (m_error == null)
+            {
+                m_error = error;
+                notifyAll();
+            }
+        }
+
+
+        synchronized boolean IsDone() throws SjsmpServerException
+        {
+            if (m_error != null)
+            {
+                throw m_error;
+            }
+            return m_remaining == 0;
+        }
+
+        synchronized void AwaitUntil(final long deadline) throws SjsmpServerException
+        {
+            long left;
+            while (m_remaining > 0 && m_error == null && (left = deadline - System.nanoTime()) > 0)
+            {
+                try
+                {
+                    TimeUnit.NANOSECONDS.timedWait(this, left);
+                }
+                catch (InterruptedException ex)
+                {
+                    Thread.currentThread().interrupt();
+                    throw new SjsmpServerException("Interrupted while waiting for getters", ex);
+                }
+            }
+        }
+
+        /**
+         * Writes the objects in request order
+         */
+        synchronized Map<String, List<String>> WriteTo(final JsonWriter writer)
+        {
+            Map<String, List<String>> timeouts = null;
+            for (int i = 0; i < objects.size(); ++i)
+            {
+                final ObjectDescription descr = objects.get(i);
+                final List<String> skipped = m_skipped[i] != null ? Arrays.asList(m_skipped[i]) : null;
+                if (m_buffers[i] != null)
+                {
+                    writer.Name(descr.name);
+                    writer.Raw(m_buffers[i], m_offsets[i], m_lengths[i]);
+                }
+                if (skipped != null)
+                {
+                    if (timeouts == null)
+                    {
+                        timeouts = new LinkedHashMap<>();
+                    }
+                    timeouts.put(descr.name, skipped);
+                }
+            }
+            return timeouts;
+        }
+    }
+
+    /**
+     * Writes objects taken from the dump until there are none left or it is abandoned.
+     * The request thread reads its state under the worker's lock; the worker's buffer is never reset, so committed bytes stay valid.
+     */
+    private final class Worker implements Runnable, SnapshotWriter.Progress
+    {
+        private final Dump m_dump;
+        private final JsonWriter m_out = new JsonWriter(8 * 1024);
+        private final List<String> m_skipped = new ArrayList<>();
+        Future<?> m_future;
+
+        private boolean m_started;
+        private boolean m_finished;
+        private boolean m_abandoned;
+        /** abandoned in a late getter, so its thread is lent to the pool until the getter returns */
+        private boolean m_late;
+        private Item m_item;
+        private int m_slot = -1;
+        private long m_getterStart;
+
+        Worker(final Dump dump)
+        {
+            this.m_dump = dump;
+        }
+
+        @Override
+        public void run()
+        {
+            synchronized (this)
+            {
+                if (m_abandoned)
+                {
+                    return;
+                }
+                m_started = true;
+            }
+            try
+            {
+                Item item;
+                while ((item = m_dump.Take()) != null)
+                {
+                    synchronized (this)
+                    {
+                        if (m_abandoned)
+                        {
+                            return;
+                        }
+                        m_item = item;
+                    }
+                    final int offset = m_out.Length();
+                    m_skipped.clear();
+                    final boolean written = WriteObject(m_dump.objects.get(item.index), item);
+                    synchronized (this)
+                    {
+                        if (m_abandoned)
+                        {
+                            return;
+                        }
+                        m_dump.Commit(item.index, written ? m_out.Buffer() : null, offset, m_out.Length() - offset,
+                            m_skipped.isEmpty() ? null : m_skipped.toArray(new String[m_skipped.size()]));
+                    }
+                    m_out.EndTopLevelValue();
+                }
+            }
+            catch (Throwable e)
+            {
+                synchronized (this)
+                {
+                    if (!m_abandoned)
+                    {
+                        m_dump.Fail(e instanceof SjsmpServerException
+                            ? (SjsmpServerException)e
+                            : new SjsmpServerException("Exception raised while calling getters", new InvocationTargetException(e)));
+                    }
+                }
+            }
+            finally
+            {
+                synchronized (this)
+                {
+                    m_finished = true;
+                    m_slot = -1;
+                    if (m_late)
+                    {
+                        LateGetters(-1);
+                    }
+                }
+            }
+        }
+
+        /**
+         * Same as SjsmpServer.WriteObjectValues(), leaving out the excluded and slow getters
+         * @return false if the object is unchanged since the token and left out
+         */
+        private boolean WriteObject(final ObjectDescription descr, final Item item) throws SjsmpServerException
+        {
+            final long since = m_dump.since;
+            if (since >= 0 && !descr.changes.ChangedSince(since))
+            {
+                return false;
+            }
+            m_out.BeginObject();
+            if (since < 0 && m_dump.propertyNames == null && item.excluded == null && !descr.HasSlow(m_dump.start))
+            {
+                descr.snapshotWriter.Write(descr.instance, m_out, descr.snapshotLatencies, descr.snapshotCaches, this);
+                m_out.EndObject();
+                return true;
+            }
+
+            final int[] indexes = m_dump.propertyNames != null ? descr.PropertyIndexes(m_dump.propertyNames) : null;
+            final int count = indexes != null ? indexes.length : descr.propertyList.length;
+            for (int k = 0; k < count; ++k)
+            {
+                final int i = indexes != null ? indexes[k] : k;
+                if (since >= 0 && !descr.changes.ChangedSince(i, since))
+                {
+                    continue;
+                }
+                final PropertyDescription propDescr = descr.propertyList[i];
+                if (item.IsExcluded(i) || descr.IsSlow(i, m_dump.start))
+                {
+                    m_skipped.add(propDescr.name);
+                    continue;
+                }
+                if (!Started(i))
+                {
+                    break;
+                }
+                final Object value;
+                try
+                {
+                    value = descr.GetValue(propDescr);
+                }
+                finally
+                {
+                    Finished();
+                }
+                //null values are omitted from full reads and written for changes, as WriteObjectValues does
+                if (value != null || since >= 0)
+                {
+                    m_out.Name(propDescr.name);
+                    m_out.Value(value);
+                }
+            }
+            m_out.EndObject();
+            return true;
+        }
+
+        @Override
+        public synchronized boolean Started(final int slot)
+        {
+            if (m_abandoned)
+            {
+                return false;
+            }
+            m_slot = slot;
+            m_getterStart = System.nanoTime();
+            return true;
+        }
+
+        @Override
+        public synchronized void Finished()
+        {
+            m_slot = -1;
+        }
+
+        /**
+         * Abandons the worker if its current getter has been running for longer than the timeout
+         * @return slot of the late getter, or -1 if the worker is not abandoned
+         */
+        synchronized int AbandonIfLate(final long now)
+        {
+            if (m_abandoned || m_finished || m_slot < 0 || now - m_getterStart < m_timeoutNanos)
+            {
+                return -1;
+            }
+            m_abandoned = true;
+            m_late = true;
+            LateGetters(1);
+            return m_slot;
+        }
+
+        synchronized Item CurrentItem()
+        {
+            return m_item;
+        }
+
+        synchronized boolean IsRunning()
+        {
+            return m_started && !m_finished && !m_abandoned;
+        }
+
+        /**
+         * @return time the current getter becomes late, or a full timeout from now if the worker is between getters
+         */
+        synchronized long Deadline(final long now)
+        {
+            return m_slot >= 0 ? m_getterStart + m_timeoutNanos : now + m_timeoutNanos;
+        }
+
+        void Cancel()
+        {
+            synchronized (this)
+            {
+                m_abandoned = true;
+            }
+            if (m_future != null)
+            {
+                m_future.cancel(false);
+            }
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package org.sjsmp.server;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+/**
+ * Pre-bound getter/setter pair of a property. Uses method handles when possible and falls back to reflection.
+ * Exceptions thrown by the user code are reported as {@link InvocationTargetException}, the same way reflection does.
+ */
+abstract class PropertyAccessor
+{
+    private static final MethodType GETTER_TYPE = MethodType.methodType(Object.class, Object.class);
+    private static final MethodType SETTER_TYPE = MethodType.methodType(void.class, Object.class, Object.class);
+
+    public abstract Object Get(final Object obj) throws IllegalAccessException, InvocationTargetException;
+
+    public abstract void Set(final Object obj, final Object value) throws IllegalAccessException, InvocationTargetException;
+
+    /**
+     * @param getter accessible getter method
+     * @param setter accessible setter method, may be null
+     */
+    public static PropertyAccessor Create(final Method getter, final Method setter)
+    {
+        final MethodHandles.Lookup lookup = MethodHandles.lookup();
+        try
+        {
+            final MethodHandle getterHandle = lookup.unreflect(getter).asType(GETTER_TYPE);
+            final MethodHandle setterHandle = setter != null ? lookup.unreflect(setter).asType(SETTER_TYPE) : null;
+            return new HandleAccessor(getterHandle, setterHandle);
+        }
+        catch (IllegalAccessException | RuntimeException ex)
+        {
+            return new ReflectionAccessor(getter, setter);
+        }
+    }
+
+    private static final class HandleAccessor extends PropertyAccessor
+    {
+        private final MethodHandle m_getter;
+        private final MethodHandle m_setter;
+
+        public HandleAccessor(final MethodHandle getter, final MethodHandle setter)
+        {
+            this.m_getter = getter;
+            this.m_setter = setter;
+        }
+
+        @Override
+        public Object Get(final Object obj) throws InvocationTargetException
+        {
+            try
+            {
+                return (Object)m_getter.invokeExact(obj);
+            }
+            catch (Throwable e)
+            {
+                throw new InvocationTargetException(e);
+            }
+        }
+
+        @Override
+        public void Set(final Object obj, final Object value) throws InvocationTargetException
+        {
+            try
+            {
+                m_setter.invokeExact(obj, value);
+            }
+            catch (Throwable e)
+            {
+                throw new InvocationTargetException(e);
+            }
+        }
+    }
+
+    private static final class ReflectionAccessor extends PropertyAccessor
+    {
+        private final Method m_getter;
+        private final Method m_setter;
+
+        public ReflectionAccessor(final Method getter, final Method setter)
+        {
+            this.m_getter = getter;
+            this.m_setter = setter;
+        }
+
+        @Override
+        public Object Get(final Object obj) throws IllegalAccessException, InvocationTargetException
+        {
+            return m_getter.invoke(obj);
+        }
+
+        @Override
+        public void Set(final Object obj, final Object value) throws IllegalAccessException, InvocationTargetException
+        {
+            m_setter.invoke(obj, value);
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package org.sjsmp.server;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Last value of a {@code cacheMillis} property of one object. An expired value is loaded by the first reader
+ * while concurrent readers wait for the same load instead of calling the getter themselves.
+ * A changed value is dropped with {@link #Invalidate()}; a load started before that does not publish its value.
+ */
+final class PropertyCache
+{
+    private final PropertyDescription m_property;
+    private final Object m_instance;
+    private final long m_ttlNanos;
+    private volatile Entry m_entry;
+    /** load in progress; guarded by this */
+    private FutureTask<Object> m_loading;
+    /** incremented by Invalidate(); guarded by this */
+    private long m_generation;
+
+    public PropertyCache(final PropertyDescription property, final Object instance, final int ttlMillis)
+    {
+        this.m_property = property;
+        this.m_instance = instance;
+        this.m_ttlNanos = ttlMillis * 1000000L;
+    }
+
+    public PropertyDescription Property()
+    {
+        return m_property;
+    }
+
+    public Object Get() throws SjsmpServerException
+    {
+        Entry entry = m_entry;
+        if (entry != null && System.nanoTime() - entry.time < m_ttlNanos)
+        {
+            return entry.value;
+        }
+
+        final FutureTask<Object> task;
+        final boolean loader;
+        synchronized (this)
+        {
+            entry = m_entry;
+            if (entry != null && System.nanoTime() - entry.time < m_ttlNanos)
+            {
+                return entry.value;
+            }
+            loader = m_loading == null;
+            if (loader)
+            {
+                final long generation = m_generation;
+                m_loading = new FutureTask<>(new Callable<Object>()
+                {
+                    @Override
+                    public Object call() throws SjsmpServerException
+                    {
+                        final Object value = m_property.GetValue(m_instance);
+                        //published before the load ends, so a reader always finds either a fresh value or the load
+                        synchronized (PropertyCache.this)
+                        {
+                            if (m_generation == generation)
+                            {
+                                m_entry = new Entry(value, System.nanoTime());
+                            }
+                        }
+                        return value;
+                    }
+                });
+            }
+            task = m_loading;
+        }
+
+        if (loader)
+        {
+            task.run();
+            synchronized (this)
+            {
+                if (m_loading == task)
+                {
+                    m_loading = null;
+                }
+            }
+        }
+
+        try
+        {
+            //failures are not cached, the next reader calls the getter again
+            return task.get();
+        }
+        catch (ExecutionException ex)
+        {
+            if (ex.getCause() instanceof SjsmpServerException)
+            {
+                throw (SjsmpServerException)ex.getCause();
+            }
+            throw new SjsmpServerException("Exception raised while calling getter '" + m_property.name + "' on object '" + m_instance + "'", ex);
+        }
+        catch (InterruptedException ex)
+        {
+            Thread.currentThread().interrupt();
+            throw new SjsmpServerException("Interrupted while waiting for getter '" + m_property.name + "' on object '" + m_instance + "'", ex);
+        }
+    }
+
+    /**
+     * Drops the cached value; the next reader calls the getter, even if a load is in progress
+     */
+    public synchronized void Invalidate()
+    {
+        ++m_generation;
+        m_entry = null;
+        m_loading = null;
+    }
+
+    private static final class Entry
+    {
+        final Object value;
+        /** System.nanoTime() when the value was loaded */
+        final long time;
+
+        Entry(final Object value, final long time)
+        {
+            this.value = value;
+            this.time = time;
+        }
+    }
+}
@@ -3,7 +3,6 @@ package org.sjsmp.server;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 
-import org.json.JSONObject;
 import org.sjsmp.DataTypes;
 
 /**
@@ -17,14 +16,26 @@ final class PropertyDescription
     private final Class<?> propertyType;
     private final Method m_getter;
     private final Method m_setter;
+    private final PropertyAccessor m_accessor;
+    private final ValueDecoder m_decoder;
     private final boolean m_showGraph;
     private final String m_sjmpTypeName;
     private final boolean m_needToString;
     private final SjsmpPropertyLimits m_limits;
+    private final int m_historyIntervalMillis;
+    private final int m_historySize;
+    private final int m_cacheMillis;
+    /** null if the property has no history */
+    private final PropertyHistory.Getter m_historyGetter;
+    private final LatencyHistogram m_latency;
     
-    public PropertyDescription(final String baseName, final String description, final Class<?> propertyType, final Method getter, final Method setter, final boolean showGraph) throws SjsmpServerException
+    /**
+     * @param latency getter latencies are recorded here; null if the server is not instrumented
+     */
+    public PropertyDescription(final String baseName, final String description, final Class<?> propertyType, final Method getter, final Method setter, final boolean showGraph, final LatencyHistogram latency) throws SjsmpServerException
     {
         this.name = baseName;
+        this.m_latency = latency;
         this.description = description;
         this.m_getter = getter;
         this.m_showGraph = showGraph;
@@ -57,15 +68,135 @@ final class PropertyDescription
             }
         }
         
+        final SjsmpProperty property = getter.getAnnotation(SjsmpProperty.class);
+        if (m_showGraph && property != null && property.historySize() > 0)
+        {
+            if (property.historyIntervalMillis() < PropertyHistory.MIN_INTERVAL_MILLIS)
+            {
+                throw new SjsmpServerException("historyIntervalMillis must be at least " + PropertyHistory.MIN_INTERVAL_MILLIS + ". " + getter.getDeclaringClass() + "." + getter.getName());
+            }
+            m_historyIntervalMillis = property.historyIntervalMillis();
+            m_historySize = property.historySize();
+        }
+        else
+        {
+            m_historyIntervalMillis = 0;
+            m_historySize = 0;
+        }
+
+        m_cacheMillis = property != null ? property.cacheMillis() : 0;
+        if (m_cacheMillis < 0)
+        {
+            throw new SjsmpServerException("cacheMillis must not be negative. " + getter.getDeclaringClass() + "." + getter.getName());
+        }
+
         assert(this.m_getter != null);
+
+        this.m_accessor = PropertyAccessor.Create(this.m_getter, this.m_setter);
+        this.m_decoder = this.m_setter != null ? ValueDecoder.ForType(propertyType) : null;
+        this.m_historyGetter = m_historySize > 0 ? new PropertyHistory.Getter(this) : null;
+    }
+
+    /**
+     * Copy of {@code other} recording getter latencies to {@code latency}; accessors are shared, not created again
+     */
+    public PropertyDescription(final PropertyDescription other, final LatencyHistogram latency)
+    {
+        this.name = other.name;
+        this.description = other.description;
+        this.propertyType = other.propertyType;
+        this.m_getter = other.m_getter;
+        this.m_setter = other.m_setter;
+        this.m_accessor = other.m_accessor;
+        this.m_decoder = other.m_decoder;
+        this.m_showGraph = other.m_showGraph;
+        this.m_sjmpTypeName = other.m_sjmpTypeName;
+        this.m_needToString = other.m_needToString;
+        this.m_limits = other.m_limits;
+        this.m_historyIntervalMillis = other.m_historyIntervalMillis;
+        this.m_historySize = other.m_historySize;
+        this.m_cacheMillis = other.m_cacheMillis;
+        this.m_historyGetter = other.m_historyGetter;
+        this.m_latency = latency;
     }
     
+    public Method Getter()
+    {
+        return m_getter;
+    }
+
+    public boolean NeedToString()
+    {
+        return m_needToString;
+    }
+
+    public Class<?> Type()
+    {
+        return propertyType;
+    }
+
+    /**
+     * @return number of samples kept in the history or 0 if the property has no history
+     */
+    public int HistorySize()
+    {
+        return m_historySize;
+    }
+
+    public int HistoryIntervalMillis()
+    {
+        return m_historyIntervalMillis;
+    }
+
+    /**
+     * @return null if the property has no history
+     */
+    public PropertyHistory.Getter HistoryGetter()
+    {
+        return m_historyGetter;
+    }
+
+    /**
+     * @return time the value is cached for or 0 if the getter is called on every read
+     */
+    public int CacheMillis()
+    {
+        return m_cacheMillis;
+    }
+
+    /**
+     * @return null if the server is not instrumented
+     */
+    public LatencyHistogram Latency()
+    {
+        return m_latency;
+    }
+
     public Object GetValue(final Object obj) throws SjsmpServerException
+    {
+        final long start = m_latency != null ? System.nanoTime() : 0;
+        try
+        {
+            return ReadValue(obj);
+        }
+        finally
+        {
+            if (m_latency != null)
+            {
+                m_latency.Record(System.nanoTime() - start);
+            }
+        }
+    }
+
+    /**
+     * Same as {@link #GetValue(Object)} without recording the latency, for callers that time the getter themselves
+     */
+    public Object ReadValue(final Object obj) throws SjsmpServerException
     {
         Object value;
         try
         {
-            value = m_getter.invoke(obj);
+            value = m_accessor.Get(obj);
             if (m_needToString && value != null)
             {
             	value = value.toString();
@@ -105,9 +236,19 @@ final class PropertyDescription
         	}
         }
 
+        final Object decodedValue;
         try
         {
-            m_setter.invoke(obj, value);
+            decodedValue = m_decoder.Decode(value);
+        }
+        catch (SjsmpArgumentException e)
+        {
+            throw new SjsmpServerException("Bad value for property '" + this.name + "': " + e.getMessage(), e);
+        }
+
+        try
+        {
+            m_accessor.Set(obj, decodedValue);
         }
         catch (IllegalAccessException | InvocationTargetException e)
         {
@@ -115,25 +256,50 @@ final class PropertyDescription
         }
     }
 
-    public JSONObject ToJObject()
+    public void WriteSchema(final JsonWriter writer)
     {
         final boolean isReadonly = m_setter == null;
-        final JSONObject result = new JSONObject();
         final String friendlyTypeName = DataTypes.TypeToName(this.propertyType);
-        result.put("type", friendlyTypeName);
-        result.put("readonly", isReadonly);
-        result.put("description", this.description);
+        writer.BeginObject();
+        writer.Name("type");
+        writer.Value(friendlyTypeName);
+        writer.Name("readonly");
+        writer.Value(isReadonly);
+        if (this.description != null)
+        {
+            writer.Name("description");
+            writer.Value(this.description);
+        }
         if (m_showGraph)
         {
-        	result.put("show_graph", true);
+            writer.Name("show_graph");
+            writer.Value(true);
+        }
+        if (m_historySize > 0)
+        {
+            writer.Name("history");
+            writer.BeginObject();
+            writer.Name("interval_ms");
+            writer.Value(m_historyIntervalMillis);
+            writer.Name("size");
+            writer.Value(m_historySize);
+            writer.EndObject();
+        }
+        if (m_cacheMillis > 0)
+        {
+            writer.Name("cache_ms");
+            writer.Value(m_cacheMillis);
         }
         if (m_limits != null)
         {
-        	final JSONObject limitsObj = new JSONObject();
-        	limitsObj.put("min", m_limits.min());
-        	limitsObj.put("max", m_limits.max());
-            result.put("limits", limitsObj);
+            writer.Name("limits");
+            writer.BeginObject();
+            writer.Name("min");
+            writer.Value(m_limits.min());
+            writer.Name("max");
+            writer.Value(m_limits.max());
+            writer.EndObject();
         }
-        return result;
+        writer.EndObject();
     }
 }
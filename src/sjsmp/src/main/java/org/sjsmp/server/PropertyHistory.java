@@ -0,0 +1,194 @@
+package org.sjsmp.server;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+
+import org.sjsmp.DataTypes;
+
+/**
+ * Fixed size history of a numeric property of one registered object.
+ * Samples go into preallocated primitive ring buffers; primitive getters are read through typed method handles, so sampling does not allocate.
+ */
+final class PropertyHistory
+{
+    public static final int MIN_INTERVAL_MILLIS = 10;
+
+    private final Object m_instance;
+    private final String m_name;
+    private final int m_intervalMillis;
+    private final boolean m_floating;
+    private final Getter m_getter;
+
+    //guarded by this
+    private final long[] m_times;
+    private final long[] m_longValues;
+    private final double[] m_doubleValues;
+    private int m_next;
+    private int m_count;
+
+    public PropertyHistory(final Object instance, final PropertyDescription property)
+    {
+        assert(property.HistorySize() > 0);
+
+        this.m_instance = instance;
+        this.m_name = property.name;
+        this.m_intervalMillis = property.HistoryIntervalMillis();
+        this.m_getter = property.HistoryGetter();
+
+        this.m_floating = m_getter.floating;
+        this.m_times = new long[property.HistorySize()];
+        this.m_longValues = m_floating ? null : new long[property.HistorySize()];
+        this.m_doubleValues = m_floating ? new double[property.HistorySize()] : null;
+    }
+
+    public String Name()
+    {
+        return m_name;
+    }
+
+    public int IntervalMillis()
+    {
+        return m_intervalMillis;
+    }
+
+    /**
+     * Reads the property and stores its value; null values of boxed properties are not stored
+     * @throws Throwable thrown by the getter
+     */
+    public void Sample(final long time) throws Throwable
+    {
+        if (m_getter.longGetter != null)
+        {
+            Add(time, (long)m_getter.longGetter.invokeExact(m_instance), 0);
+        }
+        else if (m_getter.doubleGetter != null)
+        {
+            Add(time, 0, (double)m_getter.doubleGetter.invokeExact(m_instance));
+        }
+        else
+        {
+            final Object value = (Object)m_getter.objectGetter.invokeExact(m_instance);
+            if (value != null)
+            {
+                final Number number = (Number)value;
+                Add(time, number.longValue(), number.doubleValue());
+            }
+        }
+    }
+
+    private synchronized void Add(final long time, final long longValue, final double doubleValue)
+    {
+        m_times[m_next] = time;
+        if (m_floating)
+        {
+            m_doubleValues[m_next] = doubleValue;
+        }
+        else
+        {
+            m_longValues[m_next] = longValue;
+        }
+        m_next = (m_next + 1) % m_times.length;
+        if (m_count < m_times.length)
+        {
+            ++m_count;
+        }
+    }
+
+    /**
+     * Writes samples taken in [from, to] as a JSON object: 'start' is the time of the first sample,
+     * 'times' holds the difference of each sample's time to the previous one (0 for the first) and 'values' the sampled values.
+     */
+    public synchronized void Write(final JsonWriter writer, final long from, final long to)
+    {
+        writer.BeginObject();
+        writer.Name("interval_ms");
+        writer.Value(m_intervalMillis);
+
+        final int oldest = (m_next - m_count + m_times.length) % m_times.length;
+        int first = 0;
+        while (first < m_count && m_times[(oldest + first) % m_times.length] < from)
+        {
+            ++first;
+        }
+        int end = first;
+        while (end < m_count && m_times[(oldest + end) % m_times.length] <= to)
+        {
+            ++end;
+        }
+
+        if (first < end)
+        {
+            writer.Name("start");
+            writer.Value(m_times[(oldest + first) % m_times.length]);
+        }
+
+        writer.Name("times");
+        writer.BeginArray();
+        long previous = first < end ? m_times[(oldest + first) % m_times.length] : 0;
+        for (int i = first; i < end; ++i)
+        {
+            final long time = m_times[(oldest + i) % m_times.length];
+            writer.Value(time - previous);
+            previous = time;
+        }
+        writer.EndArray();
+
+        writer.Name("values");
+        writer.BeginArray();
+        for (int i = first; i < end; ++i)
+        {
+            final int index = (oldest + i) % m_times.length;
+            if (m_floating)
+            {
+                writer.Value(m_doubleValues[index]);
+            }
+            else
+            {
+                writer.Value(m_longValues[index]);
+            }
+        }
+        writer.EndArray();
+        writer.EndObject();
+    }
+
+    /**
+     * Typed method handles of a getter, created once per property of a class and shared by the histories of its instances
+     */
+    static final class Getter
+    {
+        final boolean floating;
+        final MethodHandle longGetter;
+        final MethodHandle doubleGetter;
+        final MethodHandle objectGetter;
+
+        Getter(final PropertyDescription property) throws SjsmpServerException
+        {
+            final Class<?> type = property.Type();
+            this.floating = DataTypes.IsFloatType(type);
+
+            final MethodHandle handle;
+            try
+            {
+                handle = MethodHandles.lookup().unreflect(property.Getter());
+            }
+            catch (IllegalAccessException ex)
+            {
+                throw new SjsmpServerException("Can not access getter of property '" + property.name + "'", ex);
+            }
+            if (type.isPrimitive())
+            {
+                //int/short/byte widen to long and float widens to double
+                longGetter = floating ? null : handle.asType(MethodType.methodType(long.class, Object.class));
+                doubleGetter = floating ? handle.asType(MethodType.methodType(double.class, Object.class)) : null;
+                objectGetter = null;
+            }
+            else
+            {
+                longGetter = null;
+                doubleGetter = null;
+                objectGetter = handle.asType(MethodType.methodType(Object.class, Object.class));
+            }
+        }
+    }
+}
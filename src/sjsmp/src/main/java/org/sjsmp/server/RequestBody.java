@@ -0,0 +1,100 @@
+package org.sjsmp.server;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * Raw request body read into a buffer reused between requests on the same thread.
+ */
+final class RequestBody
+{
+    private static final int INITIAL_CAPACITY = 4 * 1024;
+    private static final int POOLED_MAX_CAPACITY = 64 * 1024;
+    private static final ThreadLocal<RequestBody> s_pool = new ThreadLocal<>();
+
+    private byte[] m_buffer = new byte[INITIAL_CAPACITY];
+    private int m_length;
+
+    private RequestBody()
+    {
+    }
+
+    /**
+     * Reads the whole stream
+     * @param contentLength value of the 'Content-Length' header or -1 if unknown
+     * @return body that must be passed to {@link #Release(RequestBody)}, or null if the body is longer than {@code maxSize}
+     */
+    public static RequestBody Read(final InputStream is, final long contentLength, final int maxSize) throws IOException
+    {
+        if (contentLength > maxSize)
+        {
+            return null;
+        }
+
+        RequestBody body = s_pool.get();
+        if (body != null)
+        {
+            s_pool.set(null);
+        }
+        else
+        {
+            body = new RequestBody();
+        }
+
+        body.m_length = 0;
+        if (contentLength > body.m_buffer.length)
+        {
+            body.m_buffer = new byte[(int)contentLength];
+        }
+
+        for (;;)
+        {
+            if (contentLength >= 0 && body.m_length >= contentLength)
+            {
+                break;
+            }
+            if (body.m_length == body.m_buffer.length)
+            {
+                if (body.m_length >= maxSize + 1)
+                {
+                    Release(body);
+                    return null;
+                }
+                body.m_buffer = Arrays.copyOf(body.m_buffer, Math.min(body.m_buffer.length * 2, maxSize + 1));
+            }
+
+            final int read = is.read(body.m_buffer, body.m_length, body.m_buffer.length - body.m_length);
+            if (read < 0)
+            {
+                break;
+            }
+            body.m_length += read;
+        }
+
+        if (body.m_length > maxSize)
+        {
+            Release(body);
+            return null;
+        }
+        return body;
+    }
+
+    public static void Release(final RequestBody body)
+    {
+        if (body.m_buffer.length <= POOLED_MAX_CAPACITY)
+        {
+            s_pool.set(body);
+        }
+    }
+
+    public byte[] Buffer()
+    {
+        return m_buffer;
+    }
+
+    public int Length()
+    {
+        return m_length;
+    }
+}
@@ -1,19 +1,200 @@
 package org.sjsmp.server;
 
-import org.json.JSONObject;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
 
 final class RequestCommandWrapper
 {
 	public final String requestId;
 	public final String action;
-    
-    public final JSONObject jObject;
-	
-	public RequestCommandWrapper(final String body)
+
+    public String objectName;
+    public String propertyName;
+    public String actionName;
+    public Map<String, Object> parameters;
+    public Object value;
+    public boolean hasValue;
+    public List<RequestCommandWrapper> commands;
+    public boolean parallel;
+    public Map<String, Object> objects;
+    public Object intervalMillis;
+    public Object from;
+    public Object to;
+    public String since;
+    public String jobId;
+    public String group;
+    public String namePrefix;
+    public String namePattern;
+    public List<String> propertyNames;
+    public Object limit;
+    public String cursor;
+
+	/**
+	 * Pulls known fields out of the request, other fields are skipped without being parsed into objects
+	 */
+	public RequestCommandWrapper(final JsonReader reader) throws SjsmpArgumentException
 	{
-        jObject = new JSONObject(body);
-        requestId = jObject.getString("request_id");
-        action = jObject.getString("action");
+	    this(reader, false);
+	}
+
+	/**
+	 * @param batchEntry command is an entry of a 'batch' request: request_id is optional and nested batches are not allowed
+	 */
+	private RequestCommandWrapper(final JsonReader reader, final boolean batchEntry) throws SjsmpArgumentException
+	{
+        String requestId = batchEntry ? "" : null;
+        String action = null;
+
+        reader.BeginObject();
+        while (reader.HasNext())
+        {
+            final String name = reader.NextName();
+            switch (name)
+            {
+            case "request_id":
+                requestId = NextStringOrNull(reader);
+                break;
+            case "action":
+                action = NextStringOrNull(reader);
+                break;
+            case "object_name":
+                objectName = NextStringOrNull(reader);
+                break;
+            case "property_name":
+                propertyName = NextStringOrNull(reader);
+                break;
+            case "action_name":
+                actionName = NextStringOrNull(reader);
+                break;
+            case "value":
+                value = reader.NextValue();
+                hasValue = true;
+                break;
+            case "parameters":
+                parameters = NextObjectOrNull(reader);
+                break;
+            case "commands":
+                if (batchEntry)
+                {
+                    throw new SjsmpArgumentException("Nested batch is not supported");
+                }
+                commands = NextCommands(reader);
+                break;
+            case "objects":
+                objects = NextObjectOrNull(reader);
+                break;
+            case "interval_ms":
+                intervalMillis = reader.NextValue();
+                break;
+            case "since":
+                since = NextStringOrNull(reader);
+                break;
+            case "job_id":
+                jobId = NextStringOrNull(reader);
+                break;
+            case "from":
+                from = reader.NextValue();
+                break;
+            case "to":
+                to = reader.NextValue();
+                break;
+            case "group":
+                group = NextStringOrNull(reader);
+                break;
+            case "name_prefix":
+                namePrefix = NextStringOrNull(reader);
+                break;
+            case "name_pattern":
+                namePattern = NextStringOrNull(reader);
+                break;
+            case "property_names":
+                propertyNames = NextStringsOrNull(reader);
+                break;
+            case "limit":
+                limit = reader.NextValue();
+                break;
+            case "cursor":
+                cursor = NextStringOrNull(reader);
+                break;
+            case "parallel":
+                parallel = Boolean.TRUE.equals(reader.NextValue());
+                break;
+            default:
+                reader.SkipValue();
+            }
+        }
+        reader.EndObject();
+
+        if (requestId == null || action == null)
+        {
+            throw new SjsmpArgumentException("You must set request_id and action fields");
+        }
+        this.requestId = requestId;
+        this.action = action;
+	}
+
+	private static String NextStringOrNull(final JsonReader reader) throws SjsmpArgumentException
+	{
+	    if (reader.Peek() == 'n')
+	    {
+	        reader.SkipValue();
+	        return null;
+	    }
+	    return reader.NextString();
+	}
+
+	private static List<String> NextStringsOrNull(final JsonReader reader) throws SjsmpArgumentException
+	{
+	    final char type = reader.Peek();
+	    if (type == 'n')
+	    {
+	        reader.SkipValue();
+	        return null;
+	    }
+	    if (type != '[')
+	    {
+	        throw new SjsmpArgumentException("Array expected");
+	    }
+	    final List<String> strings = new ArrayList<>();
+	    reader.BeginArray();
+	    while (reader.HasNext())
+	    {
+	        strings.add(reader.NextString());
+	    }
+	    reader.EndArray();
+	    return strings;
+	}
+
+	private static List<RequestCommandWrapper> NextCommands(final JsonReader reader) throws SjsmpArgumentException
+	{
+	    if (reader.Peek() != '[')
+	    {
+	        throw new SjsmpArgumentException("Array expected");
+	    }
+	    final List<RequestCommandWrapper> commands = new ArrayList<>();
+	    reader.BeginArray();
+	    while (reader.HasNext())
+	    {
+	        commands.add(new RequestCommandWrapper(reader, true));
+	    }
+	    reader.EndArray();
+	    return commands;
 	}
-}
 
+	@SuppressWarnings("unchecked")
+	private static Map<String, Object> NextObjectOrNull(final JsonReader reader) throws SjsmpArgumentException
+	{
+	    final char type = reader.Peek();
+	    if (type == 'n')
+	    {
+	        reader.SkipValue();
+	        return null;
+	    }
+	    if (type != '{')
+	    {
+	        throw new SjsmpArgumentException("Object expected");
+	    }
+	    return (Map<String, Object>)reader.NextValue();
+	}
+}
@@ -0,0 +1,210 @@
+package org.sjsmp.server;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.sjsmp.HttpStatusCode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Pushes the schema to one portal URL. The body is sent gzipped unless the portal refuses it,
+ * a schema the portal has already acknowledged is only re-sent every refresh interval,
+ * and failed pushes are retried with exponential backoff and jitter.
+ * Connections are kept alive by the JDK between pushes, as responses are always read to the end.
+ */
+final class SchemaPusher
+{
+    interface SchemaSource
+    {
+        SchemaSnapshot Get();
+    }
+
+    private static final int MAX_RESPONSE_LENGTH = 1 * 1024 * 1024;
+    private static final int CONNECT_TIMEOUT_MILLIS = 10 * 1000;
+    private static final int READ_TIMEOUT_MILLIS = 30 * 1000;
+    private static final long INITIAL_BACKOFF_MILLIS = 1000;
+    private static final long MAX_BACKOFF_MILLIS = 5 * 60 * 1000;
+
+    private final Logger m_logger = LoggerFactory.getLogger(SchemaPusher.class);
+    private final URL m_url;
+    private final ScheduledExecutorService m_executor;
+    private final SchemaSource m_source;
+    private final long m_refreshMillis;
+
+    //guarded by this
+    private boolean m_gzip = true;
+    private String m_acknowledgedEtag;
+    private long m_acknowledgedTime;
+    private int m_failures;
+    private long m_retryTime;
+
+    public SchemaPusher(final URL url, final ScheduledExecutorService executor, final SchemaSource source, final long refreshMillis)
+    {
+        this.m_url = url;
+        this.m_executor = executor;
+        this.m_source = source;
+        this.m_refreshMillis = refreshMillis;
+    }
+
+    public URL Url()
+    {
+        return m_url;
+    }
+
+    /**
+     * Pushes the current schema on the push executor if the portal does not have it yet
+     */
+    public void Push()
+    {
+        Submit(0, false);
+    }
+
+    private void Submit(final long delayMillis, final boolean retry)
+    {
+        try
+        {
+            m_executor.schedule(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    Run(retry);
+                }
+            }, delayMillis, TimeUnit.MILLISECONDS);
+        }
+        catch (RejectedExecutionException ex)
+        {
+            //server is closed
+        }
+    }
+
+    private synchronized void Run(final boolean retry)
+    {
+        final long now = System.currentTimeMillis();
+        if (!retry && m_failures > 0 && now < m_retryTime)
+        {
+            //the scheduled retry will send the latest schema
+            return;
+        }
+
+        final SchemaSnapshot schema = m_source.Get();
+        if (schema.etag.equals(m_acknowledgedEtag) && now - m_acknowledgedTime < m_refreshMillis)
+        {
+            return;
+        }
+
+        try
+        {
+            Send(schema);
+            m_acknowledgedEtag = schema.etag;
+            m_acknowledgedTime = now;
+            m_failures = 0;
+        }
+        catch (IOException | SjsmpServerException e)
+        {
+            ++m_failures;
+            final long backoff = Math.min(MAX_BACKOFF_MILLIS, INITIAL_BACKOFF_MILLIS << Math.min(m_failures - 1, 20));
+            //full jitter in the upper half keeps a fleet of servers from retrying in lockstep
+            final long delay = backoff / 2 + ThreadLocalRandom.current().nextLong(backoff / 2 + 1);
+            m_retryTime = now + delay;
+            m_logger.error("Failed to push schema to " + m_url + " (attempt " + m_failures + "), retrying in " + delay + " ms: " + e.getMessage(), e);
+            Submit(delay, true);
+        }
+    }
+
+    private void Send(final SchemaSnapshot schema) throws IOException, SjsmpServerException
+    {
+        int code = Post(m_gzip ? schema.gzippedBody : schema.body, m_gzip);
+        if (m_gzip && (code == HttpStatusCode.UnsupportedMediaType.code || code == HttpStatusCode.BadRequest.code))
+        {
+            m_logger.info("Schema push URL {} does not accept gzip, sending uncompressed", m_url);
+            m_gzip = false;
+            code = Post(schema.body, false);
+        }
+        if (code != HttpStatusCode.OK.code)
+        {
+            throw new SjsmpServerException("Schema push http status code is not OK but " + code);
+        }
+    }
+
+    /**
+     * @return http status code; the result of a 200 response is checked
+     */
+    private int Post(final byte[] body, final boolean gzip) throws IOException, SjsmpServerException
+    {
+        final HttpURLConnection connection = (HttpURLConnection)m_url.openConnection();
+        connection.setConnectTimeout(CONNECT_TIMEOUT_MILLIS);
+        connection.setReadTimeout(READ_TIMEOUT_MILLIS);
+        connection.setRequestMethod("POST");
+        connection.setRequestProperty("Content-Type", "text/json; charset=UTF-8");
+        if (gzip)
+        {
+            connection.setRequestProperty("Content-Encoding", "gzip");
+        }
+        connection.setDoOutput(true);
+        connection.setFixedLengthStreamingMode(body.length);
+
+        try (OutputStream os = connection.getOutputStream())
+        {
+            os.write(body);
+        }
+
+        final int code = connection.getResponseCode();
+        //see http://stackoverflow.com/a/613484/376066
+        final InputStream inputStream = code < 400 ? connection.getInputStream() : connection.getErrorStream();
+        final String content = inputStream != null ? ReadResponse(inputStream) : "";
+        if (code != HttpStatusCode.OK.code)
+        {
+            return code;
+        }
+
+        final JSONObject jResp;
+        try
+        {
+            jResp = new JSONObject(content);
+        }
+        catch (JSONException ex)
+        {
+            throw new SjsmpServerException("Failed to read schema push result", ex);
+        }
+        if (!jResp.optString("result").equals("ok"))
+        {
+            throw new SjsmpServerException("Schema push result is not ok: '" + jResp.optString("result") + "'; message is '" + jResp.optString("message") + "'");
+        }
+        return code;
+    }
+
+    /**
+     * Reads the whole response, so the connection goes back to the keep-alive cache
+     */
+    private static String ReadResponse(final InputStream responseInputStream) throws IOException
+    {
+        try (InputStream is = responseInputStream)
+        {
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            final byte[] buf = new byte[4096];
+            int readCount;
+            while ((readCount = is.read(buf)) >= 0)
+            {
+                out.write(buf, 0, readCount);
+                if (out.size() >= MAX_RESPONSE_LENGTH)
+                {
+                    throw new IOException("Length of the response it too large");
+                }
+            }
+            return new String(out.toByteArray(), StandardCharsets.UTF_8);
+        }
+    }
+}
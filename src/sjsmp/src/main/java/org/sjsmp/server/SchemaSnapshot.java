@@ -0,0 +1,101 @@
+package org.sjsmp.server;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Immutable, pre-encoded schema body. Built once per schema change, so serving the schema
+ * costs neither encoding nor compression work.
+ */
+final class SchemaSnapshot
+{
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+    private static final int ETAG_HASH_BYTES = 16;
+
+    /** registry change counter the schema was built for */
+    public final long version;
+    public final byte[] body;
+    public final byte[] gzippedBody;
+    public final String etag;
+    public final String gzippedEtag;
+
+    public SchemaSnapshot(final long version, final byte[] body)
+    {
+        this.version = version;
+        this.body = body;
+        this.gzippedBody = Gzip(body);
+
+        final String hash = Hash(body);
+        this.etag = "\"" + hash + "\"";
+        //different representation needs a different strong validator
+        this.gzippedEtag = "\"" + hash + "-gzip\"";
+    }
+
+    /**
+     * @param ifNoneMatch value of the 'If-None-Match' request header, may be null
+     * @return true if the client already has the current schema in any of its representations
+     */
+    public boolean Matches(final String ifNoneMatch)
+    {
+        if (ifNoneMatch == null)
+        {
+            return false;
+        }
+        for (String tag : ifNoneMatch.split(","))
+        {
+            tag = tag.trim();
+            if (tag.equals("*"))
+            {
+                return true;
+            }
+            //If-None-Match uses weak comparison
+            if (tag.startsWith("W/"))
+            {
+                tag = tag.substring("W/".length());
+            }
+            if (tag.equals(etag) || tag.equals(gzippedEtag))
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static byte[] Gzip(final byte[] data)
+    {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 4 + 64);
+        try (GZIPOutputStream gzip = new GZIPOutputStream(out))
+        {
+            gzip.write(data);
+        }
+        catch (IOException ex)
+        {
+            throw new RuntimeException("IOException on in-memory stream - should not happen", ex);
+        }
+        return out.toByteArray();
+    }
+
+    private static String Hash(final byte[] data)
+    {
+        final byte[] digest;
+        try
+        {
+            digest = MessageDigest.getInstance("SHA-256").digest(data);
+        }
+        catch (NoSuchAlgorithmException ex)
+        {
+            throw new RuntimeException("SHA-256 is not supported - should not happen", ex);
+        }
+
+        final char[] chars = new char[ETAG_HASH_BYTES * 2];
+        for (int i = 0; i < ETAG_HASH_BYTES; ++i)
+        {
+            chars[i * 2] = HEX_DIGITS[(digest[i] >> 4) & 0xF];
+            chars[i * 2 + 1] = HEX_DIGITS[digest[i] & 0xF];
+        }
+        return new String(chars);
+    }
+}
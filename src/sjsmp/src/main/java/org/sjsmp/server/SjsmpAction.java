@@ -13,4 +13,5 @@ public @interface SjsmpAction
 {
 	String value();	//actually it's a description, but we use value() as it's a default name
 	boolean requireConfirm() default false;
+	boolean async() default false;	//'execute' starts a job and returns its id, see 'get_job' and 'cancel_job'
 }
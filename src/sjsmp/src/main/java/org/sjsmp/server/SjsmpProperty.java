@@ -18,4 +18,11 @@ public @interface SjsmpProperty
 	String value();	//actually it's a description, but we use value() as it's a default name
     boolean readonly() default false;
     boolean showGraph() default false;
+    /** sampling interval of the server side history kept for {@code showGraph} properties */
+    int historyIntervalMillis() default 1000;
+    /** number of samples kept in the server side history of a {@code showGraph} property for 'get_history'; 0, the default, keeps none */
+    int historySize() default 0;
+    /** the last value is served for this long instead of calling the getter again, concurrent reads share one call;
+     * set_property and MarkChanged drop it. 0 disables it */
+    int cacheMillis() default 0;
 }
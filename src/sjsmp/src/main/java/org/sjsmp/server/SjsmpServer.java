@@ -1,63 +1,96 @@
 package org.sjsmp.server;
 
-import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.io.OutputStream;
 import java.io.Reader;
 import java.io.UnsupportedEncodingException;
 import java.net.BindException;
-import java.net.HttpURLConnection;
 import java.net.InetSocketAddress;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
 import java.time.LocalDateTime;
 import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
 
-import javax.xml.bind.DatatypeConverter;
 
-import org.json.JSONException;
-import org.json.JSONObject;
 import org.sjsmp.HttpStatusCode;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.sun.net.httpserver.Headers;
-import com.sun.net.httpserver.HttpExchange;
-import com.sun.net.httpserver.HttpHandler;
-import com.sun.net.httpserver.HttpServer;
-
 public final class SjsmpServer implements AutoCloseable
 {
     private static final int MAX_REQUEST_LENGTH = 1 * 1024 * 1024;
-    private static final int MAX_RESPONSE_LENGTH = 1 * 1024 * 1024;
 
-    private HttpServer m_server;
+    private HttpTransport m_transport;
 
     private final Logger m_logger = LoggerFactory.getLogger(SjsmpServer.class);
     private int m_port;
     private final String m_name;
     private final String m_description;
     private final String m_group;
-    private URL m_schemaPushUrl;
-    private final IServerAuthorization m_auth;
-
-    private String m_schema;
-    private long m_schemaVersionNumber = 0;
-    private final ReentrantReadWriteLock m_schemaLock = new ReentrantReadWriteLock();
-    private final Map<Object, ObjectDescription> m_objects = new HashMap<>();
-    private final Map<String, Object> m_objectNames = new HashMap<>();
+    private final List<SchemaPusher> m_schemaPushers = new ArrayList<>();
+    private final Authenticator m_auth;
+
+    //the schema is assembled on first use after a registry change, see GetSchema()
+    private volatile SchemaSnapshot m_schema;
+    private final AtomicLong m_schemaVersionNumber = new AtomicLong(1);
+    private final Object m_schemaBuildLock = new Object();
+    //readers resolve objects without locking; the lock only serializes registrations and schema rebuilds
+    private final ReentrantLock m_registrationLock = new ReentrantLock();
+    private final ConcurrentHashMap<Object, ObjectDescription> m_objects = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, ObjectDescription> m_objectNames = new ConcurrentHashMap<>();
+    /** sorted name and group indexes of the objects in {@link #m_objectNames} for get_properties queries */
+    private final ObjectIndex m_objectIndex = new ObjectIndex();
     private ScheduledExecutorService m_schemaPushExecutor;
+    private DebouncedTask m_schemaPushTrigger;
+    private final SjsmpServerOptions m_options;
+    private ExecutorService m_requestExecutor;
+    private ExecutorService m_batchExecutor;
+    /** calls getters of whole object reads in parallel; null if they are called on the request thread */
+    private ExecutorService m_getterExecutor;
+    /** writes whole object reads with the getters on m_getterExecutor; null if it is null */
+    private ParallelValueWriter m_parallelValues;
+    private SubscriptionHub m_subscriptions;
+    private HistorySampler m_historySampler;
+    private final JobStore m_jobs;
+    private final Instrumentation m_instrumentation;
+    private final ClassDescriptionCache m_classDescriptions;
+    //'since' tokens of get_properties are "<epoch>.<sequence>"; the epoch makes tokens of another server instance invalid
+    private final String m_changeEpoch = Long.toHexString(ThreadLocalRandom.current().nextLong() & Long.MAX_VALUE);
+    private final Object m_changeLock = new Object();
+    private long m_changeSequence; //guarded by m_changeLock
+    //highest sequence whose marks are all made; tokens are built from it, never from m_changeSequence
+    private volatile long m_publishedSequence;
+    private final Semaphore m_inFlightRequests;
 
     private final int SCHEMA_PUSH_INTERVAL_SECONDS = 1 * 60;
+    private static final long SUBSCRIPTION_DEFAULT_INTERVAL_MILLIS = 1000;
+    private static final long SUBSCRIPTION_MIN_INTERVAL_MILLIS = 100;
+    private static final long SUBSCRIPTION_MAX_INTERVAL_MILLIS = 60 * 60 * 1000;
 
     public static final int PORT_MIN = 40234;
     public static final int PORT_MAX = PORT_MIN + 1000;
@@ -71,13 +104,51 @@ public final class SjsmpServer implements AutoCloseable
     		final IServerAuthorization auth,
     		final String schemaPushUrl
 		) throws IOException
+    {
+        this(name, description, group, startPort, endPort, auth, schemaPushUrl, new SjsmpServerOptions());
+    }
+
+    public SjsmpServer(
+            final String name,
+            final String description,
+            final String group,
+            int startPort,
+            int endPort,
+            final IServerAuthorization auth,
+            final String schemaPushUrl,
+            final SjsmpServerOptions options
+        ) throws IOException
     {
     	m_logger.info("Starting SjmpServer");
 
         m_name = name;
         m_description = description;
         m_group = group;
-        m_auth = auth;
+        m_auth = auth != null ? new Authenticator(auth, options.GetAuthCacheSize(), options.GetAuthCacheSeconds(), options.GetSessionTokenSeconds()) : null;
+        m_options = options;
+        m_inFlightRequests = new Semaphore(options.GetMaxInFlightRequests());
+        m_requestExecutor = CreateRequestExecutor(options);
+        m_batchExecutor = CreateThreadPool(options.GetBatchThreads(), "SjsmpBatch");
+        m_getterExecutor = CreateGetterExecutor(options);
+        m_parallelValues = m_getterExecutor != null
+            ? new ParallelValueWriter(m_getterExecutor, options.GetGetterThreads(), options.GetGetterTimeoutMillis(), options.GetSlowGetterSkipSeconds())
+            : null;
+        m_subscriptions = new SubscriptionHub(new SubscriptionSampler());
+        m_historySampler = new HistorySampler();
+        m_instrumentation = options.GetInstrumentation() ? new Instrumentation() : null;
+        m_classDescriptions = new ClassDescriptionCache(m_instrumentation);
+        m_jobs = new JobStore(CreateThreadPool(options.GetJobThreads(), "SjsmpJob"), options.GetMaxFinishedJobs(), options.GetFinishedJobTtlSeconds() * 1000L);
+        if (m_instrumentation != null)
+        {
+            try
+            {
+                RegisterObject(m_instrumentation, Instrumentation.OBJECT_NAME, "SJSMP server statistics", Instrumentation.OBJECT_NAME, false);
+            }
+            catch (SjsmpServerException ex)
+            {
+                m_logger.error("Failed to register the instrumentation object: " + ex.getMessage(), ex);
+            }
+        }
 
         if (startPort == 0)
         {
@@ -92,20 +163,17 @@ public final class SjsmpServer implements AutoCloseable
 
         for (;;)
         {
-            RefreshSchema();
-
             try
             {
                 final InetSocketAddress sockAddr = new InetSocketAddress(m_port);
-                m_server = HttpServer.create(sockAddr, 0);
-                m_server.createContext("/", new HttpQueryHandler());
-                m_server.setExecutor(null); // creates a default executor
-                m_server.start();
+                m_transport = CreateTransport(options);
+                m_transport.Start(sockAddr, new HttpQueryHandler());
                 break;
             }
             catch (BindException e)
             {
-                m_server = null;
+                m_transport.Stop();
+                m_transport = null;
                 m_logger.info("Can not bind to port " + m_port + " (" + e.getMessage() + "), trying next");
             }
 
@@ -116,415 +184,1132 @@ public final class SjsmpServer implements AutoCloseable
         }
         m_logger.info("Connected to port {}", m_port);
 
+        final List<String> schemaPushUrls = new ArrayList<>();
         if (schemaPushUrl != null)
         {
-        	try
-        	{
-        		m_schemaPushUrl = new URL(schemaPushUrl);
-            	m_logger.info("Starting schema push job for url {}", m_schemaPushUrl);
-            	m_schemaPushExecutor = Executors.newScheduledThreadPool(1, new NamedThreadFactory("SjmpSchemaPush-"));
-            	m_schemaPushExecutor.scheduleAtFixedRate(new SchemaPushRunnable(), SCHEMA_PUSH_INTERVAL_SECONDS / 10, SCHEMA_PUSH_INTERVAL_SECONDS, TimeUnit.SECONDS);
-        	}
-        	catch (MalformedURLException ex)
-        	{
-        		m_logger.error("Bad schema push URL '" + ex.getMessage() + "'. Schema push is disabled!", ex);
-        	}
+            schemaPushUrls.add(schemaPushUrl);
+        }
+        schemaPushUrls.addAll(options.GetSchemaPushUrls());
+        if (!schemaPushUrls.isEmpty())
+        {
+            //one thread per portal, so a slow portal does not delay pushes to the others
+            m_schemaPushExecutor = Executors.newScheduledThreadPool(schemaPushUrls.size(), new NamedThreadFactory("SjmpSchemaPush-"));
+            for (final String url : schemaPushUrls)
+            {
+                try
+                {
+                    m_schemaPushers.add(new SchemaPusher(new URL(url), m_schemaPushExecutor, new ServerSchemaSource(), options.GetSchemaPushRefreshSeconds() * 1000L));
+                    m_logger.info("Starting schema push job for url {}", url);
+                }
+                catch (MalformedURLException ex)
+                {
+                    m_logger.error("Bad schema push URL '" + ex.getMessage() + "'. Schema push to it is disabled!", ex);
+                }
+            }
+            m_schemaPushExecutor.scheduleAtFixedRate(new SchemaPushRunnable(), SCHEMA_PUSH_INTERVAL_SECONDS / 10, SCHEMA_PUSH_INTERVAL_SECONDS, TimeUnit.SECONDS);
+            m_schemaPushTrigger = new DebouncedTask(m_schemaPushExecutor, new SchemaPushRunnable(), options.GetSchemaPushQuietMillis(), options.GetSchemaPushMaxDelayMillis());
         }
     }
 
-    private void schemaPushJob()
+    private static HttpTransport CreateTransport(final SjsmpServerOptions options)
     {
-        try
+        switch (options.GetTransport())
         {
-            //Create connection
-        	HttpURLConnection connection = (HttpURLConnection)m_schemaPushUrl.openConnection();
-            connection.setRequestMethod("POST");
-            connection.setRequestProperty("Content-Type", "text/json; charset=UTF-8");
-            connection.setDoOutput(true);
-
-            //Send request
-            try (DataOutputStream wr = new DataOutputStream (connection.getOutputStream()))
-            {
-                wr.write(m_schema.getBytes("UTF-8"));
-            }
+        case JdkHttpServer:
+            return new JdkHttpTransport();
+        case Nio:
+            return new NioHttpTransport(options.GetNioEventLoops(), MAX_REQUEST_LENGTH, TimeUnit.SECONDS.toMillis(options.GetIdleConnectionTimeoutSeconds()));
+        default:
+            throw new AssertionError(options.GetTransport());
+        }
+    }
 
-            //see http://stackoverflow.com/a/613484/376066
-            InputStream inputStream;
-            if (connection.getResponseCode() == HttpStatusCode.OK.code)
+    private ExecutorService CreateRequestExecutor(final SjsmpServerOptions options)
+    {
+        switch (options.GetExecutorMode())
+        {
+        case Dispatcher:
+            if (options.GetTransport() != SjsmpServerOptions.Transport.Nio)
             {
-            	inputStream = connection.getInputStream();
+                return null;
             }
-            else
+            //a slow getter on a selector thread would stall every connection of its event loop
+            return CreateThreadPool(options.GetRequestThreads(), "SjsmpRequest");
+        case VirtualThreads:
+            if (NamedThreadFactory.IsVirtualThreadsSupported())
             {
-            	inputStream = connection.getErrorStream();
+                return new ThreadPerTaskExecutor(new NamedThreadFactory("SjsmpRequest", true));
             }
+            m_logger.warn("Virtual threads are not supported by this JVM, using thread pool for requests");
+            return CreateThreadPool(options.GetRequestThreads(), "SjsmpRequest");
+        case ThreadPool:
+            return CreateThreadPool(options.GetRequestThreads(), "SjsmpRequest");
+        default:
+            throw new AssertionError(options.GetExecutorMode());
+        }
+    }
+
+    private static ExecutorService CreateGetterExecutor(final SjsmpServerOptions options)
+    {
+        if (options.GetGetterTimeoutMillis() == 0)
+        {
+            return null;
+        }
+        //a getter missing its deadline keeps its thread until it returns, which costs little with virtual threads
+        if (options.GetExecutorMode() == SjsmpServerOptions.ExecutorMode.VirtualThreads && NamedThreadFactory.IsVirtualThreadsSupported())
+        {
+            return new ThreadPerTaskExecutor(new NamedThreadFactory("SjsmpGetter", true));
+        }
+        return CreateThreadPool(options.GetGetterThreads(), "SjsmpGetter");
+    }
+
+    private static ExecutorService CreateThreadPool(final int threads, final String namePrefix)
+    {
+        final ThreadPoolExecutor executor = new ThreadPoolExecutor(
+                threads, threads,
+                60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(),
+                new NamedThreadFactory(namePrefix)
+            );
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
 
-            JSONObject jResp;
+    private void DispatchRequest(final HttpTransportExchange t) throws IOException
+    {
+        final ExecutorService executor = m_requestExecutor;
+        if (executor == null)
+        {
+            RequestReceived(t);
+            return;
+        }
+
+        if (m_inFlightRequests.tryAcquire())
+        {
             try
             {
-            	String content = ReadResponse(inputStream);
-            	jResp = new JSONObject(content);
+                executor.execute(new RequestRunnable(t));
+                return;
             }
-            catch (IOException | JSONException ex)
+            catch (RejectedExecutionException ex)
             {
-            	throw new SjsmpServerException("Failed to read schema push result", ex);
+                m_inFlightRequests.release();
             }
+        }
 
-            if (!jResp.getString("result").equals("ok"))
-            {
-                throw new SjsmpServerException("Schema push result is not ok: '" + jResp.getString("result") + "'; message is '" + jResp.getString("message") + "'");
-            }
+        m_logger.trace("[" + t.GetRemoteAddress() + "][error] Too many requests in flight, returning ServiceUnavailable");
+        t.AddResponseHeader("Retry-After", Integer.toString(m_options.GetRetryAfterSeconds()));
+        MakeReponseError(t, "Server is busy", HttpStatusCode.ServiceUnavailable);
+    }
 
-            if (connection.getResponseCode() != HttpStatusCode.OK.code)
-            {
-            	throw new SjsmpServerException("Schema push http status code is not OK but " + connection.getResponseCode());
-            }
-        }
-        catch (Exception e)
+    private void PushSchema()
+    {
+        for (final SchemaPusher pusher : m_schemaPushers)
         {
-            m_logger.error("Failed to push schema: " + e.getMessage(), e);
+            pusher.Push();
         }
     }
 
-    private static String ReadResponse(InputStream responseInputStream) throws IOException
+    private void RequestReceived(final HttpTransportExchange t) throws IOException
     {
-        try (InputStreamReader reader = new InputStreamReader(responseInputStream))
+        final Instrumentation instrumentation = m_instrumentation;
+        if (instrumentation == null)
         {
-            StringBuilder builder = new StringBuilder();
-            char[] buf = new char[4096];
-            while (true)
-            {
-                int readCount = reader.read(buf, 0, buf.length);
-                if (readCount < 0)
-                {
-                	break;
-                }
-                builder.append(buf, 0, readCount);
+            HandleRequest(t);
+            return;
+        }
 
-                if (builder.length() >= MAX_RESPONSE_LENGTH)
-                {
-                    throw new IOException("Length of the response it too large");
-                }
-                if (readCount < buf.length)
-                {
-                	break;
-                }
-            }
-            return builder.toString();
+        final long start = System.nanoTime();
+        instrumentation.RequestStarted();
+        String type = null;
+        try
+        {
+            type = HandleRequest(t);
+        }
+        finally
+        {
+            instrumentation.RequestFinished(type, System.nanoTime() - start);
         }
     }
 
-    private void RequestReceived(final HttpExchange t) throws IOException
+    /**
+     * @return 'action' of the request, "schema" or null if the request was rejected before it was parsed
+     */
+    private String HandleRequest(final HttpTransportExchange t) throws IOException
     {
-        final String requestHostName = t.getRemoteAddress().getHostName();
+        final String requestHostName = t.GetRemoteAddress().getHostString();
 
         if (m_auth != null)
         {
-            if (!TryAuth(t, m_auth))
+            if (!m_auth.Authenticate(t))
             {
                 m_logger.trace("[" + requestHostName + "][error] Auth false, returning Unauthorized");
-                t.getResponseHeaders().add("WWW-Authenticate", "Basic realm=\"" + this.m_name.replace("\"", "") + "\"");
-                t.sendResponseHeaders(HttpStatusCode.Unauthorized.code, 0);
-                t.getResponseBody().close();
-                return;
+                t.AddResponseHeader("WWW-Authenticate", "Basic realm=\"" + this.m_name.replace("\"", "") + "\"");
+                t.SendResponse(HttpStatusCode.Unauthorized, null, 0, 0);
+                return null;
             }
         }
 
         // Method allowed
-        if (!t.getRequestMethod().equals("POST"))
+        if (!t.GetRequestMethod().equals("POST"))
         {
             m_logger.trace("[" + requestHostName + "][error] Wrong request method");
             MakeReponseError(t, "Wrong request method", HttpStatusCode.Forbidden);
-            return;
+            return null;
         }
 
+        String type = null;
         try
         {
-            final String body = ReadStream(t.getRequestBody(), MAX_REQUEST_LENGTH);
-            if (body == null || body.trim().equals(""))
+            final RequestBody body = RequestBody.Read(t.GetRequestBody(), t.GetContentLength(), MAX_REQUEST_LENGTH);
+            if (body == null)
             {
-            	ProcessSchemaRequest(t);
-                return;
+                m_logger.trace("[" + requestHostName + "][error] Request is too large");
+                MakeReponseError(t, "Request is larger than " + MAX_REQUEST_LENGTH + " bytes", HttpStatusCode.RequestEntityTooLarge);
+                return null;
+            }
+            if (m_instrumentation != null)
+            {
+                m_instrumentation.BytesIn(body.Length());
             }
 
-            RequestCommandWrapper command = new RequestCommandWrapper(body);
-            ProcessServiceRequest(t, command);
+            final RequestCommandWrapper command;
+            try
+            {
+                final JsonReader reader = new JsonReader(body.Buffer(), 0, body.Length());
+                if (reader.IsEnd())
+                {
+                    ProcessSchemaRequest(t);
+                    return "schema";
+                }
+                command = new RequestCommandWrapper(reader);
+                if (!reader.IsEnd())
+                {
+                    throw new SjsmpArgumentException("Unexpected data after the request object");
+                }
+            }
+            finally
+            {
+                RequestBody.Release(body);
+            }
 
+            type = command.action;
+            if (command.action.equals("subscribe"))
+            {
+                ProcessSubscribe(t, command);
+            }
+            else
+            {
+                ProcessServiceRequest(t, command);
+            }
         }
         catch (SjsmpArgumentException | SjsmpServerException ex)
         {
             m_logger.error("[" + requestHostName + "][error] Exception: \n" + ex.getMessage());
             MakeReponseError(t, "exception: " + ex.getMessage(), HttpStatusCode.InternalServerError);
-            return;
         }
+        return type;
     }
 
-    private void ProcessSchemaRequest(final HttpExchange t) throws IOException
+    private void ProcessSchemaRequest(final HttpTransportExchange t) throws IOException
     {
-        MakeResponse(t, HttpStatusCode.OK, m_schema);
-    }
+        final SchemaSnapshot schema = GetSchema();
+        t.AddResponseHeader("Vary", "Accept-Encoding");
 
-    private void ProcessServiceRequest(final HttpExchange t, final RequestCommandWrapper command) throws SjsmpArgumentException, IOException, SjsmpServerException
-    {
-        JSONObject responseObject;
-        switch (command.action)
+        final boolean gzip = AcceptsGzip(t.GetRequestHeaders("Accept-Encoding"));
+        t.AddResponseHeader("ETag", gzip ? schema.gzippedEtag : schema.etag);
+
+        if (schema.Matches(t.GetRequestHeader("If-None-Match")))
         {
-        case "get_properties":
-            responseObject = ProcessGetProperties(command);
-            break;
-        case "set_property":
-            responseObject = ProcessSetProperty(command);
-            break;
-        case "execute":
-            responseObject = ProcessExecute(command);
-            break;
-        default:
-            throw new RuntimeException("unsupported action '" + command.action + "'");
+            t.SendResponse(HttpStatusCode.NotModified, null, 0, 0);
+            return;
+        }
+
+        if (gzip)
+        {
+            t.AddResponseHeader("Content-Encoding", "gzip");
+            MakeResponse(t, HttpStatusCode.OK, schema.gzippedBody);
+        }
+        else
+        {
+            MakeResponse(t, HttpStatusCode.OK, schema.body);
         }
-        MakeResponse(t, HttpStatusCode.OK, responseObject);
     }
 
-    private JSONObject ProcessGetProperties(final RequestCommandWrapper command) throws SjsmpArgumentException, SjsmpServerException
+    private static boolean AcceptsGzip(final List<String> acceptEncodingHeaders)
     {
-        assert(command.action.equals("get_properties"));
-
-        final JSONObject ret = new JSONObject();
-        ret.put("request_id", command.requestId);
-        ret.put("result", "ok");
-
-        final String objectName = command.jObject.has("object_name") ? command.jObject.getString("object_name") : null;
-        final String propertyName = command.jObject.has("property_name") ? command.jObject.getString("property_name") : null;
-
-        final JSONObject objects = new JSONObject();
-
-        m_schemaLock.readLock().lock();
-        try
+        if (acceptEncodingHeaders == null)
+        {
+            return false;
+        }
+        for (final String header : acceptEncodingHeaders)
         {
-            if (objectName == null)
+            for (final String coding : header.split(","))
             {
-                for (Map.Entry<Object, ObjectDescription> objPair : m_objects.entrySet())
+                final String[] parts = coding.split(";");
+                final String name = parts[0].trim();
+                if (!name.equalsIgnoreCase("gzip") && !name.equals("*"))
                 {
-                    final JSONObject obj = new JSONObject();
-                    for (Map.Entry<String, PropertyDescription> propPair : objPair.getValue().properties.entrySet())
-                    {
-                        obj.put(propPair.getKey(), propPair.getValue().GetValue(objPair.getKey()));
-                    }
-                    objects.put(objPair.getValue().name, obj);
+                    continue;
                 }
-            }
-            else
-            {
-                Object obj;
-                if ((obj = m_objectNames.get(objectName)) != null)
+                boolean refused = false;
+                for (int i = 1; i < parts.length; ++i)
                 {
-                    final ObjectDescription descr = m_objects.get(obj);
-                    final JSONObject jObj = new JSONObject();
-                    if (propertyName == null)
-                    {
-                        for (Map.Entry<String, PropertyDescription> pair : descr.properties.entrySet())
-                        {
-                            jObj.put(pair.getKey(), pair.getValue().GetValue(obj));
-                        }
-                    }
-                    else
+                    final String param = parts[i].trim();
+                    if (param.startsWith("q=") && param.substring("q=".length()).trim().matches("0(\\.0*)?"))
                     {
-                        PropertyDescription propDescr;
-                        if ((propDescr = descr.properties.get(propertyName)) != null)
-                        {
-                            jObj.put(propDescr.name, propDescr.GetValue(obj));
-                        }
-                        else
-                        {
-                            throw new SjsmpArgumentException("Unknown property '" + propertyName + "'");
-                        }
+                        refused = true;
                     }
-                    objects.put(descr.name, jObj);
                 }
-                else
+                if (!refused)
                 {
-                    throw new SjsmpArgumentException("Unknown object '" + objectName + "'");
+                    return true;
                 }
             }
         }
-        finally
-        {
-            m_schemaLock.readLock().unlock();
-        }
-
-        ret.put("objects", objects);
-        return ret;
+        return false;
     }
 
-    private JSONObject ProcessSetProperty(final RequestCommandWrapper command) throws SjsmpArgumentException, SjsmpServerException
+    /**
+     * Answers with a Server-Sent Events stream of changed property values
+     */
+    private void ProcessSubscribe(final HttpTransportExchange t, final RequestCommandWrapper command) throws SjsmpArgumentException, IOException
     {
-        assert(command.action.equals("set_property"));
-
-        final String objectName = command.jObject.getString("object_name");
-        final String propertyName = command.jObject.getString("property_name");
-        final Object value = command.jObject.get("value");
+        if (command.objects == null)
+        {
+            throw new SjsmpArgumentException("You must set objects field");
+        }
 
-        if (objectName == null
-            || propertyName == null)
+        final long intervalMillis = LongArgument(command.intervalMillis, "interval_ms", SUBSCRIPTION_DEFAULT_INTERVAL_MILLIS);
+        if (intervalMillis < SUBSCRIPTION_MIN_INTERVAL_MILLIS || intervalMillis > SUBSCRIPTION_MAX_INTERVAL_MILLIS)
         {
-            throw new SjsmpArgumentException("You must set object_name and property_name fields");
+            throw new SjsmpArgumentException("interval_ms must be between " + SUBSCRIPTION_MIN_INTERVAL_MILLIS + " and " + SUBSCRIPTION_MAX_INTERVAL_MILLIS);
         }
 
-        m_schemaLock.readLock().lock();
-        try
+        final Map<String, Set<String>> properties = new HashMap<>();
+        for (final Map.Entry<String, Object> entry : command.objects.entrySet())
         {
-            final Object obj = m_objectNames.get(objectName);
-            if (obj == null)
+            final ObjectDescription descr = m_objectNames.get(entry.getKey());
+            if (descr == null)
             {
-                throw new SjsmpArgumentException("Unknown object '" + objectName + "'");
+                throw new SjsmpArgumentException("Unknown object '" + entry.getKey() + "'");
+            }
+            if (entry.getValue() == null)
+            {
+                properties.put(entry.getKey(), null);
+                continue;
+            }
+            if (!(entry.getValue() instanceof List))
+            {
+                throw new SjsmpArgumentException("Array of property names or null expected for object '" + entry.getKey() + "'");
             }
 
-            final ObjectDescription descr = m_objects.get(obj);
-            final PropertyDescription propDescr = descr.properties.get(propertyName);
-            if (propDescr == null)
+            final Set<String> names = new HashSet<>();
+            for (final Object name : (List<?>)entry.getValue())
             {
-                throw new SjsmpArgumentException("Unknown property '" + propertyName + "'");
+                if (!(name instanceof String) || !descr.properties.containsKey(name))
+                {
+                    throw new SjsmpArgumentException("Unknown property '" + name + "'");
+                }
+                names.add((String)name);
             }
+            properties.put(entry.getKey(), names);
+        }
 
-            propDescr.SetValue(obj, value);
+        final byte[] subscribedEvent;
+        final JsonWriter writer = JsonWriter.Acquire();
+        try
+        {
+            WriteResponseHeader(writer, command.requestId, "ok");
+            writer.EndObject();
+            subscribedEvent = ("event: subscribed\ndata: " + new String(writer.ToByteArray(), StandardCharsets.UTF_8) + "\n\n").getBytes(StandardCharsets.UTF_8);
         }
         finally
         {
-            m_schemaLock.readLock().unlock();
+            JsonWriter.Release(writer);
         }
 
-        final JSONObject ret = new JSONObject();
-        ret.put("request_id", command.requestId);
-        ret.put("result", "ok");
-        return ret;
+        t.AddResponseHeader("Content-Type", "text/event-stream; charset=UTF-8");
+        t.AddResponseHeader("Cache-Control", "no-cache");
+        final HttpTransportStream stream = t.StartStream(HttpStatusCode.OK);
+        try
+        {
+            stream.Write(subscribedEvent, 0, subscribedEvent.length);
+        }
+        catch (IOException ex)
+        {
+            stream.Close();
+            throw ex;
+        }
+        m_subscriptions.Subscribe(intervalMillis, properties, stream);
     }
 
-    private JSONObject ProcessExecute(final RequestCommandWrapper command) throws SjsmpArgumentException, SjsmpServerException
+    private static long LongArgument(final Object value, final String name, final long defaultValue) throws SjsmpArgumentException
     {
-        assert(command.action.equals("execute"));
-
-        final String objectName = command.jObject.getString("object_name");
-        final String actionName = command.jObject.getString("action_name");
-        final JSONObject parameters = command.jObject.getJSONObject("parameters");
-
-        if (objectName == null
-            || actionName == null
-            || parameters == null)
+        if (value == null)
         {
-            throw new SjsmpArgumentException("You must set object_name, action_name and parameters fields");
+            return defaultValue;
+        }
+        if (!(value instanceof Integer || value instanceof Long))
+        {
+            throw new SjsmpArgumentException(name + " must be an integer");
         }
+        return ((Number)value).longValue();
+    }
 
-        final JSONObject ret = new JSONObject();
+    private Map<String, Map<String, Object>> SampleProperties(final Map<String, Set<String>> properties)
+    {
+        final Map<String, Map<String, Object>> result = new HashMap<>();
+        for (final Map.Entry<String, Set<String>> entry : properties.entrySet())
+        {
+            final ObjectDescription descr = m_objectNames.get(entry.getKey());
+            if (descr == null)
+            {
+                continue;
+            }
+            final Map<String, Object> values = new HashMap<>();
+            for (final PropertyDescription propDescr : descr.properties.values())
+            {
+                if (entry.getValue() != null && !entry.getValue().contains(propDescr.name))
+                {
+                    continue;
+                }
+                try
+                {
+                    values.put(propDescr.name, descr.GetValue(propDescr));
+                }
+                catch (SjsmpServerException ex)
+                {
+                    m_logger.warn("Failed to sample property '" + propDescr.name + "' of object '" + entry.getKey() + "': " + ex.getMessage());
+                }
+            }
+            result.put(entry.getKey(), values);
+        }
+        return result;
+    }
 
-        m_schemaLock.readLock().lock();
+    private void ProcessServiceRequest(final HttpTransportExchange t, final RequestCommandWrapper command) throws SjsmpArgumentException, IOException, SjsmpServerException
+    {
+        final JsonWriter writer = JsonWriter.Acquire();
         try
         {
-            final Object obj = m_objectNames.get(objectName);
-            if (obj == null)
+            if (command.action.equals("batch"))
             {
-                throw new SjsmpArgumentException("Unknown object '" + objectName + "'");
+                ProcessBatch(command, writer);
             }
-
-            final ObjectDescription descr = m_objects.get(obj);
-			final ActionDescription actionDescr = descr.actions.get(actionName);
-            if (actionDescr == null)
+            else
             {
-                throw new SjsmpArgumentException("Unknown action '" + actionName + "'");
+                ProcessCommand(command, writer);
             }
-
-            final Object value = actionDescr.Call(obj, parameters);
-            ret.put("value", value);
+            MakeResponse(t, HttpStatusCode.OK, writer);
         }
         finally
         {
-            m_schemaLock.readLock().unlock();
+            JsonWriter.Release(writer);
         }
-
-        ret.put("request_id", command.requestId);
-        ret.put("result", "ok");
-        return ret;
     }
 
-    private void MakeReponseError(final HttpExchange t, final String message, final HttpStatusCode code) throws IOException
+    /**
+     * Writes the response to a single non-batch command; package-private for the benchmarks
+     */
+    void ProcessCommand(final RequestCommandWrapper command, final JsonWriter writer) throws SjsmpArgumentException, SjsmpServerException
     {
-        MakeReponseError(t, "", message, code);
+        switch (command.action)
+        {
+        case "get_properties":
+            ProcessGetProperties(command, writer);
+            break;
+        case "set_property":
+            ProcessSetProperty(command, writer);
+            break;
+        case "execute":
+            ProcessExecute(command, writer);
+            break;
+        case "get_history":
+            ProcessGetHistory(command, writer);
+            break;
+        case "get_job":
+        case "cancel_job":
+            ProcessJob(command, writer);
+            break;
+        default:
+            throw new RuntimeException("unsupported action '" + command.action + "'");
+        }
     }
 
-	private void MakeReponseError(final HttpExchange t, final String requestId, final String message, final HttpStatusCode code) throws IOException
-	{
-        final JSONObject body = new JSONObject();
-        body.put("request_id", requestId);
-	    body.put("result", "error");
-	    body.put("message", message);
-	    MakeResponse(t, code, body);
-	}
-
-	private void MakeResponse(final HttpExchange t, final HttpStatusCode code, final JSONObject body) throws IOException
-	{
-	    final String bodyText = body.toString();
-	    MakeResponse(t, code, bodyText);
-	}
-
-	private void MakeResponse(final HttpExchange t, final HttpStatusCode code, final String bodyText) throws IOException
-	{
-        t.getResponseHeaders().add("Content-Type", "text/json; charset=UTF-8");
-		t.sendResponseHeaders(code.code, 0);
-
-        try (final OutputStream os = t.getResponseBody())
+    /**
+     * Runs all entries in order, or concurrently if requested; every entry gets its own result or error
+     */
+    private void ProcessBatch(final RequestCommandWrapper command, final JsonWriter writer) throws SjsmpArgumentException, SjsmpServerException
+    {
+        if (command.commands == null)
         {
-            os.write(bodyText.getBytes("UTF-8"));
+            throw new SjsmpArgumentException("You must set commands field");
         }
-	}
-
-	public void RegisterObject(final Object obj) throws SjsmpServerException
-	{
-		RegisterObject(obj, obj.getClass().getSimpleName());
-	}
-
-	public void RegisterObject(final Object obj, final String description) throws SjsmpServerException
-	{
-		RegisterObject(obj, obj.getClass().getSimpleName(), description, "", true);
-	}
-
-	public void RegisterObject(final Object obj, final String name, final String description) throws SjsmpServerException
-	{
-		RegisterObject(obj, name, description, "", true);
-	}
 
-	public void RegisterObject(final Object obj, final String name, final String description, final String group, final boolean immediatePushSchema) throws SjsmpServerException
-    {
-        final ObjectDescription descr = new ObjectDescription(obj, name, description, group);
-        m_schemaLock.writeLock().lock();
-        try
+        WriteResponseHeader(writer, command.requestId, "ok");
+        writer.Name("results");
+        writer.BeginArray();
+        if (command.parallel && command.commands.size() > 1)
         {
-            if (m_objects.containsKey(obj) || m_objectNames.containsKey(name))
+            for (final byte[] result : ProcessBatchParallel(command.commands))
             {
-                throw new SjsmpServerException("object already registered: " + obj + ", name '" + name + "'");
+                writer.Raw(result, 0, result.length);
             }
-            m_objects.put(obj, descr);
-            m_objectNames.put(name, obj);
-
-            RefreshSchema();
-        }
-        finally
-        {
-            m_schemaLock.writeLock().unlock();
         }
-
-        if (this.m_schemaPushUrl != null && immediatePushSchema)
+        else
         {
-        	m_schemaPushExecutor.schedule(new SchemaPushRunnable(), 0, TimeUnit.SECONDS);
+            final JsonWriter entryWriter = JsonWriter.Acquire();
+            try
+            {
+                for (final RequestCommandWrapper entry : command.commands)
+                {
+                    entryWriter.Reset();
+                    ProcessBatchEntry(entry, entryWriter);
+                    writer.Raw(entryWriter.Buffer(), 0, entryWriter.Length());
+                }
+            }
+            finally
+            {
+                JsonWriter.Release(entryWriter);
+            }
         }
+        writer.EndArray();
+        writer.EndObject();
     }
 
-	public boolean UnRegisterObject(final Object obj) throws SjsmpServerException
-	{
-		return UnRegisterObject(obj, true);
+    private List<byte[]> ProcessBatchParallel(final List<RequestCommandWrapper> commands) throws SjsmpServerException
+    {
+        final List<Callable<byte[]>> tasks = new ArrayList<>(commands.size());
+        for (final RequestCommandWrapper entry : commands)
+        {
+            tasks.add(new Callable<byte[]>()
+            {
+                @Override
+                public byte[] call()
+                {
+                    final JsonWriter entryWriter = JsonWriter.Acquire();
+                    try
+                    {
+                        ProcessBatchEntry(entry, entryWriter);
+                        return entryWriter.ToByteArray();
+                    }
+                    finally
+                    {
+                        JsonWriter.Release(entryWriter);
+                    }
+                }
+            });
+        }
+
+        final List<byte[]> results = new ArrayList<>(commands.size());
+        try
+        {
+            for (final Future<byte[]> future : m_batchExecutor.invokeAll(tasks))
+            {
+                results.add(future.get());
+            }
+        }
+        catch (InterruptedException ex)
+        {
+            Thread.currentThread().interrupt();
+            throw new SjsmpServerException("Interrupted while executing batch", ex);
+        }
+        catch (ExecutionException ex)
+        {
+            throw new SjsmpServerException("Failed to execute batch entry", ex);
+        }
+        return results;
+    }
+
+    private void ProcessBatchEntry(final RequestCommandWrapper entry, final JsonWriter writer)
+    {
+        try
+        {
+            ProcessCommand(entry, writer);
+        }
+        catch (SjsmpArgumentException | SjsmpServerException | RuntimeException ex)
+        {
+            m_logger.error("[batch][error] Exception: \n" + ex.getMessage());
+            writer.Reset();
+            WriteResponseHeader(writer, entry.requestId, "error");
+            writer.Name("message");
+            writer.Value("exception: " + ex.getMessage());
+            writer.EndObject();
+        }
+    }
+
+    private static void WriteResponseHeader(final JsonWriter writer, final String requestId, final String result)
+    {
+        writer.BeginObject();
+        writer.Name("request_id");
+        writer.Value(requestId);
+        writer.Name("result");
+        writer.Value(result);
+    }
+
+    private void ProcessGetProperties(final RequestCommandWrapper command, final JsonWriter writer) throws SjsmpArgumentException, SjsmpServerException
+    {
+        assert(command.action.equals("get_properties"));
+
+        final String objectName = command.objectName;
+        final String propertyName = command.propertyName;
+        final List<String> propertyNames = command.propertyNames;
+        final long since = ParseChangeToken(command.since);
+        final long limit = LongArgument(command.limit, "limit", 0);
+        if (limit < 0 || limit > Integer.MAX_VALUE)
+        {
+            throw new SjsmpArgumentException("limit must be between 0 and " + Integer.MAX_VALUE);
+        }
+        if (objectName != null && (command.group != null || command.namePrefix != null || command.namePattern != null || command.cursor != null || limit != 0))
+        {
+            throw new SjsmpArgumentException("object_name can not be combined with group, name_prefix, name_pattern, cursor or limit");
+        }
+        if (propertyName != null && propertyNames != null)
+        {
+            throw new SjsmpArgumentException("property_name can not be combined with property_names");
+        }
+        //every change up to the published sequence is already marked; it is read before calling the getters,
+        //so a change published while we write is reported again by the next delta rather than lost
+        final long sequence = m_publishedSequence;
+
+        WriteResponseHeader(writer, command.requestId, "ok");
+        writer.Name("token");
+        writer.Value(m_changeEpoch + "." + sequence);
+        writer.Name("objects");
+        writer.BeginObject();
+
+        final ParallelValueWriter parallelValues = m_parallelValues;
+        Map<String, List<String>> timeouts = null;
+        String nextCursor = null;
+        if (objectName == null)
+        {
+            final ObjectIndex.Page page = m_objectIndex.Query(command.group, command.namePrefix, command.namePattern, command.cursor, (int)limit);
+            nextCursor = page.nextCursor;
+            if (parallelValues != null)
+            {
+                timeouts = parallelValues.Write(page.objects, since, propertyNames, writer);
+            }
+            else
+            {
+                for (final ObjectDescription descr : page.objects)
+                {
+                    WriteObjectValues(descr, since, propertyNames, writer);
+                }
+            }
+        }
+        else
+        {
+            final ObjectDescription descr;
+            if ((descr = m_objectNames.get(objectName)) != null)
+            {
+                if (propertyName == null)
+                {
+                    if (parallelValues != null)
+                    {
+                        timeouts = parallelValues.Write(Collections.singletonList(descr), since, propertyNames, writer);
+                    }
+                    else
+                    {
+                        WriteObjectValues(descr, since, propertyNames, writer);
+                    }
+                }
+                else
+                {
+                    final int index = descr.PropertyIndex(propertyName);
+                    if (index < 0)
+                    {
+                        throw new SjsmpArgumentException("Unknown property '" + propertyName + "'");
+                    }
+                    if (since < 0 || descr.changes.ChangedSince(index, since))
+                    {
+                        final PropertyDescription propDescr = descr.propertyList[index];
+                        final Object value = descr.GetValue(propDescr);
+                        writer.Name(descr.name);
+                        writer.BeginObject();
+                        if (value != null || since >= 0)
+                        {
+                            writer.Name(propDescr.name);
+                            writer.Value(value);
+                        }
+                        writer.EndObject();
+                    }
+                }
+            }
+            else
+            {
+                throw new SjsmpArgumentException("Unknown object '" + objectName + "'");
+            }
+        }
+
+        writer.EndObject();
+        if (nextCursor != null)
+        {
+            writer.Name("next_cursor");
+            writer.Value(nextCursor);
+        }
+        if (timeouts != null)
+        {
+            writer.Name("timeouts");
+            writer.BeginObject();
+            for (final Map.Entry<String, List<String>> pair : timeouts.entrySet())
+            {
+                writer.Name(pair.getKey());
+                writer.BeginArray();
+                for (final String name : pair.getValue())
+                {
+                    writer.Value(name);
+                }
+                writer.EndArray();
+            }
+            writer.EndObject();
+        }
+        writer.EndObject();
+    }
+
+    /**
+     * Writes all values of the object, or only values changed after {@code since} if it is not negative.
+     * Unchanged objects are omitted; changed values that are null are written as null.
+     * @param propertyNames properties to write or null for all of them
+     */
+    private static void WriteObjectValues(final ObjectDescription descr, final long since, final List<String> propertyNames, final JsonWriter writer) throws SjsmpServerException
+    {
+        final Object obj = descr.instance;
+        if (since < 0 && propertyNames == null)
+        {
+            writer.Name(descr.name);
+            writer.BeginObject();
+            descr.snapshotWriter.Write(obj, writer, descr.snapshotLatencies, descr.snapshotCaches);
+            writer.EndObject();
+            return;
+        }
+
+        if (since >= 0 && !descr.changes.ChangedSince(since))
+        {
+            return;
+        }
+        final int[] indexes = propertyNames != null ? descr.PropertyIndexes(propertyNames) : null;
+        final int count = indexes != null ? indexes.length : descr.propertyList.length;
+        writer.Name(descr.name);
+        writer.BeginObject();
+        for (int k = 0; k < count; ++k)
+        {
+            final int i = indexes != null ? indexes[k] : k;
+            if (since < 0 || descr.changes.ChangedSince(i, since))
+            {
+                final PropertyDescription propDescr = descr.propertyList[i];
+                final Object value = descr.GetValue(propDescr);
+                if (value != null || since >= 0)
+                {
+                    writer.Name(propDescr.name);
+                    writer.Value(value);
+                }
+            }
+        }
+        writer.EndObject();
+    }
+
+    /**
+     * @return sequence of the token or -1 if there is no token or it was issued by another server instance
+     */
+    private long ParseChangeToken(final String token) throws SjsmpArgumentException
+    {
+        if (token == null)
+        {
+            return -1;
+        }
+        final int dot = token.indexOf('.');
+        if (dot < 0)
+        {
+            throw new SjsmpArgumentException("Malformed since token '" + token + "'");
+        }
+        if (!token.substring(0, dot).equals(m_changeEpoch))
+        {
+            return -1;
+        }
+        try
+        {
+            final long sequence = Long.parseLong(token.substring(dot + 1));
+            if (sequence < 0)
+            {
+                throw new SjsmpArgumentException("Malformed since token '" + token + "'");
+            }
+            return sequence;
+        }
+        catch (NumberFormatException ex)
+        {
+            throw new SjsmpArgumentException("Malformed since token '" + token + "'");
+        }
+    }
+
+    private void ProcessSetProperty(final RequestCommandWrapper command, final JsonWriter writer) throws SjsmpArgumentException, SjsmpServerException
+    {
+        assert(command.action.equals("set_property"));
+
+        final String objectName = command.objectName;
+        final String propertyName = command.propertyName;
+        final Object value = command.value;
+
+        if (objectName == null
+            || propertyName == null
+            || !command.hasValue)
+        {
+            throw new SjsmpArgumentException("You must set object_name, property_name and value fields");
+        }
+
+        final ObjectDescription descr = m_objectNames.get(objectName);
+        if (descr == null)
+        {
+            throw new SjsmpArgumentException("Unknown object '" + objectName + "'");
+        }
+        final Object obj = descr.instance;
+
+        final PropertyDescription propDescr = descr.properties.get(propertyName);
+        if (propDescr == null)
+        {
+            throw new SjsmpArgumentException("Unknown property '" + propertyName + "'");
+        }
+
+        propDescr.SetValue(obj, value);
+        RecordChange(Collections.singletonList(descr), new int[] { descr.PropertyIndex(propertyName) });
+
+        WriteResponseHeader(writer, command.requestId, "ok");
+        writer.EndObject();
+    }
+
+    private void ProcessExecute(final RequestCommandWrapper command, final JsonWriter writer) throws SjsmpArgumentException, SjsmpServerException
+    {
+        assert(command.action.equals("execute"));
+
+        final String objectName = command.objectName;
+        final String actionName = command.actionName;
+        final Map<String, Object> parameters = command.parameters;
+
+        if (objectName == null
+            || actionName == null
+            || parameters == null)
+        {
+            throw new SjsmpArgumentException("You must set object_name, action_name and parameters fields");
+        }
+
+        final ObjectDescription descr = m_objectNames.get(objectName);
+        if (descr == null)
+        {
+            throw new SjsmpArgumentException("Unknown object '" + objectName + "'");
+        }
+        final Object obj = descr.instance;
+
+        final ActionDescription actionDescr = descr.actions.get(actionName);
+        if (actionDescr == null)
+        {
+            throw new SjsmpArgumentException("Unknown action '" + actionName + "'");
+        }
+
+        if (actionDescr.async)
+        {
+            final Object[] arguments = actionDescr.Arguments(parameters);
+            final JobStore.Job job;
+            try
+            {
+                job = m_jobs.Submit(objectName, actionName, new ActionCallable(actionDescr, obj, arguments));
+            }
+            catch (RejectedExecutionException ex)
+            {
+                throw new SjsmpServerException("Server is stopped");
+            }
+            WriteResponseHeader(writer, command.requestId, "ok");
+            job.Write(writer);
+            writer.EndObject();
+            return;
+        }
+
+        final Object value = actionDescr.Call(obj, parameters);
+
+        WriteResponseHeader(writer, command.requestId, "ok");
+        //null value is omitted, same as JSONObject.put() does
+        if (value != null)
+        {
+            writer.Name("value");
+            writer.Value(value);
+        }
+        writer.EndObject();
+    }
+
+    private void ProcessJob(final RequestCommandWrapper command, final JsonWriter writer) throws SjsmpArgumentException
+    {
+        assert(command.action.equals("get_job") || command.action.equals("cancel_job"));
+
+        if (command.jobId == null)
+        {
+            throw new SjsmpArgumentException("You must set job_id field");
+        }
+        final JobStore.Job job = m_jobs.Get(command.jobId);
+        if (job == null)
+        {
+            throw new SjsmpArgumentException("Unknown job '" + command.jobId + "'");
+        }
+        if (command.action.equals("cancel_job"))
+        {
+            job.Cancel();
+        }
+
+        WriteResponseHeader(writer, command.requestId, "ok");
+        job.Write(writer);
+        writer.EndObject();
+    }
+
+    private void ProcessGetHistory(final RequestCommandWrapper command, final JsonWriter writer) throws SjsmpArgumentException
+    {
+        assert(command.action.equals("get_history"));
+
+        final String objectName = command.objectName;
+        final String propertyName = command.propertyName;
+        final long from = LongArgument(command.from, "from", Long.MIN_VALUE);
+        final long to = LongArgument(command.to, "to", Long.MAX_VALUE);
+
+        if (objectName == null)
+        {
+            throw new SjsmpArgumentException("You must set object_name field");
+        }
+
+        final ObjectDescription descr = m_objectNames.get(objectName);
+        if (descr == null)
+        {
+            throw new SjsmpArgumentException("Unknown object '" + objectName + "'");
+        }
+        final Object obj = descr.instance;
+
+        WriteResponseHeader(writer, command.requestId, "ok");
+        writer.Name("properties");
+        writer.BeginObject();
+        if (propertyName == null)
+        {
+            for (final PropertyHistory history : descr.histories.values())
+            {
+                writer.Name(history.Name());
+                history.Write(writer, from, to);
+            }
+        }
+        else
+        {
+            final PropertyHistory history = descr.histories.get(propertyName);
+            if (history == null)
+            {
+                if (descr.properties.containsKey(propertyName))
+                {
+                    throw new SjsmpArgumentException("Property '" + propertyName + "' has no history");
+                }
+                throw new SjsmpArgumentException("Unknown property '" + propertyName + "'");
+            }
+            writer.Name(history.Name());
+            history.Write(writer, from, to);
+        }
+        writer.EndObject();
+        writer.EndObject();
+    }
+
+    private void MakeReponseError(final HttpTransportExchange t, final String message, final HttpStatusCode code) throws IOException
+    {
+        MakeReponseError(t, "", message, code);
+    }
+
+	private void MakeReponseError(final HttpTransportExchange t, final String requestId, final String message, final HttpStatusCode code) throws IOException
+	{
+        final JsonWriter writer = JsonWriter.Acquire();
+        try
+        {
+            WriteResponseHeader(writer, requestId, "error");
+            writer.Name("message");
+            writer.Value(message);
+            writer.EndObject();
+            if (m_instrumentation != null)
+            {
+                m_instrumentation.Error();
+            }
+            MakeResponse(t, code, writer);
+        }
+        finally
+        {
+            JsonWriter.Release(writer);
+        }
+	}
+
+	private void MakeResponse(final HttpTransportExchange t, final HttpStatusCode code, final JsonWriter body) throws IOException
+	{
+        t.AddResponseHeader("Content-Type", "text/json; charset=UTF-8");
+        if (m_instrumentation != null)
+        {
+            m_instrumentation.BytesOut(body.Length());
+        }
+        t.SendResponse(code, body.Buffer(), 0, body.Length());
+	}
+
+	private void MakeResponse(final HttpTransportExchange t, final HttpStatusCode code, final byte[] body) throws IOException
+	{
+        t.AddResponseHeader("Content-Type", "text/json; charset=UTF-8");
+        if (m_instrumentation != null)
+        {
+            m_instrumentation.BytesOut(body.length);
+        }
+        t.SendResponse(code, body, 0, body.length);
+	}
+
+	public void RegisterObject(final Object obj) throws SjsmpServerException
+	{
+		RegisterObject(obj, obj != null ? obj.getClass().getSimpleName() : null);
+	}
+
+	public void RegisterObject(final Object obj, final String description) throws SjsmpServerException
+	{
+		RegisterObject(obj, obj != null ? obj.getClass().getSimpleName() : null, description, "", true);
+	}
+
+	public void RegisterObject(final Object obj, final String name, final String description) throws SjsmpServerException
+	{
+		RegisterObject(obj, name, description, "", true);
+	}
+
+	public void RegisterObject(final Object obj, final String name, final String description, final String group, final boolean immediatePushSchema) throws SjsmpServerException
+    {
+        if (obj == null || name == null)
+        {
+            throw new SjsmpServerException("can not register object '" + obj + "' with name '" + name + "': object and name must not be null");
+        }
+        final ObjectDescription descr = new ObjectDescription(obj, name, description, group, m_classDescriptions.ForClass(obj.getClass()));
+        m_registrationLock.lock();
+        try
+        {
+            if (m_objects.containsKey(obj) || m_objectNames.containsKey(name))
+            {
+                throw new SjsmpServerException("object already registered: " + obj + ", name '" + name + "'");
+            }
+            RecordChange(Collections.singletonList(descr), null);
+            m_objects.put(obj, descr);
+            m_objectNames.put(name, descr);
+            m_objectIndex.Add(descr);
+            for (final PropertyHistory history : descr.histories.values())
+            {
+                m_historySampler.Add(history);
+            }
+
+            m_schemaVersionNumber.incrementAndGet();
+        }
+        finally
+        {
+            m_registrationLock.unlock();
+        }
+
+        if (this.m_schemaPushTrigger != null && immediatePushSchema)
+        {
+            //a burst of registrations results in a single push of the latest schema
+            m_schemaPushTrigger.Request();
+        }
+    }
+
+    /**
+     * Tells clients polling get_properties with a 'since' token that the property has a new value
+     * and drops its cached value if it has {@code cacheMillis}. Changes made through set_property are tracked automatically.
+     */
+    public void MarkChanged(final Object obj, final String propertyName) throws SjsmpServerException
+    {
+        final ObjectDescription descr = GetRegisteredDescription(obj);
+        final int index = descr.PropertyIndex(propertyName);
+        if (index < 0)
+        {
+            throw new SjsmpServerException("Unknown property '" + propertyName + "' of object '" + descr.name + "'");
+        }
+        RecordChange(Collections.singletonList(descr), new int[] { index });
+    }
+
+    /**
+     * Same as {@link #MarkChanged(Object, String)} for several properties of the object at once
+     */
+    public void MarkChanged(final Object obj, final Collection<String> propertyNames) throws SjsmpServerException
+    {
+        final ObjectDescription descr = GetRegisteredDescription(obj);
+        final int[] indexes = new int[propertyNames.size()];
+        int i = 0;
+        for (final String propertyName : propertyNames)
+        {
+            if ((indexes[i++] = descr.PropertyIndex(propertyName)) < 0)
+            {
+                throw new SjsmpServerException("Unknown property '" + propertyName + "' of object '" + descr.name + "'");
+            }
+        }
+
+        RecordChange(Collections.singletonList(descr), indexes);
+    }
+
+    /**
+     * Same as {@link #MarkChanged(Object, String)} for all properties of the object
+     */
+    public void MarkAllChanged(final Object obj) throws SjsmpServerException
+    {
+        RecordChange(Collections.singletonList(GetRegisteredDescription(obj)), null);
+    }
+
+    /**
+     * Marks the properties of the objects with the next change sequence, all of them if {@code indexes} is null.
+     * The sequence is published only after its marks are made and sequences are published in order,
+     * so a reader holding a token has seen every change up to it.
+     * Cached values of the properties are dropped first, so a reader seeing the change reads the new value.
+     */
+    private void RecordChange(final Collection<ObjectDescription> descriptions, final int[] indexes)
+    {
+        for (final ObjectDescription descr : descriptions)
+        {
+            if (indexes == null)
+            {
+                descr.InvalidateCaches();
+            }
+            else
+            {
+                for (final int index : indexes)
+                {
+                    descr.InvalidateCache(index);
+                }
+            }
+        }
+        synchronized (m_changeLock)
+        {
+            final long sequence = ++m_changeSequence;
+            for (final ObjectDescription descr : descriptions)
+            {
+                if (indexes == null)
+                {
+                    descr.changes.MarkAll(sequence);
+                }
+                else
+                {
+                    for (final int index : indexes)
+                    {
+                        descr.changes.Mark(index, sequence);
+                    }
+                }
+            }
+            m_publishedSequence = sequence;
+        }
+    }
+
+    private ObjectDescription GetRegisteredDescription(final Object obj) throws SjsmpServerException
+    {
+        final ObjectDescription descr = m_objects.get(obj);
+        if (descr == null)
+        {
+            throw new SjsmpServerException("Object '" + obj + "' not found");
+        }
+        return descr;
+    }
+
+	public boolean UnRegisterObject(final Object obj) throws SjsmpServerException
+	{
+		return UnRegisterObject(obj, true);
 	}
 
     public boolean UnRegisterObject(final Object obj, final boolean immediatePushSchema) throws SjsmpServerException
     {
     	boolean removed;
-        m_schemaLock.writeLock().lock();
+        m_registrationLock.lock();
         try
         {
             ObjectDescription descr;
@@ -533,52 +1318,238 @@ public final class SjsmpServer implements AutoCloseable
                 throw new SjsmpServerException("Object '" + obj + "' not found");
             }
 
-            removed = m_objects.remove(obj) != null;
-            boolean removedName = m_objectNames.remove(descr.name) != null;
+            //requests already holding the description may still call it once after removal
+            boolean removedName = m_objectNames.remove(descr.name, descr);
+            removed = m_objects.remove(obj, descr);
+            m_objectIndex.Remove(descr);
+            for (final PropertyHistory history : descr.histories.values())
+            {
+                m_historySampler.Remove(history);
+            }
             if (removedName != removed)
             {
                 throw new SjsmpServerException("Wrong internal state: object names '" + descr.name + "' not found in name index");
             }
 
-            RefreshSchema();
+            m_schemaVersionNumber.incrementAndGet();
         }
         finally
         {
-            m_schemaLock.writeLock().unlock();
+            m_registrationLock.unlock();
         }
 
-        if (this.m_schemaPushUrl != null && immediatePushSchema)
+        if (this.m_schemaPushTrigger != null && immediatePushSchema)
         {
-        	m_schemaPushExecutor.schedule(new SchemaPushRunnable(), 0, TimeUnit.SECONDS);
+            //a burst of registrations results in a single push of the latest schema
+            m_schemaPushTrigger.Request();
         }
         return removed;
     }
 
-    private void RefreshSchema()
+    public void RegisterObjects(final Collection<Registration> registrations) throws SjsmpServerException
     {
-        ++m_schemaVersionNumber;
-        final long unixTimestamp = LocalDateTime.now().toEpochSecond(ZoneOffset.UTC);
+        RegisterObjects(registrations, true);
+    }
+
+    /**
+     * Registers all objects or none of them. The batch is checked before anything is registered, then applied
+     * taking the registration lock once and bumping the schema version once, so at most one schema push follows.
+     * Requests do not take the lock: one running meanwhile may see part of the batch, the next schema has all of it.
+     */
+    public void RegisterObjects(final Collection<Registration> registrations, final boolean immediatePushSchema) throws SjsmpServerException
+    {
+        final List<ObjectDescription> descriptions = new ArrayList<>(registrations.size());
+        final Set<Object> objects = new HashSet<>();
+        final Set<String> names = new HashSet<>();
+        final List<PropertyHistory> histories = new ArrayList<>();
+        for (final Registration registration : registrations)
+        {
+            if (registration == null)
+            {
+                throw new SjsmpServerException("null registration in the batch");
+            }
+            if (!objects.add(registration.obj) || !names.add(registration.name))
+            {
+                throw new SjsmpServerException("object registered twice in the batch: " + registration.obj + ", name '" + registration.name + "'");
+            }
+            final ObjectDescription descr = new ObjectDescription(registration.obj, registration.name, registration.description, registration.group,
+                m_classDescriptions.ForClass(registration.obj.getClass()));
+            descriptions.add(descr);
+            histories.addAll(descr.histories.values());
+        }
+        if (descriptions.isEmpty())
+        {
+            return;
+        }
+
+        m_registrationLock.lock();
+        try
+        {
+            for (final ObjectDescription descr : descriptions)
+            {
+                if (m_objects.containsKey(descr.instance) || m_objectNames.containsKey(descr.name))
+                {
+                    throw new SjsmpServerException("object already registered: " + descr.instance + ", name '" + descr.name + "'");
+                }
+            }
+            RecordChange(descriptions, null);
+            for (final ObjectDescription descr : descriptions)
+            {
+                m_objects.put(descr.instance, descr);
+                m_objectNames.put(descr.name, descr);
+                m_objectIndex.Add(descr);
+            }
+            m_historySampler.AddAll(histories);
+
+            m_schemaVersionNumber.incrementAndGet();
+        }
+        finally
+        {
+            m_registrationLock.unlock();
+        }
+
+        if (this.m_schemaPushTrigger != null && immediatePushSchema)
+        {
+            m_schemaPushTrigger.Request();
+        }
+    }
+
+    public void UnRegisterObjects(final Collection<?> objs) throws SjsmpServerException
+    {
+        UnRegisterObjects(objs, true);
+    }
+
+    /**
+     * Unregisters all objects or none of them: if any of them is not registered, nothing is removed.
+     * Same as {@link #RegisterObjects(Collection, boolean)}, requests running meanwhile may still see part of the batch.
+     */
+    public void UnRegisterObjects(final Collection<?> objs, final boolean immediatePushSchema) throws SjsmpServerException
+    {
+        if (objs.isEmpty())
+        {
+            return;
+        }
+
+        m_registrationLock.lock();
+        try
+        {
+            final List<ObjectDescription> descriptions = new ArrayList<>(objs.size());
+            final Set<Object> seen = new HashSet<>();
+            for (final Object obj : objs)
+            {
+                final ObjectDescription descr = m_objects.get(obj);
+                if (descr == null || !seen.add(obj))
+                {
+                    throw new SjsmpServerException("Object '" + obj + "' not found");
+                }
+                descriptions.add(descr);
+            }
+
+            //requests already holding a description may still call it once after removal
+            final List<PropertyHistory> histories = new ArrayList<>();
+            for (final ObjectDescription descr : descriptions)
+            {
+                m_objectNames.remove(descr.name, descr);
+                m_objects.remove(descr.instance, descr);
+                m_objectIndex.Remove(descr);
+                histories.addAll(descr.histories.values());
+            }
+            m_historySampler.RemoveAll(histories);
 
-        JSONObject jsonObject = new JSONObject();
-        jsonObject.put("result", "ok");
-        jsonObject.put("type", "SimpleJMP/schema");
-        jsonObject.put("version", "1.0");
-        jsonObject.put("name", m_name);
-        jsonObject.put("description", m_description);
-        jsonObject.put("group", m_group);
-        jsonObject.put("port", m_port);
-        jsonObject.put("schema_version", String.format("%d.%d", unixTimestamp, m_schemaVersionNumber));
+            m_schemaVersionNumber.incrementAndGet();
+        }
+        finally
+        {
+            m_registrationLock.unlock();
+        }
 
-        final JSONObject objects = new JSONObject();
-        for (ObjectDescription descr : m_objects.values())
+        if (this.m_schemaPushTrigger != null && immediatePushSchema)
         {
-            objects.put(descr.name, descr.ToJSONObject());
+            m_schemaPushTrigger.Request();
         }
-        jsonObject.put("objects", objects);
+    }
+
+    /**
+     * @return schema of the current registry; rebuilt from the cached object fragments if the registry has changed since the last call.
+     * Package-private for the benchmarks.
+     */
+    SchemaSnapshot GetSchema()
+    {
+        final SchemaSnapshot schema = m_schema;
+        if (schema != null && schema.version == m_schemaVersionNumber.get())
+        {
+            return schema;
+        }
+        synchronized (m_schemaBuildLock)
+        {
+            //the version is read before the objects: registrations finished after this point bump it again and trigger another build
+            final long version = m_schemaVersionNumber.get();
+            if (m_schema != null && m_schema.version == version)
+            {
+                return m_schema;
+            }
+            m_schema = BuildSchema(version);
+            return m_schema;
+        }
+    }
 
-        m_schema = jsonObject.toString();
+    private SchemaSnapshot BuildSchema(final long version)
+    {
+        final long unixTimestamp = LocalDateTime.now().toEpochSecond(ZoneOffset.UTC);
+
+        final JsonWriter writer = JsonWriter.Acquire();
+        try
+        {
+            writer.BeginObject();
+            writer.Name("result");
+            writer.Value("ok");
+            writer.Name("type");
+            writer.Value("SimpleJMP/schema");
+            writer.Name("version");
+            writer.Value("1.0");
+            //null values are omitted, same as JSONObject.put() does
+            if (m_name != null)
+            {
+                writer.Name("name");
+                writer.Value(m_name);
+            }
+            if (m_description != null)
+            {
+                writer.Name("description");
+                writer.Value(m_description);
+            }
+            if (m_group != null)
+            {
+                writer.Name("group");
+                writer.Value(m_group);
+            }
+            writer.Name("port");
+            writer.Value(m_port);
+            writer.Name("schema_version");
+            writer.Value(String.format("%d.%d", unixTimestamp, version));
+
+            writer.Name("objects");
+            writer.BeginObject();
+            for (ObjectDescription descr : m_objectNames.values())
+            {
+                writer.Name(descr.name);
+                descr.WriteSchema(writer);
+            }
+            writer.EndObject();
+            writer.EndObject();
+
+            return new SchemaSnapshot(version, writer.ToByteArray());
+        }
+        finally
+        {
+            JsonWriter.Release(writer);
+        }
     }
 
+    /**
+     * @deprecated not used by the server any more, which reads request bodies incrementally; returns "" if the stream is longer than maxSize
+     */
+    @Deprecated
     public static String ReadStream(final InputStream is, final int maxSize)
     {
         final char[] buffer = new char[4096];
@@ -589,15 +1560,15 @@ public final class SjsmpServer implements AutoCloseable
             for (;;)
             {
                 int rsz = in.read(buffer, 0, buffer.length);
-                copied += rsz;
-                if (copied > maxSize)
+                if (rsz < 0)
                 {
-                	return "";
+                    break;
                 }
 
-                if (rsz < 0)
+                copied += rsz;
+                if (copied > maxSize)
                 {
-                    break;
+                	return "";
                 }
                 out.append(buffer, 0, rsz);
             }
@@ -611,72 +1582,96 @@ public final class SjsmpServer implements AutoCloseable
         return out.toString();
     }
 
-    private static boolean TryAuth(final HttpExchange t, final IServerAuthorization authorization)
+    @Override
+    public void close()
     {
-        final Headers headers = t.getRequestHeaders();
-
-        final List<String> headersAuth = headers.get("Authorization");
-        final String headerAuth;
-        if (headersAuth == null || headersAuth.size() != 1 || (headerAuth = headersAuth.get(0)) == null)
+        if (m_requestExecutor != null)
         {
-            //m_logger.Trace("[" + request.UserHostAddress + "][false] No 'Authorization' header");
-            return false;
+            m_requestExecutor.shutdown();
+            m_requestExecutor = null;
         }
-
-        final byte[] tempConverted = DatatypeConverter.parseBase64Binary(headerAuth.replace("Basic ", "").trim());
-        final String userInfo;
-        try
+        if (m_batchExecutor != null)
         {
-            userInfo = new String(tempConverted, "UTF-8");
+            m_batchExecutor.shutdown();
+            m_batchExecutor = null;
         }
-        catch (UnsupportedEncodingException e)
+        if (m_getterExecutor != null)
         {
-            throw new RuntimeException("UnsupportedEncodingException - should not happen", e);
+            m_getterExecutor.shutdown();
+            m_getterExecutor = null;
+            m_parallelValues = null;
         }
-
-        final String[] usernamePassword = userInfo.split(":");
-        if (usernamePassword.length != 2)
+        if (m_subscriptions != null)
         {
-            //m_logger.Trace("[" + request.UserHostAddress + "][false] Can not split usernamePassword");
-            return false;
+            m_subscriptions.close();
+            m_subscriptions = null;
         }
-
-        final String username = usernamePassword[0].trim();
-        final String password = usernamePassword[1].trim();
-
-        if (username.equals("") || password.equals(""))
+        if (m_historySampler != null)
         {
-            //m_logger.Trace("[" + request.UserHostAddress + "][false] Username or password is empty");
-            return false;
+            m_historySampler.close();
+            m_historySampler = null;
         }
-
-        boolean result = authorization.CheckAccess(username, password);
-        //m_logger.trace("[" + request.UserHostAddress + "][" + result + "] User '" + username + "' auth");
-        return result;
-    }
-
-    @Override
-    public void close()
-    {
+        if (m_jobs != null)
+        {
+            m_jobs.close();
+        }
+        m_classDescriptions.Clear();
     	if (m_schemaPushExecutor != null)
     	{
     		m_schemaPushExecutor.shutdown();
     		m_schemaPushExecutor = null;
     	}
-        if (m_server != null)
+        if (m_transport != null)
         {
-            m_server.stop(0);
-            m_server = null;
+            m_transport.Stop();
+            m_transport = null;
         }
         m_logger.info("SjmpServer stopped");
     }
 
-    private final class HttpQueryHandler implements HttpHandler
+    private final class HttpQueryHandler implements HttpTransportHandler
+    {
+        @Override
+        public void Handle(final HttpTransportExchange t) throws IOException
+        {
+        	SjsmpServer.this.DispatchRequest(t);
+        }
+    }
+
+    private final class RequestRunnable implements Runnable
+    {
+        private final HttpTransportExchange m_exchange;
+
+        public RequestRunnable(final HttpTransportExchange exchange)
+        {
+            this.m_exchange = exchange;
+        }
+
+        @Override
+        public void run()
+        {
+            try
+            {
+                SjsmpServer.this.RequestReceived(m_exchange);
+            }
+            catch (IOException | RuntimeException ex)
+            {
+                m_logger.error("Failed to process request: " + ex.getMessage(), ex);
+                m_exchange.Close();
+            }
+            finally
+            {
+                m_inFlightRequests.release();
+            }
+        }
+    }
+
+    private final class SubscriptionSampler implements SubscriptionHub.Sampler
     {
         @Override
-        public void handle(HttpExchange t) throws IOException
+        public Map<String, Map<String, Object>> Sample(final Map<String, Set<String>> properties)
         {
-        	SjsmpServer.this.RequestReceived(t);
+            return SampleProperties(properties);
         }
     }
 
@@ -685,7 +1680,74 @@ public final class SjsmpServer implements AutoCloseable
 		@Override
 		public void run()
 		{
-			schemaPushJob();
+			PushSchema();
 		}
     }
+
+    /**
+     * An object to register with {@link SjsmpServer#RegisterObjects(Collection)}; the defaults are those of the RegisterObject overloads
+     */
+    public static final class Registration
+    {
+        final Object obj;
+        final String name;
+        final String description;
+        final String group;
+
+        public Registration(final Object obj)
+        {
+            this(obj, obj != null ? obj.getClass().getSimpleName() : null);
+        }
+
+        public Registration(final Object obj, final String description)
+        {
+            this(obj, obj != null ? obj.getClass().getSimpleName() : null, description);
+        }
+
+        public Registration(final Object obj, final String name, final String description)
+        {
+            this(obj, name, description, "");
+        }
+
+        public Registration(final Object obj, final String name, final String description, final String group)
+        {
+            if (obj == null || name == null)
+            {
+                throw new IllegalArgumentException("obj and name must not be null");
+            }
+            this.obj = obj;
+            this.name = name;
+            this.description = description;
+            this.group = group;
+        }
+    }
+
+    private static final class ActionCallable implements Callable<Object>
+    {
+        private final ActionDescription m_action;
+        private final Object m_instance;
+        private final Object[] m_arguments;
+
+        public ActionCallable(final ActionDescription action, final Object instance, final Object[] arguments)
+        {
+            this.m_action = action;
+            this.m_instance = instance;
+            this.m_arguments = arguments;
+        }
+
+        @Override
+        public Object call() throws SjsmpServerException
+        {
+            return m_action.Invoke(m_instance, m_arguments);
+        }
+    }
+
+    private final class ServerSchemaSource implements SchemaPusher.SchemaSource
+    {
+        @Override
+        public SchemaSnapshot Get()
+        {
+            return GetSchema();
+        }
+    }
 }
@@ -0,0 +1,452 @@
+package org.sjsmp.server;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Optional settings of {@link SjsmpServer}. Defaults keep the behaviour of a server created without options.
+ */
+public final class SjsmpServerOptions
+{
+    public enum ExecutorMode
+    {
+        /**
+         * requests are handled on the single HTTP dispatcher thread; the {@link Transport#Nio} transport never runs them on its
+         * selector threads and uses a ThreadPool instead
+         */
+        Dispatcher,
+        /** requests are handled on a bounded pool of platform threads */
+        ThreadPool,
+        /** every request gets its own virtual thread; falls back to ThreadPool if the JVM has no virtual threads */
+        VirtualThreads
+    }
+
+    public enum Transport
+    {
+        /** com.sun.net.httpserver.HttpServer from the JDK; run the JVM with -Dsun.net.httpserver.nodelay=true for low latency keep-alive requests */
+        JdkHttpServer,
+        /** built-in selector based HTTP/1.1 server with keep-alive and pipelining */
+        Nio
+    }
+
+    private Transport m_transport = Transport.JdkHttpServer;
+    private int m_nioEventLoops = Math.min(2, Runtime.getRuntime().availableProcessors());
+    private int m_idleConnectionTimeoutSeconds = 60;
+    private ExecutorMode m_executorMode = ExecutorMode.Dispatcher;
+    private int m_requestThreads = Runtime.getRuntime().availableProcessors();
+    private int m_batchThreads = Runtime.getRuntime().availableProcessors();
+    private int m_schemaPushQuietMillis = 500;
+    private int m_schemaPushMaxDelayMillis = 5000;
+    private int m_maxInFlightRequests = 256;
+    private int m_retryAfterSeconds = 1;
+    private int m_schemaPushRefreshSeconds = 600;
+    private int m_jobThreads = Runtime.getRuntime().availableProcessors();
+    private int m_maxFinishedJobs = 1000;
+    private int m_finishedJobTtlSeconds = 60 * 60;
+    private boolean m_instrumentation = false;
+    private int m_authCacheSize = 0;
+    private int m_authCacheSeconds = 60;
+    private int m_sessionTokenSeconds = 0;
+    private int m_getterTimeoutMillis = 0;
+    private int m_getterThreads = Math.max(16, 4 * Runtime.getRuntime().availableProcessors());
+    private int m_slowGetterSkipSeconds = 30;
+    private final List<String> m_schemaPushUrls = new ArrayList<>();
+
+    public Transport GetTransport()
+    {
+        return m_transport;
+    }
+
+    public SjsmpServerOptions SetTransport(final Transport transport)
+    {
+        if (transport == null)
+        {
+            throw new IllegalArgumentException("transport is null");
+        }
+        m_transport = transport;
+        return this;
+    }
+
+    public int GetNioEventLoops()
+    {
+        return m_nioEventLoops;
+    }
+
+    /**
+     * @param nioEventLoops number of I/O threads of the {@link Transport#Nio} transport
+     */
+    public SjsmpServerOptions SetNioEventLoops(final int nioEventLoops)
+    {
+        if (nioEventLoops < 1)
+        {
+            throw new IllegalArgumentException("nioEventLoops must be positive");
+        }
+        m_nioEventLoops = nioEventLoops;
+        return this;
+    }
+
+    public int GetIdleConnectionTimeoutSeconds()
+    {
+        return m_idleConnectionTimeoutSeconds;
+    }
+
+    /**
+     * @param idleConnectionTimeoutSeconds keep-alive connections of the {@link Transport#Nio} transport are closed after this idle time
+     */
+    public SjsmpServerOptions SetIdleConnectionTimeoutSeconds(final int idleConnectionTimeoutSeconds)
+    {
+        if (idleConnectionTimeoutSeconds < 1)
+        {
+            throw new IllegalArgumentException("idleConnectionTimeoutSeconds must be positive");
+        }
+        m_idleConnectionTimeoutSeconds = idleConnectionTimeoutSeconds;
+        return this;
+    }
+
+    public ExecutorMode GetExecutorMode()
+    {
+        return m_executorMode;
+    }
+
+    public SjsmpServerOptions SetExecutorMode(final ExecutorMode executorMode)
+    {
+        if (executorMode == null)
+        {
+            throw new IllegalArgumentException("executorMode is null");
+        }
+        m_executorMode = executorMode;
+        return this;
+    }
+
+    public int GetRequestThreads()
+    {
+        return m_requestThreads;
+    }
+
+    /**
+     * @param requestThreads number of threads in {@link ExecutorMode#ThreadPool} mode, and in {@link ExecutorMode#Dispatcher} mode of the {@link Transport#Nio} transport
+     */
+    public SjsmpServerOptions SetRequestThreads(final int requestThreads)
+    {
+        if (requestThreads < 1)
+        {
+            throw new IllegalArgumentException("requestThreads must be positive");
+        }
+        m_requestThreads = requestThreads;
+        return this;
+    }
+
+    public int GetBatchThreads()
+    {
+        return m_batchThreads;
+    }
+
+    /**
+     * @param batchThreads number of threads running entries of a 'batch' request with "parallel": true
+     */
+    public SjsmpServerOptions SetBatchThreads(final int batchThreads)
+    {
+        if (batchThreads < 1)
+        {
+            throw new IllegalArgumentException("batchThreads must be positive");
+        }
+        m_batchThreads = batchThreads;
+        return this;
+    }
+
+    public int GetSchemaPushQuietMillis()
+    {
+        return m_schemaPushQuietMillis;
+    }
+
+    /**
+     * @param schemaPushQuietMillis schema changes are pushed once no further change came for this time
+     */
+    public SjsmpServerOptions SetSchemaPushQuietMillis(final int schemaPushQuietMillis)
+    {
+        if (schemaPushQuietMillis < 0)
+        {
+            throw new IllegalArgumentException("schemaPushQuietMillis must not be negative");
+        }
+        m_schemaPushQuietMillis = schemaPushQuietMillis;
+        return this;
+    }
+
+    public int GetSchemaPushMaxDelayMillis()
+    {
+        return m_schemaPushMaxDelayMillis;
+    }
+
+    /**
+     * @param schemaPushMaxDelayMillis a schema change is pushed after at most this time even if changes keep coming
+     */
+    public SjsmpServerOptions SetSchemaPushMaxDelayMillis(final int schemaPushMaxDelayMillis)
+    {
+        if (schemaPushMaxDelayMillis < 0)
+        {
+            throw new IllegalArgumentException("schemaPushMaxDelayMillis must not be negative");
+        }
+        m_schemaPushMaxDelayMillis = schemaPushMaxDelayMillis;
+        return this;
+    }
+
+    public int GetMaxInFlightRequests()
+    {
+        return m_maxInFlightRequests;
+    }
+
+    /**
+     * @param maxInFlightRequests number of requests being executed or waiting for a thread; requests above it get 503.
+     * Not used in {@link ExecutorMode#Dispatcher} mode of the {@link Transport#JdkHttpServer} transport.
+     */
+    public SjsmpServerOptions SetMaxInFlightRequests(final int maxInFlightRequests)
+    {
+        if (maxInFlightRequests < 1)
+        {
+            throw new IllegalArgumentException("maxInFlightRequests must be positive");
+        }
+        m_maxInFlightRequests = maxInFlightRequests;
+        return this;
+    }
+
+    public int GetRetryAfterSeconds()
+    {
+        return m_retryAfterSeconds;
+    }
+
+    /**
+     * @param retryAfterSeconds value of the 'Retry-After' header sent with 503 responses
+     */
+    public SjsmpServerOptions SetRetryAfterSeconds(final int retryAfterSeconds)
+    {
+        if (retryAfterSeconds < 0)
+        {
+            throw new IllegalArgumentException("retryAfterSeconds must not be negative");
+        }
+        m_retryAfterSeconds = retryAfterSeconds;
+        return this;
+    }
+
+    public int GetSchemaPushRefreshSeconds()
+    {
+        return m_schemaPushRefreshSeconds;
+    }
+
+    /**
+     * @param schemaPushRefreshSeconds a schema the portal already acknowledged is pushed again after this time
+     */
+    public SjsmpServerOptions SetSchemaPushRefreshSeconds(final int schemaPushRefreshSeconds)
+    {
+        if (schemaPushRefreshSeconds < 0)
+        {
+            throw new IllegalArgumentException("schemaPushRefreshSeconds must not be negative");
+        }
+        m_schemaPushRefreshSeconds = schemaPushRefreshSeconds;
+        return this;
+    }
+
+    public List<String> GetSchemaPushUrls()
+    {
+        return Collections.unmodifiableList(m_schemaPushUrls);
+    }
+
+    /**
+     * @param schemaPushUrl additional portal URL the schema is pushed to, besides the one passed to the server constructor
+     */
+    public SjsmpServerOptions AddSchemaPushUrl(final String schemaPushUrl)
+    {
+        if (schemaPushUrl == null)
+        {
+            throw new IllegalArgumentException("schemaPushUrl is null");
+        }
+        m_schemaPushUrls.add(schemaPushUrl);
+        return this;
+    }
+
+    public int GetJobThreads()
+    {
+        return m_jobThreads;
+    }
+
+    /**
+     * @param jobThreads number of threads running asynchronous actions; further jobs wait in a queue
+     */
+    public SjsmpServerOptions SetJobThreads(final int jobThreads)
+    {
+        if (jobThreads < 1)
+        {
+            throw new IllegalArgumentException("jobThreads must be positive");
+        }
+        m_jobThreads = jobThreads;
+        return this;
+    }
+
+    public int GetMaxFinishedJobs()
+    {
+        return m_maxFinishedJobs;
+    }
+
+    /**
+     * @param maxFinishedJobs number of finished jobs kept for 'get_job'; the oldest ones are evicted first
+     */
+    public SjsmpServerOptions SetMaxFinishedJobs(final int maxFinishedJobs)
+    {
+        if (maxFinishedJobs < 0)
+        {
+            throw new IllegalArgumentException("maxFinishedJobs must not be negative");
+        }
+        m_maxFinishedJobs = maxFinishedJobs;
+        return this;
+    }
+
+    public int GetFinishedJobTtlSeconds()
+    {
+        return m_finishedJobTtlSeconds;
+    }
+
+    /**
+     * @param finishedJobTtlSeconds finished jobs are evicted after this time
+     */
+    public SjsmpServerOptions SetFinishedJobTtlSeconds(final int finishedJobTtlSeconds)
+    {
+        if (finishedJobTtlSeconds < 0)
+        {
+            throw new IllegalArgumentException("finishedJobTtlSeconds must not be negative");
+        }
+        m_finishedJobTtlSeconds = finishedJobTtlSeconds;
+        return this;
+    }
+
+    public boolean GetInstrumentation()
+    {
+        return m_instrumentation;
+    }
+
+    /**
+     * @param instrumentation registers the "sjsmp" object with request counters and latency histograms;
+     * off by default, as the object is part of the schema and its name can not be used by the application
+     */
+    public SjsmpServerOptions SetInstrumentation(final boolean instrumentation)
+    {
+        m_instrumentation = instrumentation;
+        return this;
+    }
+
+    public int GetAuthCacheSize()
+    {
+        return m_authCacheSize;
+    }
+
+    /**
+     * @param authCacheSize number of verified credentials remembered, so {@link IServerAuthorization} is not asked
+     * on every request; 0, the default, disables the cache. A revoked password keeps working for up to
+     * {@link #SetAuthCacheSeconds(int) authCacheSeconds} while it is remembered
+     */
+    public SjsmpServerOptions SetAuthCacheSize(final int authCacheSize)
+    {
+        if (authCacheSize < 0)
+        {
+            throw new IllegalArgumentException("authCacheSize must not be negative");
+        }
+        m_authCacheSize = authCacheSize;
+        return this;
+    }
+
+    public int GetAuthCacheSeconds()
+    {
+        return m_authCacheSeconds;
+    }
+
+    /**
+     * @param authCacheSeconds verified credentials are checked again after this time, so with the cache enabled a revoked password
+     * is rejected within it; 0 disables the cache
+     */
+    public SjsmpServerOptions SetAuthCacheSeconds(final int authCacheSeconds)
+    {
+        if (authCacheSeconds < 0)
+        {
+            throw new IllegalArgumentException("authCacheSeconds must not be negative");
+        }
+        m_authCacheSeconds = authCacheSeconds;
+        return this;
+    }
+
+    public int GetSessionTokenSeconds()
+    {
+        return m_sessionTokenSeconds;
+    }
+
+    /**
+     * @param sessionTokenSeconds lifetime of the signed session tokens issued after Basic authentication
+     * in the X-Sjsmp-Session header and accepted as 'Authorization: Bearer'; 0 disables them
+     */
+    public SjsmpServerOptions SetSessionTokenSeconds(final int sessionTokenSeconds)
+    {
+        if (sessionTokenSeconds < 0)
+        {
+            throw new IllegalArgumentException("sessionTokenSeconds must not be negative");
+        }
+        m_sessionTokenSeconds = sessionTokenSeconds;
+        return this;
+    }
+
+    public int GetGetterTimeoutMillis()
+    {
+        return m_getterTimeoutMillis;
+    }
+
+    /**
+     * @param getterTimeoutMillis getters of a 'get_properties' request for whole objects are called in parallel,
+     * and a getter still running this long after it started is left out and reported in 'timeouts'; 0 calls them one by one on the request thread.
+     * Time waiting for a getter thread does not count. The getters of one object run one after another, so an object may take up to
+     * its property count times this timeout
+     */
+    public SjsmpServerOptions SetGetterTimeoutMillis(final int getterTimeoutMillis)
+    {
+        if (getterTimeoutMillis < 0)
+        {
+            throw new IllegalArgumentException("getterTimeoutMillis must not be negative");
+        }
+        m_getterTimeoutMillis = getterTimeoutMillis;
+        return this;
+    }
+
+    public int GetGetterThreads()
+    {
+        return m_getterThreads;
+    }
+
+    /**
+     * @param getterThreads number of threads calling getters in parallel, unless the executor mode is VirtualThreads;
+     * a request writes this many objects at once. Each getter that missed its deadline adds a thread until it returns
+     */
+    public SjsmpServerOptions SetGetterThreads(final int getterThreads)
+    {
+        if (getterThreads < 1)
+        {
+            throw new IllegalArgumentException("getterThreads must be positive");
+        }
+        m_getterThreads = getterThreads;
+        return this;
+    }
+
+    public int GetSlowGetterSkipSeconds()
+    {
+        return m_slowGetterSkipSeconds;
+    }
+
+    /**
+     * @param slowGetterSkipSeconds a getter that ran longer than the getter timeout is not called by parallel requests
+     * for this time and reported in 'timeouts' at once; 0 calls it every time
+     */
+    public SjsmpServerOptions SetSlowGetterSkipSeconds(final int slowGetterSkipSeconds)
+    {
+        if (slowGetterSkipSeconds < 0)
+        {
+            throw new IllegalArgumentException("slowGetterSkipSeconds must not be negative");
+        }
+        m_slowGetterSkipSeconds = slowGetterSkipSeconds;
+        return this;
+    }
+}
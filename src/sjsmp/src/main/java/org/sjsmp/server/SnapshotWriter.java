@@ -0,0 +1,315 @@
+package org.sjsmp.server;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.Collection;
+import java.util.Map;
+
+import org.sjsmp.DataTypes;
+
+/**
+ * Writes values of all properties of an object straight into a {@link JsonWriter}.
+ * Built once per registered class by {@link ClassDescription}; primitive getters are called through exactly typed method handles, so their values are never boxed.
+ * Slots are in the order of the properties given to the constructor.
+ * Holds no latency histograms, instrumented servers pass theirs to {@link #Write}.
+ */
+final class SnapshotWriter
+{
+    private final Slot[] m_slots;
+
+    public SnapshotWriter(final Collection<PropertyDescription> properties)
+    {
+        m_slots = new Slot[properties.size()];
+        int i = 0;
+        for (final PropertyDescription property : properties)
+        {
+            m_slots[i++] = CreateSlot(property);
+        }
+    }
+
+
+    /**
+     * @return latency histograms of the properties in slot order
+     */
+    public LatencyHistogram[] Latencies(final Map<String, PropertyDescription> properties)
+    {
+        final LatencyHistogram[] latencies = new LatencyHistogram[m_slots.length];
+        for (int i = 0; i < m_slots.length; ++i)
+        {
+            final PropertyDescription property = properties.get(m_slots[i].name);
+            latencies[i] = property != null ? property.Latency() : null;
+        }
+        return latencies;
+    }
+
+    /**
+     * @return caches of the properties in slot order, null for properties without one
+     */
+    public PropertyCache[] Caches(final Map<String, PropertyCache> caches)
+    {
+        final PropertyCache[] result = new PropertyCache[m_slots.length];
+        for (int i = 0; i < m_slots.length; ++i)
+        {
+            result[i] = caches.get(m_slots[i].name);
+        }
+        return result;
+    }
+
+    /**
+     * Writes all property values of {@code obj} as members of the currently open JSON object
+     * @param latencies getter latencies by slot from {@link #Latencies(Map)}, or null
+     * @param caches property caches by slot from {@link #Caches(Map)}, or null
+     */
+    public void Write(final Object obj, final JsonWriter writer, final LatencyHistogram[] latencies, final PropertyCache[] caches) throws SjsmpServerException
+    {
+        for (int i = 0; i < m_slots.length; ++i)
+        {
+            WriteSlot(i, obj, writer, latencies, caches);
+        }
+    }
+
+    /**
+     * Same as {@link #Write(Object, JsonWriter, LatencyHistogram[], PropertyCache[])}, telling {@code progress} about every getter call
+     */
+    public void Write(final Object obj, final JsonWriter writer, final LatencyHistogram[] latencies, final PropertyCache[] caches, final Progress progress) throws SjsmpServerException
+    {
+        for (int i = 0; i < m_slots.length; ++i)
+        {
+            if (!progress.Started(i))
+            {
+                return;
+            }
+            try
+            {
+                WriteSlot(i, obj, writer, latencies, caches);
+            }
+            finally
+            {
+                progress.Finished();
+            }
+        }
+    }
+
+    private void WriteSlot(final int i, final Object obj, final JsonWriter writer, final LatencyHistogram[] latencies, final PropertyCache[] caches) throws SjsmpServerException
+    {
+        final Slot slot = m_slots[i];
+        if (caches != null && caches[i] != null)
+        {
+            final Object value = caches[i].Get();
+            //null values are omitted, same as JSONObject.put() does
+            if (value != null)
+            {
+                writer.Name(slot.name);
+                writer.Value(value);
+            }
+            return;
+        }
+        final LatencyHistogram latency = latencies != null ? latencies[i] : null;
+        final long start = latency != null ? System.nanoTime() : 0;
+        try
+        {
+            slot.Write(obj, writer);
+        }
+        catch (SjsmpServerException e)
+        {
+            throw e;
+        }
+        catch (Throwable e)
+        {
+            throw new SjsmpServerException("Exception raised while calling getter '" + slot.name + "' on object '" + obj + "'", new InvocationTargetException(e));
+        }
+        finally
+        {
+            if (latency != null)
+            {
+                latency.Record(System.nanoTime() - start);
+            }
+        }
+    }
+
+    /**
+     * Told about every getter call of a write, so the caller can watch for getters running too long
+     */
+    public interface Progress
+    {
+        /**
+         * @param slot index of the property in the slot order
+         * @return false to stop writing; the partly written object must then be dropped
+         */
+        boolean Started(int slot);
+
+        void Finished();
+    }
+
+    private static Slot CreateSlot(final PropertyDescription property)
+    {
+        final Method getter = property.Getter();
+        final Class<?> type = getter.getReturnType();
+        if (type.isPrimitive() && !property.NeedToString())
+        {
+            try
+            {
+                final MethodHandle handle = MethodHandles.lookup().unreflect(getter);
+                if (DataTypes.IsIntType(type) && type != long.class)
+                {
+                    return new IntSlot(property.name, handle.asType(MethodType.methodType(int.class, Object.class)));
+                }
+                if (type == long.class)
+                {
+                    return new LongSlot(property.name, handle.asType(MethodType.methodType(long.class, Object.class)));
+                }
+                if (type == float.class)
+                {
+                    return new FloatSlot(property.name, handle.asType(MethodType.methodType(float.class, Object.class)));
+                }
+                if (type == double.class)
+                {
+                    return new DoubleSlot(property.name, handle.asType(MethodType.methodType(double.class, Object.class)));
+                }
+                if (type == boolean.class)
+                {
+                    return new BooleanSlot(property.name, handle.asType(MethodType.methodType(boolean.class, Object.class)));
+                }
+            }
+            catch (IllegalAccessException | RuntimeException ex)
+            {
+                //falling back to the boxed path
+            }
+        }
+        return new ObjectSlot(property);
+    }
+
+    private static abstract class Slot
+    {
+        public final String name;
+
+        protected Slot(final String name)
+        {
+            this.name = name;
+        }
+
+        public abstract void Write(final Object obj, final JsonWriter writer) throws Throwable;
+    }
+
+    private static final class IntSlot extends Slot
+    {
+        private final MethodHandle m_getter;
+
+        public IntSlot(final String name, final MethodHandle getter)
+        {
+            super(name);
+            this.m_getter = getter;
+        }
+
+        @Override
+        public void Write(final Object obj, final JsonWriter writer) throws Throwable
+        {
+            final int value = (int)m_getter.invokeExact(obj);
+            writer.Name(name);
+            writer.Value(value);
+        }
+    }
+
+    private static final class LongSlot extends Slot
+    {
+        private final MethodHandle m_getter;
+
+        public LongSlot(final String name, final MethodHandle getter)
+        {
+            super(name);
+            this.m_getter = getter;
+        }
+
+        @Override
+        public void Write(final Object obj, final JsonWriter writer) throws Throwable
+        {
+            final long value = (long)m_getter.invokeExact(obj);
+            writer.Name(name);
+            writer.Value(value);
+        }
+    }
+
+    private static final class FloatSlot extends Slot
+    {
+        private final MethodHandle m_getter;
+
+        public FloatSlot(final String name, final MethodHandle getter)
+        {
+            super(name);
+            this.m_getter = getter;
+        }
+
+        @Override
+        public void Write(final Object obj, final JsonWriter writer) throws Throwable
+        {
+            final float value = (float)m_getter.invokeExact(obj);
+            writer.Name(name);
+            writer.Value(value);
+        }
+    }
+
+    private static final class DoubleSlot extends Slot
+    {
+        private final MethodHandle m_getter;
+
+        public DoubleSlot(final String name, final MethodHandle getter)
+        {
+            super(name);
+            this.m_getter = getter;
+        }
+
+        @Override
+        public void Write(final Object obj, final JsonWriter writer) throws Throwable
+        {
+            final double value = (double)m_getter.invokeExact(obj);
+            writer.Name(name);
+            writer.Value(value);
+        }
+    }
+
+    private static final class BooleanSlot extends Slot
+    {
+        private final MethodHandle m_getter;
+
+        public BooleanSlot(final String name, final MethodHandle getter)
+        {
+            super(name);
+            this.m_getter = getter;
+        }
+
+        @Override
+        public void Write(final Object obj, final JsonWriter writer) throws Throwable
+        {
+            final boolean value = (boolean)m_getter.invokeExact(obj);
+            writer.Name(name);
+            writer.Value(value);
+        }
+    }
+
+    private static final class ObjectSlot extends Slot
+    {
+        private final PropertyDescription m_property;
+
+        public ObjectSlot(final PropertyDescription property)
+        {
+            super(property.name);
+            this.m_property = property;
+        }
+
+        @Override
+        public void Write(final Object obj, final JsonWriter writer) throws Throwable
+        {
+            //the latency is recorded by Write() for every slot
+            final Object value = m_property.ReadValue(obj);
+            //null values are omitted, same as JSONObject.put() does
+            if (value != null)
+            {
+                writer.Name(name);
+                writer.Value(value);
+            }
+        }
+    }
+}
@@ -0,0 +1,364 @@
+package org.sjsmp.server;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Server-Sent Events subscriptions to property values.
+ * Subscriptions with the same interval share one scheduled tick: every property is sampled once per tick
+ * and each subscriber gets a single 'values' event with the values changed since its last event.
+ */
+final class SubscriptionHub implements AutoCloseable
+{
+    interface Sampler
+    {
+        /**
+         * @param properties property names by object name; null set means all properties of the object
+         * @return values by object and property name; unknown objects and properties are absent
+         */
+        Map<String, Map<String, Object>> Sample(final Map<String, Set<String>> properties);
+    }
+
+    private static final long HEARTBEAT_INTERVAL_MILLIS = 15 * 1000;
+    private static final byte[] HEARTBEAT = ": ping\n\n".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] VALUES_EVENT_PREFIX = "event: values\ndata: ".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] EVENT_SUFFIX = "\n\n".getBytes(StandardCharsets.UTF_8);
+
+    private final Logger m_logger = LoggerFactory.getLogger(SubscriptionHub.class);
+    private final Sampler m_sampler;
+    private final ScheduledExecutorService m_scheduler;
+    private final ExecutorService m_sender;
+    private final Map<Long, Group> m_groups = new HashMap<>();
+
+    public SubscriptionHub(final Sampler sampler)
+    {
+        this.m_sampler = sampler;
+
+        final ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(1, new NamedThreadFactory("SjsmpSubscription"));
+        scheduler.setRemoveOnCancelPolicy(true);
+        this.m_scheduler = scheduler;
+
+        //writes may block on slow clients, so each busy subscriber holds its own thread instead of stalling the tick
+        this.m_sender = new ThreadPoolExecutor(
+                0, Integer.MAX_VALUE,
+                60, TimeUnit.SECONDS,
+                new SynchronousQueue<Runnable>(),
+                new NamedThreadFactory("SjsmpSubscriptionSend")
+            );
+    }
+
+    /**
+     * @param properties property names by object name; null set means all properties of the object
+     */
+    public void Subscribe(final long intervalMillis, final Map<String, Set<String>> properties, final HttpTransportStream stream)
+    {
+        final Subscriber subscriber = new Subscriber(properties, stream);
+        synchronized (m_groups)
+        {
+            Group group = m_groups.get(intervalMillis);
+            if (group == null)
+            {
+                group = new Group(intervalMillis);
+                m_groups.put(intervalMillis, group);
+                group.m_future = m_scheduler.scheduleAtFixedRate(group, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+            }
+            group.m_subscribers.add(subscriber);
+        }
+        m_logger.trace("Subscribed to {} objects with interval {} ms", properties.size(), intervalMillis);
+    }
+
+    private void Unsubscribe(final Group group, final Subscriber subscriber)
+    {
+        synchronized (m_groups)
+        {
+            group.m_subscribers.remove(subscriber);
+            if (group.m_subscribers.isEmpty() && m_groups.get(group.m_intervalMillis) == group)
+            {
+                group.m_future.cancel(false);
+                m_groups.remove(group.m_intervalMillis);
+            }
+        }
+        subscriber.m_stream.Close();
+    }
+
+    @Override
+    public void close()
+    {
+        synchronized (m_groups)
+        {
+            for (final Group group : m_groups.values())
+            {
+                group.m_future.cancel(false);
+                for (final Subscriber subscriber : group.m_subscribers)
+                {
+                    subscriber.m_stream.Close();
+                }
+            }
+            m_groups.clear();
+        }
+        m_scheduler.shutdown();
+        m_sender.shutdown();
+    }
+
+    private final class Group implements Runnable
+    {
+        private final long m_intervalMillis;
+        private final List<Subscriber> m_subscribers = new CopyOnWriteArrayList<>();
+        private ScheduledFuture<?> m_future;
+
+        public Group(final long intervalMillis)
+        {
+            this.m_intervalMillis = intervalMillis;
+        }
+
+        @Override
+        public void run()
+        {
+            try
+            {
+                Tick();
+            }
+            catch (RuntimeException ex)
+            {
+                //an exception would cancel the scheduled task
+                m_logger.error("Subscription tick failed: " + ex.getMessage(), ex);
+            }
+        }
+
+        private void Tick()
+        {
+            final Map<String, Set<String>> wanted = new HashMap<>();
+            for (final Subscriber subscriber : m_subscribers)
+            {
+                if (!subscriber.m_busy.get())
+                {
+                    subscriber.AddWanted(wanted);
+                }
+            }
+            if (wanted.isEmpty())
+            {
+                return;
+            }
+
+            final Map<String, Map<String, Object>> values = m_sampler.Sample(wanted);
+            final long now = System.currentTimeMillis();
+            for (final Subscriber subscriber : m_subscribers)
+            {
+                if (!subscriber.m_busy.compareAndSet(false, true))
+                {
+                    //previous event is still being written, the changes go out with a later tick
+                    continue;
+                }
+
+                final Map<String, Map<String, Object>> changes = subscriber.Changes(values);
+                final byte[] event;
+                if (!changes.isEmpty())
+                {
+                    event = ValuesEvent(changes);
+                }
+                else if (now - subscriber.m_lastSendTime >= HEARTBEAT_INTERVAL_MILLIS)
+                {
+                    event = HEARTBEAT;
+                }
+                else
+                {
+                    subscriber.m_busy.set(false);
+                    continue;
+                }
+
+                try
+                {
+                    m_sender.execute(new SendRunnable(this, subscriber, event, changes, now));
+                }
+                catch (RejectedExecutionException ex)
+                {
+                    subscriber.m_busy.set(false);
+                }
+            }
+        }
+    }
+
+    private static byte[] ValuesEvent(final Map<String, Map<String, Object>> changes)
+    {
+        final JsonWriter writer = JsonWriter.Acquire();
+        try
+        {
+            writer.BeginObject();
+            writer.Name("objects");
+            writer.BeginObject();
+            for (final Map.Entry<String, Map<String, Object>> objectChanges : changes.entrySet())
+            {
+                writer.Name(objectChanges.getKey());
+                writer.BeginObject();
+                for (final Map.Entry<String, Object> change : objectChanges.getValue().entrySet())
+                {
+                    writer.Name(change.getKey());
+                    writer.Value(change.getValue());
+                }
+                writer.EndObject();
+            }
+            writer.EndObject();
+            writer.EndObject();
+
+            //JsonWriter output has no line breaks, so it fits into a single data line
+            final byte[] event = new byte[VALUES_EVENT_PREFIX.length + writer.Length() + EVENT_SUFFIX.length];
+            System.arraycopy(VALUES_EVENT_PREFIX, 0, event, 0, VALUES_EVENT_PREFIX.length);
+            System.arraycopy(writer.Buffer(), 0, event, VALUES_EVENT_PREFIX.length, writer.Length());
+            System.arraycopy(EVENT_SUFFIX, 0, event, VALUES_EVENT_PREFIX.length + writer.Length(), EVENT_SUFFIX.length);
+            return event;
+        }
+        finally
+        {
+            JsonWriter.Release(writer);
+        }
+    }
+
+    private final class SendRunnable implements Runnable
+    {
+        private final Group m_group;
+        private final Subscriber m_subscriber;
+        private final byte[] m_event;
+        private final Map<String, Map<String, Object>> m_changes;
+        private final long m_time;
+
+        public SendRunnable(final Group group, final Subscriber subscriber, final byte[] event, final Map<String, Map<String, Object>> changes, final long time)
+        {
+            this.m_group = group;
+            this.m_subscriber = subscriber;
+            this.m_event = event;
+            this.m_changes = changes;
+            this.m_time = time;
+        }
+
+        @Override
+        public void run()
+        {
+            try
+            {
+                m_subscriber.m_stream.Write(m_event, 0, m_event.length);
+                m_subscriber.Sent(m_changes, m_time);
+                m_subscriber.m_busy.set(false);
+            }
+            catch (IOException | RuntimeException ex)
+            {
+                m_logger.trace("Dropping subscriber: " + ex.getMessage());
+                Unsubscribe(m_group, m_subscriber);
+            }
+        }
+    }
+
+    private static final class Subscriber
+    {
+        private final Map<String, Set<String>> m_properties;
+        private final HttpTransportStream m_stream;
+        private final AtomicBoolean m_busy = new AtomicBoolean();
+        //values of the last sent events; accessed only by the thread owning m_busy
+        private final Map<String, Map<String, Object>> m_sent = new HashMap<>();
+        private long m_lastSendTime = System.currentTimeMillis();
+
+        public Subscriber(final Map<String, Set<String>> properties, final HttpTransportStream stream)
+        {
+            this.m_properties = properties;
+            this.m_stream = stream;
+        }
+
+        public void AddWanted(final Map<String, Set<String>> wanted)
+        {
+            for (final Map.Entry<String, Set<String>> entry : m_properties.entrySet())
+            {
+                final String objectName = entry.getKey();
+                final boolean known = wanted.containsKey(objectName);
+                final Set<String> current = wanted.get(objectName);
+                if (known && current == null)
+                {
+                    continue; //all properties are sampled already
+                }
+                if (entry.getValue() == null)
+                {
+                    wanted.put(objectName, null);
+                }
+                else if (!known)
+                {
+                    wanted.put(objectName, new HashSet<>(entry.getValue()));
+                }
+                else
+                {
+                    current.addAll(entry.getValue());
+                }
+            }
+        }
+
+        public Map<String, Map<String, Object>> Changes(final Map<String, Map<String, Object>> values)
+        {
+            final Map<String, Map<String, Object>> changes = new HashMap<>();
+            for (final Map.Entry<String, Set<String>> entry : m_properties.entrySet())
+            {
+                final Map<String, Object> objectValues = values.get(entry.getKey());
+                if (objectValues == null)
+                {
+                    continue;
+                }
+                final Map<String, Object> sent = m_sent.get(entry.getKey());
+                final Set<String> names = entry.getValue() != null ? entry.getValue() : objectValues.keySet();
+                Map<String, Object> objectChanges = null;
+                for (final String name : names)
+                {
+                    if (!objectValues.containsKey(name))
+                    {
+                        continue;
+                    }
+                    final Object value = objectValues.get(name);
+                    if (sent != null && sent.containsKey(name) && Equals(sent.get(name), value))
+                    {
+                        continue;
+                    }
+                    if (objectChanges == null)
+                    {
+                        objectChanges = new HashMap<>();
+                        changes.put(entry.getKey(), objectChanges);
+                    }
+                    objectChanges.put(name, value);
+                }
+            }
+            return changes;
+        }
+
+        public void Sent(final Map<String, Map<String, Object>> changes, final long time)
+        {
+            for (final Map.Entry<String, Map<String, Object>> objectChanges : changes.entrySet())
+            {
+                Map<String, Object> sent = m_sent.get(objectChanges.getKey());
+                if (sent == null)
+                {
+                    sent = new HashMap<>();
+                    m_sent.put(objectChanges.getKey(), sent);
+                }
+                sent.putAll(objectChanges.getValue());
+            }
+            m_lastSendTime = time;
+        }
+
+        private static boolean Equals(final Object a, final Object b)
+        {
+            return a == null ? b == null : a.equals(b);
+        }
+    }
+}
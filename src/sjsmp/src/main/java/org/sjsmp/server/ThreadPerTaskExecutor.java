@@ -0,0 +1,125 @@
+package org.sjsmp.server;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Starts a new thread for every task; meant for virtual threads which are cheap to create.
+ */
+final class ThreadPerTaskExecutor extends AbstractExecutorService
+{
+    private final ThreadFactory m_threadFactory;
+    private final Object m_lock = new Object();
+    private int m_runningTasks;
+    private boolean m_shutdown;
+
+    public ThreadPerTaskExecutor(final ThreadFactory threadFactory)
+    {
+        this.m_threadFactory = threadFactory;
+    }
+
+    @Override
+    public void execute(final Runnable command)
+    {
+        synchronized (m_lock)
+        {
+            if (m_shutdown)
+            {
+                throw new RejectedExecutionException("Executor is shut down");
+            }
+            ++m_runningTasks;
+        }
+
+        try
+        {
+            m_threadFactory.newThread(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    try
+                    {
+                        command.run();
+                    }
+                    finally
+                    {
+                        TaskFinished();
+                    }
+                }
+            }).start();
+        }
+        catch (RuntimeException | Error ex)
+        {
+            TaskFinished();
+            throw new RejectedExecutionException("Failed to start thread", ex);
+        }
+    }
+
+    private void TaskFinished()
+    {
+        synchronized (m_lock)
+        {
+            if (--m_runningTasks == 0)
+            {
+                m_lock.notifyAll();
+            }
+        }
+    }
+
+    @Override
+    public void shutdown()
+    {
+        synchronized (m_lock)
+        {
+            m_shutdown = true;
+        }
+    }
+
+    @Override
+    public List<Runnable> shutdownNow()
+    {
+        shutdown();
+        return Collections.emptyList();
+    }
+
+    @Override
+    public boolean isShutdown()
+    {
+        synchronized (m_lock)
+        {
+            return m_shutdown;
+        }
+    }
+
+    @Override
+    public boolean isTerminated()
+    {
+        synchronized (m_lock)
+        {
+            return m_shutdown && m_runningTasks == 0;
+        }
+    }
+
+    @Override
+    public boolean awaitTermination(final long timeout, final TimeUnit unit) throws InterruptedException
+    {
+        final long deadline = System.nanoTime() + unit.toNanos(timeout);
+        synchronized (m_lock)
+        {
+            while (!(m_shutdown && m_runningTasks == 0))
+            {
+                final long remaining = deadline - System.nanoTime();
+                if (remaining <= 0)
+                {
+                    return false;
+                }
+                TimeUnit.NANOSECONDS.timedWait(m_lock, remaining);
+            }
+            return true;
+        }
+    }
+}
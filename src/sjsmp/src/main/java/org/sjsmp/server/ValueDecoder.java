@@ -0,0 +1,145 @@
+package org.sjsmp.server;
+
+import org.json.JSONObject;
+import org.sjsmp.DataTypes;
+
+/**
+ * Converts a value received in a request to the exact type expected by a setter or an action parameter.
+ * Decoders are created once per property/parameter, so a request only runs the conversion it needs.
+ */
+final class ValueDecoder
+{
+    private enum Kind
+    {
+        Int8(Byte.MIN_VALUE, Byte.MAX_VALUE),
+        Int16(Short.MIN_VALUE, Short.MAX_VALUE),
+        Int32(Integer.MIN_VALUE, Integer.MAX_VALUE),
+        Int64(Long.MIN_VALUE, Long.MAX_VALUE),
+        Float(0, 0),
+        Double(0, 0),
+        Bool(0, 0),
+        String(0, 0);
+
+        public final long min;
+        public final long max;
+
+        private Kind(final long min, final long max)
+        {
+            this.min = min;
+            this.max = max;
+        }
+    }
+
+    private final Kind m_kind;
+    private final boolean m_nullable;
+    private final String m_typeName;
+
+    private ValueDecoder(final Kind kind, final boolean nullable, final String typeName)
+    {
+        this.m_kind = kind;
+        this.m_nullable = nullable;
+        this.m_typeName = typeName;
+    }
+
+    /**
+     * @return decoder for the type or null if values of this type can not be received
+     */
+    public static ValueDecoder ForType(final Class<?> type)
+    {
+        final String typeName = DataTypes.TypeToNameOrNull(type);
+        if (typeName == null)
+        {
+            return null;
+        }
+
+        final Kind kind;
+        switch (typeName)
+        {
+        case "int8":
+            kind = Kind.Int8;
+            break;
+        case "int16":
+            kind = Kind.Int16;
+            break;
+        case "int32":
+            kind = Kind.Int32;
+            break;
+        case "int64":
+            kind = Kind.Int64;
+            break;
+        case "float":
+            kind = Kind.Float;
+            break;
+        case "double":
+            kind = Kind.Double;
+            break;
+        case "bool":
+            kind = Kind.Bool;
+            break;
+        case "string":
+            kind = Kind.String;
+            break;
+        default:
+            return null;
+        }
+        return new ValueDecoder(kind, !type.isPrimitive(), typeName);
+    }
+
+    public Object Decode(final Object value) throws SjsmpArgumentException
+    {
+        if (value == null || value == JSONObject.NULL)
+        {
+            if (!m_nullable)
+            {
+                throw new SjsmpArgumentException("null is not allowed for type '" + m_typeName + "'");
+            }
+            return null;
+        }
+
+        switch (m_kind)
+        {
+        case Int8:
+            return (byte)DecodeIntegral(value);
+        case Int16:
+            return (short)DecodeIntegral(value);
+        case Int32:
+            return (int)DecodeIntegral(value);
+        case Int64:
+            return DecodeIntegral(value);
+        case Float:
+            return ((Number)CheckType(value, Number.class)).floatValue();
+        case Double:
+            return ((Number)CheckType(value, Number.class)).doubleValue();
+        case Bool:
+            return CheckType(value, Boolean.class);
+        case String:
+            return CheckType(value, String.class);
+        default:
+            throw new AssertionError(m_kind);
+        }
+    }
+
+    private long DecodeIntegral(final Object value) throws SjsmpArgumentException
+    {
+        final Number number = (Number)CheckType(value, Number.class);
+        final long longValue = number.longValue();
+        if (number.doubleValue() != longValue)
+        {
+            throw new SjsmpArgumentException("Value " + value + " is not an integer");
+        }
+        if (longValue < m_kind.min || longValue > m_kind.max)
+        {
+            throw new SjsmpArgumentException("Value " + value + " is out of range for type '" + m_typeName + "'");
+        }
+        return longValue;
+    }
+
+    private Object CheckType(final Object value, final Class<?> expected) throws SjsmpArgumentException
+    {
+        if (!expected.isInstance(value))
+        {
+            throw new SjsmpArgumentException("Expected '" + m_typeName + "' but got " + value.getClass().getSimpleName());
+        }
+        return value;
+    }
+}
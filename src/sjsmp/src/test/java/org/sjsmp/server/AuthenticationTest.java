@@ -0,0 +1,144 @@
+package org.sjsmp.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.ServerSocket;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Basic credentials, their cache and session tokens, over HTTP
+ */
+public class AuthenticationTest
+{
+    private final AtomicInteger m_checks = new AtomicInteger();
+    private volatile String m_password = "secret";
+    private SjsmpServer m_server;
+    private URL m_url;
+
+    private final IServerAuthorization m_authorization = new IServerAuthorization()
+    {
+        @Override
+        public boolean CheckAccess(final String username, final String password)
+        {
+            m_checks.incrementAndGet();
+            return username.equals("user") && password.equals(m_password);
+        }
+    };
+
+    private void Start(final SjsmpServerOptions options) throws IOException
+    {
+        final int port;
+        try (ServerSocket socket = new ServerSocket(0))
+        {
+            port = socket.getLocalPort();
+        }
+        m_server = new SjsmpServer("test", "auth test", "tests", port, port, m_authorization, null, options);
+        m_url = new URL("http://127.0.0.1:" + port + "/");
+    }
+
+    @After
+    public void Stop()
+    {
+        if (m_server != null)
+        {
+            m_server.close();
+        }
+    }
+
+    private static String Basic(final String password)
+    {
+        return "Basic " + Base64.getEncoder().encodeToString(("user:" + password).getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Requests the schema
+     * @return the connection after the response is read
+     */
+    private HttpURLConnection Send(final String authorization) throws IOException
+    {
+        final HttpURLConnection connection = (HttpURLConnection)m_url.openConnection();
+        connection.setRequestMethod("POST");
+        connection.setDoOutput(true);
+        connection.setRequestProperty("Authorization", authorization);
+        connection.getOutputStream().close();
+        final InputStream in = connection.getResponseCode() < 400 ? connection.getInputStream() : connection.getErrorStream();
+        if (in != null)
+        {
+            while (in.read() >= 0)
+            {
+                //drain
+            }
+            in.close();
+        }
+        return connection;
+    }
+
+    @Test
+    public void CredentialsAreCheckedOnEveryRequestByDefault() throws IOException
+    {
+        Start(new SjsmpServerOptions());
+        assertEquals(200, Send(Basic("secret")).getResponseCode());
+        assertEquals(200, Send(Basic("secret")).getResponseCode());
+        assertEquals(2, m_checks.get());
+
+        //a revoked password is rejected at once
+        m_password = "changed";
+        assertEquals(401, Send(Basic("secret")).getResponseCode());
+    }
+
+    @Test
+    public void CachedCredentialsAreCheckedOnce() throws IOException
+    {
+        Start(new SjsmpServerOptions().SetAuthCacheSize(10).SetAuthCacheSeconds(60));
+        for (int i = 0; i < 3; ++i)
+        {
+            assertEquals(200, Send(Basic("secret")).getResponseCode());
+        }
+        assertEquals(1, m_checks.get());
+        assertEquals(401, Send(Basic("wrong")).getResponseCode());
+    }
+
+    @Test
+    public void SessionTokenIsIssuedOnlyWhenNeeded() throws IOException
+    {
+        Start(new SjsmpServerOptions().SetAuthCacheSize(10).SetAuthCacheSeconds(60).SetSessionTokenSeconds(60));
+        final String token = Send(Basic("secret")).getHeaderField(Authenticator.SESSION_HEADER);
+        assertNotNull(token);
+        //remembered credentials get the same token again
+        assertEquals(token, Send(Basic("secret")).getHeaderField(Authenticator.SESSION_HEADER));
+
+        final HttpURLConnection bearer = Send("Bearer " + token);
+        assertEquals(200, bearer.getResponseCode());
+        assertNull(bearer.getHeaderField(Authenticator.SESSION_HEADER));
+        assertEquals(1, m_checks.get());
+
+        assertEquals(401, Send("Bearer " + token.substring(0, token.length() - 2)).getResponseCode());
+    }
+
+    @Test
+    public void AgingSessionTokenIsRenewed() throws IOException, InterruptedException
+    {
+        Start(new SjsmpServerOptions().SetSessionTokenSeconds(2));
+        final String token = Send(Basic("secret")).getHeaderField(Authenticator.SESSION_HEADER);
+        assertNotNull(token);
+        Thread.sleep(1100);
+
+        final HttpURLConnection bearer = Send("Bearer " + token);
+        assertEquals(200, bearer.getResponseCode());
+        final String renewed = bearer.getHeaderField(Authenticator.SESSION_HEADER);
+        assertNotNull(renewed);
+        assertEquals(200, Send("Bearer " + renewed).getResponseCode());
+        assertEquals(1, m_checks.get());
+    }
+}
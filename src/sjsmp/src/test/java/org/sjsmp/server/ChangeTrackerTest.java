@@ -0,0 +1,100 @@
+package org.sjsmp.server;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class ChangeTrackerTest
+{
+    @Test
+    public void MarkChangesOnlyItsSlot()
+    {
+        final ChangeTracker tracker = new ChangeTracker(3);
+        assertFalse(tracker.ChangedSince(0));
+        tracker.Mark(1, 5);
+        assertTrue(tracker.ChangedSince(4));
+        assertFalse(tracker.ChangedSince(5));
+        assertFalse(tracker.ChangedSince(0, 0));
+        assertTrue(tracker.ChangedSince(1, 4));
+        assertFalse(tracker.ChangedSince(1, 5));
+        assertFalse(tracker.ChangedSince(2, 0));
+    }
+
+    @Test
+    public void MarkAllChangesEverySlot()
+    {
+        final ChangeTracker tracker = new ChangeTracker(3);
+        tracker.MarkAll(7);
+        for (int i = 0; i < 3; ++i)
+        {
+            assertTrue(tracker.ChangedSince(i, 6));
+            assertFalse(tracker.ChangedSince(i, 7));
+        }
+    }
+
+    @Test
+    public void OlderMarksAreIgnored()
+    {
+        final ChangeTracker tracker = new ChangeTracker(2);
+        tracker.Mark(0, 10);
+        tracker.Mark(0, 3);
+        assertTrue(tracker.ChangedSince(0, 9));
+        tracker.MarkAll(4);
+        assertTrue(tracker.ChangedSince(0, 9));
+        assertTrue(tracker.ChangedSince(1, 3));
+        assertFalse(tracker.ChangedSince(1, 4));
+        assertTrue(tracker.ChangedSince(9));
+    }
+
+    @Test
+    public void ConcurrentMarksKeepTheHighestSequence() throws InterruptedException
+    {
+        final int threadCount = 4;
+        final int marksPerThread = 100000;
+        final ChangeTracker tracker = new ChangeTracker(2);
+        final List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < threadCount; ++t)
+        {
+            final int first = t;
+            final Thread thread = new Thread(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    //threads interleave their sequences, so marks regularly arrive out of order
+                    for (int i = 0; i < marksPerThread; ++i)
+                    {
+                        final long sequence = (long)i * threadCount + first + 1;
+                        if (i % 2 == 0)
+                        {
+                            tracker.Mark(0, sequence);
+                        }
+                        else
+                        {
+                            tracker.MarkAll(sequence);
+                        }
+                    }
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (final Thread thread : threads)
+        {
+            thread.join();
+        }
+
+        final long highest = (long)marksPerThread * threadCount;
+        assertTrue(tracker.ChangedSince(highest - 1));
+        assertFalse(tracker.ChangedSince(highest));
+        assertTrue(tracker.ChangedSince(0, highest - 1));
+        assertFalse(tracker.ChangedSince(0, highest));
+        //the last mark of every thread is a MarkAll, so slot 1 holds the highest of them
+        assertTrue(tracker.ChangedSince(1, highest - 1));
+        assertFalse(tracker.ChangedSince(1, highest));
+    }
+}
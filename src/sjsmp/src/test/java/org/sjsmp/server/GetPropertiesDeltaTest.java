@@ -0,0 +1,255 @@
+package org.sjsmp.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.ServerSocket;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * 'since' tokens of get_properties, over HTTP
+ */
+public class GetPropertiesDeltaTest
+{
+    public static final class Counter
+    {
+        private volatile int m_value;
+        private volatile String m_label = "label";
+
+        @SjsmpProperty("value")
+        public int getValue()
+        {
+            return m_value;
+        }
+
+        public void setValue(final int value)
+        {
+            m_value = value;
+        }
+
+        @SjsmpProperty("label")
+        public String getLabel()
+        {
+            return m_label;
+        }
+
+        public void setLabel(final String label)
+        {
+            m_label = label;
+        }
+    }
+
+    public static final class Cached
+    {
+        private volatile int m_value;
+        private volatile int m_calls;
+
+        @SjsmpProperty(value = "cached value", cacheMillis = 60000)
+        public int getValue()
+        {
+            ++m_calls;
+            return m_value;
+        }
+
+        public void setValue(final int value)
+        {
+            m_value = value;
+        }
+    }
+
+    private SjsmpServer m_server;
+    private URL m_url;
+    private final Counter m_first = new Counter();
+    private final Counter m_second = new Counter();
+
+    @Before
+    public void Start() throws IOException, SjsmpServerException
+    {
+        final int port;
+        try (ServerSocket socket = new ServerSocket(0))
+        {
+            port = socket.getLocalPort();
+        }
+        m_server = new SjsmpServer("test", "delta test", "tests", port, port, null, null);
+        m_url = new URL("http://127.0.0.1:" + port + "/");
+        m_server.RegisterObject(m_first, "first", "first counter");
+        m_server.RegisterObject(m_second, "second", "second counter");
+    }
+
+    @After
+    public void Stop()
+    {
+        m_server.close();
+    }
+
+    private JSONObject Send(final JSONObject request) throws IOException
+    {
+        final HttpURLConnection connection = (HttpURLConnection)m_url.openConnection();
+        try
+        {
+            connection.setRequestMethod("POST");
+            connection.setDoOutput(true);
+            try (OutputStream out = connection.getOutputStream())
+            {
+                out.write(request.toString().getBytes(StandardCharsets.UTF_8));
+            }
+            final InputStream in = connection.getResponseCode() < 400 ? connection.getInputStream() : connection.getErrorStream();
+            final ByteArrayOutputStream body = new ByteArrayOutputStream();
+            final byte[] buffer = new byte[4096];
+            int read;
+            while ((read = in.read(buffer)) > 0)
+            {
+                body.write(buffer, 0, read);
+            }
+            in.close();
+            return new JSONObject(new String(body.toByteArray(), StandardCharsets.UTF_8));
+        }
+        finally
+        {
+            connection.disconnect();
+        }
+    }
+
+    private JSONObject GetProperties(final String since) throws IOException
+    {
+        final JSONObject request = new JSONObject().put("request_id", "1").put("action", "get_properties");
+        if (since != null)
+        {
+            request.put("since", since);
+        }
+        final JSONObject response = Send(request);
+        assertEquals(response.toString(), "ok", response.getString("result"));
+        return response;
+    }
+
+    @Test
+    public void WithoutTokenAllObjectsAreReturned() throws IOException
+    {
+        final JSONObject objects = GetProperties(null).getJSONObject("objects");
+        assertEquals(2, objects.length());
+        assertEquals(0, objects.getJSONObject("first").getInt("Value"));
+        assertEquals("label", objects.getJSONObject("second").getString("Label"));
+    }
+
+    @Test
+    public void UnchangedObjectsAreOmitted() throws IOException
+    {
+        final String token = GetProperties(null).getString("token");
+        final JSONObject response = GetProperties(token);
+        assertEquals(0, response.getJSONObject("objects").length());
+        assertEquals(token, response.getString("token"));
+    }
+
+    @Test
+    public void MarkChangedReportsOnlyThatProperty() throws IOException, SjsmpServerException
+    {
+        final String token = GetProperties(null).getString("token");
+        m_second.setValue(5);
+        m_server.MarkChanged(m_second, "Value");
+
+        final JSONObject response = GetProperties(token);
+        final JSONObject objects = response.getJSONObject("objects");
+        assertEquals(1, objects.length());
+        final JSONObject second = objects.getJSONObject("second");
+        assertEquals(1, second.length());
+        assertEquals(5, second.getInt("Value"));
+
+        //the change is reported once
+        assertEquals(0, GetProperties(response.getString("token")).getJSONObject("objects").length());
+    }
+
+    @Test
+    public void ChangedNullValueIsWritten() throws IOException, SjsmpServerException
+    {
+        final String token = GetProperties(null).getString("token");
+        m_first.setLabel(null);
+        m_server.MarkChanged(m_first, "Label");
+
+        final JSONObject first = GetProperties(token).getJSONObject("objects").getJSONObject("first");
+        assertTrue(first.has("Label"));
+        assertTrue(first.isNull("Label"));
+    }
+
+    @Test
+    public void SetPropertyIsReported() throws IOException
+    {
+        final String token = GetProperties(null).getString("token");
+        final JSONObject set = Send(new JSONObject().put("request_id", "2").put("action", "set_property")
+            .put("object_name", "first").put("property_name", "Value").put("value", 9));
+        assertEquals(set.toString(), "ok", set.getString("result"));
+
+        final JSONObject objects = GetProperties(token).getJSONObject("objects");
+        assertEquals(1, objects.length());
+        assertEquals(9, objects.getJSONObject("first").getInt("Value"));
+        assertFalse(objects.getJSONObject("first").has("Label"));
+    }
+
+    @Test
+    public void CachedValueIsDroppedByChanges() throws IOException, SjsmpServerException
+    {
+        final Cached cached = new Cached();
+        m_server.RegisterObject(cached, "cached", "cached counter");
+        String token = GetProperties(null).getString("token");
+        final JSONObject set = Send(new JSONObject().put("request_id", "2").put("action", "set_property")
+            .put("object_name", "cached").put("property_name", "Value").put("value", 5));
+        assertEquals(set.toString(), "ok", set.getString("result"));
+
+        JSONObject response = GetProperties(token);
+        assertEquals(5, response.getJSONObject("objects").getJSONObject("cached").getInt("Value"));
+        token = response.getString("token");
+
+        cached.setValue(6);
+        m_server.MarkChanged(cached, "Value");
+        response = GetProperties(token);
+        assertEquals(6, response.getJSONObject("objects").getJSONObject("cached").getInt("Value"));
+
+        //unchanged values are still served from the cache
+        final int calls = cached.m_calls;
+        assertEquals(6, GetProperties(null).getJSONObject("objects").getJSONObject("cached").getInt("Value"));
+        assertEquals(calls, cached.m_calls);
+    }
+
+    @Test
+    public void MarkAllChangedReportsEveryProperty() throws IOException, SjsmpServerException
+    {
+        final String token = GetProperties(null).getString("token");
+        m_server.MarkAllChanged(m_first);
+
+        final JSONObject objects = GetProperties(token).getJSONObject("objects");
+        assertEquals(1, objects.length());
+        assertEquals(2, objects.getJSONObject("first").length());
+    }
+
+    @Test
+    public void TokenOfAnotherServerGivesFullDump() throws IOException
+    {
+        final String token = GetProperties(null).getString("token");
+        //epochs are hexadecimal, so this one can not be ours
+        final JSONObject objects = GetProperties("other" + token.substring(token.indexOf('.'))).getJSONObject("objects");
+        assertEquals(2, objects.length());
+        assertEquals(2, objects.getJSONObject("first").length());
+    }
+
+    @Test
+    public void MalformedTokenIsRejected() throws IOException
+    {
+        final String epoch = GetProperties(null).getString("token").split("\\.")[0];
+        for (final String token : new String[] { "nodot", epoch + ".", epoch + ".x", epoch + ".-1" })
+        {
+            final JSONObject response = Send(new JSONObject().put("request_id", "1").put("action", "get_properties").put("since", token));
+            assertEquals(token, "error", response.getString("result"));
+        }
+    }
+}
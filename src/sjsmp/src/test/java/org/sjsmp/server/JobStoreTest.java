@@ -0,0 +1,49 @@
+package org.sjsmp.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+
+import org.json.JSONObject;
+import org.junit.Test;
+
+public class JobStoreTest
+{
+    private static JSONObject Written(final JobStore.Job job)
+    {
+        final JsonWriter writer = new JsonWriter(16);
+        writer.BeginObject();
+        job.Write(writer);
+        writer.EndObject();
+        return new JSONObject(new String(writer.ToByteArray(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void ErrorFailsTheJob() throws InterruptedException
+    {
+        try (final JobStore store = new JobStore(Executors.newSingleThreadExecutor(), 10, 60000))
+        {
+            final JobStore.Job job = store.Submit("object", "action", new Callable<Object>()
+            {
+                @Override
+                public Object call()
+                {
+                    throw new AssertionError("broken");
+                }
+            });
+            final long deadline = System.currentTimeMillis() + 5000;
+            while (Written(job).getString("state").equals(JobStore.STATE_RUNNING))
+            {
+                assertTrue("job is still running", System.currentTimeMillis() < deadline);
+                Thread.sleep(10);
+            }
+            final JSONObject written = Written(job);
+            assertEquals(JobStore.STATE_FAILED, written.getString("state"));
+            assertEquals("broken", written.getString("message"));
+            assertTrue(written.has("finished"));
+        }
+    }
+}
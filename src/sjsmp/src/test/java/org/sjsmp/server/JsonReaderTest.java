@@ -0,0 +1,184 @@
+package org.sjsmp.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.json.JSONArray;
+import org.junit.Test;
+
+public class JsonReaderTest
+{
+    private static JsonReader Reader(final String text)
+    {
+        //padding around the document checks that offset and length are honoured
+        final byte[] bytes = ("xx" + text + "yy").getBytes(StandardCharsets.UTF_8);
+        return new JsonReader(bytes, 2, bytes.length - 4);
+    }
+
+    private static void AssertMalformed(final String text)
+    {
+        try
+        {
+            Reader(text).NextValue();
+            fail("accepted " + text);
+        }
+        catch (SjsmpArgumentException ex)
+        {
+            //expected
+        }
+    }
+
+    private static String Nested(final int depth)
+    {
+        final StringBuilder text = new StringBuilder();
+        for (int i = 0; i < depth; ++i)
+        {
+            text.append('[');
+        }
+        for (int i = 0; i < depth; ++i)
+        {
+            text.append(']');
+        }
+        return text.toString();
+    }
+
+    @Test
+    public void ReadsBackWhatJsonWriterWrote() throws SjsmpArgumentException
+    {
+        final String text = "quote \" backslash \\ tab \t control \u0001 unicode \u00e9\u4e2d \ud83d\ude00";
+        final JsonWriter writer = new JsonWriter(16);
+        writer.BeginObject();
+        writer.Name("string");
+        writer.Value(text);
+        writer.Name("numbers");
+        writer.BeginArray();
+        writer.Value(-42);
+        writer.Value(Long.MIN_VALUE);
+        writer.Value(0.1);
+        writer.Value(-2.5e-7);
+        writer.EndArray();
+        writer.Name("flags");
+        writer.BeginObject();
+        writer.Name("on");
+        writer.Value(true);
+        writer.Name("off");
+        writer.Value(false);
+        writer.Name("none");
+        writer.Null();
+        writer.EndObject();
+        writer.EndObject();
+        final byte[] bytes = writer.ToByteArray();
+
+        final JsonReader reader = new JsonReader(bytes, 0, bytes.length);
+        @SuppressWarnings("unchecked")
+        final Map<String, Object> map = (Map<String, Object>)reader.NextValue();
+        assertTrue(reader.IsEnd());
+        assertEquals(text, map.get("string"));
+        assertEquals(Arrays.<Object>asList(-42, Long.MIN_VALUE, 0.1, -2.5e-7), map.get("numbers"));
+        @SuppressWarnings("unchecked")
+        final Map<String, Object> flags = (Map<String, Object>)map.get("flags");
+        assertEquals(Boolean.TRUE, flags.get("on"));
+        assertEquals(Boolean.FALSE, flags.get("off"));
+        assertTrue(flags.containsKey("none"));
+        assertNull(flags.get("none"));
+    }
+
+    @Test
+    public void NumberTypesMatchOrgJson() throws SjsmpArgumentException
+    {
+        final String[] numbers = { "0", "-7", "2147483647", "2147483648", "-2147483649", "9223372036854775807", "-9223372036854775808", "1.5", "-0.25", "1e3", "2E-2" };
+        for (final String number : numbers)
+        {
+            final Object expected = new JSONArray("[" + number + "]").get(0);
+            final Object actual = Reader(number).NextValue();
+            assertEquals(number, expected.getClass(), actual.getClass());
+            assertEquals(number, expected, actual);
+        }
+    }
+
+    @Test
+    public void WalksAndSkipsMembers() throws SjsmpArgumentException
+    {
+        final JsonReader reader = Reader(" { \"skip\" : { \"a\" : [1, \"}\", {\"b\": null}] }, \"name\" : \"value\", \"n\" : 12 , \"list\": [] } ");
+        reader.BeginObject();
+        assertTrue(reader.HasNext());
+        assertEquals("skip", reader.NextName());
+        assertEquals('{', reader.Peek());
+        reader.SkipValue();
+        assertTrue(reader.HasNext());
+        assertEquals("name", reader.NextName());
+        assertEquals('"', reader.Peek());
+        assertEquals("value", reader.NextString());
+        assertTrue(reader.HasNext());
+        assertEquals("n", reader.NextName());
+        assertEquals('0', reader.Peek());
+        assertEquals(12, reader.NextValue());
+        assertTrue(reader.HasNext());
+        assertEquals("list", reader.NextName());
+        reader.BeginArray();
+        assertFalse(reader.HasNext());
+        reader.EndArray();
+        assertFalse(reader.HasNext());
+        reader.EndObject();
+        assertTrue(reader.IsEnd());
+    }
+
+    @Test(expected = SjsmpArgumentException.class)
+    public void NextStringRejectsOtherValues() throws SjsmpArgumentException
+    {
+        Reader("12").NextString();
+    }
+
+    @Test
+    public void MalformedInputIsRejected()
+    {
+        final String[] texts = { "", "{", "[1,]", "[1 2]", "{\"a\" 1}", "{1:2}", "{\"a\":1,}", "\"abc", "\"bad \\x escape\"", "\"\\u12\"",
+            "tru", "nul", "-", "1.", "1e", "+1", "'a'", "]" };
+        for (final String text : texts)
+        {
+            AssertMalformed(text);
+        }
+    }
+
+    @Test
+    public void BadUtf8IsRejected()
+    {
+        final byte[] bytes = { '"', (byte)0xC3, 'a', '"' };
+        try
+        {
+            new JsonReader(bytes, 0, bytes.length).NextValue();
+            fail();
+        }
+        catch (SjsmpArgumentException ex)
+        {
+            //expected
+        }
+    }
+
+    @Test
+    public void NestingIsLimited() throws SjsmpArgumentException
+    {
+        final List<?> list = (List<?>)Reader(Nested(64)).NextValue();
+        assertEquals(1, list.size());
+        Reader(Nested(64)).SkipValue();
+
+        AssertMalformed(Nested(65));
+        try
+        {
+            Reader(Nested(65)).SkipValue();
+            fail();
+        }
+        catch (SjsmpArgumentException ex)
+        {
+            //expected
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package org.sjsmp.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Test;
+
+public class JsonWriterTest
+{
+    private static String Written(final JsonWriter writer)
+    {
+        return new String(writer.ToByteArray(), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void ValuesReadBackByOrgJson()
+    {
+        final String text = "quote \" backslash \\ slash / tab \t newline \n control \u0001 unicode \u00e9\u4e2d \ud83d\ude00 end";
+        final JsonWriter writer = new JsonWriter(16);
+        writer.BeginObject();
+        writer.Name("string");
+        writer.Value(text);
+        writer.Name("int");
+        writer.Value(-42);
+        writer.Name("longMin");
+        writer.Value(Long.MIN_VALUE);
+        writer.Name("longMax");
+        writer.Value(Long.MAX_VALUE);
+        writer.Name("double");
+        writer.Value(0.1);
+        writer.Name("big");
+        writer.Value(1.5e20);
+        writer.Name("small");
+        writer.Value(-2.5e-7);
+        writer.Name("float");
+        writer.Value(0.25f);
+        writer.Name("true");
+        writer.Value(true);
+        writer.Name("null");
+        writer.Null();
+        writer.Name("array");
+        writer.BeginArray();
+        writer.Value(1);
+        writer.Value("two");
+        writer.BeginObject();
+        writer.EndObject();
+        writer.EndArray();
+        writer.EndObject();
+
+        final JSONObject json = new JSONObject(Written(writer));
+        assertEquals(text, json.getString("string"));
+        assertEquals(-42, json.getInt("int"));
+        assertEquals(Long.MIN_VALUE, json.getLong("longMin"));
+        assertEquals(Long.MAX_VALUE, json.getLong("longMax"));
+        assertEquals(0.1, json.getDouble("double"), 0);
+        assertEquals(1.5e20, json.getDouble("big"), 0);
+        assertEquals(-2.5e-7, json.getDouble("small"), 0);
+        assertEquals(0.25, json.getDouble("float"), 0);
+        assertTrue(json.getBoolean("true"));
+        assertTrue(json.isNull("null"));
+        final JSONArray array = json.getJSONArray("array");
+        assertEquals(3, array.length());
+        assertEquals(1, array.getInt(0));
+        assertEquals("two", array.getString(1));
+        assertEquals(0, array.getJSONObject(2).length());
+    }
+
+    @Test
+    public void ObjectValuesWrittenAsOrgJsonWould()
+    {
+        final Object[] values = { "s", 7, 7L, (short)3, (byte)-1, 2.5, 2.5f, 100.0, false, Arrays.asList(1, "a"), Collections.singletonMap("k", 1), new int[] { 1, 2 } };
+        for (final Object value : values)
+        {
+            final JsonWriter writer = new JsonWriter(16);
+            writer.BeginObject();
+            writer.Name("v");
+            writer.Value(value);
+            writer.EndObject();
+            assertEquals(String.valueOf(value), new JSONObject().put("v", value).toString(), Written(writer));
+        }
+    }
+
+    @Test
+    public void NaNAndInfinityAreWrittenAsNull()
+    {
+        //org.json refuses these values; a getter returning one must not fail the whole response
+        final JsonWriter writer = new JsonWriter(16);
+        writer.BeginArray();
+        writer.Value(Double.NaN);
+        writer.Value(Double.POSITIVE_INFINITY);
+        writer.Value(Double.NEGATIVE_INFINITY);
+        writer.Value(Float.NaN);
+        writer.Value(Float.POSITIVE_INFINITY);
+        writer.Value((Object)Double.NaN);
+        writer.Value((Object)Float.NEGATIVE_INFINITY);
+        writer.EndArray();
+        assertEquals("[null,null,null,null,null,null,null]", Written(writer));
+    }
+
+    @Test
+    public void IntegralDoublesWrittenWithoutFraction()
+    {
+        final JsonWriter writer = new JsonWriter(16);
+        writer.BeginArray();
+        writer.Value(3.0);
+        writer.Value(-0.0);
+        writer.Value(1e7);
+        writer.EndArray();
+        final JSONArray array = new JSONArray(Written(writer));
+        assertEquals("3", array.get(0).toString());
+        assertEquals(-0.0, array.getDouble(1), 0);
+        assertEquals(1e7, array.getDouble(2), 0);
+    }
+
+    @Test
+    public void EndTopLevelValueSeparatesValues()
+    {
+        final JsonWriter writer = new JsonWriter(16);
+        writer.BeginObject();
+        writer.EndObject();
+        final int first = writer.Length();
+        writer.EndTopLevelValue();
+        writer.BeginObject();
+        writer.Name("a");
+        writer.Value(1);
+        writer.EndObject();
+        final String written = Written(writer);
+        assertEquals("{}", written.substring(0, first));
+        assertEquals("{\"a\":1}", written.substring(first));
+    }
+
+    @Test
+    public void ReleasedWriterIsReused()
+    {
+        final JsonWriter writer = JsonWriter.Acquire();
+        writer.Value("x");
+        JsonWriter.Release(writer);
+        final JsonWriter again = JsonWriter.Acquire();
+        assertTrue(again == writer);
+        assertEquals(0, again.Length());
+        JsonWriter.Release(again);
+    }
+}
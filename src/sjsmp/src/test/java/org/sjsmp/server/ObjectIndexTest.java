@@ -0,0 +1,184 @@
+package org.sjsmp.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+public class ObjectIndexTest
+{
+    public static final class Item
+    {
+        @SjsmpProperty("value")
+        public int getValue()
+        {
+            return 1;
+        }
+    }
+
+    private static ObjectDescription Add(final ObjectIndex index, final String name, final String group) throws SjsmpServerException
+    {
+        final ObjectDescription descr = new ObjectDescription(new Item(), name, "", group, new ClassDescription(Item.class));
+        index.Add(descr);
+        return descr;
+    }
+
+    private static List<String> Names(final ObjectIndex.Page page)
+    {
+        final List<String> names = new ArrayList<>();
+        for (final ObjectDescription descr : page.objects)
+        {
+            names.add(descr.name);
+        }
+        return names;
+    }
+
+    private static List<String> AllPages(final ObjectIndex index, final String group, final String prefix, final String glob, final int limit)
+    {
+        final List<String> names = new ArrayList<>();
+        String cursor = null;
+        do
+        {
+            final ObjectIndex.Page page = index.Query(group, prefix, glob, cursor, limit);
+            assertTrue(page.objects.size() <= limit);
+            names.addAll(Names(page));
+            cursor = page.nextCursor;
+        }
+        while (cursor != null);
+        return names;
+    }
+
+    @Test
+    public void PagesCoverAllObjectsOnce() throws SjsmpServerException
+    {
+        final ObjectIndex index = new ObjectIndex();
+        final List<String> expected = new ArrayList<>();
+        for (int i = 24; i >= 0; --i)
+        {
+            Add(index, String.format("obj%02d", i), null);
+        }
+        for (int i = 0; i < 25; ++i)
+        {
+            expected.add(String.format("obj%02d", i));
+        }
+
+        assertEquals(expected, Names(index.Query(null, null, null, null, 0)));
+        assertEquals(expected, AllPages(index, null, null, null, 7));
+        assertEquals(expected, AllPages(index, null, null, null, 1));
+
+        final ObjectIndex.Page first = index.Query(null, null, null, null, 7);
+        assertEquals(expected.subList(0, 7), Names(first));
+        assertEquals("obj06", first.nextCursor);
+    }
+
+    @Test
+    public void LastFullPageHasNoCursor() throws SjsmpServerException
+    {
+        final ObjectIndex index = new ObjectIndex();
+        for (int i = 0; i < 6; ++i)
+        {
+            Add(index, "obj" + i, null);
+        }
+        final ObjectIndex.Page first = index.Query(null, null, null, null, 3);
+        assertEquals("obj2", first.nextCursor);
+        final ObjectIndex.Page second = index.Query(null, null, null, first.nextCursor, 3);
+        assertEquals(Arrays.asList("obj3", "obj4", "obj5"), Names(second));
+        assertNull(second.nextCursor);
+    }
+
+    @Test
+    public void CursorSurvivesRemovalOfItsObject() throws SjsmpServerException
+    {
+        final ObjectIndex index = new ObjectIndex();
+        final List<ObjectDescription> added = new ArrayList<>();
+        for (int i = 0; i < 6; ++i)
+        {
+            added.add(Add(index, "obj" + i, null));
+        }
+        final ObjectIndex.Page first = index.Query(null, null, null, null, 3);
+        index.Remove(added.get(2));
+        assertEquals(Arrays.asList("obj3", "obj4", "obj5"), Names(index.Query(null, null, null, first.nextCursor, 3)));
+    }
+
+    @Test
+    public void PrefixSelectsRange() throws SjsmpServerException
+    {
+        final ObjectIndex index = new ObjectIndex();
+        for (final String name : new String[] { "a", "b.1", "b.2", "b.3", "b", "ba", "c.1" })
+        {
+            Add(index, name, null);
+        }
+        assertEquals(Arrays.asList("b.1", "b.2", "b.3"), Names(index.Query(null, "b.", null, null, 0)));
+        assertEquals(Arrays.asList("b.1", "b.2", "b.3"), AllPages(index, null, "b.", null, 2));
+        assertEquals(Arrays.asList("b", "b.1", "b.2", "b.3", "ba"), Names(index.Query(null, "b", null, null, 0)));
+        assertTrue(index.Query(null, "d", null, null, 0).objects.isEmpty());
+        //a cursor before the prefix range starts at the range
+        assertEquals(Arrays.asList("b.1", "b.2", "b.3"), Names(index.Query(null, "b.", null, "a", 0)));
+    }
+
+    @Test
+    public void GlobMatchesNames() throws SjsmpServerException
+    {
+        final ObjectIndex index = new ObjectIndex();
+        for (final String name : new String[] { "pool.1", "pool.12", "pool.2", "queue.1", "x(1)" })
+        {
+            Add(index, name, null);
+        }
+        assertEquals(Arrays.asList("pool.1", "pool.12", "pool.2"), Names(index.Query(null, null, "pool.*", null, 0)));
+        assertEquals(Arrays.asList("pool.1", "pool.2"), Names(index.Query(null, null, "pool.?", null, 0)));
+        assertEquals(Arrays.asList("pool.1", "queue.1"), Names(index.Query(null, null, "*.1", null, 0)));
+        assertEquals(Arrays.asList("pool.12"), Names(index.Query(null, null, "pool.12", null, 0)));
+        //regex characters are literal
+        assertEquals(Arrays.asList("x(1)"), Names(index.Query(null, null, "x(?)", null, 0)));
+        assertEquals(Arrays.asList("pool.1", "pool.12", "queue.1", "x(1)"), AllPages(index, null, null, "*1*", 1));
+    }
+
+    @Test
+    public void PrefixAndGlobAreCombined() throws SjsmpServerException
+    {
+        final ObjectIndex index = new ObjectIndex();
+        for (final String name : new String[] { "pool.1", "pool.12", "pool.2", "queue.1" })
+        {
+            Add(index, name, null);
+        }
+        assertEquals(Arrays.asList("pool.1", "pool.2"), Names(index.Query(null, "pool", "pool.?", null, 0)));
+        assertEquals(Arrays.asList("pool.12"), Names(index.Query(null, "pool.1", "*2", null, 0)));
+        assertTrue(index.Query(null, "queue", "pool.*", null, 0).objects.isEmpty());
+    }
+
+    @Test
+    public void GroupsAreIndexedSeparately() throws SjsmpServerException
+    {
+        final ObjectIndex index = new ObjectIndex();
+        final ObjectDescription a1 = Add(index, "a1", "a");
+        Add(index, "a2", "a");
+        Add(index, "b1", "b");
+        Add(index, "none", null);
+
+        assertEquals(Arrays.asList("a1", "a2"), Names(index.Query("a", null, null, null, 0)));
+        assertEquals(Arrays.asList("a1", "a2"), AllPages(index, "a", null, null, 1));
+        assertEquals(Arrays.asList("b1"), Names(index.Query("b", null, null, null, 0)));
+        assertTrue(index.Query("missing", null, null, null, 0).objects.isEmpty());
+        assertEquals(4, index.Query(null, null, null, null, 0).objects.size());
+
+        index.Remove(a1);
+        assertEquals(Arrays.asList("a2"), Names(index.Query("a", null, null, null, 0)));
+        assertEquals(3, index.Query(null, null, null, null, 0).objects.size());
+    }
+
+    @Test
+    public void RemovingReplacedObjectKeepsTheNewOne() throws SjsmpServerException
+    {
+        final ObjectIndex index = new ObjectIndex();
+        final ObjectDescription old = Add(index, "name", "g");
+        final ObjectDescription replacement = Add(index, "name", "g");
+        index.Remove(old);
+        assertEquals(Arrays.asList(replacement), index.Query(null, null, null, null, 0).objects);
+        assertEquals(Arrays.asList(replacement), index.Query("g", null, null, null, 0).objects);
+    }
+}
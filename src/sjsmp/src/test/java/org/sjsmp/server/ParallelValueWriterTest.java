@@ -0,0 +1,270 @@
+package org.sjsmp.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Test;
+
+public class ParallelValueWriterTest
+{
+    public static final class Sleeper
+    {
+        private final int m_fastMillis;
+        private final int m_hungMillis;
+
+        Sleeper(final int fastMillis, final int hungMillis)
+        {
+            this.m_fastMillis = fastMillis;
+            this.m_hungMillis = hungMillis;
+        }
+
+        @SjsmpProperty("sleeps a little")
+        public int getFast() throws InterruptedException
+        {
+            Thread.sleep(m_fastMillis);
+            return 1;
+        }
+
+        @SjsmpProperty("sleeps a lot if hung")
+        public int getHung() throws InterruptedException
+        {
+            Thread.sleep(m_hungMillis);
+            return 2;
+        }
+
+        @SjsmpProperty("does not sleep")
+        public String getName()
+        {
+            return "sleeper";
+        }
+    }
+
+    private final ExecutorService m_executor = Executors.newCachedThreadPool();
+
+    @After
+    public void Stop()
+    {
+        m_executor.shutdownNow();
+    }
+
+    private static ThreadPoolExecutor FixedPool(final int threads)
+    {
+        return new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+    }
+
+    private static ObjectDescription Describe(final String name, final Sleeper sleeper) throws SjsmpServerException
+    {
+        return new ObjectDescription(sleeper, name, "", null, new ClassDescription(Sleeper.class));
+    }
+
+    private static final class Result
+    {
+        JSONObject objects;
+        Map<String, List<String>> timeouts;
+        long millis;
+    }
+
+    private static Result Write(final ParallelValueWriter parallel, final List<ObjectDescription> objects) throws SjsmpServerException
+    {
+        final Result result = new Result();
+        final JsonWriter writer = new JsonWriter(256);
+        final long start = System.nanoTime();
+        writer.BeginObject();
+        result.timeouts = parallel.Write(objects, -1, null, writer);
+        writer.EndObject();
+        result.millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        result.objects = new JSONObject(new String(writer.ToByteArray(), StandardCharsets.UTF_8));
+        return result;
+    }
+
+    @Test
+    public void HealthyGettersAreNeverReported() throws SjsmpServerException
+    {
+        //the whole dump takes several timeouts, every single getter is well within one
+        final List<ObjectDescription> objects = new ArrayList<>();
+        for (int i = 0; i < 30; ++i)
+        {
+            objects.add(Describe("o" + i, new Sleeper(15, 0)));
+        }
+        final Result result = Write(new ParallelValueWriter(m_executor, 2, 100, 60), objects);
+
+        assertNull(String.valueOf(result.timeouts), result.timeouts);
+        assertTrue(String.valueOf(result.millis), result.millis > 200);
+        assertEquals(30, result.objects.length());
+        for (int i = 0; i < 30; ++i)
+        {
+            final JSONObject values = result.objects.getJSONObject("o" + i);
+            assertEquals(1, values.getInt("Fast"));
+            assertEquals(2, values.getInt("Hung"));
+            assertEquals("sleeper", values.getString("Name"));
+        }
+        for (final ObjectDescription descr : objects)
+        {
+            assertFalse(descr.HasSlow(System.nanoTime()));
+        }
+    }
+
+    @Test
+    public void LateGetterIsReportedMarkedAndSkipped() throws SjsmpServerException
+    {
+        final List<ObjectDescription> objects = new ArrayList<>();
+        for (int i = 0; i < 10; ++i)
+        {
+            objects.add(Describe("o" + i, new Sleeper(5, 0)));
+        }
+        final ObjectDescription hung = Describe("hung", new Sleeper(5, 2000));
+        objects.add(3, hung);
+        final ParallelValueWriter parallel = new ParallelValueWriter(m_executor, 2, 100, 60);
+
+        final Result first = Write(parallel, objects);
+        assertEquals(Collections.singletonMap("hung", Arrays.asList("Hung")), first.timeouts);
+        assertTrue(String.valueOf(first.millis), first.millis < 1000);
+        assertEquals(11, first.objects.length());
+        //the rest of the late object is still written
+        final JSONObject values = first.objects.getJSONObject("hung");
+        assertFalse(values.has("Hung"));
+        assertEquals(1, values.getInt("Fast"));
+        assertEquals("sleeper", values.getString("Name"));
+        assertTrue(hung.IsSlow(hung.PropertyIndex("Hung"), System.nanoTime()));
+        assertFalse(hung.IsSlow(hung.PropertyIndex("Fast"), System.nanoTime()));
+
+        //the slow getter is not called again while it is skipped
+        final Result second = Write(parallel, objects);
+        assertEquals(Collections.singletonMap("hung", Arrays.asList("Hung")), second.timeouts);
+        assertTrue(String.valueOf(second.millis), second.millis < 500);
+        assertEquals(1, second.objects.getJSONObject("hung").getInt("Fast"));
+    }
+
+    @Test
+    public void WithoutSkipLateGetterIsNotMarked() throws SjsmpServerException
+    {
+        final ObjectDescription hung = Describe("hung", new Sleeper(0, 1000));
+        final Result result = Write(new ParallelValueWriter(m_executor, 1, 100, 0), Collections.singletonList(hung));
+        assertEquals(Collections.singletonMap("hung", Arrays.asList("Hung")), result.timeouts);
+        assertFalse(hung.HasSlow(System.nanoTime()));
+        assertEquals("sleeper", result.objects.getJSONObject("hung").getString("Name"));
+    }
+
+    @Test
+    public void WaitingForAThreadIsNotLate() throws SjsmpServerException
+    {
+        final ExecutorService pool = FixedPool(1);
+        try
+        {
+            pool.submit(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    try
+                    {
+                        Thread.sleep(300);
+                    }
+                    catch (InterruptedException ex)
+                    {
+                        //stopped by the test
+                    }
+                }
+            });
+            final ObjectDescription descr = Describe("waiting", new Sleeper(0, 0));
+            final Result result = Write(new ParallelValueWriter(pool, 1, 100, 60), Collections.singletonList(descr));
+            assertNull(String.valueOf(result.timeouts), result.timeouts);
+            assertEquals(3, result.objects.getJSONObject("waiting").length());
+            assertTrue(String.valueOf(result.millis), result.millis >= 250);
+            assertFalse(descr.HasSlow(System.nanoTime()));
+        }
+        finally
+        {
+            pool.shutdownNow();
+        }
+    }
+
+    @Test
+    public void ConcurrentDumpsShareThePool() throws Exception
+    {
+        //two requests queue behind each other for a pool that is busy for several timeouts
+        final ExecutorService pool = FixedPool(2);
+        final ParallelValueWriter parallel = new ParallelValueWriter(pool, 2, 200, 60);
+        final List<ObjectDescription> objects = new ArrayList<>();
+        for (int i = 0; i < 20; ++i)
+        {
+            objects.add(Describe("o" + i, new Sleeper(50, 0)));
+        }
+        final ExecutorService requests = Executors.newFixedThreadPool(2);
+        try
+        {
+            final List<Future<Result>> results = new ArrayList<>();
+            for (int r = 0; r < 2; ++r)
+            {
+                results.add(requests.submit(new Callable<Result>()
+                {
+                    @Override
+                    public Result call() throws SjsmpServerException
+                    {
+                        return Write(parallel, objects);
+                    }
+                }));
+            }
+            for (final Future<Result> future : results)
+            {
+                final Result result = future.get();
+                assertNull(String.valueOf(result.timeouts), result.timeouts);
+                assertEquals(20, result.objects.length());
+                assertEquals(1, result.objects.getJSONObject("o19").getInt("Fast"));
+            }
+        }
+        finally
+        {
+            requests.shutdownNow();
+            pool.shutdownNow();
+        }
+    }
+
+    @Test
+    public void LateGetterDoesNotKeepItsPoolThread() throws SjsmpServerException, InterruptedException
+    {
+        final ThreadPoolExecutor pool = FixedPool(1);
+        try
+        {
+            final List<ObjectDescription> objects = Arrays.asList(
+                Describe("hung", new Sleeper(0, 1000)), Describe("a", new Sleeper(0, 0)), Describe("b", new Sleeper(0, 0)));
+            final Result result = Write(new ParallelValueWriter(pool, 1, 100, 60), objects);
+            assertEquals(Collections.singletonMap("hung", Arrays.asList("Hung")), result.timeouts);
+            assertEquals(3, result.objects.length());
+            //the rest is written by a thread added for the hung getter, not after it returns
+            assertTrue(String.valueOf(result.millis), result.millis < 600);
+            assertEquals(2, pool.getCorePoolSize());
+
+            //the thread is given back when the getter returns
+            final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (pool.getCorePoolSize() != 1 && System.nanoTime() < deadline)
+            {
+                Thread.sleep(10);
+            }
+            assertEquals(1, pool.getCorePoolSize());
+            assertEquals(1, pool.getMaximumPoolSize());
+        }
+        finally
+        {
+            pool.shutdownNow();
+        }
+    }
+}
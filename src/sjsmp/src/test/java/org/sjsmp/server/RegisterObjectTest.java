@@ -0,0 +1,88 @@
+package org.sjsmp.server;
+
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class RegisterObjectTest
+{
+    private SjsmpServer m_server;
+
+    @Before
+    public void Start() throws IOException
+    {
+        final int port;
+        try (ServerSocket socket = new ServerSocket(0))
+        {
+            port = socket.getLocalPort();
+        }
+        m_server = new SjsmpServer("test", "registration test", "tests", port, port, null, null);
+    }
+
+    @After
+    public void Stop()
+    {
+        m_server.close();
+    }
+
+    @Test
+    public void NullObjectIsRejectedByEveryOverload()
+    {
+        try
+        {
+            m_server.RegisterObject(null);
+            fail();
+        }
+        catch (SjsmpServerException ex)
+        {
+            //expected
+        }
+        try
+        {
+            m_server.RegisterObject(null, "description");
+            fail();
+        }
+        catch (SjsmpServerException ex)
+        {
+            //expected
+        }
+        try
+        {
+            m_server.RegisterObject(null, "name", "description");
+            fail();
+        }
+        catch (SjsmpServerException ex)
+        {
+            //expected
+        }
+    }
+
+    @Test(expected = SjsmpServerException.class)
+    public void NullNameIsRejected() throws SjsmpServerException
+    {
+        m_server.RegisterObject(new Object(), null, "description");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void RegistrationOfNullObjectIsRejected()
+    {
+        new SjsmpServer.Registration(null);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void RegistrationWithDescriptionOfNullObjectIsRejected()
+    {
+        new SjsmpServer.Registration(null, "description");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void RegistrationWithNullNameIsRejected()
+    {
+        new SjsmpServer.Registration(new Object(), null, "description");
+    }
+}